@@ -0,0 +1,125 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A {@link VisitedSet} backed by a Bloom filter, a fixed array of bits sized
+ * for how many urls are expected and how often a new url can be taken for one
+ * already seen. At 1% that is under 10 bits a url. A url that was added is
+ * always found, but a new url is skipped at about the false positive rate, and
+ * more often once more urls than expected are added.
+ * <p>
+ * The bits can live off the heap, where they don't add to garbage collection work.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class BloomVisitedSet implements VisitedSet {
+    // A direct buffer is indexed by an int number of bytes
+    private static final long MAX_BITS = (long) Integer.MAX_VALUE / Long.BYTES * Long.SIZE;
+
+    private final LongBuffer bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final double falsePositiveRate;
+    private long size;
+
+    /**
+     * @param expected how many urls the crawl should see
+     * @param falsePositiveRate how often a new url may be skipped, like 0.01
+     * @param offHeap keeps the bits in a direct buffer
+     */
+    public BloomVisitedSet(final long expected, final double falsePositiveRate, final boolean offHeap) {
+        if (expected < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("A Bloom filter needs at least one url and a rate between 0 and 1");
+        }
+        final double ln2 = Math.log(2);
+        final long wanted = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+        if (wanted > MAX_BITS) {
+            throw new IllegalArgumentException(String.format(
+                    "A Bloom filter for %d urls at %s needs more than %d bits", expected, falsePositiveRate, MAX_BITS));
+        }
+        final int words = (int) Math.max(1, (wanted + Long.SIZE - 1) / Long.SIZE);
+        this.bits = offHeap
+                ? ByteBuffer.allocateDirect(words * Long.BYTES).asLongBuffer()
+                : LongBuffer.allocate(words);
+        this.bitCount = (long) words * Long.SIZE;
+        this.hashCount = (int) Math.max(1, Math.min(30, Math.round((double) this.bitCount / expected * ln2)));
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    public synchronized boolean add(final UrlHelpers.UrlKey key) {
+        final long fingerprint = key.fingerprint();
+        final long step = stepOf(fingerprint);
+        boolean added = false;
+        for (int i = 0; i < this.hashCount; i++) {
+            final long bit = Math.floorMod(fingerprint + i * step, this.bitCount);
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            final long current = this.bits.get(word);
+            if ((current & mask) == 0) {
+                this.bits.put(word, current | mask);
+                added = true;
+            }
+        }
+        if (added) {
+            this.size++;
+        }
+        return added;
+    }
+
+    @Override
+    public synchronized boolean contains(final UrlHelpers.UrlKey key) {
+        final long fingerprint = key.fingerprint();
+        final long step = stepOf(fingerprint);
+        for (int i = 0; i < this.hashCount; i++) {
+            final long bit = Math.floorMod(fingerprint + i * step, this.bitCount);
+            if ((this.bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * How many urls were added and taken as new, which undercounts by the urls
+     * that were mistaken for ones already seen
+     */
+    @Override
+    public synchronized long size() {
+        return this.size;
+    }
+
+    /**
+     * The false positive rate the filter was sized for
+     */
+    public double getFalsePositiveRate() {
+        return this.falsePositiveRate;
+    }
+
+    /**
+     * How many bits each url is checked against
+     */
+    public int getHashCount() {
+        return this.hashCount;
+    }
+
+    /**
+     * How many bytes the bits take up
+     */
+    public long getTableBytes() {
+        return this.bitCount / Byte.SIZE;
+    }
+
+    /**
+     * A second hash from the same fingerprint, the bits are spread out with
+     * double hashing rather than working out k separate hashes
+     */
+    private static long stepOf(final long fingerprint) {
+        long h = fingerprint * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 29;
+        return h | 1;
+    }
+}
@@ -0,0 +1,88 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Wraps a transport so requests go through the {@link CircuitBreaker} for their
+ * origin. Requests to an open breaker fail with a {@link CircuitOpenException}
+ * without being sent, the rest are timed up to their response and recorded.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class BreakerTransport implements HttpTransport {
+    private final HttpTransport delegate;
+    private final CircuitBreakers breakers;
+
+    BreakerTransport(final HttpTransport delegate, final CircuitBreakers breakers) {
+        this.delegate = delegate;
+        this.breakers = breakers;
+    }
+
+    @Override
+    public String getName() {
+        return this.delegate.getName();
+    }
+
+    @Override
+    public HttpTransportResponse execute(final HttpTransportRequest request) throws IOException {
+        final CircuitBreaker breaker = acquire(request);
+        final long start = System.nanoTime();
+        try {
+            final HttpTransportResponse response = this.delegate.execute(request);
+            record(breaker, start, response, null);
+            return response;
+        } catch (final IOException | RuntimeException e) {
+            record(breaker, start, null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<HttpTransportResponse> executeAsync(final HttpTransportRequest request,
+            final Executor executor) {
+        final CircuitBreaker breaker;
+        try {
+            breaker = acquire(request);
+        } catch (final CircuitOpenException e) {
+            final CompletableFuture<HttpTransportResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        final long start = System.nanoTime();
+        final CompletableFuture<HttpTransportResponse> sent;
+        try {
+            sent = this.delegate.executeAsync(request, executor);
+        } catch (final RuntimeException e) {
+            record(breaker, start, null, e);
+            throw e;
+        }
+        return sent.whenComplete((response, error) -> record(breaker, start, response,
+                error instanceof CompletionException && null != error.getCause() ? error.getCause() : error));
+    }
+
+    private CircuitBreaker acquire(final HttpTransportRequest request) throws CircuitOpenException {
+        final String origin = UrlHelpers.originOf(request.getUrl());
+        final CircuitBreaker breaker = this.breakers.breakerFor(origin);
+        if (!breaker.tryAcquire()) {
+            request.debug("Circuit breaker for " + origin + " is open");
+            throw new CircuitOpenException(origin, breaker.getRetryInMillis());
+        }
+        return breaker;
+    }
+
+    private static void record(final CircuitBreaker breaker, final long start, final HttpTransportResponse response,
+            final Throwable error) {
+        if (error instanceof CancellationException) {
+            // We gave up on it, so it says nothing about the origin
+            breaker.onIgnored();
+        } else {
+            final boolean failed = null != error || response.getResponseCode() >= 500;
+            breaker.onResult(failed, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small bounded pool of fixed size byte arrays. Readers borrow a buffer,
+ * do bulk reads into it and hand it back so that large bodies don't churn
+ * through short lived arrays.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class BufferPool {
+    /** The size of the buffers handed out by the shared pool */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    /** The most buffers the shared pool will hold on to */
+    public static final int DEFAULT_MAX_POOLED = 64;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED);
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> buffers;
+
+    /**
+     * Creates a pool
+     *
+     * @param bufferSize the size of every buffer in this pool
+     * @param maxPooled the most idle buffers to keep, extra buffers are left for the GC
+     */
+    public BufferPool(final int bufferSize, final int maxPooled) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+        if (maxPooled <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * The pool shared by everything in this bundle
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Borrows a buffer, allocating one if the pool is empty
+     */
+    public byte[] acquire() {
+        final byte[] buffer = this.buffers.poll();
+        return null == buffer ? new byte[this.bufferSize] : buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. Buffers that did not come from this pool
+     * are ignored.
+     *
+     * @param buffer
+     */
+    public void release(final byte[] buffer) {
+        if (null != buffer && buffer.length == this.bufferSize) {
+            this.buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * The size of the buffers in this pool
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * How many idle buffers are currently pooled
+     */
+    public int getPooledCount() {
+        return this.buffers.size();
+    }
+}
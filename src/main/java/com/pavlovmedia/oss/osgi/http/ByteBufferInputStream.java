@@ -0,0 +1,48 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a buffer from its position to its limit, moving its position along
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return this.buffer.hasRemaining() ? this.buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!this.buffer.hasRemaining()) {
+            return -1;
+        }
+        final int count = Math.min(len, this.buffer.remaining());
+        this.buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) {
+        final int count = (int) Math.max(0, Math.min(n, this.buffer.remaining()));
+        this.buffer.position(this.buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return this.buffer.remaining();
+    }
+}
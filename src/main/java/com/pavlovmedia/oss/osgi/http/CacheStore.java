@@ -0,0 +1,40 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.Optional;
+
+/**
+ * Where an {@link HttpCache} keeps its responses. Stores decide for themselves
+ * how much they hold and what gets evicted. They are used from many threads at
+ * once.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public interface CacheStore {
+    /**
+     * Looks up a response
+     *
+     * @param key the url of the response
+     */
+    Optional<CachedResponse> get(String key);
+
+    /**
+     * Keeps a response, replacing anything already kept under the key
+     *
+     * @param key the url of the response
+     * @param response
+     */
+    void put(String key, CachedResponse response);
+
+    /**
+     * Forgets a response, if there is one
+     *
+     * @param key the url of the response
+     */
+    void remove(String key);
+
+    /**
+     * Forgets every response
+     */
+    void clear();
+}
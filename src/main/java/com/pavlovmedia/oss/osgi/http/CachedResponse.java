@@ -0,0 +1,125 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A response kept by an {@link HttpCache}. The body is kept exactly as it came
+ * off the wire, so a compressed body is still compressed and is decoded the same
+ * way as a live one. Bodies can live on the heap or in a buffer mapped from a
+ * file, like the ones a {@link DiskCacheStore} hands out.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class CachedResponse {
+    private final String url;
+    private final int responseCode;
+    private final Map<String, List<String>> headers;
+    private final ByteBuffer body;
+    private final Map<String, String> vary;
+    private final long requestTime;
+    private final long responseTime;
+
+    /**
+     * @param url the url the response is for
+     * @param responseCode
+     * @param headers the response headers
+     * @param body the raw body, this is not copied
+     * @param vary the request headers named by Vary, lower cased, with an empty value for missing headers
+     * @param requestTime when the request that got this response was sent, in epoch milliseconds
+     * @param responseTime when the response came back, in epoch milliseconds
+     */
+    public CachedResponse(final String url, final int responseCode, final Map<String, List<String>> headers,
+            final byte[] body, final Map<String, String> vary, final long requestTime, final long responseTime) {
+        this(url, responseCode, headers, ByteBuffer.wrap(body), vary, requestTime, responseTime);
+    }
+
+    /**
+     * @param url the url the response is for
+     * @param responseCode
+     * @param headers the response headers
+     * @param body the raw body from its position to its limit, this is not copied
+     * @param vary the request headers named by Vary, lower cased, with an empty value for missing headers
+     * @param requestTime when the request that got this response was sent, in epoch milliseconds
+     * @param responseTime when the response came back, in epoch milliseconds
+     */
+    public CachedResponse(final String url, final int responseCode, final Map<String, List<String>> headers,
+            final ByteBuffer body, final Map<String, String> vary, final long requestTime, final long responseTime) {
+        this.url = Objects.requireNonNull(url);
+        this.responseCode = responseCode;
+        final HashMap<String, List<String>> copy = new HashMap<>();
+        headers.forEach((name, values) -> copy.put(name, Collections.unmodifiableList(new ArrayList<>(values))));
+        this.headers = Collections.unmodifiableMap(copy);
+        this.body = body.slice().asReadOnlyBuffer();
+        this.vary = Collections.unmodifiableMap(new HashMap<>(vary));
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+    }
+
+    public String getUrl() {
+        return this.url;
+    }
+
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    public Map<String, List<String>> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * The raw body, as a read only buffer of its own
+     */
+    public ByteBuffer getBody() {
+        return this.body.duplicate();
+    }
+
+    /**
+     * Reads the raw body
+     */
+    public InputStream openBody() {
+        return new ByteBufferInputStream(this.body.duplicate());
+    }
+
+    public int getBodyLength() {
+        return this.body.remaining();
+    }
+
+    /**
+     * The request headers this response varies on and the values they had
+     */
+    public Map<String, String> getVary() {
+        return this.vary;
+    }
+
+    public long getRequestTime() {
+        return this.requestTime;
+    }
+
+    public long getResponseTime() {
+        return this.responseTime;
+    }
+
+    /**
+     * Roughly how much heap this takes up, used to bound caches. Mapped bodies
+     * aren't on the heap so they aren't counted.
+     */
+    public long getSizeEstimate() {
+        long size = 128 + (this.body.isDirect() ? 0 : this.body.remaining()) + this.url.length() * 2L;
+        for (final Map.Entry<String, List<String>> header : this.headers.entrySet()) {
+            size += null == header.getKey() ? 0 : header.getKey().length() * 2L;
+            for (final String value : header.getValue()) {
+                size += 32 + (null == value ? 0 : value.length() * 2L);
+            }
+        }
+        return size;
+    }
+}
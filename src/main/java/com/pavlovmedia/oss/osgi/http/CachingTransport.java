@@ -0,0 +1,336 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Wraps a transport so GET requests go through an {@link HttpCache} first. Fresh
+ * hits never reach the transport, stale ones are sent as conditional requests,
+ * and storable responses are copied into the cache as the caller reads them. A
+ * response is only kept once it has been read to the end.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class CachingTransport implements HttpTransport {
+    private static final Set<HttpVerbs> UNSAFE =
+            EnumSet.of(HttpVerbs.POST, HttpVerbs.PUT, HttpVerbs.PATCH, HttpVerbs.DELETE);
+
+    private final HttpTransport delegate;
+    private final HttpCache cache;
+
+    CachingTransport(final HttpTransport delegate, final HttpCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public String getName() {
+        return this.delegate.getName();
+    }
+
+    @Override
+    public HttpTransportResponse execute(final HttpTransportRequest request) throws IOException {
+        if (request.getVerb() != HttpVerbs.GET) {
+            return invalidating(request, this.delegate.execute(request));
+        }
+        final long requestTime = System.currentTimeMillis();
+        final Optional<CachedResponse> cached = this.cache.lookup(request);
+        if (cached.isPresent() && this.cache.isFresh(cached.get(), request, requestTime)) {
+            return hit(request, cached.get(), requestTime);
+        }
+        final HttpTransportRequest sent = conditional(request, cached);
+        return afterResponse(request, sent, cached, requestTime, this.delegate.execute(sent));
+    }
+
+    @Override
+    public CompletableFuture<HttpTransportResponse> executeAsync(final HttpTransportRequest request,
+            final Executor executor) {
+        if (request.getVerb() != HttpVerbs.GET) {
+            return this.delegate.executeAsync(request, executor).thenApply(r -> invalidating(request, r));
+        }
+        final long requestTime = System.currentTimeMillis();
+        final Optional<CachedResponse> cached = this.cache.lookup(request);
+        if (cached.isPresent() && this.cache.isFresh(cached.get(), request, requestTime)) {
+            return CompletableFuture.completedFuture(hit(request, cached.get(), requestTime));
+        }
+        final HttpTransportRequest sent = conditional(request, cached);
+        return this.delegate.executeAsync(sent, executor)
+                .thenApply(response -> afterResponse(request, sent, cached, requestTime, response));
+    }
+
+    private HttpTransportResponse invalidating(final HttpTransportRequest request,
+            final HttpTransportResponse response) {
+        final int code = response.getResponseCode();
+        if (UNSAFE.contains(request.getVerb()) && code >= 200 && code < 400) {
+            this.cache.invalidate(request.getUrl());
+        }
+        return response;
+    }
+
+    private HttpTransportResponse hit(final HttpTransportRequest request, final CachedResponse cached,
+            final long now) {
+        request.debug("Serving " + cached.getUrl() + " from the cache");
+        this.cache.recordHit();
+        return new CachedTransportResponse(cached, HttpCache.currentAge(cached, now));
+    }
+
+    /**
+     * Adds validators from a stale response, unless the caller sent its own
+     */
+    private static HttpTransportRequest conditional(final HttpTransportRequest request,
+            final Optional<CachedResponse> cached) {
+        if (!cached.isPresent()
+                || request.getHeader("If-None-Match").isPresent()
+                || request.getHeader("If-Modified-Since").isPresent()) {
+            return request;
+        }
+        final Optional<String> etag = HttpHeaders.first(cached.get().getHeaders(), "ETag");
+        final Optional<String> lastModified = HttpHeaders.first(cached.get().getHeaders(), "Last-Modified");
+        if (!etag.isPresent() && !lastModified.isPresent()) {
+            return request;
+        }
+        final Map<String, List<String>> headers = new HashMap<>(request.getHeaders());
+        etag.ifPresent(e -> headers.put("If-None-Match", Collections.singletonList(e)));
+        lastModified.ifPresent(l -> headers.put("If-Modified-Since", Collections.singletonList(l)));
+        request.debug("Revalidating " + cached.get().getUrl());
+        return request.withHeaders(headers);
+    }
+
+    private HttpTransportResponse afterResponse(final HttpTransportRequest request, final HttpTransportRequest sent,
+            final Optional<CachedResponse> cached, final long requestTime, final HttpTransportResponse response) {
+        final int code = response.getResponseCode();
+        final long responseTime = System.currentTimeMillis();
+        if (code == 304 && cached.isPresent() && sent != request) {
+            response.release(true);
+            this.cache.recordRevalidated();
+            final CachedResponse refreshed = this.cache.refresh(cached.get(), response.getHeaders(),
+                    requestTime, responseTime);
+            return new CachedTransportResponse(refreshed, HttpCache.currentAge(refreshed, responseTime));
+        }
+        this.cache.recordMiss();
+        if (!this.cache.isStorable(request, code, response.getHeaders())) {
+            return response;
+        }
+        return new StoringResponse(response, this.cache.getMaxEntryBytes(),
+                () -> this.cache.spool(request, code, response.getHeaders(), requestTime, responseTime),
+                body -> this.cache.store(request, code, response.getHeaders(), body, requestTime, responseTime),
+                this.cache::storeSpooled);
+    }
+
+    /**
+     * A response served out of the cache
+     */
+    private static final class CachedTransportResponse implements HttpTransportResponse {
+        private final CachedResponse cached;
+        private final Map<String, List<String>> headers;
+
+        CachedTransportResponse(final CachedResponse cached, final long ageMillis) {
+            this.cached = cached;
+            final HashMap<String, List<String>> copy = new HashMap<>(cached.getHeaders());
+            copy.keySet().removeIf(name -> "Age".equalsIgnoreCase(name));
+            copy.put("Age", Collections.singletonList(Long.toString(TimeUnit.MILLISECONDS.toSeconds(ageMillis))));
+            this.headers = Collections.unmodifiableMap(copy);
+        }
+
+        @Override
+        public int getResponseCode() {
+            return this.cached.getResponseCode();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return this.headers;
+        }
+
+        @Override
+        public Optional<InputStream> getResponseStream() {
+            return Optional.of(this.cached.openBody());
+        }
+
+        @Override
+        public Optional<InputStream> getErrorStream() {
+            return Optional.empty();
+        }
+
+        @Override
+        public void release(final boolean reusable) {
+            // Nothing is held open
+        }
+    }
+
+    /**
+     * A live response whose body is copied into the cache as it is read
+     */
+    private static final class StoringResponse implements HttpTransportResponse {
+        private final HttpTransportResponse response;
+        private final long maxBytes;
+        private final Supplier<Optional<DiskCacheStore.Spool>> spill;
+        private final Consumer<byte[]> onComplete;
+        private final Consumer<DiskCacheStore.Spool> onSpooled;
+
+        StoringResponse(final HttpTransportResponse response, final long maxBytes,
+                final Supplier<Optional<DiskCacheStore.Spool>> spill, final Consumer<byte[]> onComplete,
+                final Consumer<DiskCacheStore.Spool> onSpooled) {
+            this.response = response;
+            this.maxBytes = maxBytes;
+            this.spill = spill;
+            this.onComplete = onComplete;
+            this.onSpooled = onSpooled;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return this.response.getResponseCode();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return this.response.getHeaders();
+        }
+
+        @Override
+        public Optional<InputStream> getResponseStream() throws IOException {
+            return this.response.getResponseStream().map(in -> new CopyingInputStream(in, this.maxBytes,
+                    this.spill, this.onComplete, this.onSpooled));
+        }
+
+        @Override
+        public Optional<InputStream> getErrorStream() {
+            return this.response.getErrorStream();
+        }
+
+        @Override
+        public void release(final boolean reusable) {
+            this.response.release(reusable);
+        }
+    }
+
+    /**
+     * Keeps a copy of everything read, handing it over at the end of the stream.
+     * The copy is kept on the heap up to the limit, past that it moves to a disk
+     * spool if there is one and is dropped if there isn't.
+     */
+    private static final class CopyingInputStream extends FilterInputStream {
+        private final long maxBytes;
+        private final Supplier<Optional<DiskCacheStore.Spool>> spill;
+        private final Consumer<byte[]> onComplete;
+        private final Consumer<DiskCacheStore.Spool> onSpooled;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private DiskCacheStore.Spool spool;
+
+        CopyingInputStream(final InputStream in, final long maxBytes,
+                final Supplier<Optional<DiskCacheStore.Spool>> spill, final Consumer<byte[]> onComplete,
+                final Consumer<DiskCacheStore.Spool> onSpooled) {
+            super(in);
+            this.maxBytes = maxBytes;
+            this.spill = spill;
+            this.onComplete = onComplete;
+            this.onSpooled = onSpooled;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b < 0) {
+                complete();
+            } else {
+                copy(new byte[] { (byte) b }, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int count = super.read(b, off, len);
+            if (count < 0) {
+                complete();
+            } else {
+                copy(b, off, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            // Skipped bytes can't be copied, so this body can't be kept
+            drop();
+            return super.skip(n);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * A body that wasn't read to the end isn't kept
+         */
+        @Override
+        public void close() throws IOException {
+            drop();
+            super.close();
+        }
+
+        private void copy(final byte[] b, final int off, final int len) {
+            if (null != this.copy) {
+                this.copy.write(b, off, len);
+                if (this.copy.size() > this.maxBytes) {
+                    // Too big for the heap, what was copied so far starts the spool
+                    final byte[] head = this.copy.toByteArray();
+                    this.copy = null;
+                    this.spool = this.spill.get().orElse(null);
+                    spoolBytes(head, 0, head.length);
+                }
+            } else if (null != this.spool) {
+                spoolBytes(b, off, len);
+            }
+        }
+
+        private void spoolBytes(final byte[] b, final int off, final int len) {
+            if (null == this.spool) {
+                return;
+            }
+            try {
+                this.spool.write(b, off, len);
+            } catch (final IOException e) {
+                // Too big for the disk as well, or the disk failed
+                drop();
+            }
+        }
+
+        private void complete() {
+            if (null != this.copy) {
+                final byte[] body = this.copy.toByteArray();
+                this.copy = null;
+                this.onComplete.accept(body);
+            } else if (null != this.spool) {
+                final DiskCacheStore.Spool spooled = this.spool;
+                this.spool = null;
+                this.onSpooled.accept(spooled);
+            }
+        }
+
+        private void drop() {
+            this.copy = null;
+            if (null != this.spool) {
+                this.spool.abort();
+                this.spool = null;
+            }
+        }
+    }
+}
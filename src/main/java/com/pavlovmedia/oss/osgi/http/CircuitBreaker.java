@@ -0,0 +1,204 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks how one origin has been doing and stops sending it requests once too
+ * many of them fail or are slow. The last calls are kept in a sliding window,
+ * once enough of them have been seen and the failure or slow call rate reaches
+ * its threshold the breaker opens and requests fail right away. After a while it
+ * lets a few probe requests through, if they all do well it closes again, if any
+ * of them fail it opens again.
+ * <p>
+ * Breakers are made by {@link CircuitBreakers}, which holds their settings.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class CircuitBreaker {
+    public enum State {
+        /** Requests go through and are tracked */
+        CLOSED,
+        /** Requests fail without being sent */
+        OPEN,
+        /** A few probe requests go through to see if the origin is back */
+        HALF_OPEN
+    }
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    private final String origin;
+    private final CircuitBreakers.Settings settings;
+    private final byte[] window;
+    private final LongAdder rejectedCount = new LongAdder();
+
+    private State state = State.CLOSED;
+    private int next;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private long changedAt = System.nanoTime();
+    private int probesStarted;
+    private int probesPassed;
+
+    CircuitBreaker(final String origin, final CircuitBreakers.Settings settings) {
+        this.origin = origin;
+        this.settings = settings;
+        this.window = new byte[settings.windowSize];
+    }
+
+    public String getOrigin() {
+        return this.origin;
+    }
+
+    public synchronized State getState() {
+        return this.state;
+    }
+
+    /**
+     * The percent of calls in the window that failed
+     */
+    public synchronized int getFailureRate() {
+        return this.calls == 0 ? 0 : this.failures * 100 / this.calls;
+    }
+
+    /**
+     * The percent of calls in the window that were slow
+     */
+    public synchronized int getSlowCallRate() {
+        return this.calls == 0 ? 0 : this.slowCalls * 100 / this.calls;
+    }
+
+    /**
+     * How many calls are in the window
+     */
+    public synchronized int getCallCount() {
+        return this.calls;
+    }
+
+    /**
+     * How many requests were failed without being sent
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    /**
+     * How long until an open breaker lets probes through, 0 if it isn't open
+     */
+    public synchronized long getRetryInMillis() {
+        if (this.state != State.OPEN) {
+            return 0;
+        }
+        final long left = this.settings.openNanos - (System.nanoTime() - this.changedAt);
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(left));
+    }
+
+    /**
+     * Closes the breaker and forgets the window
+     */
+    public synchronized void reset() {
+        moveTo(State.CLOSED);
+    }
+
+    /**
+     * Asks to send a request. Every call that is let through has to be followed
+     * by {@link #onResult(boolean, long)} or {@link #onIgnored()}.
+     *
+     * @return false if the request should fail without being sent
+     */
+    synchronized boolean tryAcquire() {
+        final long now = System.nanoTime();
+        if (this.state == State.OPEN && now - this.changedAt >= this.settings.openNanos) {
+            moveTo(State.HALF_OPEN);
+        }
+        // Probes that never reported back, for example cancelled ones, don't keep us half open forever
+        if (this.state == State.HALF_OPEN && this.probesStarted >= this.settings.halfOpenProbes
+                && now - this.changedAt >= this.settings.openNanos) {
+            moveTo(State.HALF_OPEN);
+        }
+
+        switch (this.state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (this.probesStarted < this.settings.halfOpenProbes) {
+                    this.probesStarted++;
+                    return true;
+                }
+                break;
+            default:
+                break;
+        }
+        this.rejectedCount.increment();
+        return false;
+    }
+
+    /**
+     * Records how a request that was let through went
+     *
+     * @param failed if it threw or the server answered with a 5xx
+     * @param elapsedNanos how long it took to get the response
+     */
+    synchronized void onResult(final boolean failed, final long elapsedNanos) {
+        final boolean slow = this.settings.slowCallNanos > 0 && elapsedNanos >= this.settings.slowCallNanos;
+        switch (this.state) {
+            case CLOSED:
+                record(failed, slow);
+                if (this.calls >= this.settings.minimumCalls
+                        && (this.failures * 100 >= this.settings.failureRatePercent * this.calls
+                            || this.slowCalls * 100 >= this.settings.slowCallRatePercent * this.calls)) {
+                    moveTo(State.OPEN);
+                }
+                break;
+            case HALF_OPEN:
+                if (failed || slow) {
+                    moveTo(State.OPEN);
+                } else if (++this.probesPassed >= this.settings.halfOpenProbes) {
+                    moveTo(State.CLOSED);
+                }
+                break;
+            default:
+                // Calls that started before the breaker opened don't count
+                break;
+        }
+    }
+
+    /**
+     * Gives back a call that was let through but never reached the origin
+     */
+    synchronized void onIgnored() {
+        if (this.state == State.HALF_OPEN && this.probesStarted > 0) {
+            this.probesStarted--;
+        }
+    }
+
+    private void record(final boolean failed, final boolean slow) {
+        if (this.calls == this.window.length) {
+            final byte oldest = this.window[this.next];
+            this.failures -= oldest & FAILED;
+            this.slowCalls -= (oldest & SLOW) >> 1;
+        } else {
+            this.calls++;
+        }
+        this.window[this.next] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+        this.failures += failed ? 1 : 0;
+        this.slowCalls += slow ? 1 : 0;
+        this.next = (this.next + 1) % this.window.length;
+    }
+
+    private void moveTo(final State newState) {
+        this.state = newState;
+        this.changedAt = System.nanoTime();
+        this.probesStarted = 0;
+        this.probesPassed = 0;
+        if (newState == State.CLOSED) {
+            this.next = 0;
+            this.calls = 0;
+            this.failures = 0;
+            this.slowCalls = 0;
+        }
+    }
+}
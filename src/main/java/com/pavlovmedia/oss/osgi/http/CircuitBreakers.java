@@ -0,0 +1,191 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+
+/**
+ * The {@link CircuitBreaker} for every origin clients have talked to. Inside OSGi
+ * this is a service configured through Config Admin, so the state of each origin
+ * can be looked at from outside, and clients from a {@link PavlovHttpClientFactory}
+ * share it. Outside of OSGi it can be created directly and handed to
+ * {@link PavlovHttpClient#withCircuitBreakers(CircuitBreakers)}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@Component(metatype = true,
+    label = "Pavlov HTTP Circuit Breakers",
+    description = "Fails requests fast to origins that keep failing or are too slow")
+@Service(CircuitBreakers.class)
+@Properties({
+    @Property(name = CircuitBreakers.WINDOW_SIZE, intValue = CircuitBreakers.DEFAULT_WINDOW_SIZE,
+        label = "Window size", description = "How many of the last calls to an origin are tracked"),
+    @Property(name = CircuitBreakers.MINIMUM_CALLS, intValue = CircuitBreakers.DEFAULT_MINIMUM_CALLS,
+        label = "Minimum calls", description = "How many calls have to be tracked before the breaker can open"),
+    @Property(name = CircuitBreakers.FAILURE_RATE, intValue = CircuitBreakers.DEFAULT_FAILURE_RATE,
+        label = "Failure rate", description = "The percent of failed calls that opens the breaker"),
+    @Property(name = CircuitBreakers.SLOW_CALL_MILLIS, longValue = CircuitBreakers.DEFAULT_SLOW_CALL_MILLIS,
+        label = "Slow call", description = "How long a call can take before it counts as slow, 0 turns this off"),
+    @Property(name = CircuitBreakers.SLOW_CALL_RATE, intValue = CircuitBreakers.DEFAULT_SLOW_CALL_RATE,
+        label = "Slow call rate", description = "The percent of slow calls that opens the breaker"),
+    @Property(name = CircuitBreakers.OPEN_MILLIS, longValue = CircuitBreakers.DEFAULT_OPEN_MILLIS,
+        label = "Open time", description = "How long the breaker stays open before probing, in milliseconds"),
+    @Property(name = CircuitBreakers.HALF_OPEN_PROBES, intValue = CircuitBreakers.DEFAULT_HALF_OPEN_PROBES,
+        label = "Probes", description = "How many probes have to pass to close the breaker again")
+})
+public class CircuitBreakers {
+    public static final String WINDOW_SIZE = "breaker.window.size";
+    public static final String MINIMUM_CALLS = "breaker.minimum.calls";
+    public static final String FAILURE_RATE = "breaker.failure.rate.percent";
+    public static final String SLOW_CALL_MILLIS = "breaker.slow.call.millis";
+    public static final String SLOW_CALL_RATE = "breaker.slow.call.rate.percent";
+    public static final String OPEN_MILLIS = "breaker.open.millis";
+    public static final String HALF_OPEN_PROBES = "breaker.half.open.probes";
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final int DEFAULT_FAILURE_RATE = 50;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 10000;
+    public static final int DEFAULT_SLOW_CALL_RATE = 100;
+    public static final long DEFAULT_OPEN_MILLIS = 30000;
+    public static final int DEFAULT_HALF_OPEN_PROBES = 3;
+
+    private final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private volatile Settings settings;
+
+    /**
+     * Creates breakers with the default settings
+     */
+    public CircuitBreakers() {
+        this(DEFAULT_WINDOW_SIZE, DEFAULT_MINIMUM_CALLS, DEFAULT_FAILURE_RATE, DEFAULT_SLOW_CALL_MILLIS,
+                DEFAULT_SLOW_CALL_RATE, DEFAULT_OPEN_MILLIS, DEFAULT_HALF_OPEN_PROBES);
+    }
+
+    /**
+     * @param windowSize how many of the last calls to an origin are tracked
+     * @param minimumCalls how many calls have to be tracked before a breaker can open
+     * @param failureRatePercent the percent of failed calls that opens a breaker
+     * @param slowCallMillis how long a call can take before it counts as slow, 0 turns this off
+     * @param slowCallRatePercent the percent of slow calls that opens a breaker
+     * @param openMillis how long a breaker stays open before probing
+     * @param halfOpenProbes how many probes have to pass to close a breaker again
+     */
+    public CircuitBreakers(final int windowSize, final int minimumCalls, final int failureRatePercent,
+            final long slowCallMillis, final int slowCallRatePercent, final long openMillis,
+            final int halfOpenProbes) {
+        this.settings = new Settings(windowSize, minimumCalls, failureRatePercent, slowCallMillis,
+                slowCallRatePercent, openMillis, halfOpenProbes);
+    }
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        modified(properties);
+    }
+
+    @Modified
+    protected void modified(final Map<String, Object> properties) {
+        this.settings = new Settings(
+                intProperty(properties, WINDOW_SIZE, DEFAULT_WINDOW_SIZE),
+                intProperty(properties, MINIMUM_CALLS, DEFAULT_MINIMUM_CALLS),
+                intProperty(properties, FAILURE_RATE, DEFAULT_FAILURE_RATE),
+                longProperty(properties, SLOW_CALL_MILLIS, DEFAULT_SLOW_CALL_MILLIS),
+                intProperty(properties, SLOW_CALL_RATE, DEFAULT_SLOW_CALL_RATE),
+                longProperty(properties, OPEN_MILLIS, DEFAULT_OPEN_MILLIS),
+                intProperty(properties, HALF_OPEN_PROBES, DEFAULT_HALF_OPEN_PROBES));
+        // New settings start every origin over
+        this.breakers.clear();
+    }
+
+    /**
+     * Gets the breaker for an origin, creating it if needed
+     *
+     * @param origin see {@link UrlHelpers#originOf(java.net.URL)}
+     */
+    public CircuitBreaker breakerFor(final String origin) {
+        Objects.requireNonNull(origin);
+        return this.breakers.computeIfAbsent(origin, o -> new CircuitBreaker(o, this.settings));
+    }
+
+    /**
+     * Gets the breaker for an origin, if it has been talked to
+     *
+     * @param origin see {@link UrlHelpers#originOf(java.net.URL)}
+     */
+    public Optional<CircuitBreaker> getBreaker(final String origin) {
+        Objects.requireNonNull(origin);
+        return Optional.ofNullable(this.breakers.get(origin));
+    }
+
+    /**
+     * The state of every origin, sorted by origin
+     */
+    public Map<String, CircuitBreaker.State> getStates() {
+        final TreeMap<String, CircuitBreaker.State> states = new TreeMap<>();
+        this.breakers.forEach((origin, breaker) -> states.put(origin, breaker.getState()));
+        return Collections.unmodifiableMap(states);
+    }
+
+    /**
+     * Closes every breaker
+     */
+    public void resetAll() {
+        this.breakers.values().forEach(CircuitBreaker::reset);
+    }
+
+    private static int intProperty(final Map<String, Object> properties, final String name, final int fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Integer.parseInt(value.toString().trim());
+    }
+
+    private static long longProperty(final Map<String, Object> properties, final String name, final long fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Long.parseLong(value.toString().trim());
+    }
+
+    /**
+     * The settings every breaker made at the same time shares
+     */
+    static final class Settings {
+        final int windowSize;
+        final int minimumCalls;
+        final int failureRatePercent;
+        final long slowCallNanos;
+        final int slowCallRatePercent;
+        final long openNanos;
+        final int halfOpenProbes;
+
+        Settings(final int windowSize, final int minimumCalls, final int failureRatePercent,
+                final long slowCallMillis, final int slowCallRatePercent, final long openMillis,
+                final int halfOpenProbes) {
+            if (windowSize < 1 || minimumCalls < 1 || halfOpenProbes < 1) {
+                throw new IllegalArgumentException("The window, minimum calls and probes must be at least 1");
+            }
+            if (failureRatePercent < 1 || failureRatePercent > 100
+                    || slowCallRatePercent < 1 || slowCallRatePercent > 100) {
+                throw new IllegalArgumentException("Rates are percents between 1 and 100");
+            }
+            if (slowCallMillis < 0 || openMillis < 0) {
+                throw new IllegalArgumentException("Times cannot be negative");
+            }
+            this.windowSize = windowSize;
+            this.minimumCalls = Math.min(minimumCalls, windowSize);
+            this.failureRatePercent = failureRatePercent;
+            this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+            this.slowCallRatePercent = slowCallRatePercent;
+            this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+            this.halfOpenProbes = halfOpenProbes;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+
+/**
+ * A request was failed without being sent because the {@link CircuitBreaker}
+ * for its origin is open
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String origin;
+    private final long retryInMillis;
+
+    public CircuitOpenException(final String origin, final long retryInMillis) {
+        super(String.format("The circuit breaker for %s is open, probing again in %dms", origin, retryInMillis));
+        this.origin = origin;
+        this.retryInMillis = retryInMillis;
+    }
+
+    /**
+     * The origin the request was for
+     */
+    public String getOrigin() {
+        return this.origin;
+    }
+
+    /**
+     * How long until the breaker lets probe requests through
+     */
+    public long getRetryInMillis() {
+        return this.retryInMillis;
+    }
+}
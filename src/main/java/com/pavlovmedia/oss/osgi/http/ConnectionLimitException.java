@@ -0,0 +1,28 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+
+/**
+ * A request couldn't get a connection from a {@link ConnectionLimiter}, either
+ * because too many requests were already waiting or because it waited too long
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public class ConnectionLimitException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String origin;
+
+    public ConnectionLimitException(final String origin, final String message) {
+        super(message);
+        this.origin = origin;
+    }
+
+    /**
+     * The origin the request was for
+     */
+    public String getOrigin() {
+        return this.origin;
+    }
+}
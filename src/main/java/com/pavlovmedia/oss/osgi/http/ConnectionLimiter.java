@@ -0,0 +1,280 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many connections are open at once, both in total and to each origin.
+ * Requests over the cap wait in line, first come first served, until a connection
+ * is released, they are turned away if the line for their origin is full or they
+ * wait too long.
+ * <p>
+ * Waiting never ties up a thread, {@link #acquire(String)} hands back a future.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class ConnectionLimiter {
+    private final int maxTotal;
+    private final int maxPerHost;
+    private final int maxWaitingPerHost;
+    private final long acquireTimeoutMillis;
+
+    private final HashMap<String, Host> hosts = new HashMap<>();
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private int active;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * @param maxTotal the most connections open at once
+     * @param maxPerHost the most connections open at once to one origin
+     * @param maxWaitingPerHost the most requests waiting in line for one origin
+     * @param acquireTimeoutMillis how long a request waits in line, 0 waits forever
+     */
+    public ConnectionLimiter(final int maxTotal, final int maxPerHost, final int maxWaitingPerHost,
+            final long acquireTimeoutMillis) {
+        if (maxTotal < 1 || maxPerHost < 1 || maxWaitingPerHost < 0 || acquireTimeoutMillis < 0) {
+            throw new IllegalArgumentException("Limits must be positive");
+        }
+        this.maxTotal = maxTotal;
+        this.maxPerHost = maxPerHost;
+        this.maxWaitingPerHost = maxWaitingPerHost;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    /**
+     * Asks for a connection to an origin
+     *
+     * @param origin the origin, see {@link UrlHelpers#originOf(java.net.URL)}
+     * @return a future that completes with a permit once there is room, or fails with
+     *     a {@link ConnectionLimitException}. Cancelling it gives up the place in line.
+     */
+    public CompletableFuture<Permit> acquire(final String origin) {
+        Objects.requireNonNull(origin);
+
+        final Waiter waiter;
+        synchronized (this) {
+            final Host host = this.hosts.computeIfAbsent(origin, k -> new Host());
+            if (host.waiting == 0 && this.active < this.maxTotal && host.active < this.maxPerHost) {
+                this.active++;
+                host.active++;
+                return CompletableFuture.completedFuture(new Permit(origin));
+            }
+            if (host.waiting >= this.maxWaitingPerHost) {
+                this.rejected.increment();
+                forgetIfIdle(origin, host);
+                final CompletableFuture<Permit> full = new CompletableFuture<>();
+                full.completeExceptionally(new ConnectionLimitException(origin,
+                        String.format("%d requests are already waiting for a connection to %s",
+                                host.waiting, origin)));
+                return full;
+            }
+            waiter = new Waiter(origin);
+            host.waiting++;
+            this.waiters.add(waiter);
+        }
+
+        if (this.acquireTimeoutMillis > 0) {
+            waiter.timeout = HttpTimer.schedule(() -> giveUp(waiter, true),
+                    this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        waiter.future.whenComplete((permit, error) -> {
+            if (error instanceof CancellationException) {
+                giveUp(waiter, false);
+            }
+        });
+        return waiter.future;
+    }
+
+    /**
+     * Asks for a connection and waits for it
+     *
+     * @param origin the origin, see {@link UrlHelpers#originOf(java.net.URL)}
+     * @throws ConnectionLimitException if the line is full or the wait is too long
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    public Permit acquireAndWait(final String origin) throws IOException {
+        final CompletableFuture<Permit> future = acquire(origin);
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            if (!future.cancel(false) && !future.isCompletedExceptionally()) {
+                future.join().close();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for a connection to " + origin);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public int getMaxTotal() {
+        return this.maxTotal;
+    }
+
+    public int getMaxPerHost() {
+        return this.maxPerHost;
+    }
+
+    /**
+     * Connections open right now
+     */
+    public synchronized int getActive() {
+        return this.active;
+    }
+
+    /**
+     * Connections open right now to one origin
+     *
+     * @param origin
+     */
+    public synchronized int getActive(final String origin) {
+        final Host host = this.hosts.get(origin);
+        return null == host ? 0 : host.active;
+    }
+
+    /**
+     * Requests waiting in line
+     */
+    public synchronized int getWaiting() {
+        return this.waiters.size();
+    }
+
+    /**
+     * Requests waiting in line for one origin
+     *
+     * @param origin
+     */
+    public synchronized int getWaiting(final String origin) {
+        final Host host = this.hosts.get(origin);
+        return null == host ? 0 : host.waiting;
+    }
+
+    /**
+     * Requests turned away because the line was full
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Requests that gave up waiting
+     */
+    public long getTimedOutCount() {
+        return this.timedOut.sum();
+    }
+
+    private void release(final String origin) {
+        final List<Waiter> granted = new ArrayList<>();
+        synchronized (this) {
+            this.active--;
+            final Host host = this.hosts.get(origin);
+            host.active--;
+
+            final Iterator<Waiter> line = this.waiters.iterator();
+            while (line.hasNext() && this.active < this.maxTotal) {
+                final Waiter next = line.next();
+                final Host nextHost = this.hosts.get(next.origin);
+                if (nextHost.active < this.maxPerHost) {
+                    line.remove();
+                    nextHost.waiting--;
+                    nextHost.active++;
+                    this.active++;
+                    granted.add(next);
+                }
+            }
+            forgetIfIdle(origin, host);
+        }
+
+        for (final Waiter waiter : granted) {
+            if (null != waiter.timeout) {
+                waiter.timeout.cancel(false);
+            }
+            final Permit permit = new Permit(waiter.origin);
+            if (!waiter.future.complete(permit)) {
+                // It gave up just as its turn came
+                permit.close();
+            }
+        }
+    }
+
+    private void giveUp(final Waiter waiter, final boolean timedOut) {
+        synchronized (this) {
+            if (!this.waiters.remove(waiter)) {
+                return;
+            }
+            final Host host = this.hosts.get(waiter.origin);
+            host.waiting--;
+            forgetIfIdle(waiter.origin, host);
+        }
+        if (timedOut) {
+            this.timedOut.increment();
+            waiter.future.completeExceptionally(new ConnectionLimitException(waiter.origin,
+                    String.format("Waited more than %dms for a connection to %s",
+                            this.acquireTimeoutMillis, waiter.origin)));
+        }
+    }
+
+    private void forgetIfIdle(final String origin, final Host host) {
+        if (host.active == 0 && host.waiting == 0) {
+            this.hosts.remove(origin);
+        }
+    }
+
+    /**
+     * The right to hold one connection open. Closing it lets the next request in
+     * line go, closing it more than once does nothing.
+     */
+    public final class Permit implements AutoCloseable {
+        private final String origin;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(final String origin) {
+            this.origin = origin;
+        }
+
+        public String getOrigin() {
+            return this.origin;
+        }
+
+        @Override
+        public void close() {
+            if (this.released.compareAndSet(false, true)) {
+                release(this.origin);
+            }
+        }
+    }
+
+    private static final class Host {
+        private int active;
+        private int waiting;
+    }
+
+    private static final class Waiter {
+        private final String origin;
+        private final CompletableFuture<Permit> future = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> timeout;
+
+        Waiter(final String origin) {
+            this.origin = origin;
+        }
+    }
+}
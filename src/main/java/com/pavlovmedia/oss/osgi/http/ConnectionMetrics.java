@@ -0,0 +1,111 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters that show how well connections are being handed back for reuse.
+ * A response whose body was read to the end can go back into the keep-alive
+ * cache, one that was cut off has to have its connection thrown away.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class ConnectionMetrics {
+    private static final ConnectionMetrics GLOBAL = new ConnectionMetrics();
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder reusable = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+    private final LongAdder drainedBytes = new LongAdder();
+
+    ConnectionMetrics() { }
+
+    /**
+     * The metrics for every response created in this bundle
+     */
+    public static ConnectionMetrics global() {
+        return GLOBAL;
+    }
+
+    void responseOpened() {
+        this.opened.increment();
+    }
+
+    void responseClosed(final boolean wasReusable, final long drained) {
+        this.closed.increment();
+        if (wasReusable) {
+            this.reusable.increment();
+        } else {
+            this.discarded.increment();
+        }
+        this.drainedBytes.add(drained);
+    }
+
+    void responseLeaked() {
+        this.leaked.increment();
+    }
+
+    /**
+     * How many responses with a body have been created
+     */
+    public long getOpened() {
+        ResponseResources.expungeLeaks();
+        return this.opened.sum();
+    }
+
+    /**
+     * How many responses have been closed, including leaked ones we cleaned up
+     */
+    public long getClosed() {
+        ResponseResources.expungeLeaks();
+        return this.closed.sum();
+    }
+
+    /**
+     * How many responses are still holding on to a connection
+     */
+    public long getOpen() {
+        ResponseResources.expungeLeaks();
+        return this.opened.sum() - this.closed.sum();
+    }
+
+    /**
+     * How many closed responses had their body read to the end, which leaves the
+     * connection free to be reused
+     */
+    public long getReusable() {
+        ResponseResources.expungeLeaks();
+        return this.reusable.sum();
+    }
+
+    /**
+     * How many closed responses had to throw their connection away
+     */
+    public long getDiscarded() {
+        ResponseResources.expungeLeaks();
+        return this.discarded.sum();
+    }
+
+    /**
+     * How many responses were garbage collected without ever being closed
+     */
+    public long getLeaked() {
+        ResponseResources.expungeLeaks();
+        return this.leaked.sum();
+    }
+
+    /**
+     * How many leftover body bytes were read and thrown away while closing
+     */
+    public long getDrainedBytes() {
+        return this.drainedBytes.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionMetrics [opened=%d, open=%d, reusable=%d, discarded=%d, leaked=%d, drained=%d]",
+                getOpened(), getOpen(), getReusable(), getDiscarded(), getLeaked(), getDrainedBytes());
+    }
+}
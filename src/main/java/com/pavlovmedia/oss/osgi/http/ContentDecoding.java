@@ -0,0 +1,270 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
+
+/**
+ * Undoes the Content-Encoding of a response body as it is read. Decoders are
+ * created lazily on the first read, so wrapping a stream never blocks and never
+ * buffers the body.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class ContentDecoding {
+    public static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String IDENTITY = "identity";
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private ContentDecoding() { }
+
+    /**
+     * Gets the content codings from a set of response headers in the order the server
+     * applied them, skipping identity
+     *
+     * @param headers response headers
+     */
+    public static List<String> contentEncodings(final Map<String, List<String>> headers) {
+        Objects.requireNonNull(headers);
+
+        final ArrayList<String> encodings = new ArrayList<>();
+        headers.forEach((name, values) -> {
+            if (CONTENT_ENCODING_HEADER.equalsIgnoreCase(name) && null != values) {
+                values.forEach(value -> {
+                    for (final String coding : value.split(",")) {
+                        final String normalized = coding.trim().toLowerCase(Locale.ROOT);
+                        if (!normalized.isEmpty() && !IDENTITY.equals(normalized)) {
+                            encodings.add(normalized);
+                        }
+                    }
+                });
+            }
+        });
+        return Collections.unmodifiableList(encodings);
+    }
+
+    /**
+     * Checks if a set of headers say the body has been encoded
+     *
+     * @param headers response headers
+     */
+    public static boolean isEncoded(final Map<String, List<String>> headers) {
+        return !contentEncodings(headers).isEmpty();
+    }
+
+    /**
+     * Checks if we know how to decode a content coding
+     *
+     * @param coding the coding name, like gzip
+     */
+    public static boolean isSupported(final String coding) {
+        switch (coding.toLowerCase(Locale.ROOT)) {
+            case GZIP:
+            case "x-gzip":
+            case DEFLATE:
+            case IDENTITY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Wraps a stream so that it is decoded according to the Content-Encoding in the headers.
+     * If there is an encoding we don't understand the stream is left encoded from that
+     * point on.
+     *
+     * @param in the raw body
+     * @param headers response headers
+     */
+    public static InputStream decode(final InputStream in, final Map<String, List<String>> headers) {
+        return decode(in, contentEncodings(headers));
+    }
+
+    /**
+     * Wraps a stream with decoders for a list of content codings in the order they were applied
+     *
+     * @param in the raw body
+     * @param encodings the codings, as from {@link #contentEncodings(Map)}
+     */
+    public static InputStream decode(final InputStream in, final List<String> encodings) {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(encodings);
+
+        InputStream working = in;
+        // The last coding applied is the first one we need to undo
+        for (int i = encodings.size() - 1; i >= 0; i--) {
+            final String coding = encodings.get(i).toLowerCase(Locale.ROOT);
+            if (!isSupported(coding)) {
+                break;
+            }
+            working = wrap(working, coding);
+        }
+        return working;
+    }
+
+    /**
+     * A converter that decodes a convertible stream, useful with {@link ConvertibleAsset#chain(Function)}
+     *
+     * @param headers response headers
+     */
+    public static Function<InputStream, InputStream> decoder(final Map<String, List<String>> headers) {
+        final List<String> encodings = contentEncodings(headers);
+        return in -> decode(in, encodings);
+    }
+
+    /**
+     * Lazily wraps a stream in a gzip decoder
+     *
+     * @param in
+     */
+    public static InputStream gunzip(final InputStream in) {
+        return wrap(in, GZIP);
+    }
+
+    /**
+     * Lazily wraps a stream in a deflate decoder. Both zlib wrapped (what the RFC says)
+     * and raw deflate (what some servers actually send) are handled.
+     *
+     * @param in
+     */
+    public static InputStream inflate(final InputStream in) {
+        return wrap(in, DEFLATE);
+    }
+
+    private static InputStream wrap(final InputStream in, final String coding) {
+        switch (coding) {
+            case GZIP:
+            case "x-gzip":
+                return new LazyInputStream(in, raw -> new GZIPInputStream(raw, BUFFER_SIZE));
+            case DEFLATE:
+                return new LazyInputStream(in, ContentDecoding::openDeflate);
+            default:
+                return in;
+        }
+    }
+
+    private static InputStream openDeflate(final InputStream raw) throws IOException {
+        final PushbackInputStream pushback = new PushbackInputStream(raw, 2);
+        final byte[] header = new byte[2];
+        int read = 0;
+        while (read < header.length) {
+            final int count = pushback.read(header, read, header.length - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        pushback.unread(header, 0, read);
+
+        final Inflater inflater = new Inflater(!isZlibHeader(header, read));
+        return new InflaterInputStream(pushback, inflater, BUFFER_SIZE) {
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                if (!this.closed) {
+                    this.closed = true;
+                    try {
+                        super.close();
+                    } finally {
+                        // We supplied the inflater, so it is ours to release
+                        inflater.end();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * A zlib stream starts with a CMF byte that says deflate (8) and a check
+     * value that makes the first two bytes a multiple of 31
+     */
+    private static boolean isZlibHeader(final byte[] header, final int length) {
+        if (length < 2) {
+            return true;
+        }
+        final int cmf = header[0] & 0xff;
+        final int flg = header[1] & 0xff;
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    /**
+     * Opens a decoder the first time the stream is used
+     */
+    @FunctionalInterface
+    private interface StreamOpener {
+        InputStream open(InputStream raw) throws IOException;
+    }
+
+    private static final class LazyInputStream extends InputStream {
+        private final InputStream raw;
+        private final StreamOpener opener;
+        private InputStream decoded;
+
+        LazyInputStream(final InputStream raw, final StreamOpener opener) {
+            this.raw = raw;
+            this.opener = opener;
+        }
+
+        private InputStream decoded() throws IOException {
+            if (null == this.decoded) {
+                // An empty body (HEAD, 204, 304) has no coding header to read, so leave it empty
+                final PushbackInputStream peek = new PushbackInputStream(this.raw, 1);
+                final int first = peek.read();
+                if (first < 0) {
+                    this.decoded = peek;
+                } else {
+                    peek.unread(first);
+                    this.decoded = this.opener.open(peek);
+                }
+            }
+            return this.decoded;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return decoded().read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return decoded().read(b, off, len);
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            return decoded().skip(n);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return null == this.decoded ? 0 : this.decoded.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (null == this.decoded) {
+                this.raw.close();
+            } else {
+                this.decoded.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.net.SocketTimeoutException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time a whole request has to be finished by, covering the connect,
+ * writing the body, waiting for the response and reading it. Transports enforce
+ * it by aborting the connection when it passes, so nothing waits past it.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class Deadline {
+    private final long budgetMillis;
+    private final long expiresAt;
+
+    private Deadline(final long budgetMillis) {
+        this.budgetMillis = budgetMillis;
+        this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Starts a deadline that passes after the given time
+     *
+     * @param timeout
+     * @param unit
+     */
+    public static Deadline in(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("A deadline cannot be in the past");
+        }
+        return new Deadline(unit.toMillis(timeout));
+    }
+
+    /**
+     * The time this deadline allowed when it was started, in milliseconds
+     */
+    public long getBudgetMillis() {
+        return this.budgetMillis;
+    }
+
+    /**
+     * The time left in milliseconds, 0 once it has passed
+     */
+    public long remainingMillis() {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(this.expiresAt - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return this.expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Caps a socket timeout so it doesn't run past this deadline
+     *
+     * @param timeoutMillis a timeout where 0 means forever
+     * @return the smaller of the two, never 0 so it can't turn into forever
+     */
+    public int bound(final int timeoutMillis) {
+        final long remaining = Math.max(1, remainingMillis());
+        return (int) Math.min(Integer.MAX_VALUE, timeoutMillis == 0 ? remaining : Math.min(timeoutMillis, remaining));
+    }
+
+    /**
+     * Runs an abort once this deadline passes, right away if it already has
+     *
+     * @param abort usually closes the connection
+     * @return cancel this once the request is done
+     */
+    public Future<?> onExpiry(final Runnable abort) {
+        Objects.requireNonNull(abort);
+
+        final long remaining = this.expiresAt - System.nanoTime();
+        if (remaining <= 0) {
+            abort.run();
+            return CompletableFuture.completedFuture(null);
+        }
+        return HttpTimer.schedule(abort, remaining, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The exception transports report when this deadline passes
+     */
+    public SocketTimeoutException timeoutException() {
+        return new SocketTimeoutException(String.format("Request deadline of %dms expired", this.budgetMillis));
+    }
+}
@@ -0,0 +1,735 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link CacheStore} in a directory, so responses outlive a restart and can be
+ * bigger than the heap allows.
+ * <ul>
+ * <li>Responses are appended to segment files and read back through memory mapped
+ * buffers, a body is never copied onto the heap.</li>
+ * <li>A response still being downloaded can be spooled into a segment of its own
+ * as it arrives, so a body too big for the heap is never held in memory.</li>
+ * <li>Where each response lives is kept in an append only index log. Starting up
+ * replays the index, the segments themselves aren't read until a response is
+ * asked for.</li>
+ * <li>When the directory grows past its size the oldest segment is deleted along
+ * with every response in it.</li>
+ * <li>Each record carries a checksum that is checked the first time it is read,
+ * damaged records are forgotten.</li>
+ * </ul>
+ * Only one store can use a directory at a time.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class DiskCacheStore implements CacheStore, Closeable {
+    public static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final int RECORD_MAGIC = 0x50484352;
+    private static final int RECORD_HEADER_BYTES = 12;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final String INDEX_FILE = "index.log";
+    private static final Pattern SEGMENT_FILE = Pattern.compile("segment-(\\d+)\\.dat");
+    private static final long COMPACT_AFTER_RECORDS = 1024;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final HashMap<String, Location> index = new HashMap<>();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private Segment active;
+    private int nextSegment = 1;
+    private DataOutputStream indexLog;
+    private long indexRecords;
+    private long bytes;
+    private boolean closed;
+
+    /**
+     * Opens a store, picking up whatever was kept there before
+     *
+     * @param directory where the files go, it is created if needed
+     * @param maxBytes roughly how much disk the segments can take up
+     * @throws IOException if the directory can't be used
+     */
+    public DiskCacheStore(final Path directory, final long maxBytes) throws IOException {
+        this(directory, maxBytes, Math.max(1024 * 1024, Math.min(DEFAULT_SEGMENT_BYTES, maxBytes / 8)));
+    }
+
+    /**
+     * Opens a store, picking up whatever was kept there before
+     *
+     * @param directory where the files go, it is created if needed
+     * @param maxBytes roughly how much disk the segments can take up
+     * @param segmentBytes how big each segment can get, this is also the biggest
+     *     response {@link #put(String, CachedResponse)} can keep and how much is
+     *     freed at a time
+     * @throws IOException if the directory can't be used
+     */
+    public DiskCacheStore(final Path directory, final long maxBytes, final long segmentBytes) throws IOException {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The size of a cache cannot be negative");
+        }
+        if (segmentBytes <= RECORD_HEADER_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segments must be between 12 bytes and 2GB");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+
+        Files.createDirectories(directory);
+        openSegments();
+        replayIndex();
+        startSegment();
+        if (needsCompaction()) {
+            compactIndex();
+        }
+    }
+
+    @Override
+    public synchronized Optional<CachedResponse> get(final String key) {
+        final Location location = this.index.get(key);
+        if (this.closed || null == location) {
+            return Optional.empty();
+        }
+        try {
+            final ByteBuffer record = this.segments.get(location.segment).slice(location.offset, location.length);
+            final Optional<CachedResponse> response = decode(key, record, !location.verified);
+            if (response.isPresent()) {
+                location.verified = true;
+                return response;
+            }
+        } catch (final IOException | RuntimeException e) {
+            // Treated the same as a damaged record
+        }
+        this.failureCount.increment();
+        remove(key);
+        return Optional.empty();
+    }
+
+    @Override
+    public synchronized void put(final String key, final CachedResponse response) {
+        if (this.closed) {
+            return;
+        }
+        try {
+            final ByteBuffer[] record = encode(key, response);
+            final long length = record[0].remaining() + (long) record[1].remaining();
+            if (length > this.segmentBytes || length > this.maxBytes) {
+                remove(key);
+                return;
+            }
+            if (this.active.size + length > this.segmentBytes) {
+                startSegment();
+            }
+            while (this.bytes + length > this.maxBytes && this.segments.firstKey() != this.active.id) {
+                evictOldest();
+            }
+
+            // A write that failed part way is written over by the next one
+            final long offset = this.active.size;
+            this.active.channel.position(offset);
+            while (record[0].hasRemaining() || record[1].hasRemaining()) {
+                this.active.channel.write(record);
+            }
+            this.active.size += length;
+            this.bytes += length;
+            this.index.put(key, new Location(this.active.id, offset, (int) length, true));
+            logPut(key, this.index.get(key));
+        } catch (final IOException e) {
+            this.failureCount.increment();
+            this.index.remove(key);
+        }
+    }
+
+    @Override
+    public synchronized void remove(final String key) {
+        if (this.closed || null == this.index.remove(key)) {
+            return;
+        }
+        try {
+            this.indexLog.writeByte(OP_REMOVE);
+            writeString(this.indexLog, key);
+            logged();
+        } catch (final IOException e) {
+            this.failureCount.increment();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (this.closed) {
+            return;
+        }
+        try {
+            while (!this.segments.isEmpty()) {
+                final Segment segment = this.segments.pollFirstEntry().getValue();
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            }
+            this.index.clear();
+            this.bytes = 0;
+            this.active = null;
+            startSegment();
+            compactIndex();
+        } catch (final IOException e) {
+            this.failureCount.increment();
+        }
+    }
+
+    /**
+     * Writes out the index and closes every file. Buffers already handed out stay
+     * readable.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        try {
+            this.indexLog.close();
+        } finally {
+            for (final Segment segment : this.segments.values()) {
+                segment.channel.close();
+            }
+        }
+    }
+
+    /**
+     * Starts writing a response whose body is still arriving into a segment of its
+     * own. Nothing is kept until {@link Spool#commit()}.
+     *
+     * @param key the url of the response
+     * @param head the response, its body is ignored
+     * @param maxBodyBytes writing more of the body than this fails
+     * @return empty if the store is closed or the segment can't be created
+     */
+    synchronized Optional<Spool> spool(final String key, final CachedResponse head, final long maxBodyBytes) {
+        if (this.closed) {
+            return Optional.empty();
+        }
+        final int id = this.nextSegment++;
+        final Path file = this.directory.resolve(String.format("segment-%08d.dat", id));
+        try {
+            final byte[] meta = encodeMeta(key, head);
+            final long room = Math.min(this.maxBytes, Integer.MAX_VALUE) - RECORD_HEADER_BYTES - meta.length;
+            if (room < 0) {
+                return Optional.empty();
+            }
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(RECORD_HEADER_BYTES + meta.length);
+            return Optional.of(new Spool(key, id, file, channel, meta, Math.min(room, maxBodyBytes)));
+        } catch (final IOException e) {
+            this.failureCount.increment();
+            return Optional.empty();
+        }
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * Roughly how much disk the segments take up, including responses that were
+     * replaced or removed but not evicted yet
+     */
+    public synchronized long getSizeBytes() {
+        return this.bytes;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return this.index.size();
+    }
+
+    public synchronized int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * How many segments were deleted to make room
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.sum();
+    }
+
+    /**
+     * How many reads and writes failed, including damaged records
+     */
+    public long getFailureCount() {
+        return this.failureCount.sum();
+    }
+
+    private void openSegments() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory, "segment-*.dat")) {
+            for (final Path file : files) {
+                final Matcher matcher = SEGMENT_FILE.matcher(file.getFileName().toString());
+                if (!matcher.matches()) {
+                    continue;
+                }
+                final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                if (channel.size() == 0) {
+                    channel.close();
+                    Files.delete(file);
+                    continue;
+                }
+                final Segment segment = new Segment(Integer.parseInt(matcher.group(1)), file, channel);
+                this.segments.put(segment.id, segment);
+                this.nextSegment = Math.max(this.nextSegment, segment.id + 1);
+                this.bytes += segment.size;
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index from its log, dropping anything that points at a segment
+     * that is gone and cutting off a record that was only half written
+     */
+    private void replayIndex() throws IOException {
+        final Path file = this.directory.resolve(INDEX_FILE);
+        if (Files.exists(file)) {
+            long good = 0;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                final MappedByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                try {
+                    while (log.hasRemaining()) {
+                        final byte op = log.get();
+                        final String key = readString(log);
+                        if (op == OP_PUT) {
+                            final Location location = new Location(log.getInt(), log.getLong(), log.getInt(), false);
+                            final Segment segment = this.segments.get(location.segment);
+                            if (null != segment && location.offset + location.length <= segment.size) {
+                                this.index.put(key, location);
+                            } else {
+                                this.index.remove(key);
+                            }
+                        } else if (op == OP_REMOVE) {
+                            this.index.remove(key);
+                        } else {
+                            break;
+                        }
+                        this.indexRecords++;
+                        good = log.position();
+                    }
+                } catch (final BufferUnderflowException | IllegalArgumentException e) {
+                    // The rest was cut off when the process stopped
+                }
+                if (good < channel.size()) {
+                    channel.truncate(good);
+                }
+            }
+        }
+        this.indexLog = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * Seals the segment being written and starts a new one. Every run starts with
+     * a fresh segment so nothing ever writes into the middle of an old file.
+     */
+    private void startSegment() throws IOException {
+        final int id = this.nextSegment++;
+        final Path file = this.directory.resolve(String.format("segment-%08d.dat", id));
+        this.active = new Segment(id, file, FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        this.segments.put(id, this.active);
+    }
+
+    private void evictOldest() throws IOException {
+        final Segment oldest = this.segments.pollFirstEntry().getValue();
+        // Nothing is logged, replaying the index drops entries for missing segments
+        this.index.values().removeIf(location -> location.segment == oldest.id);
+        this.bytes -= oldest.size;
+        this.evictionCount.increment();
+        oldest.channel.close();
+        Files.deleteIfExists(oldest.path);
+    }
+
+    /**
+     * Takes in the segment of a finished spool
+     *
+     * @param length of the record it holds
+     */
+    private synchronized Optional<CachedResponse> adopt(final Spool spool, final long length) {
+        if (this.closed || length > this.maxBytes) {
+            spool.discard();
+            return Optional.empty();
+        }
+        try {
+            while (this.bytes + length > this.maxBytes && this.segments.firstKey() != this.active.id) {
+                evictOldest();
+            }
+            final Segment segment = new Segment(spool.id, spool.path, spool.channel);
+            this.segments.put(segment.id, segment);
+            this.bytes += segment.size;
+            final Location location = new Location(segment.id, 0, (int) length, true);
+            this.index.put(spool.key, location);
+            logPut(spool.key, location);
+            return decode(spool.key, segment.slice(0, (int) length), false);
+        } catch (final IOException e) {
+            this.failureCount.increment();
+            this.index.remove(spool.key);
+            return Optional.empty();
+        }
+    }
+
+    private void logPut(final String key, final Location location) throws IOException {
+        this.indexLog.writeByte(OP_PUT);
+        writeString(this.indexLog, key);
+        this.indexLog.writeInt(location.segment);
+        this.indexLog.writeLong(location.offset);
+        this.indexLog.writeInt(location.length);
+        logged();
+    }
+
+    private void logged() throws IOException {
+        this.indexLog.flush();
+        this.indexRecords++;
+        if (needsCompaction()) {
+            compactIndex();
+        }
+    }
+
+    private boolean needsCompaction() {
+        return this.indexRecords > COMPACT_AFTER_RECORDS && this.indexRecords > 2L * this.index.size();
+    }
+
+    /**
+     * Replaces the index log with one record per live entry
+     */
+    private void compactIndex() throws IOException {
+        final Path file = this.directory.resolve(INDEX_FILE);
+        final Path temp = this.directory.resolve(INDEX_FILE + ".tmp");
+        if (null != this.indexLog) {
+            this.indexLog.close();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            for (final Map.Entry<String, Location> entry : this.index.entrySet()) {
+                out.writeByte(OP_PUT);
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().segment);
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().length);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.indexRecords = this.index.size();
+        this.indexLog = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    /**
+     * Lays out a record as a header and the body, ready for a gathering write
+     */
+    private static ByteBuffer[] encode(final String key, final CachedResponse response) throws IOException {
+        final byte[] metaBytes = encodeMeta(key, response);
+        final ByteBuffer body = response.getBody();
+        final CRC32 crc = new CRC32();
+        crc.update(metaBytes);
+        crc.update(body.duplicate());
+        return new ByteBuffer[] { header(metaBytes, body.remaining(), crc), body };
+    }
+
+    /**
+     * Lays out everything about a response but its body, ending with the length
+     * of the body
+     */
+    private static byte[] encodeMeta(final String key, final CachedResponse response) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream meta = new DataOutputStream(bytes);
+        meta.writeLong(response.getRequestTime());
+        meta.writeLong(response.getResponseTime());
+        meta.writeInt(response.getResponseCode());
+        writeString(meta, key);
+        writeString(meta, response.getUrl());
+        meta.writeInt(response.getVary().size());
+        for (final Map.Entry<String, String> vary : response.getVary().entrySet()) {
+            writeString(meta, vary.getKey());
+            writeString(meta, vary.getValue());
+        }
+        meta.writeInt(response.getHeaders().size());
+        for (final Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+            writeString(meta, header.getKey());
+            meta.writeInt(header.getValue().size());
+            for (final String value : header.getValue()) {
+                writeString(meta, value);
+            }
+        }
+        meta.writeInt(response.getBodyLength());
+        meta.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Lays out the front of a record, everything up to the body
+     *
+     * @param crc the checksum of the meta and the body
+     */
+    private static ByteBuffer header(final byte[] metaBytes, final long bodyLength, final CRC32 crc) {
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES + metaBytes.length);
+        header.putInt(RECORD_MAGIC);
+        header.putInt((int) (RECORD_HEADER_BYTES + metaBytes.length + bodyLength));
+        header.putInt((int) crc.getValue());
+        header.put(metaBytes);
+        header.flip();
+        return header;
+    }
+
+    /**
+     * Reads a record back, with the body left in the mapped buffer
+     *
+     * @return the response, or empty if the record is damaged
+     */
+    private static Optional<CachedResponse> decode(final String key, final ByteBuffer record, final boolean verify) {
+        if (record.getInt() != RECORD_MAGIC || record.getInt() != record.capacity()) {
+            return Optional.empty();
+        }
+        final int expected = record.getInt();
+        if (verify) {
+            final CRC32 crc = new CRC32();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != expected) {
+                return Optional.empty();
+            }
+        }
+        final long requestTime = record.getLong();
+        final long responseTime = record.getLong();
+        final int responseCode = record.getInt();
+        if (!key.equals(readString(record))) {
+            return Optional.empty();
+        }
+        final String url = readString(record);
+        final int varyCount = record.getInt();
+        final HashMap<String, String> vary = new HashMap<>();
+        for (int i = 0; i < varyCount; i++) {
+            vary.put(readString(record), readString(record));
+        }
+        final int headerCount = record.getInt();
+        final HashMap<String, List<String>> headers = new HashMap<>();
+        for (int i = 0; i < headerCount; i++) {
+            final String name = readString(record);
+            final String[] values = new String[record.getInt()];
+            for (int v = 0; v < values.length; v++) {
+                values[v] = readString(record);
+            }
+            headers.put(name, Arrays.asList(values));
+        }
+        final int bodyLength = record.getInt();
+        if (bodyLength != record.remaining()) {
+            return Optional.empty();
+        }
+        return Optional.of(new CachedResponse(url, responseCode, headers, record.slice(), vary,
+                requestTime, responseTime));
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (null == value) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A response being written into a segment of its own as its body arrives. The
+     * body goes straight to the file, the front of the record is written last once
+     * the length and checksum are known.
+     */
+    final class Spool extends OutputStream {
+        private final String key;
+        private final int id;
+        private final Path path;
+        private final FileChannel channel;
+        private final byte[] meta;
+        private final long maxBodyBytes;
+        private long bodyBytes;
+        private boolean done;
+
+        Spool(final String key, final int id, final Path path, final FileChannel channel, final byte[] meta,
+                final long maxBodyBytes) {
+            this.key = key;
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.meta = meta;
+            this.maxBodyBytes = maxBodyBytes;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /**
+         * Adds to the body
+         *
+         * @throws IOException if the body grew too big, the spool should be aborted
+         */
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (this.done) {
+                throw new IOException("The spool is already finished");
+            }
+            if (this.bodyBytes + len > this.maxBodyBytes) {
+                throw new IOException("The body is bigger than " + this.maxBodyBytes + " bytes");
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.bodyBytes += len;
+        }
+
+        /**
+         * Finishes the record and keeps it, replacing anything kept under its key
+         *
+         * @return the response with its body mapped from the segment, or empty if
+         *     it couldn't be kept
+         */
+        Optional<CachedResponse> commit() {
+            if (this.done) {
+                return Optional.empty();
+            }
+            this.done = true;
+            final long bodyStart = RECORD_HEADER_BYTES + this.meta.length;
+            try {
+                // The length of the body is the last thing in the meta
+                ByteBuffer.wrap(this.meta, this.meta.length - 4, 4).putInt((int) this.bodyBytes);
+                final CRC32 crc = new CRC32();
+                crc.update(this.meta);
+                if (this.bodyBytes > 0) {
+                    crc.update(this.channel.map(FileChannel.MapMode.READ_ONLY, bodyStart, this.bodyBytes));
+                }
+                final ByteBuffer header = header(this.meta, this.bodyBytes, crc);
+                long at = 0;
+                while (header.hasRemaining()) {
+                    at += this.channel.write(header, at);
+                }
+            } catch (final IOException e) {
+                DiskCacheStore.this.failureCount.increment();
+                discard();
+                return Optional.empty();
+            }
+            return adopt(this, bodyStart + this.bodyBytes);
+        }
+
+        /**
+         * Throws away what was written, the response isn't kept
+         */
+        void abort() {
+            if (!this.done) {
+                this.done = true;
+                discard();
+            }
+        }
+
+        private void discard() {
+            try {
+                this.channel.close();
+                Files.deleteIfExists(this.path);
+            } catch (final IOException e) {
+                DiskCacheStore.this.failureCount.increment();
+            }
+        }
+    }
+
+    /**
+     * Where a record is kept
+     */
+    private static final class Location {
+        final int segment;
+        final long offset;
+        final int length;
+        boolean verified;
+
+        Location(final int segment, final long offset, final int length, final boolean verified) {
+            if (length < RECORD_HEADER_BYTES || offset < 0) {
+                throw new IllegalArgumentException("Bad index record");
+            }
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.verified = verified;
+        }
+    }
+
+    /**
+     * One segment file and the mapping it is read through
+     */
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        long size;
+        private MappedByteBuffer mapped;
+
+        Segment(final int id, final Path path, final FileChannel channel) throws IOException {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        /**
+         * Gets a record out of the mapping, mapping the file again if the record
+         * was written after the last mapping was made
+         */
+        ByteBuffer slice(final long offset, final int length) throws IOException {
+            if (null == this.mapped || this.mapped.capacity() < offset + length) {
+                this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+            }
+            final ByteBuffer record = this.mapped.duplicate();
+            record.position((int) offset);
+            record.limit((int) (offset + length));
+            return record.slice();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.pavlovmedia.oss.osgi.http;
+
+/**
+ * Told how far along a download to a file is
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@FunctionalInterface
+public interface DownloadProgress {
+    /** Doesn't want to know */
+    DownloadProgress NONE = (written, total) -> { };
+
+    /**
+     * Called each time a block of the file has been written. If a download has
+     * to start over the count goes back down.
+     *
+     * @param bytesWritten how much of the file is on disk
+     * @param totalBytes how big the file will be, or -1 if the server didn't say
+     */
+    void update(long bytesWritten, long totalBytes);
+}
@@ -0,0 +1,272 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
+
+/**
+ * Downloads a response body into a file. The body is gathered into a large
+ * direct buffer and written to a {@link FileChannel} a block at a time, so the
+ * file is written with few system calls and without copying through the heap.
+ * If the body breaks off part way the download asks for the rest with a Range
+ * request, guarded by If-Range so a file that changed on the server is
+ * downloaded again from the start instead of being stitched together.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class FileDownloader {
+    static final int BUFFER_SIZE = 256 * 1024;
+
+    private final PavlovHttpClient template;
+    private final Path file;
+    private final DownloadProgress progress;
+    private final RetryPolicy policy;
+    private final Optional<AtomicBoolean> interrupt;
+    private final Optional<Consumer<String>> debugger;
+
+    private long written;
+    private long total = -1;
+    private Optional<String> validator = Optional.empty();
+
+    /**
+     * @param template the request, cloned for each attempt, which shouldn't retry on its own
+     * @param file where to write the body, replaced if it exists
+     * @param progress told after each block is written
+     * @param policy how many attempts to make and how long to wait between them
+     * @param interrupt stops the download when set
+     * @param debugger
+     */
+    FileDownloader(final PavlovHttpClient template, final Path file, final DownloadProgress progress,
+            final RetryPolicy policy, final Optional<AtomicBoolean> interrupt,
+            final Optional<Consumer<String>> debugger) {
+        this.template = template;
+        this.file = file;
+        this.progress = progress;
+        this.policy = policy;
+        this.interrupt = interrupt;
+        this.debugger = debugger;
+    }
+
+    /**
+     * Runs the download, resuming it as long as the retry policy allows
+     *
+     * @return the length of the file
+     * @throws IOException if the download can't be finished, the file is left with
+     *     whatever was written
+     */
+    long download() throws IOException {
+        try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            long delay = 0;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    fetch(channel, buffer);
+                    return this.written;
+                } catch (final IOException e) {
+                    final Optional<String> retryAfter = e instanceof StatusException
+                            ? ((StatusException) e).retryAfter : Optional.empty();
+                    final Optional<Long> next = isResumable(e) && attempt < this.policy.getMaxAttempts()
+                            ? this.policy.nextDelay(delay, retryAfter) : Optional.empty();
+                    if (!next.isPresent()) {
+                        throw e;
+                    }
+                    delay = next.get();
+                    debug(String.format("Download failed at %d bytes with %s, trying again in %dms",
+                            this.written, e, delay));
+                    sleep(delay);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes one request, picking up where the last one stopped if the server allows it
+     */
+    private void fetch(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        final PavlovHttpClient request = this.template.clone();
+        final boolean resuming = this.written > 0 && this.validator.isPresent();
+        if (resuming) {
+            request.addHeader("Range", "bytes=" + this.written + "-");
+            request.addHeader("If-Range", this.validator.get());
+        }
+
+        try (HttpResponse response = send(request)) {
+            final int code = response.responseCode;
+            if (resuming && code == 206) {
+                final Optional<long[]> range = response.getHeader("Content-Range").flatMap(HttpHeaders::contentRange);
+                if (!range.isPresent() || range.get()[0] != this.written) {
+                    this.validator = Optional.empty();
+                    throw new IOException("Asked for the file from byte " + this.written + " but got "
+                            + response.getHeader("Content-Range").orElse("no Content-Range"));
+                }
+                if (range.get()[2] >= 0) {
+                    this.total = range.get()[2];
+                }
+                debug("Resuming download at " + this.written + " bytes");
+            } else if (resuming && code == 416 && this.written == this.total) {
+                // We had all of it, the connection dropped before we saw the end
+                return;
+            } else if (code >= 200 && code < 300 && code != 206) {
+                if (this.written > 0) {
+                    debug("Got the whole file again, starting over");
+                }
+                this.written = 0;
+                channel.truncate(0);
+                final boolean encoded = ContentDecoding.isEncoded(response.responseHeaders);
+                this.total = encoded ? -1 : response.getContentLength();
+                this.validator = encoded ? Optional.empty() : validatorOf(response);
+            } else {
+                this.validator = Optional.empty();
+                throw new StatusException(code, response.getHeader("Retry-After"));
+            }
+            this.progress.update(this.written, this.total);
+
+            final Optional<InputStream> body = response.responseStream.map(ConvertibleAsset::get);
+            if (body.isPresent()) {
+                copy(Channels.newChannel(body.get()), channel, buffer);
+            }
+            if (this.total >= 0 && this.written != this.total) {
+                throw new EOFException("Download ended at " + this.written + " of " + this.total + " bytes");
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer from the body and writes it to the file each time it is full.
+     * If the body breaks off whatever was read is still written, so the next
+     * attempt doesn't have to ask for it again.
+     */
+    private void copy(final ReadableByteChannel source, final FileChannel channel, final ByteBuffer buffer)
+            throws IOException {
+        buffer.clear();
+        try {
+            while (true) {
+                if (this.interrupt.map(AtomicBoolean::get).orElse(false)) {
+                    throw new Interrupted();
+                }
+                final int read = source.read(buffer);
+                if (read < 0) {
+                    break;
+                }
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+            }
+        } finally {
+            flush(channel, buffer);
+        }
+    }
+
+    private void flush(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        if (!buffer.hasRemaining()) {
+            buffer.clear();
+            return;
+        }
+        while (buffer.hasRemaining()) {
+            this.written += channel.write(buffer, this.written);
+        }
+        buffer.clear();
+        this.progress.update(this.written, this.total);
+    }
+
+    private boolean isResumable(final IOException error) {
+        return isResumable(error, this.policy, this.interrupt);
+    }
+
+    /**
+     * Sends a request, turning a failure into the exception it failed with
+     */
+    static HttpResponse send(final PavlovHttpClient request) throws IOException {
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final Optional<HttpResponse> sent = request.execute(error::set);
+        if (!sent.isPresent()) {
+            final Exception cause = error.get();
+            throw cause instanceof IOException ? (IOException) cause : new IOException("Download failed", cause);
+        }
+        return sent.get();
+    }
+
+    /**
+     * Checks if a failed attempt is worth picking up again
+     *
+     * @param error what the attempt failed with
+     * @param policy decides which statuses and errors are retried
+     * @param interrupt nothing is retried once this is set
+     */
+    static boolean isResumable(final IOException error, final RetryPolicy policy,
+            final Optional<AtomicBoolean> interrupt) {
+        if (error instanceof Interrupted || interrupt.map(AtomicBoolean::get).orElse(false)) {
+            return false;
+        }
+        if (error instanceof StatusException) {
+            return policy.isRetryableStatus(((StatusException) error).code);
+        }
+        return policy.isRetryableError(error);
+    }
+
+    /**
+     * Picks what to send in If-Range. Weak ETags can't be used for ranges, so
+     * those fall back to the modified date.
+     */
+    static Optional<String> validatorOf(final HttpResponse response) {
+        final Optional<String> etag = response.getHeader("ETag").map(String::trim)
+                .filter(tag -> !tag.startsWith("W/"));
+        return etag.isPresent() ? etag : response.getHeader("Last-Modified");
+    }
+
+    private void debug(final String message) {
+        this.debugger.ifPresent(d -> d.accept(message));
+    }
+
+    static void sleep(final long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting to resume the download");
+        }
+    }
+
+    /**
+     * The server answered with something other than the file
+     */
+    static final class StatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int code;
+        final transient Optional<String> retryAfter;
+
+        StatusException(final int code, final Optional<String> retryAfter) {
+            super("Download failed with response code " + code);
+            this.code = code;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * The interrupt flag was set part way through
+     */
+    static final class Interrupted extends InterruptedIOException {
+        private static final long serialVersionUID = 1L;
+
+        Interrupted() {
+            super("Download interrupted");
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A {@link VisitedSet} that keeps the 64 bit {@link UrlHelpers.UrlKey#fingerprint()}
+ * of each url in an open addressing table of longs, about 16 bytes a url no
+ * matter how long it is. Two urls only get mixed up if their fingerprints
+ * collide, which for a crawl of a hundred million urls is around one chance in
+ * three thousand.
+ * <p>
+ * The table can live off the heap, where it doesn't add to garbage collection
+ * work. It doubles as it fills. On the heap it holds up to {@link #MAX_HEAP_URLS},
+ * about 160 million urls, and off the heap up to {@link #MAX_OFF_HEAP_URLS}, about
+ * 80 million, since a direct buffer can't be more than 2GB.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class FingerprintVisitedSet implements VisitedSet {
+    public static final int DEFAULT_EXPECTED = 1024;
+
+    private static final double MAX_LOAD = 0.6;
+    private static final int MAX_HEAP_SLOTS = 1 << 28;
+    // A direct buffer is indexed by an int number of bytes
+    private static final int MAX_OFF_HEAP_SLOTS = Integer.highestOneBit(Integer.MAX_VALUE / Long.BYTES);
+
+    /** The most urls a set on the heap can hold */
+    public static final long MAX_HEAP_URLS = (long) (MAX_HEAP_SLOTS * MAX_LOAD);
+    /** The most urls a set off the heap can hold */
+    public static final long MAX_OFF_HEAP_URLS = (long) (MAX_OFF_HEAP_SLOTS * MAX_LOAD);
+    /** Marks an empty slot, the fingerprint 0 is kept as 1 instead */
+    private static final long EMPTY = 0;
+
+    private final boolean offHeap;
+    private final long maxUrls;
+    private LongBuffer table;
+    private int mask;
+    private long size;
+
+    /**
+     * Creates a small set on the heap that grows as needed
+     */
+    public FingerprintVisitedSet() {
+        this(DEFAULT_EXPECTED, false);
+    }
+
+    /**
+     * @param expected how many urls to make room for up front
+     * @param offHeap keeps the table in a direct buffer
+     */
+    public FingerprintVisitedSet(final long expected, final boolean offHeap) {
+        if (expected < 0) {
+            throw new IllegalArgumentException("Expected urls can't be negative");
+        }
+        this.offHeap = offHeap;
+        this.maxUrls = offHeap ? MAX_OFF_HEAP_URLS : MAX_HEAP_URLS;
+        if (expected > this.maxUrls) {
+            throw new IllegalArgumentException("A fingerprint set can't hold " + expected + " urls "
+                    + (offHeap ? "off" : "on") + " the heap, the most is " + this.maxUrls);
+        }
+        allocate(slotsFor(expected, offHeap ? MAX_OFF_HEAP_SLOTS : MAX_HEAP_SLOTS));
+    }
+
+    @Override
+    public synchronized boolean add(final UrlHelpers.UrlKey key) {
+        final long fingerprint = fingerprintOf(key);
+        int slot = (int) fingerprint & this.mask;
+        long current;
+        while ((current = this.table.get(slot)) != EMPTY) {
+            if (current == fingerprint) {
+                return false;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        if (this.size >= this.maxUrls) {
+            throw new IllegalStateException("A fingerprint set can't hold more than " + this.maxUrls + " urls "
+                    + (this.offHeap ? "off" : "on") + " the heap");
+        }
+        this.table.put(slot, fingerprint);
+        this.size++;
+        if (this.size > this.table.capacity() * MAX_LOAD) {
+            grow();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean contains(final UrlHelpers.UrlKey key) {
+        final long fingerprint = fingerprintOf(key);
+        int slot = (int) fingerprint & this.mask;
+        long current;
+        while ((current = this.table.get(slot)) != EMPTY) {
+            if (current == fingerprint) {
+                return true;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized long size() {
+        return this.size;
+    }
+
+    /**
+     * How many bytes the table takes up
+     */
+    public synchronized long getTableBytes() {
+        return this.table.capacity() * (long) Long.BYTES;
+    }
+
+    private void grow() {
+        // Never past the largest table, adding stops at maxUrls before that one fills
+        final int slots = this.table.capacity() * 2;
+        final LongBuffer old = this.table;
+        allocate(slots);
+        for (int i = 0; i < old.capacity(); i++) {
+            final long fingerprint = old.get(i);
+            if (fingerprint != EMPTY) {
+                int slot = (int) fingerprint & this.mask;
+                while (this.table.get(slot) != EMPTY) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.table.put(slot, fingerprint);
+            }
+        }
+    }
+
+    private void allocate(final int slots) {
+        this.table = this.offHeap
+                ? ByteBuffer.allocateDirect(slots * Long.BYTES).asLongBuffer()
+                : LongBuffer.allocate(slots);
+        this.mask = slots - 1;
+    }
+
+    private static int slotsFor(final long expected, final int maxSlots) {
+        final long needed = Math.min(maxSlots, Math.max(16, (long) Math.ceil(expected / MAX_LOAD) + 1));
+        return Integer.highestOneBit((int) needed - 1) << 1;
+    }
+
+    private static long fingerprintOf(final UrlHelpers.UrlKey key) {
+        final long fingerprint = key.fingerprint();
+        return fingerprint == EMPTY ? 1 : fingerprint;
+    }
+}
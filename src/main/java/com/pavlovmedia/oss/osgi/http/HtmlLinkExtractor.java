@@ -0,0 +1,377 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Finds the links in an HTML page in one pass over the stream, without ever
+ * holding the whole page. It is a small tokenizer rather than a pattern, so it
+ * takes the same time on a page that is all one line as on any other, and it
+ * follows the HTML rules for attributes: values can be in double quotes,
+ * single quotes or no quotes, and character references like {@code &amp;}
+ * are decoded.
+ * <p>
+ * The href of {@code <a>}, {@code <area>} and {@code <link>} tags is reported,
+ * resolved against the page url or the first {@code <base href>}. Comments and
+ * the insides of {@code <script>} and {@code <style>} are skipped. Only http
+ * and https links are reported. Attribute values longer than
+ * {@link #MAX_VALUE_LENGTH} are dropped, so memory stays bounded no matter
+ * what the page holds.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class HtmlLinkExtractor {
+    public static final int MAX_VALUE_LENGTH = 8192;
+
+    private static final int MAX_NAME_LENGTH = 16;
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Reader in;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private int pushedBack = -1;
+
+    private final StringBuilder name = new StringBuilder(MAX_NAME_LENGTH);
+    private final StringBuilder value = new StringBuilder(64);
+    private boolean valueTooLong;
+
+    private HtmlLinkExtractor(final Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * Reads a page and hands over each link as it is found
+     *
+     * @param in the page, which is read to the end but not closed
+     * @param charset what the page is encoded with
+     * @param pageUrl relative links are resolved against this until a base tag says otherwise
+     * @param onLink gets each absolute http or https link, repeats included
+     * @throws IOException if the page can't be read, links before the error were already handed over
+     */
+    public static void extract(final InputStream in, final Charset charset, final URL pageUrl,
+            final Consumer<URL> onLink) throws IOException {
+        Objects.requireNonNull(onLink);
+
+        extract(new InputStreamReader(in, charset), pageUrl, (ref, url) -> onLink.accept(url));
+    }
+
+    /**
+     * Reads a page and hands over each link as it is found
+     *
+     * @param in the page, which is read to the end but not closed
+     * @param pageUrl relative links are resolved against this until a base tag says otherwise
+     * @param onLink gets the decoded href as written in the page and the absolute
+     *     http or https link it resolves to, repeats included
+     * @throws IOException if the page can't be read, links before the error were already handed over
+     */
+    public static void extract(final Reader in, final URL pageUrl, final BiConsumer<String, URL> onLink)
+            throws IOException {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(pageUrl);
+        Objects.requireNonNull(onLink);
+
+        new HtmlLinkExtractor(in).run(pageUrl, onLink);
+    }
+
+    private void run(final URL pageUrl, final BiConsumer<String, URL> onLink) throws IOException {
+        URL base = pageUrl;
+        boolean baseSet = false;
+        int c;
+        while ((c = next()) != -1) {
+            if (c != '<') {
+                continue;
+            }
+            c = next();
+            if (c == '!') {
+                skipDeclaration();
+            } else if (c == '/' || c == '?') {
+                skipPast('>');
+            } else if (isLetter(c)) {
+                final String tag = readTag(c);
+                final String href = this.value.length() > 0 ? decode(this.value) : null;
+                if ("base".equals(tag) && null != href && !baseSet) {
+                    baseSet = true;
+                    base = resolve(base, href);
+                } else if (null != href && ("a".equals(tag) || "area".equals(tag) || "link".equals(tag))) {
+                    final URL url = resolve(base, href);
+                    final String protocol = null == url ? "" : url.getProtocol();
+                    if ("http".equals(protocol) || "https".equals(protocol)) {
+                        onLink.accept(href, url);
+                    }
+                } else if ("script".equals(tag) || "style".equals(tag)) {
+                    skipRawText(tag);
+                }
+            } else if (c != -1) {
+                // A < that doesn't start a tag is just text
+                this.pushedBack = c;
+            }
+        }
+    }
+
+    /**
+     * Reads a start tag up to its closing {@literal >}, keeping its href in the value buffer
+     *
+     * @param first the first letter of the tag name
+     * @return the lower cased tag name, cut short if it is long
+     */
+    private String readTag(final int first) throws IOException {
+        this.name.setLength(0);
+        int c = first;
+        while (c != -1 && !isSpace(c) && c != '>' && c != '/') {
+            appendName(c);
+            c = next();
+        }
+        final String tag = this.name.toString();
+        final boolean interesting = "a".equals(tag) || "area".equals(tag) || "link".equals(tag)
+                || "base".equals(tag);
+        this.value.setLength(0);
+        this.valueTooLong = false;
+        boolean hrefFound = false;
+
+        while (c != -1 && c != '>') {
+            if (isSpace(c) || c == '/') {
+                c = next();
+                continue;
+            }
+            this.name.setLength(0);
+            while (c != -1 && !isSpace(c) && c != '=' && c != '>' && c != '/') {
+                appendName(c);
+                c = next();
+            }
+            while (isSpace(c)) {
+                c = next();
+            }
+            if (c != '=') {
+                // An attribute with no value
+                continue;
+            }
+            c = next();
+            while (isSpace(c)) {
+                c = next();
+            }
+            final boolean keep = interesting && !hrefFound && "href".contentEquals(this.name);
+            if (c == '"' || c == '\'') {
+                final int quote = c;
+                while ((c = next()) != -1 && c != quote) {
+                    keepValue(keep, c);
+                }
+                c = next();
+            } else {
+                while (c != -1 && !isSpace(c) && c != '>') {
+                    keepValue(keep, c);
+                    c = next();
+                }
+            }
+            if (keep) {
+                // Only the first href counts, the same as in a browser
+                hrefFound = true;
+                if (this.valueTooLong) {
+                    this.value.setLength(0);
+                }
+            }
+        }
+        return tag;
+    }
+
+    private void appendName(final int c) {
+        if (this.name.length() < MAX_NAME_LENGTH) {
+            this.name.append(Character.toLowerCase((char) c));
+        }
+    }
+
+    private void keepValue(final boolean keep, final int c) {
+        if (!keep || this.valueTooLong) {
+            return;
+        }
+        if (this.value.length() >= MAX_VALUE_LENGTH) {
+            this.valueTooLong = true;
+            return;
+        }
+        this.value.append((char) c);
+    }
+
+    /**
+     * Skips a comment or a declaration like a doctype, the {@literal <!} is already read
+     */
+    private void skipDeclaration() throws IOException {
+        int c = next();
+        if (c != '-') {
+            this.pushedBack = c;
+            skipPast('>');
+            return;
+        }
+        c = next();
+        if (c != '-') {
+            this.pushedBack = c;
+            skipPast('>');
+            return;
+        }
+        // Inside a comment, which ends at the first -->
+        int dashes = 0;
+        while ((c = next()) != -1) {
+            if (c == '>' && dashes >= 2) {
+                return;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    /**
+     * Skips the contents of a script or style tag, which end at the matching end tag and nowhere else
+     */
+    private void skipRawText(final String tag) throws IOException {
+        int c;
+        while ((c = next()) != -1) {
+            if (c != '<') {
+                continue;
+            }
+            c = next();
+            if (c != '/') {
+                this.pushedBack = c;
+                continue;
+            }
+            int matched = 0;
+            while (matched < tag.length()) {
+                c = next();
+                if (c == -1 || Character.toLowerCase((char) c) != tag.charAt(matched)) {
+                    break;
+                }
+                matched++;
+            }
+            if (matched == tag.length()) {
+                skipPast('>');
+                return;
+            }
+            this.pushedBack = c;
+        }
+    }
+
+    private void skipPast(final char end) throws IOException {
+        int c;
+        while ((c = next()) != -1 && c != end) {
+            continue;
+        }
+    }
+
+    private int next() throws IOException {
+        if (this.pushedBack != -1) {
+            final int c = this.pushedBack;
+            this.pushedBack = -1;
+            return c;
+        }
+        if (this.position == this.limit) {
+            do {
+                this.limit = this.in.read(this.buffer);
+            } while (this.limit == 0);
+            this.position = 0;
+            if (this.limit <= 0) {
+                this.limit = 0;
+                return -1;
+            }
+        }
+        return this.buffer[this.position++];
+    }
+
+    private static URL resolve(final URL base, final String href) {
+        try {
+            return new URL(base, href);
+        } catch (final MalformedURLException e) {
+            // Links to schemes java doesn't know, like javascript:, aren't links to follow
+            return null;
+        }
+    }
+
+    /**
+     * Decodes character references and drops the whitespace a url can't hold
+     */
+    static String decode(final CharSequence raw) {
+        final String trimmed = raw.toString().trim();
+        if (trimmed.indexOf('&') < 0 && trimmed.indexOf('\n') < 0 && trimmed.indexOf('\t') < 0
+                && trimmed.indexOf('\r') < 0) {
+            return trimmed;
+        }
+        final StringBuilder out = new StringBuilder(trimmed.length());
+        for (int i = 0; i < trimmed.length(); i++) {
+            final char c = trimmed.charAt(i);
+            if (c == '\n' || c == '\t' || c == '\r') {
+                continue;
+            }
+            if (c != '&') {
+                out.append(c);
+                continue;
+            }
+            final int end = referenceEnd(trimmed, i + 1);
+            final String reference = trimmed.substring(i + 1, end);
+            final int codePoint = referenceValue(reference);
+            if (codePoint < 0) {
+                out.append(c);
+                continue;
+            }
+            out.appendCodePoint(codePoint);
+            i = end < trimmed.length() && trimmed.charAt(end) == ';' ? end : end - 1;
+        }
+        return out.toString();
+    }
+
+    private static int referenceEnd(final String text, final int start) {
+        int end = start;
+        while (end < text.length() && end - start < 10
+                && (Character.isLetterOrDigit(text.charAt(end)) || (end == start && text.charAt(end) == '#'))) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * The character a reference stands for, like amp or #x26
+     *
+     * @return -1 if it isn't one this knows
+     */
+    private static int referenceValue(final String reference) {
+        if (reference.startsWith("#")) {
+            try {
+                final int codePoint = reference.length() > 1 && (reference.charAt(1) == 'x' || reference.charAt(1) == 'X')
+                        ? Integer.parseInt(reference.substring(2), 16)
+                        : Integer.parseInt(reference.substring(1));
+                return Character.isValidCodePoint(codePoint) && codePoint != 0 ? codePoint : -1;
+            } catch (final NumberFormatException e) {
+                return -1;
+            }
+        }
+        switch (reference.toLowerCase(Locale.ROOT)) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            case "nbsp":
+                return '\u00a0';
+            default:
+                return -1;
+        }
+    }
+
+    private static boolean isLetter(final int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(final int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f';
+    }
+}
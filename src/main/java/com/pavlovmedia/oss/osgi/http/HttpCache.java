@@ -0,0 +1,462 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+
+/**
+ * A private HTTP cache for GET requests, following RFC 7234. Responses are kept
+ * per url and only served for requests with the same values for the headers the
+ * response varies on, a new variant replaces the old one.
+ * <ul>
+ * <li>Fresh responses are served without a request, freshness comes from
+ * Cache-Control max-age, then Expires, then 10% of the time since Last-Modified.</li>
+ * <li>Stale responses with an ETag or Last-Modified are revalidated with
+ * If-None-Match or If-Modified-Since, a 304 serves the kept body.</li>
+ * <li>POST, PUT, PATCH and DELETE to a url forget what is kept for it.</li>
+ * </ul>
+ * Inside OSGi this is a service configured through Config Admin and shared by the
+ * clients of a {@link PavlovHttpClientFactory}. Responses are kept on the heap,
+ * and when a disk directory is configured also in a {@link DiskCacheStore} so they
+ * are still there after a restart. Bodies too big for the heap are then spooled
+ * straight to disk as they are read. Outside of OSGi it can be created
+ * directly and handed to {@link PavlovHttpClient#withCache(HttpCache)}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@Component(metatype = true,
+    label = "Pavlov HTTP Cache",
+    description = "Keeps cacheable GET responses so they don't have to be downloaded again")
+@Service(HttpCache.class)
+@Properties({
+    @Property(name = HttpCache.MEMORY_MAX_BYTES, longValue = HttpCache.DEFAULT_MEMORY_MAX_BYTES,
+        label = "Memory size", description = "Roughly how many bytes of responses are kept on the heap"),
+    @Property(name = HttpCache.MAX_ENTRY_BYTES, longValue = HttpCache.DEFAULT_MAX_ENTRY_BYTES,
+        label = "Largest response in memory",
+        description = "Bodies bigger than this many bytes are not kept on the heap"),
+    @Property(name = HttpCache.DISK_DIRECTORY, value = "",
+        label = "Disk directory", description = "Where responses are also kept on disk, blank to only use memory"),
+    @Property(name = HttpCache.DISK_MAX_BYTES, longValue = HttpCache.DEFAULT_DISK_MAX_BYTES,
+        label = "Disk size", description = "Roughly how many bytes of responses are kept on disk"),
+    @Property(name = HttpCache.DISK_MAX_ENTRY_BYTES, longValue = HttpCache.DEFAULT_DISK_MAX_ENTRY_BYTES,
+        label = "Largest response on disk", description = "Bodies bigger than this many bytes are not kept on disk")
+})
+public class HttpCache {
+    public static final String MEMORY_MAX_BYTES = "cache.memory.max.bytes";
+    public static final String MAX_ENTRY_BYTES = "cache.max.entry.bytes";
+    public static final String DISK_DIRECTORY = "cache.disk.directory";
+    public static final String DISK_MAX_BYTES = "cache.disk.max.bytes";
+    public static final String DISK_MAX_ENTRY_BYTES = "cache.disk.max.entry.bytes";
+
+    public static final long DEFAULT_MEMORY_MAX_BYTES = 32 * 1024 * 1024;
+    public static final long DEFAULT_MAX_ENTRY_BYTES = 1024 * 1024;
+    public static final long DEFAULT_DISK_MAX_BYTES = 256 * 1024 * 1024;
+    public static final long DEFAULT_DISK_MAX_ENTRY_BYTES = 64 * 1024 * 1024;
+
+    private static final Set<Integer> STORABLE_CODES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(200, 203)));
+    private static final long MAX_HEURISTIC_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private volatile CacheStore store;
+    private volatile long maxEntryBytes;
+    private volatile long diskMaxEntryBytes;
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder revalidatedCount = new LongAdder();
+    private final LongAdder storedCount = new LongAdder();
+
+    /**
+     * Creates a cache on the heap with the default sizes
+     */
+    public HttpCache() {
+        this(new MemoryCacheStore(DEFAULT_MEMORY_MAX_BYTES), DEFAULT_MAX_ENTRY_BYTES);
+    }
+
+    /**
+     * @param store where responses are kept
+     * @param maxEntryBytes bodies bigger than this are not kept on the heap
+     */
+    public HttpCache(final CacheStore store, final long maxEntryBytes) {
+        this(store, maxEntryBytes, DEFAULT_DISK_MAX_ENTRY_BYTES);
+    }
+
+    /**
+     * @param store where responses are kept
+     * @param maxEntryBytes bodies bigger than this are not kept on the heap
+     * @param diskMaxEntryBytes bodies bigger than this are not kept on disk, only
+     *     used when the store has a {@link DiskCacheStore}
+     */
+    public HttpCache(final CacheStore store, final long maxEntryBytes, final long diskMaxEntryBytes) {
+        this.store = Objects.requireNonNull(store);
+        this.maxEntryBytes = maxEntryBytes;
+        this.diskMaxEntryBytes = diskMaxEntryBytes;
+    }
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) throws IOException {
+        modified(properties);
+    }
+
+    @Modified
+    protected void modified(final Map<String, Object> properties) throws IOException {
+        final long memoryEntryBytes = longProperty(properties, MAX_ENTRY_BYTES, DEFAULT_MAX_ENTRY_BYTES);
+        final CacheStore memory =
+                new MemoryCacheStore(longProperty(properties, MEMORY_MAX_BYTES, DEFAULT_MEMORY_MAX_BYTES));
+        final Optional<String> directory = Optional.ofNullable(properties.get(DISK_DIRECTORY))
+                .map(Object::toString)
+                .map(String::trim)
+                .filter(name -> !name.isEmpty());
+        // Built before the old store is let go, so a directory that can't be used
+        // leaves the cache working as it was
+        final CacheStore replacement = directory.isPresent()
+                ? new TieredCacheStore(memory, new DiskCacheStore(Paths.get(directory.get()),
+                        longProperty(properties, DISK_MAX_BYTES, DEFAULT_DISK_MAX_BYTES)), memoryEntryBytes)
+                : memory;
+        final CacheStore previous = this.store;
+        this.maxEntryBytes = memoryEntryBytes;
+        this.diskMaxEntryBytes = longProperty(properties, DISK_MAX_ENTRY_BYTES, DEFAULT_DISK_MAX_ENTRY_BYTES);
+        this.store = replacement;
+        TieredCacheStore.closeStore(previous);
+    }
+
+    @Deactivate
+    protected void deactivate() throws IOException {
+        TieredCacheStore.closeStore(this.store);
+    }
+
+    public CacheStore getStore() {
+        return this.store;
+    }
+
+    /**
+     * Bodies bigger than this are not kept on the heap
+     */
+    public long getMaxEntryBytes() {
+        return this.maxEntryBytes;
+    }
+
+    /**
+     * Bodies bigger than this are not kept on disk
+     */
+    public long getDiskMaxEntryBytes() {
+        return this.diskMaxEntryBytes;
+    }
+
+    /**
+     * Forgets what is kept for a url, under any spelling of it
+     *
+     * @param url
+     */
+    public void invalidate(final String url) {
+        this.store.remove(UrlHelpers.keyOf(url, e -> { }).map(UrlHelpers.UrlKey::toString).orElse(url));
+    }
+
+    /**
+     * Forgets what is kept for a url, under any spelling of it
+     *
+     * @since 1.1.0
+     * @param url
+     */
+    public void invalidate(final URL url) {
+        this.store.remove(UrlHelpers.keyOf(url).toString());
+    }
+
+    /**
+     * Forgets everything
+     */
+    public void clear() {
+        this.store.clear();
+    }
+
+    /**
+     * How many requests were answered from the cache without asking the server
+     */
+    public long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    /**
+     * How many cacheable requests had to be sent in full
+     */
+    public long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    /**
+     * How many stale responses the server said were still good
+     */
+    public long getRevalidatedCount() {
+        return this.revalidatedCount.sum();
+    }
+
+    /**
+     * How many responses have been kept
+     */
+    public long getStoredCount() {
+        return this.storedCount.sum();
+    }
+
+    /**
+     * Finds the kept response that matches a request
+     *
+     * @param request
+     */
+    Optional<CachedResponse> lookup(final HttpTransportRequest request) {
+        return this.store.get(keyOf(request))
+                .filter(cached -> cached.getVary().equals(varyValues(request, cached.getVary().keySet())));
+    }
+
+    /**
+     * Checks if a kept response can be served without asking the server
+     *
+     * @param cached
+     * @param request
+     * @param now in epoch milliseconds
+     */
+    boolean isFresh(final CachedResponse cached, final HttpTransportRequest request, final long now) {
+        final Map<String, String> requested = directives(request.getHeaders());
+        final Map<String, String> response = directives(cached.getHeaders());
+        if (requested.containsKey("no-cache") || response.containsKey("no-cache")
+                || request.getHeader("Pragma").filter(p -> p.contains("no-cache")).isPresent()) {
+            return false;
+        }
+        final long age = currentAge(cached, now);
+        final Optional<Long> maxAge = Optional.ofNullable(requested.get("max-age")).flatMap(HttpHeaders::number);
+        if (maxAge.isPresent() && age > TimeUnit.SECONDS.toMillis(maxAge.get())) {
+            return false;
+        }
+        return freshnessLifetime(cached) > age;
+    }
+
+    /**
+     * Checks if a response may be kept, following RFC 7234 section 3 for a
+     * private cache
+     *
+     * @param request
+     * @param responseCode
+     * @param headers the response headers
+     */
+    boolean isStorable(final HttpTransportRequest request, final int responseCode,
+            final Map<String, List<String>> headers) {
+        if (request.getVerb() != HttpVerbs.GET || !STORABLE_CODES.contains(responseCode)) {
+            return false;
+        }
+        final Map<String, String> requested = directives(request.getHeaders());
+        final Map<String, String> response = directives(headers);
+        if (requested.containsKey("no-store") || response.containsKey("no-store")) {
+            return false;
+        }
+        if (HttpHeaders.all(headers, "Vary").stream().anyMatch(v -> v.trim().equals("*"))) {
+            return false;
+        }
+        // Other callers in this process may not be allowed to see an authorized response
+        if (request.getHeader("Authorization").isPresent() && !response.containsKey("public")) {
+            return false;
+        }
+        final long length = HttpHeaders.first(headers, "Content-Length").flatMap(HttpHeaders::number).orElse(0L);
+        final long limit = diskStore().isPresent()
+                ? Math.max(this.maxEntryBytes, this.diskMaxEntryBytes)
+                : this.maxEntryBytes;
+        if (length > limit) {
+            return false;
+        }
+        return response.containsKey("max-age")
+                || HttpHeaders.first(headers, "Expires").isPresent()
+                || HttpHeaders.first(headers, "ETag").isPresent()
+                || HttpHeaders.first(headers, "Last-Modified").isPresent();
+    }
+
+    /**
+     * Keeps a response that {@link #isStorable(HttpTransportRequest, int, Map)} said could be
+     */
+    void store(final HttpTransportRequest request, final int responseCode, final Map<String, List<String>> headers,
+            final byte[] body, final long requestTime, final long responseTime) {
+        this.store.put(keyOf(request), response(request, responseCode, headers, body, requestTime, responseTime));
+        this.storedCount.increment();
+    }
+
+    /**
+     * Starts spooling a response that is too big for the heap straight to disk
+     *
+     * @return empty if there is no disk store
+     */
+    Optional<DiskCacheStore.Spool> spool(final HttpTransportRequest request, final int responseCode,
+            final Map<String, List<String>> headers, final long requestTime, final long responseTime) {
+        return diskStore().flatMap(disk -> disk.spool(keyOf(request),
+                response(request, responseCode, headers, new byte[0], requestTime, responseTime),
+                this.diskMaxEntryBytes));
+    }
+
+    /**
+     * Keeps a response that was read to the end into a spool
+     */
+    void storeSpooled(final DiskCacheStore.Spool spool) {
+        final CacheStore current = this.store;
+        spool.commit().ifPresent(stored -> {
+            // Anything smaller kept on the heap for the url is out of date now
+            if (current instanceof TieredCacheStore) {
+                ((TieredCacheStore) current).getFirst().remove(stored.getUrl());
+            }
+            this.storedCount.increment();
+        });
+    }
+
+    /**
+     * Updates a kept response after the server said it is still good, RFC 7234 section 4.3.4
+     *
+     * @param cached
+     * @param notModified the headers of the 304
+     * @param requestTime when the revalidation was sent
+     * @param responseTime when the 304 came back
+     * @return the updated response, which is also kept
+     */
+    CachedResponse refresh(final CachedResponse cached, final Map<String, List<String>> notModified,
+            final long requestTime, final long responseTime) {
+        final Map<String, List<String>> headers = new HashMap<>(cached.getHeaders());
+        notModified.forEach((name, values) -> {
+            if (null == name || "Content-Length".equalsIgnoreCase(name)
+                    || "Transfer-Encoding".equalsIgnoreCase(name) || "Content-Encoding".equalsIgnoreCase(name)) {
+                return;
+            }
+            headers.keySet().removeIf(existing -> name.equalsIgnoreCase(existing));
+            headers.put(name, values);
+        });
+        final CachedResponse refreshed = new CachedResponse(cached.getUrl(), cached.getResponseCode(), headers,
+                cached.getBody(), cached.getVary(), requestTime, responseTime);
+        this.store.put(cached.getUrl(), refreshed);
+        return refreshed;
+    }
+
+    void recordHit() {
+        this.hitCount.increment();
+    }
+
+    void recordMiss() {
+        this.missCount.increment();
+    }
+
+    void recordRevalidated() {
+        this.revalidatedCount.increment();
+    }
+
+    /**
+     * How long a response stays fresh, RFC 7234 section 4.2.1
+     *
+     * @param cached
+     * @return the lifetime in milliseconds
+     */
+    static long freshnessLifetime(final CachedResponse cached) {
+        final Map<String, List<String>> headers = cached.getHeaders();
+        final Optional<Long> maxAge = Optional.ofNullable(directives(headers).get("max-age"))
+                .flatMap(HttpHeaders::number);
+        if (maxAge.isPresent()) {
+            return TimeUnit.SECONDS.toMillis(maxAge.get());
+        }
+
+        final long date = HttpHeaders.first(headers, "Date").flatMap(HttpHeaders::date)
+                .orElse(cached.getResponseTime());
+        final Optional<String> expires = HttpHeaders.first(headers, "Expires");
+        if (expires.isPresent()) {
+            // Dates that can't be read, like "0", mean already expired
+            return HttpHeaders.date(expires.get()).map(e -> Math.max(0, e - date)).orElse(0L);
+        }
+
+        return HttpHeaders.first(headers, "Last-Modified")
+                .flatMap(HttpHeaders::date)
+                .map(modified -> Math.min(MAX_HEURISTIC_MILLIS, Math.max(0, (date - modified) / 10)))
+                .orElse(0L);
+    }
+
+    /**
+     * How old a response is, RFC 7234 section 4.2.3
+     *
+     * @param cached
+     * @param now in epoch milliseconds
+     * @return the age in milliseconds
+     */
+    static long currentAge(final CachedResponse cached, final long now) {
+        final Map<String, List<String>> headers = cached.getHeaders();
+        final long date = HttpHeaders.first(headers, "Date").flatMap(HttpHeaders::date)
+                .orElse(cached.getResponseTime());
+        final long apparentAge = Math.max(0, cached.getResponseTime() - date);
+        final long ageValue = HttpHeaders.first(headers, "Age").flatMap(HttpHeaders::number)
+                .map(TimeUnit.SECONDS::toMillis)
+                .orElse(0L);
+        final long correctedAge = ageValue + (cached.getResponseTime() - cached.getRequestTime());
+        return Math.max(apparentAge, correctedAge) + Math.max(0, now - cached.getResponseTime());
+    }
+
+    /**
+     * Finds the disk store, on its own or behind the memory store
+     */
+    private Optional<DiskCacheStore> diskStore() {
+        final CacheStore current = this.store;
+        if (current instanceof TieredCacheStore) {
+            return Optional.of(((TieredCacheStore) current).getSecond())
+                    .filter(DiskCacheStore.class::isInstance)
+                    .map(DiskCacheStore.class::cast);
+        }
+        return Optional.of(current)
+                .filter(DiskCacheStore.class::isInstance)
+                .map(DiskCacheStore.class::cast);
+    }
+
+    private static CachedResponse response(final HttpTransportRequest request, final int responseCode,
+            final Map<String, List<String>> headers, final byte[] body, final long requestTime,
+            final long responseTime) {
+        final Set<String> varyNames = new HashSet<>();
+        HttpHeaders.all(headers, "Vary").forEach(value -> Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(name -> !name.isEmpty())
+                .map(name -> name.toLowerCase(Locale.ROOT))
+                .forEach(varyNames::add));
+        return new CachedResponse(keyOf(request), responseCode, headers, body,
+                varyValues(request, varyNames), requestTime, responseTime);
+    }
+
+    /**
+     * Keys by the canonical url, so spellings of the same url share an entry
+     */
+    private static String keyOf(final HttpTransportRequest request) {
+        return UrlHelpers.keyOf(request.getUrl()).toString();
+    }
+
+    private static Map<String, String> directives(final Map<String, List<String>> headers) {
+        return HttpHeaders.directives(HttpHeaders.all(headers, "Cache-Control"));
+    }
+
+    private static Map<String, String> varyValues(final HttpTransportRequest request, final Set<String> names) {
+        final TreeMap<String, String> values = new TreeMap<>();
+        for (final String name : names) {
+            values.put(name, String.join(",", HttpHeaders.all(request.getHeaders(), name)));
+        }
+        return values;
+    }
+
+    private static long longProperty(final Map<String, Object> properties, final String name, final long fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Long.parseLong(value.toString().trim());
+    }
+}
@@ -0,0 +1,128 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers for reading raw header maps, where names can come in any case and
+ * {@link java.net.HttpURLConnection} keeps the status line under a null name
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class HttpHeaders {
+    private HttpHeaders() { }
+
+    /**
+     * Gets the first value of a header, ignoring the case of the name
+     *
+     * @param headers
+     * @param name
+     */
+    static Optional<String> first(final Map<String, List<String>> headers, final String name) {
+        return all(headers, name).stream().findFirst();
+    }
+
+    /**
+     * Gets every value of a header, ignoring the case of the name
+     *
+     * @param headers
+     * @param name
+     */
+    static List<String> all(final Map<String, List<String>> headers, final String name) {
+        return headers.entrySet().stream()
+                .filter(e -> name.equalsIgnoreCase(e.getKey()))
+                .filter(e -> null != e.getValue())
+                .flatMap(e -> e.getValue().stream())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Splits list headers like Cache-Control into their directives. Names are
+     * lower cased, quotes are taken off of values and directives without a value
+     * map to an empty string.
+     *
+     * @param values every value of the header
+     */
+    static Map<String, String> directives(final List<String> values) {
+        final TreeMap<String, String> directives = new TreeMap<>();
+        for (final String value : values) {
+            for (final String part : value.split(",")) {
+                final String trimmed = part.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                final int equals = trimmed.indexOf('=');
+                final String name = (equals < 0 ? trimmed : trimmed.substring(0, equals)).trim();
+                String argument = equals < 0 ? "" : trimmed.substring(equals + 1).trim();
+                if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+                    argument = argument.substring(1, argument.length() - 1);
+                }
+                directives.put(name.toLowerCase(Locale.ROOT), argument);
+            }
+        }
+        return Collections.unmodifiableMap(directives);
+    }
+
+    /**
+     * Reads a number like a max-age or a Content-Length
+     *
+     * @param value
+     * @return the number, 0 for negative numbers, or empty if it isn't a number
+     */
+    static Optional<Long> number(final String value) {
+        try {
+            return Optional.of(Math.max(0, Long.parseLong(value.trim())));
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads a Content-Range like {@code bytes 0-499/1234}
+     *
+     * @param value
+     * @return the first byte, the last byte and the total length or -1 if the
+     *     server didn't say, or empty if it can't be read
+     */
+    static Optional<long[]> contentRange(final String value) {
+        final String trimmed = value.trim();
+        final int dash = trimmed.indexOf('-');
+        final int slash = trimmed.indexOf('/');
+        if (!trimmed.regionMatches(true, 0, "bytes ", 0, 6) || dash < 0 || slash < dash) {
+            return Optional.empty();
+        }
+        try {
+            final long first = Long.parseLong(trimmed.substring(6, dash).trim());
+            final long last = Long.parseLong(trimmed.substring(dash + 1, slash).trim());
+            final String total = trimmed.substring(slash + 1).trim();
+            final long length = "*".equals(total) ? -1 : Long.parseLong(total);
+            return first < 0 || last < first ? Optional.empty() : Optional.of(new long[] { first, last, length });
+        } catch (final NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Reads an HTTP date like {@code Sun, 06 Nov 1994 08:49:37 GMT}
+     *
+     * @param value
+     * @return the time in epoch milliseconds, or empty if it can't be read
+     */
+    static Optional<Long> date(final String value) {
+        try {
+            return Optional.of(ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli());
+        } catch (final DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyOption;
+import org.apache.felix.scr.annotations.Service;
+
+/**
+ * The bounded thread pool this bundle does its blocking I/O on. This is what
+ * {@link PavlovHttpClient#executeAsync()} uses, so a slow upstream ties up these
+ * threads instead of the shared {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+ * <p>
+ * Inside OSGi the pool is configured through Config Admin, outside of OSGi a
+ * default pool is created on first use.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@Component(metatype = true, immediate = true,
+    label = "Pavlov HTTP I/O Executor",
+    description = "The thread pool asynchronous Pavlov HTTP requests run on")
+@Service(HttpIoExecutor.class)
+@Properties({
+    @Property(name = HttpIoExecutor.CORE_THREADS, intValue = HttpIoExecutor.DEFAULT_CORE_THREADS,
+        label = "Core threads", description = "Threads kept even when idle"),
+    @Property(name = HttpIoExecutor.MAX_THREADS, intValue = HttpIoExecutor.DEFAULT_MAX_THREADS,
+        label = "Max threads", description = "Threads started once the queue is full"),
+    @Property(name = HttpIoExecutor.QUEUE_CAPACITY, intValue = HttpIoExecutor.DEFAULT_QUEUE_CAPACITY,
+        label = "Queue capacity", description = "Requests that can wait for a thread"),
+    @Property(name = HttpIoExecutor.KEEP_ALIVE_MILLIS, longValue = HttpIoExecutor.DEFAULT_KEEP_ALIVE_MILLIS,
+        label = "Keep alive", description = "How long extra threads stay idle before stopping, in milliseconds"),
+    @Property(name = HttpIoExecutor.REJECTION_POLICY, value = "ABORT",
+        label = "Rejection policy", description = "What happens when the queue is full",
+        options = {
+            @PropertyOption(name = "ABORT", value = "Fail the request"),
+            @PropertyOption(name = "CALLER_RUNS", value = "Run the request on the calling thread"),
+            @PropertyOption(name = "BLOCK", value = "Wait for room in the queue")
+        }),
+    @Property(name = HttpIoExecutor.BLOCK_TIMEOUT_MILLIS, longValue = HttpIoExecutor.DEFAULT_BLOCK_TIMEOUT_MILLIS,
+        label = "Block timeout", description = "How long BLOCK waits for room before failing, in milliseconds")
+})
+public class HttpIoExecutor implements Executor {
+    public static final String CORE_THREADS = "io.threads.core";
+    public static final String MAX_THREADS = "io.threads.max";
+    public static final String QUEUE_CAPACITY = "io.queue.capacity";
+    public static final String KEEP_ALIVE_MILLIS = "io.keepalive.millis";
+    public static final String REJECTION_POLICY = "io.rejection.policy";
+    public static final String BLOCK_TIMEOUT_MILLIS = "io.block.timeout.millis";
+
+    public static final int DEFAULT_CORE_THREADS = 8;
+    public static final int DEFAULT_MAX_THREADS = 32;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000;
+    public static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * What to do with work that shows up when every thread is busy and the queue
+     * is full. There is no policy that silently drops work, since that would leave
+     * a future that never completes.
+     */
+    public enum RejectionPolicy {
+        /** Throw a {@link RejectedExecutionException}, which fails the request */
+        ABORT,
+        /** Run the work on the thread that submitted it, which slows callers down */
+        CALLER_RUNS,
+        /** Wait for room in the queue, failing if none shows up in time */
+        BLOCK
+    }
+
+    private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+    private static volatile HttpIoExecutor defaultExecutor;
+    private static volatile HttpIoExecutor active;
+
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    private final ExecutorService current = new CurrentPool();
+    private volatile ThreadPoolExecutor pool;
+    private volatile int queueCapacity;
+    private volatile RejectionPolicy policy;
+    private volatile long blockTimeoutMillis;
+
+    /**
+     * The executor {@link PavlovHttpClient#executeAsync()} runs on. This is the
+     * one configured through Config Admin when running in OSGi.
+     */
+    public static HttpIoExecutor shared() {
+        final HttpIoExecutor current = active;
+        if (null != current) {
+            return current;
+        }
+        if (null == defaultExecutor) {
+            synchronized (HttpIoExecutor.class) {
+                if (null == defaultExecutor) {
+                    defaultExecutor = new HttpIoExecutor();
+                }
+            }
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Creates an executor with the default settings
+     */
+    public HttpIoExecutor() {
+        this(DEFAULT_CORE_THREADS, DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY, DEFAULT_KEEP_ALIVE_MILLIS,
+                RejectionPolicy.ABORT, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates an executor
+     *
+     * @param coreThreads threads kept even when idle
+     * @param maxThreads threads started once the queue is full
+     * @param queueCapacity how much work can wait for a thread
+     * @param keepAliveMillis how long extra threads stay idle before stopping
+     * @param policy what to do when the queue is full
+     * @param blockTimeoutMillis how long {@link RejectionPolicy#BLOCK} waits
+     */
+    public HttpIoExecutor(final int coreThreads, final int maxThreads, final int queueCapacity,
+            final long keepAliveMillis, final RejectionPolicy policy, final long blockTimeoutMillis) {
+        configure(coreThreads, maxThreads, queueCapacity, keepAliveMillis, policy, blockTimeoutMillis);
+    }
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        modified(properties);
+        active = this;
+    }
+
+    @Modified
+    protected void modified(final Map<String, Object> properties) {
+        final Object policyName = properties.get(REJECTION_POLICY);
+        configure(
+            intProperty(properties, CORE_THREADS, DEFAULT_CORE_THREADS),
+            intProperty(properties, MAX_THREADS, DEFAULT_MAX_THREADS),
+            intProperty(properties, QUEUE_CAPACITY, DEFAULT_QUEUE_CAPACITY),
+            longProperty(properties, KEEP_ALIVE_MILLIS, DEFAULT_KEEP_ALIVE_MILLIS),
+            null == policyName ? RejectionPolicy.ABORT : RejectionPolicy.valueOf(policyName.toString().trim()),
+            longProperty(properties, BLOCK_TIMEOUT_MILLIS, DEFAULT_BLOCK_TIMEOUT_MILLIS));
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (active == this) {
+            active = null;
+        }
+        shutdown();
+    }
+
+    /**
+     * Replaces the pool. Work already queued on the old pool still runs, work
+     * handed over afterwards goes to the new one, even through an
+     * {@link #getExecutorService()} fetched before the change.
+     */
+    private synchronized void configure(final int coreThreads, final int maxThreads, final int queueCapacity,
+            final long keepAliveMillis, final RejectionPolicy policy, final long blockTimeoutMillis) {
+        if (coreThreads < 0 || maxThreads < 1 || maxThreads < coreThreads) {
+            throw new IllegalArgumentException("Need 0 <= core threads <= max threads and at least one max thread");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("The queue needs room for at least one task");
+        }
+        this.queueCapacity = queueCapacity;
+        this.policy = Objects.requireNonNull(policy);
+        this.blockTimeoutMillis = blockTimeoutMillis;
+
+        final ThreadPoolExecutor replacement = new ThreadPoolExecutor(coreThreads, maxThreads,
+                keepAliveMillis, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                threadFactory(), new Rejector());
+        replacement.allowCoreThreadTimeOut(coreThreads == 0);
+        final ThreadPoolExecutor old = this.pool;
+        this.pool = replacement;
+        if (null != old) {
+            old.shutdown();
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        ThreadPoolExecutor target = this.pool;
+        while (true) {
+            try {
+                target.execute(command);
+                return;
+            } catch (final RejectedExecutionException e) {
+                // The pool was replaced while this was handed over, so it goes to the new one
+                if (target == this.pool) {
+                    throw e;
+                }
+                target = this.pool;
+            }
+        }
+    }
+
+    /**
+     * The pool as an {@link ExecutorService}, for APIs that need one. Work always
+     * goes to the current pool, so it can be kept across configuration changes.
+     */
+    public ExecutorService getExecutorService() {
+        return this.current;
+    }
+
+    /**
+     * Stops taking new work, what is already queued still runs
+     */
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    public RejectionPolicy getRejectionPolicy() {
+        return this.policy;
+    }
+
+    /**
+     * Threads running a task right now
+     */
+    public int getActiveCount() {
+        return this.pool.getActiveCount();
+    }
+
+    /**
+     * Threads in the pool, busy or not
+     */
+    public int getPoolSize() {
+        return this.pool.getPoolSize();
+    }
+
+    public int getMaxThreads() {
+        return this.pool.getMaximumPoolSize();
+    }
+
+    /**
+     * Tasks waiting for a thread
+     */
+    public int getQueueDepth() {
+        return this.pool.getQueue().size();
+    }
+
+    public int getQueueCapacity() {
+        return this.queueCapacity;
+    }
+
+    /**
+     * How full the executor is, from 0 when idle to 1 when every thread is busy
+     * and the queue is full
+     */
+    public double getSaturation() {
+        final double capacity = getMaxThreads() + getQueueCapacity();
+        return Math.min(1.0, (getActiveCount() + getQueueDepth()) / capacity);
+    }
+
+    /**
+     * Tasks that have finished running
+     */
+    public long getCompletedCount() {
+        return this.pool.getCompletedTaskCount();
+    }
+
+    /**
+     * Tasks that were turned away because the executor was full or shut down
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Tasks that ran on the submitting thread because of {@link RejectionPolicy#CALLER_RUNS}
+     */
+    public long getCallerRunsCount() {
+        return this.callerRuns.sum();
+    }
+
+    private static ThreadFactory threadFactory() {
+        final int poolNumber = POOL_COUNT.incrementAndGet();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return r -> {
+            final Thread thread = new Thread(r,
+                    "pavlov-http-io-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static int intProperty(final Map<String, Object> properties, final String name, final int fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Integer.parseInt(value.toString().trim());
+    }
+
+    private static long longProperty(final Map<String, Object> properties, final String name, final long fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Long.parseLong(value.toString().trim());
+    }
+
+    /**
+     * Whichever pool is current, so callers that hold on to it for retries and
+     * callbacks aren't left with a pool that was shut down by a reconfiguration
+     */
+    private final class CurrentPool extends AbstractExecutorService {
+        @Override
+        public void execute(final Runnable command) {
+            HttpIoExecutor.this.execute(command);
+        }
+
+        @Override
+        public void shutdown() {
+            HttpIoExecutor.this.pool.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return HttpIoExecutor.this.pool.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return HttpIoExecutor.this.pool.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return HttpIoExecutor.this.pool.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+            return HttpIoExecutor.this.pool.awaitTermination(timeout, unit);
+        }
+    }
+
+    /**
+     * Applies the rejection policy and keeps count
+     */
+    private final class Rejector implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(final Runnable task, final ThreadPoolExecutor executor) {
+            if (executor != HttpIoExecutor.this.pool) {
+                // A replaced pool, execute hands the task to the current one
+                throw new RejectedExecutionException("The HTTP I/O executor was reconfigured");
+            }
+            if (!executor.isShutdown()) {
+                switch (HttpIoExecutor.this.policy) {
+                    case CALLER_RUNS:
+                        HttpIoExecutor.this.callerRuns.increment();
+                        task.run();
+                        return;
+                    case BLOCK:
+                        if (offer(executor.getQueue(), task)) {
+                            return;
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            HttpIoExecutor.this.rejected.increment();
+            throw new RejectedExecutionException("The HTTP I/O executor is full ("
+                    + executor.getActiveCount() + " active, " + executor.getQueue().size() + " queued)");
+        }
+
+        private boolean offer(final BlockingQueue<Runnable> queue, final Runnable task) {
+            try {
+                return queue.offer(task, HttpIoExecutor.this.blockTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
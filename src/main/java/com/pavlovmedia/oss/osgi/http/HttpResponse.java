@@ -1,14 +1,11 @@
 package com.pavlovmedia.oss.osgi.http;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -17,17 +14,25 @@ import java.util.Vector;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
 
 /**
+ * The result of an HTTP request. Responses hold on to the underlying connection
+ * until they are closed, so use them in a try-with-resources block to let the
+ * connection be reused.
  *
  * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
  *
  */
-public class HttpResponse {
+public class HttpResponse implements AutoCloseable {
+    /**
+     * The most leftover body bytes that {@link #close()} will read to free up the connection
+     * @since 1.1.0
+     */
+    public static final long DEFAULT_DRAIN_LIMIT = 64 * 1024;
+
     /**
      * The URL that creaeted this response
      */
@@ -40,13 +45,15 @@ public class HttpResponse {
 
     /**
      * A convertible InputStream that represents the underlying errorStream.
-     * This is Optional and won't be populated if there is no error stream
+     * This is Optional and won't be populated if there is no error stream.
+     * Any Content-Encoding the server applied is undone as the stream is read.
      */
     public final Optional<ConvertibleAsset<InputStream>> errorStream;
 
     /**
      * A convertible InputStream that represents the underlying inputStream.
-     * This is Optional and won't be populated if there is no error stream
+     * This is Optional and won't be populated if there is no error stream.
+     * Any Content-Encoding the server applied is undone as the stream is read.
      */
     public final Optional<ConvertibleAsset<InputStream>> responseStream;
 
@@ -55,6 +62,8 @@ public class HttpResponse {
      */
     public final Map<String,List<String>> responseHeaders;
 
+    private final ResponseResources resources;
+
     /**
      * Constructor for an HTTP Response
      *
@@ -68,16 +77,60 @@ public class HttpResponse {
             final Optional<ConvertibleAsset<InputStream>> errorStream,
             final Optional<ConvertibleAsset<InputStream>> responseStream,
             final Map<String,List<String>> responseHeaders) {
+        this(srcUrl, responseCode, errorStream, responseStream, responseHeaders, DEFAULT_DRAIN_LIMIT, keep -> { });
+    }
+
+    /**
+     * Constructor for an HTTP Response that is tied to a connection
+     *
+     * @param drainLimit the most leftover bytes to read from each stream when closing
+     * @param onRelease called once when this response is closed, with false if the
+     *     connection could not be drained and should be dropped
+     */
+    HttpResponse(final URL srcUrl,
+            final int responseCode,
+            final Optional<ConvertibleAsset<InputStream>> errorStream,
+            final Optional<ConvertibleAsset<InputStream>> responseStream,
+            final Map<String,List<String>> responseHeaders,
+            final long drainLimit,
+            final Consumer<Boolean> onRelease) {
         this.srcUrl = srcUrl;
         this.responseCode = responseCode;
-        this.errorStream = errorStream;
-        this.responseStream = responseStream;
+        this.resources = new ResponseResources(drainLimit, onRelease, ConnectionMetrics.global());
+        this.errorStream = errorStream.map(s -> s.chain(this.resources::track)
+                .chain(ContentDecoding.decoder(responseHeaders)));
+        this.responseStream = responseStream.map(s -> s.chain(this.resources::track)
+                .chain(ContentDecoding.decoder(responseHeaders)));
         this.responseHeaders = responseHeaders;
+        this.resources.register(this);
     }
 
+    /**
+     * Reads and throws away whatever is left of the bodies, up to the drain limit, and
+     * releases the connection. If the body is all read the connection can be reused
+     * by the next request to the same host, if not the connection is dropped.
+     * Closing more than once does nothing.
+     * @since 1.1.0
+     */
+    @Override
+    public void close() {
+        this.resources.close();
+    }
+
+    /**
+     * Checks if this response has been closed
+     * @since 1.1.0
+     */
+    public boolean isClosed() {
+        return this.resources.isClosed();
+    }
+
+    /**
+     * Checks if the server sent this response gzip encoded. The streams in this
+     * response are already decoded.
+     */
     public boolean isGziped() {
-        return this.responseHeaders.getOrDefault("Content-Encoding", Collections.emptyList())
-                .contains("gzip");
+        return ContentDecoding.contentEncodings(this.responseHeaders).contains(ContentDecoding.GZIP);
     }
 
     private final AtomicReference<String> responseString = new AtomicReference<>();
@@ -92,15 +145,49 @@ public class HttpResponse {
             return reference.get();
         }
 
-        ConvertibleAsset<InputStream> working = stream.get();
-        if (isGziped()) {
-            working = working.convert(gunzipInputStream(onError));
-        }
-
-        reference.set(working.convert(inputStreamToUTF8StringConverter(onError)));
+        // The advertised length is for the encoded body, so it is only a useful size hint without an encoding
+        final long expectedLength = ContentDecoding.isEncoded(this.responseHeaders) ? -1 : getContentLength();
+        final Charset charset = ResponseBodyReader.charsetFromContentType(getHeader("Content-Type"));
+        reference.set(stream.get().convert(ResponseBodyReader.textConverter(expectedLength, charset, onError)));
         return reference.get();
     }
 
+    /**
+     * Gets the first value of a response header, ignoring the case of the name
+     * @since 1.1.0
+     *
+     * @param name the header name
+     */
+    public Optional<String> getHeader(final String name) {
+        Objects.requireNonNull(name);
+
+        return this.responseHeaders.entrySet().stream()
+                .filter(e -> name.equalsIgnoreCase(e.getKey()))
+                .map(Map.Entry::getValue)
+                .filter(values -> null != values && !values.isEmpty())
+                .map(values -> values.get(0))
+                .findFirst();
+    }
+
+    /**
+     * Gets the Content-Length the server sent
+     * @since 1.1.0
+     *
+     * @return the length, or -1 if it wasn't sent or isn't a number
+     */
+    public long getContentLength() {
+        return getHeader("Content-Length")
+                .map(String::trim)
+                .map(value -> {
+                    try {
+                        return Long.parseLong(value);
+                    } catch (final NumberFormatException e) {
+                        return -1L;
+                    }
+                })
+                .orElse(-1L);
+    }
+
     /**
      * Gets the response stream as text
      * returns an empty string if there is no response text
@@ -135,9 +222,7 @@ public class HttpResponse {
      * returns an empty string if there is no error text
      */
     public String getErrorText() {
-        return this.errorStream.isPresent()
-                ? this.errorStream.get().convert(inputStreamToUTF8StringConverter(HttpResponse::ignoreError))
-                : "";
+        return getErrorText(HttpResponse::ignoreError);
     }
 
     /**
@@ -217,56 +302,39 @@ public class HttpResponse {
      * @return the converted string, or an empty string if there is an error.
      */
     public static Function<InputStream, String> inputStreamToUTF8StringConverter(final Consumer<Exception> onError) {
-        return is -> {
-            final InputStreamReader isr = new InputStreamReader(is, StandardCharsets.UTF_8);
-            final Vector<Byte> byteVector = new Vector<>(1024);
-            
-            try (BufferedReader reader = new BufferedReader(isr)) {
-                while (true) {
-                    final int ch = reader.read();
-                    if (-1 == ch) {
-                        break;
-                    }
-                    byteVector.add((byte) ch);
-                }
-                
-                return Stream.of(byteVectorToByteArray(byteVector))
-                        .map(String::new)
-                        .reduce((t, u) -> String.format("%s%s%s", t, System.lineSeparator(), u))
-                        .orElse("No data");
-            } catch (final IOException e) {
-                onError.accept(e);
-                return "";
-            }
-            
-        };
+        return ResponseBodyReader.textConverter(-1, StandardCharsets.UTF_8, onError);
     }
 
+    /**
+     * Gives a converter that wraps a stream in a streaming gzip decoder
+     * @param onError called if the gzip header can't be read
+     */
     public static Function<InputStream, ConvertibleAsset<InputStream>> gunzipInputStream(final Consumer<Exception> onError) {
         return in -> gunzipInputStream(in, onError);
     }
 
+    /**
+     * Wraps a stream in a streaming gzip decoder. Note that responses from
+     * {@link PavlovHttpClient} are already decoded, this is for other sources.
+     *
+     * @param in the gzip encoded stream
+     * @param onError called if the gzip header can't be read
+     * @return the decoding stream, or an empty stream if there is an error
+     */
     public static ConvertibleAsset<InputStream> gunzipInputStream(final InputStream in, final Consumer<Exception> onError) {
         try {
-            final Reader reader = new InputStreamReader(new GZIPInputStream(in));
-            final Vector<Byte> byteVector = new Vector<>(1024);
-
-            while (true) {
-                final int ch = reader.read();
-                if (-1 == ch) {
-                    break;
-                }
-                byteVector.add((byte) ch);
-            }
-
-            return new ConvertibleAsset<>(new ByteArrayInputStream(byteVectorToByteArray(byteVector)));
-
+            return new ConvertibleAsset<>(new GZIPInputStream(in));
         } catch (final IOException e) {
             onError.accept(e);
             return new ConvertibleAsset<>(new ByteArrayInputStream(new byte[ ] { }));
         }
     }
-    
+
+    /**
+     * @deprecated bodies are no longer read through a {@link Vector}, use {@link ResponseBodyReader} instead
+     * @param byteVector
+     */
+    @Deprecated
     public static byte[] byteVectorToByteArray(final Vector<Byte> byteVector) {
         Objects.requireNonNull(byteVector);
         
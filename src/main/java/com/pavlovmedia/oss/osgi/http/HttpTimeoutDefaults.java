@@ -0,0 +1,96 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.Map;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+
+/**
+ * The timeouts a {@link PavlovHttpClient} uses when none are set on it. Inside
+ * OSGi these come from Config Admin. A value of 0 means no limit.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@Component(metatype = true, immediate = true,
+    label = "Pavlov HTTP Timeouts",
+    description = "Default timeouts for Pavlov HTTP clients, 0 means no limit")
+@Properties({
+    @Property(name = HttpTimeoutDefaults.CONNECT_TIMEOUT_MILLIS,
+        longValue = HttpTimeoutDefaults.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+        label = "Connect timeout", description = "How long to wait for a connection, in milliseconds"),
+    @Property(name = HttpTimeoutDefaults.READ_TIMEOUT_MILLIS,
+        longValue = HttpTimeoutDefaults.DEFAULT_READ_TIMEOUT_MILLIS,
+        label = "Read timeout", description = "How long to wait for the next bytes of a response, in milliseconds"),
+    @Property(name = HttpTimeoutDefaults.DEADLINE_MILLIS,
+        longValue = HttpTimeoutDefaults.DEFAULT_DEADLINE_MILLIS,
+        label = "Deadline", description = "How long a whole request may take, in milliseconds")
+})
+public class HttpTimeoutDefaults {
+    public static final String CONNECT_TIMEOUT_MILLIS = "timeout.connect.millis";
+    public static final String READ_TIMEOUT_MILLIS = "timeout.read.millis";
+    public static final String DEADLINE_MILLIS = "timeout.deadline.millis";
+
+    public static final long DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+    public static final long DEFAULT_READ_TIMEOUT_MILLIS = 0;
+    public static final long DEFAULT_DEADLINE_MILLIS = 0;
+
+    private static volatile long connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private static volatile long readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private static volatile long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+
+    public static long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public static long getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public static long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Changes the defaults, for use outside of OSGi
+     *
+     * @param connect the connect timeout in milliseconds
+     * @param read the read timeout in milliseconds
+     * @param deadline the whole request deadline in milliseconds
+     */
+    public static void setDefaults(final long connect, final long read, final long deadline) {
+        if (connect < 0 || read < 0 || deadline < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        }
+        connectTimeoutMillis = connect;
+        readTimeoutMillis = read;
+        deadlineMillis = deadline;
+    }
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        modified(properties);
+    }
+
+    @Modified
+    protected void modified(final Map<String, Object> properties) {
+        setDefaults(
+            longProperty(properties, CONNECT_TIMEOUT_MILLIS, DEFAULT_CONNECT_TIMEOUT_MILLIS),
+            longProperty(properties, READ_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS),
+            longProperty(properties, DEADLINE_MILLIS, DEFAULT_DEADLINE_MILLIS));
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        setDefaults(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_DEADLINE_MILLIS);
+    }
+
+    private static long longProperty(final Map<String, Object> properties, final String name, final long fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Long.parseLong(value.toString().trim());
+    }
+}
@@ -0,0 +1,52 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one timer thread this bundle uses for wait timeouts, deadlines and retry
+ * delays. Tasks run on the timer thread, so they should only complete futures
+ * or close connections and leave real work to an executor.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class HttpTimer {
+    private static final ScheduledThreadPoolExecutor TIMER;
+    static {
+        TIMER = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "pavlov-http-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        TIMER.setRemoveOnCancelPolicy(true);
+    }
+
+    private HttpTimer() { }
+
+    /**
+     * Runs a task once the delay has passed
+     *
+     * @param task
+     * @param delay
+     * @param unit
+     * @return cancel this if the task is no longer needed
+     */
+    static ScheduledFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return TIMER.schedule(task, delay, unit);
+    }
+
+    /**
+     * A future that completes on the timer thread once the delay has passed
+     *
+     * @param delayMillis
+     */
+    static CompletableFuture<Void> after(final long delayMillis) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final ScheduledFuture<?> task = schedule(() -> future.complete(null), delayMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((v, e) -> task.cancel(false));
+        return future;
+    }
+}
@@ -0,0 +1,54 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * The engine that actually moves bytes for a {@link PavlovHttpClient}. The default
+ * is built on {@link java.net.HttpURLConnection}, other engines can be registered
+ * as OSGi services (with a {@link #TRANSPORT_NAME} property) or with
+ * {@link HttpTransports#register(HttpTransport)} and picked per client with
+ * {@link PavlovHttpClient#withTransport(String)}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public interface HttpTransport {
+    /**
+     * The service property that names a transport
+     */
+    String TRANSPORT_NAME = "http.transport.name";
+
+    /**
+     * The name clients use to select this transport
+     */
+    String getName();
+
+    /**
+     * Sends a request and waits for the response headers
+     *
+     * @param request the request to send
+     * @throws IOException if the request can't be sent or the response can't be read
+     */
+    HttpTransportResponse execute(HttpTransportRequest request) throws IOException;
+
+    /**
+     * Sends a request without waiting. Blocking transports run {@link #execute(HttpTransportRequest)}
+     * on the executor, transports that don't block can ignore it.
+     *
+     * @param request the request to send
+     * @param executor where blocking work can be done
+     */
+    default CompletableFuture<HttpTransportResponse> executeAsync(final HttpTransportRequest request,
+            final Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return execute(request);
+            } catch (final IOException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
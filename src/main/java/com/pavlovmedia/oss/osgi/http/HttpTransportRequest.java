@@ -0,0 +1,158 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Everything an {@link HttpTransport} needs to send one request. These are built
+ * by {@link PavlovHttpClientImpl} once the request has been validated.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class HttpTransportRequest {
+    private final URL url;
+    private final HttpVerbs verb;
+    private final Map<String, List<String>> headers;
+    private final Optional<RequestBody> body;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Optional<Deadline> deadline;
+    private final boolean ignoreSelfSignedCert;
+    private final Optional<Consumer<HttpURLConnection>> beforeConnect;
+    private final Optional<Consumer<HttpURLConnection>> beforeFinish;
+    private final Optional<Consumer<String>> debugger;
+
+    HttpTransportRequest(final URL url,
+            final HttpVerbs verb,
+            final Map<String, List<String>> headers,
+            final Optional<RequestBody> body,
+            final int connectTimeout,
+            final int readTimeout,
+            final Optional<Deadline> deadline,
+            final boolean ignoreSelfSignedCert,
+            final Optional<Consumer<HttpURLConnection>> beforeConnect,
+            final Optional<Consumer<HttpURLConnection>> beforeFinish,
+            final Optional<Consumer<String>> debugger) {
+        this.url = Objects.requireNonNull(url);
+        this.verb = Objects.requireNonNull(verb);
+        final HashMap<String, List<String>> copy = new HashMap<>();
+        headers.forEach((name, values) -> copy.put(name, Collections.unmodifiableList(new ArrayList<>(values))));
+        this.headers = Collections.unmodifiableMap(copy);
+        this.body = body;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.deadline = deadline;
+        this.ignoreSelfSignedCert = ignoreSelfSignedCert;
+        this.beforeConnect = beforeConnect;
+        this.beforeFinish = beforeFinish;
+        this.debugger = debugger;
+    }
+
+    /**
+     * Copies this request with different headers
+     *
+     * @param newHeaders
+     */
+    HttpTransportRequest withHeaders(final Map<String, List<String>> newHeaders) {
+        return new HttpTransportRequest(this.url, this.verb, newHeaders, this.body, this.connectTimeout,
+                this.readTimeout, this.deadline, this.ignoreSelfSignedCert, this.beforeConnect, this.beforeFinish,
+                this.debugger);
+    }
+
+    /**
+     * The final url, including the path and query parameters
+     */
+    public URL getUrl() {
+        return this.url;
+    }
+
+    public HttpVerbs getVerb() {
+        return this.verb;
+    }
+
+    /**
+     * The request headers after all of the header modifiers have been run
+     */
+    public Map<String, List<String>> getHeaders() {
+        return this.headers;
+    }
+
+    /**
+     * Gets the first value of a request header, ignoring the case of the name
+     *
+     * @param name the header name
+     */
+    public Optional<String> getHeader(final String name) {
+        return this.headers.entrySet().stream()
+                .filter(e -> name.equalsIgnoreCase(e.getKey()))
+                .flatMap(e -> e.getValue().stream())
+                .findFirst();
+    }
+
+    public Optional<RequestBody> getBody() {
+        return this.body;
+    }
+
+    /**
+     * The connect timeout in milliseconds, 0 waits forever
+     */
+    public int getConnectTimeout() {
+        return this.connectTimeout;
+    }
+
+    /**
+     * How long to wait for the next bytes of the response in milliseconds, 0 waits forever
+     */
+    public int getReadTimeout() {
+        return this.readTimeout;
+    }
+
+    /**
+     * When the whole exchange, including reading the body, has to be done by.
+     * Transports abort the connection once it passes.
+     */
+    public Optional<Deadline> getDeadline() {
+        return this.deadline;
+    }
+
+    /**
+     * If self signed certificates and mismatched host names should be accepted
+     */
+    public boolean isIgnoreSelfSignedCert() {
+        return this.ignoreSelfSignedCert;
+    }
+
+    /**
+     * A hook for the raw connection before it is used. Only transports built on
+     * {@link HttpURLConnection} can honor this.
+     */
+    public Optional<Consumer<HttpURLConnection>> getBeforeConnect() {
+        return this.beforeConnect;
+    }
+
+    /**
+     * A hook for the raw connection before the response is read. Only transports
+     * built on {@link HttpURLConnection} can honor this.
+     */
+    public Optional<Consumer<HttpURLConnection>> getBeforeFinish() {
+        return this.beforeFinish;
+    }
+
+    /**
+     * Sends a message to the debugger, if there is one
+     *
+     * @param message
+     */
+    public void debug(final String message) {
+        this.debugger.ifPresent(d -> d.accept(message));
+    }
+}
@@ -0,0 +1,46 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * What an {@link HttpTransport} hands back once the response headers are in.
+ * The bodies are still raw, content decoding is done by {@link HttpResponse}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public interface HttpTransportResponse {
+    /**
+     * The HTTP status code
+     */
+    int getResponseCode();
+
+    /**
+     * The response headers
+     */
+    Map<String, List<String>> getHeaders();
+
+    /**
+     * The response body
+     *
+     * @throws IOException if the transport treats this status as an error
+     */
+    Optional<InputStream> getResponseStream() throws IOException;
+
+    /**
+     * The body sent along with an error status
+     */
+    Optional<InputStream> getErrorStream();
+
+    /**
+     * Called once when the caller is done with this response
+     *
+     * @param reusable true if the bodies were read to the end, false if the
+     *     connection should be dropped
+     */
+    void release(boolean reusable);
+}
@@ -0,0 +1,109 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+
+/**
+ * Keeps track of the {@link HttpTransport}s clients can pick from. Inside OSGi this
+ * picks up every transport registered as a service, outside of OSGi transports can
+ * be added with {@link #register(HttpTransport)}. The {@link UrlConnectionTransport}
+ * is always available.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@Component(immediate = true)
+@Reference(name = "transport",
+    referenceInterface = HttpTransport.class,
+    cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+    policy = ReferencePolicy.DYNAMIC,
+    bind = "bindTransport",
+    unbind = "unbindTransport")
+public class HttpTransports {
+    private static final HttpTransport DEFAULT = new UrlConnectionTransport();
+    private static final ConcurrentHashMap<String, HttpTransport> TRANSPORTS = new ConcurrentHashMap<>();
+    static {
+        TRANSPORTS.put(DEFAULT.getName(), DEFAULT);
+    }
+
+    /**
+     * The transport clients use when they haven't picked one
+     */
+    public static HttpTransport getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Finds a transport by name
+     *
+     * @param name
+     */
+    public static Optional<HttpTransport> lookup(final String name) {
+        Objects.requireNonNull(name);
+
+        return Optional.ofNullable(TRANSPORTS.get(name));
+    }
+
+    /**
+     * The names of all of the transports that can be used
+     */
+    public static Set<String> getNames() {
+        return Collections.unmodifiableSet(new TreeSet<>(TRANSPORTS.keySet()));
+    }
+
+    /**
+     * Makes a transport available by its {@link HttpTransport#getName()}, replacing
+     * anything registered under that name
+     *
+     * @param transport
+     */
+    public static void register(final HttpTransport transport) {
+        register(transport.getName(), transport);
+    }
+
+    /**
+     * Removes a transport, the default transport can't be removed
+     *
+     * @param transport
+     */
+    public static void unregister(final HttpTransport transport) {
+        unregister(transport.getName(), transport);
+    }
+
+    private static void register(final String name, final HttpTransport transport) {
+        Objects.requireNonNull(name);
+        Objects.requireNonNull(transport);
+        if (!DEFAULT.getName().equals(name)) {
+            TRANSPORTS.put(name, transport);
+        }
+    }
+
+    private static void unregister(final String name, final HttpTransport transport) {
+        if (!DEFAULT.getName().equals(name)) {
+            TRANSPORTS.remove(name, transport);
+        }
+    }
+
+    protected void bindTransport(final HttpTransport transport, final Map<String, Object> properties) {
+        register(nameOf(transport, properties), transport);
+    }
+
+    protected void unbindTransport(final HttpTransport transport, final Map<String, Object> properties) {
+        unregister(nameOf(transport, properties), transport);
+    }
+
+    private static String nameOf(final HttpTransport transport, final Map<String, Object> properties) {
+        final Object name = properties.get(HttpTransport.TRANSPORT_NAME);
+        return null == name ? transport.getName() : name.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * An {@link HttpTransport} that never touches the network. Every request is
+ * answered by a handler function, which makes this useful for tests and for
+ * benchmarking everything in the client that isn't I/O.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public class InMemoryTransport implements HttpTransport {
+    public static final String NAME = "memory";
+
+    private final String name;
+    private final Function<HttpTransportRequest, HttpTransportResponse> handler;
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * Creates a transport named {@link #NAME}
+     *
+     * @param handler answers each request
+     */
+    public InMemoryTransport(final Function<HttpTransportRequest, HttpTransportResponse> handler) {
+        this(NAME, handler);
+    }
+
+    /**
+     * Creates a transport
+     *
+     * @param name the name to register this transport under
+     * @param handler answers each request
+     */
+    public InMemoryTransport(final String name, final Function<HttpTransportRequest, HttpTransportResponse> handler) {
+        this.name = Objects.requireNonNull(name);
+        this.handler = Objects.requireNonNull(handler);
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public HttpTransportResponse execute(final HttpTransportRequest request) throws IOException {
+        this.requests.increment();
+        try {
+            return this.handler.apply(request);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * How many requests this transport has answered
+     */
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    /**
+     * Writes out the body of a request, useful for handlers that want to look at it
+     *
+     * @param request
+     * @return the body, or an empty array if there isn't one
+     */
+    public static byte[] bodyOf(final HttpTransportRequest request) {
+        if (!request.getBody().isPresent()) {
+            return new byte[0];
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            request.getBody().get().writeTo(out);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Makes a response. Bodies with a status of 400 or more are handed back as the
+     * error stream, the way {@link java.net.HttpURLConnection} does.
+     *
+     * @param code the status code
+     * @param headers the response headers
+     * @param body the response body
+     */
+    public static HttpTransportResponse respond(final int code, final Map<String, List<String>> headers,
+            final byte[] body) {
+        Objects.requireNonNull(headers);
+        Objects.requireNonNull(body);
+
+        final HashMap<String, List<String>> allHeaders = new HashMap<>();
+        headers.forEach((k, v) -> allHeaders.put(k, new ArrayList<>(v)));
+        if (allHeaders.keySet().stream().noneMatch("Content-Length"::equalsIgnoreCase)) {
+            allHeaders.put("Content-Length", Collections.singletonList(Integer.toString(body.length)));
+        }
+        final Map<String, List<String>> finalHeaders = Collections.unmodifiableMap(allHeaders);
+        return new HttpTransportResponse() {
+            @Override
+            public int getResponseCode() {
+                return code;
+            }
+
+            @Override
+            public Map<String, List<String>> getHeaders() {
+                return finalHeaders;
+            }
+
+            @Override
+            public Optional<InputStream> getResponseStream() {
+                return code < 400 ? Optional.of(new ByteArrayInputStream(body)) : Optional.empty();
+            }
+
+            @Override
+            public Optional<InputStream> getErrorStream() {
+                return code >= 400 ? Optional.of(new ByteArrayInputStream(body)) : Optional.empty();
+            }
+
+            @Override
+            public void release(final boolean reusable) {
+                // Nothing to give back
+            }
+        };
+    }
+
+    /**
+     * Makes a response with a UTF-8 text body and no other headers
+     *
+     * @param code the status code
+     * @param body the response text
+     */
+    public static HttpTransportResponse respond(final int code, final String body) {
+        return respond(code, Collections.emptyMap(), body.getBytes(StandardCharsets.UTF_8));
+    }
+}
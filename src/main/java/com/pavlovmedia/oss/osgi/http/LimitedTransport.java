@@ -0,0 +1,100 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Wraps a transport so each request holds a {@link ConnectionLimiter.Permit}
+ * from before it is sent until its response is released
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class LimitedTransport implements HttpTransport {
+    private final HttpTransport delegate;
+    private final ConnectionLimiter limiter;
+
+    LimitedTransport(final HttpTransport delegate, final ConnectionLimiter limiter) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+    }
+
+    @Override
+    public String getName() {
+        return this.delegate.getName();
+    }
+
+    @Override
+    public HttpTransportResponse execute(final HttpTransportRequest request) throws IOException {
+        final ConnectionLimiter.Permit permit = this.limiter.acquireAndWait(UrlHelpers.originOf(request.getUrl()));
+        try {
+            return new LimitedResponse(this.delegate.execute(request), permit);
+        } catch (final IOException | RuntimeException e) {
+            permit.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<HttpTransportResponse> executeAsync(final HttpTransportRequest request,
+            final Executor executor) {
+        return this.limiter.acquire(UrlHelpers.originOf(request.getUrl())).thenCompose(permit -> {
+            final CompletableFuture<HttpTransportResponse> sent;
+            try {
+                sent = this.delegate.executeAsync(request, executor);
+            } catch (final RuntimeException e) {
+                permit.close();
+                throw e;
+            }
+            return sent.whenComplete((response, error) -> {
+                if (null != error) {
+                    permit.close();
+                }
+            }).thenApply(response -> new LimitedResponse(response, permit));
+        });
+    }
+
+    private static final class LimitedResponse implements HttpTransportResponse {
+        private final HttpTransportResponse response;
+        private final ConnectionLimiter.Permit permit;
+
+        LimitedResponse(final HttpTransportResponse response, final ConnectionLimiter.Permit permit) {
+            this.response = response;
+            this.permit = permit;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return this.response.getResponseCode();
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return this.response.getHeaders();
+        }
+
+        @Override
+        public Optional<InputStream> getResponseStream() throws IOException {
+            return this.response.getResponseStream();
+        }
+
+        @Override
+        public Optional<InputStream> getErrorStream() {
+            return this.response.getErrorStream();
+        }
+
+        @Override
+        public void release(final boolean reusable) {
+            try {
+                this.response.release(reusable);
+            } finally {
+                this.permit.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link CacheStore} on the heap, bounded by size. When it is full the least
+ * recently used responses are evicted first.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class MemoryCacheStore implements CacheStore {
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedResponse> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final LongAdder evictionCount = new LongAdder();
+    private long bytes;
+
+    /**
+     * @param maxBytes roughly how much memory the responses can take up
+     */
+    public MemoryCacheStore(final long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The size of a cache cannot be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public synchronized Optional<CachedResponse> get(final String key) {
+        return Optional.ofNullable(this.entries.get(key));
+    }
+
+    @Override
+    public synchronized void put(final String key, final CachedResponse response) {
+        Objects.requireNonNull(response);
+        final long size = response.getSizeEstimate();
+        remove(key);
+        if (size > this.maxBytes) {
+            return;
+        }
+
+        final Iterator<CachedResponse> eldest = this.entries.values().iterator();
+        while (this.bytes + size > this.maxBytes && eldest.hasNext()) {
+            this.bytes -= eldest.next().getSizeEstimate();
+            eldest.remove();
+            this.evictionCount.increment();
+        }
+        this.entries.put(key, response);
+        this.bytes += size;
+    }
+
+    @Override
+    public synchronized void remove(final String key) {
+        final CachedResponse removed = this.entries.remove(key);
+        if (null != removed) {
+            this.bytes -= removed.getSizeEstimate();
+        }
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.entries.clear();
+        this.bytes = 0;
+    }
+
+    /**
+     * Roughly how much memory the responses take up
+     */
+    public synchronized long getSizeBytes() {
+        return this.bytes;
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return this.entries.size();
+    }
+
+    /**
+     * How many responses were pushed out to make room
+     */
+    public long getEvictionCount() {
+        return this.evictionCount.sum();
+    }
+}
@@ -0,0 +1,169 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A multipart/form-data body made up of form fields and files, following RFC 7578.
+ * Files are streamed from disk a buffer at a time when the body is written, so
+ * they are never held in memory. As long as every file can be sized up front the
+ * exact length of the body is known, which lets the transport send it without
+ * buffering it.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+class MultipartBody implements RequestBody {
+    private static final String LINE_FEED = "\r\n";
+
+    private final String boundary;
+    private final List<Part> parts;
+
+    MultipartBody(final String boundary, final List<Part> parts) {
+        this.boundary = boundary;
+        this.parts = new ArrayList<>(parts);
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = closing().length;
+        for (final Part part : this.parts) {
+            final long size = part.size();
+            if (size < 0) {
+                return -1;
+            }
+            length += head(part).length + size + LINE_FEED.length();
+        }
+        return length;
+    }
+
+    @Override
+    public void writeTo(final OutputStream out) throws IOException {
+        for (final Part part : this.parts) {
+            out.write(head(part));
+            try {
+                part.writeTo(out);
+            } catch (final IOException e) {
+                throw new IOException("Error when writing " + part.describe()
+                        + " to the request. Error message: " + e.getMessage(), e);
+            }
+            out.write(LINE_FEED.getBytes(StandardCharsets.US_ASCII));
+        }
+        out.write(closing());
+        out.flush();
+    }
+
+    private byte[] head(final Part part) {
+        final StringBuilder head = new StringBuilder()
+                .append("--").append(this.boundary).append(LINE_FEED)
+                .append("Content-Disposition: form-data; name=\"").append(escape(part.name)).append('"');
+        part.filename.ifPresent(f -> head.append("; filename=\"").append(escape(f)).append('"'));
+        head.append(LINE_FEED);
+        part.contentType.ifPresent(t -> head.append("Content-Type: ").append(t).append(LINE_FEED));
+        head.append(LINE_FEED);
+        return head.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] closing() {
+        return ("--" + this.boundary + "--" + LINE_FEED).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Escapes a name for a quoted header parameter the way browsers do, so a quote
+     * or line break in a file name can't break the part apart
+     */
+    static String escape(final String value) {
+        return value.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+    }
+
+    /**
+     * A part of a multipart body
+     */
+    abstract static class Part {
+        final String name;
+        final Optional<String> filename;
+        final Optional<String> contentType;
+
+        Part(final String name, final Optional<String> filename, final Optional<String> contentType) {
+            this.name = Objects.requireNonNull(name);
+            this.filename = filename;
+            this.contentType = contentType;
+        }
+
+        /**
+         * A plain form field, sent as UTF-8 without a content type
+         *
+         * @param name
+         * @param value
+         */
+        static Part field(final String name, final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            return new Part(name, Optional.empty(), Optional.empty()) {
+                @Override
+                long size() {
+                    return bytes.length;
+                }
+
+                @Override
+                void writeTo(final OutputStream out) throws IOException {
+                    out.write(bytes);
+                }
+
+                @Override
+                String describe() {
+                    return "field " + name;
+                }
+            };
+        }
+
+        /**
+         * A file, read when the body is written
+         *
+         * @param name
+         * @param file
+         * @param contentType the type of the file, or empty to guess it from the file name
+         */
+        static Part file(final String name, final Path file, final Optional<String> contentType) {
+            final String fileName = file.getFileName().toString();
+            final String type = contentType.orElseGet(() -> Optional.ofNullable(
+                    URLConnection.guessContentTypeFromName(fileName)).orElse("application/octet-stream"));
+            return new Part(name, Optional.of(fileName), Optional.of(type)) {
+                @Override
+                long size() {
+                    try {
+                        return Files.size(file);
+                    } catch (final IOException e) {
+                        return -1;
+                    }
+                }
+
+                @Override
+                void writeTo(final OutputStream out) throws IOException {
+                    RequestBodies.writeFile(file, size(), out);
+                }
+
+                @Override
+                String describe() {
+                    return fileName;
+                }
+            };
+        }
+
+        /**
+         * The length of the content, or -1 if it can't be known
+         */
+        abstract long size();
+
+        abstract void writeTo(OutputStream out) throws IOException;
+
+        abstract String describe();
+    }
+}
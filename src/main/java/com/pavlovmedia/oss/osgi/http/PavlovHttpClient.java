@@ -5,11 +5,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -72,13 +74,15 @@ public interface PavlovHttpClient {
     PavlovHttpClient withAcceptTypes(String...acceptTypes);
 
     /**
-     * Gives a chance to directly modify the connection before it is used
+     * Gives a chance to directly modify the connection before it is used.
+     * Only transports built on {@link HttpURLConnection} (like the default) call this.
      * @param rawConnection
      */
     PavlovHttpClient beforeConnectRaw(Consumer<HttpURLConnection> rawConnection);
 
     /**
-     * Give a chance to directly inspect the connection results before return
+     * Give a chance to directly inspect the connection results before return.
+     * Only transports built on {@link HttpURLConnection} (like the default) call this.
      * @param rawConnection
      */
     PavlovHttpClient beforeFinishRaw(Consumer<HttpURLConnection> rawConnection);
@@ -120,6 +124,17 @@ public interface PavlovHttpClient {
      * @param data
      */
     PavlovHttpClient withData(String data);
+
+    /**
+     * Sends a body built by {@link RequestBodies}, like a file, a buffer or a stream.
+     * Bodies with a known length are sent with a Content-Length, the rest are sent
+     * chunked, and neither is held in memory on the way out.
+     * (cannot be used with {@link #withData(String)} or {@link #withData(Consumer)})
+     *
+     * @param body
+     * @since 1.1.0
+     */
+    PavlovHttpClient withData(RequestBody body);
     
     /**
      * Adds a file to be sent with a post request of content type "multipart/form-data"
@@ -129,9 +144,35 @@ public interface PavlovHttpClient {
      */
     PavlovHttpClient addFileFormData(String fieldName, File file);
 
+    /**
+     * Adds a file to be sent with a post request of content type "multipart/form-data".
+     * The file is read from disk as the request is sent.
+     *
+     * @param fieldName the name of the field for the file in the form
+     * @param file
+     * @param contentType the type of the file, without this it is guessed from the file name
+     * @since 1.1.0
+     */
+    PavlovHttpClient addFileFormData(String fieldName, File file, String contentType);
+
+    /**
+     * Adds a plain field to be sent with a post request of content type "multipart/form-data".
+     * Fields and files are sent in the order they were added.
+     *
+     * @param fieldName the name of the field in the form
+     * @param value
+     * @since 1.1.0
+     */
+    PavlovHttpClient addFormField(String fieldName, String value);
+
     /**
      * Treats this connection as SSE and will dispatch events to the provided
-     * consumer.
+     * consumer. Events are read with an {@link SseParser} on the thread that
+     * executes the request. When the stream ends or breaks it is reconnected after
+     * the server's retry time, sending the last event id as Last-Event-ID, until
+     * {@link #withInterrupt(AtomicBoolean)} is set or the server answers with a 204
+     * or an error. The consumer is called on the reading thread, so a slow one
+     * should be wrapped in an {@link SseDelivery} to queue and batch the events.
      * Note: Can't be used with {@link #asStreaming(Consumer)}
      *
      * @param sseConsumer
@@ -152,12 +193,139 @@ public interface PavlovHttpClient {
      */
     PavlovHttpClient usingGzip();
 
+    /**
+     * Compresses the request body with gzip as it is sent and marks it with a
+     * Content-Encoding of gzip. Only use this against servers that accept
+     * compressed requests. Bodies known to be smaller than
+     * {@value RequestBodies#DEFAULT_GZIP_THRESHOLD} bytes are sent as they are.
+     *
+     * @since 1.1.0
+     */
+    PavlovHttpClient compressingRequests();
+
+    /**
+     * Compresses the request body with gzip as it is sent and marks it with a
+     * Content-Encoding of gzip. Only use this against servers that accept
+     * compressed requests. Multipart bodies and bodies that already have a
+     * Content-Encoding are never compressed.
+     *
+     * @param minimumBytes bodies known to be smaller than this are sent as they are,
+     *     bodies of unknown length are always compressed
+     * @param level from {@link java.util.zip.Deflater#BEST_SPEED} to
+     *     {@link java.util.zip.Deflater#BEST_COMPRESSION}, or
+     *     {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     * @since 1.1.0
+     */
+    PavlovHttpClient compressingRequests(long minimumBytes, int level);
+
     /**
      * Allows you to ignore self signed certificates
      * @since 1.0.2
      */
     PavlovHttpClient ignoringSelfSignedCert(boolean ingoreSelfSignedCertEnabled);
 
+    /**
+     * Sends this request with a specific transport instead of the default
+     * {@link UrlConnectionTransport}
+     *
+     * @param transport
+     * @since 1.1.0
+     */
+    PavlovHttpClient withTransport(HttpTransport transport);
+
+    /**
+     * Sends this request with a transport registered with {@link HttpTransports},
+     * for example one published as an OSGi service. The transport is looked up
+     * when the request is executed.
+     *
+     * @param transportName the {@link HttpTransport#getName()} of the transport
+     * @since 1.1.0
+     */
+    PavlovHttpClient withTransport(String transportName);
+
+    /**
+     * Sets how many leftover body bytes {@link HttpResponse#close()} will read so that
+     * the connection can be reused. Bodies with more left than this have their
+     * connection dropped instead.
+     *
+     * @param drainLimit the limit in bytes, defaults to {@link HttpResponse#DEFAULT_DRAIN_LIMIT}
+     * @since 1.1.0
+     */
+    PavlovHttpClient withDrainLimit(long drainLimit);
+
+    /**
+     * Holds this request to a set of connection limits. The request waits for room
+     * before it is sent and gives its place back once the response is read to the
+     * end or closed. Clients from a {@link PavlovHttpClientFactory} already have this set.
+     *
+     * @param limiter the limits to share
+     * @since 1.1.0
+     */
+    PavlovHttpClient withConnectionLimiter(ConnectionLimiter limiter);
+
+    /**
+     * Sets how long to wait for a connection to open. 0 waits forever.
+     *
+     * @param timeout defaults to {@link HttpTimeoutDefaults#getConnectTimeoutMillis()}
+     * @param unit
+     * @since 1.1.0
+     */
+    PavlovHttpClient withConnectTimeout(long timeout, TimeUnit unit);
+
+    /**
+     * Sets how long to wait for the next bytes of the response before giving up,
+     * both for the headers and while reading the body. 0 waits forever.
+     *
+     * @param timeout defaults to {@link HttpTimeoutDefaults#getReadTimeoutMillis()}
+     * @param unit
+     * @since 1.1.0
+     */
+    PavlovHttpClient withReadTimeout(long timeout, TimeUnit unit);
+
+    /**
+     * Sets how long the whole request may take, from connecting through reading
+     * the last byte of the body. The clock starts when the request is executed and
+     * the connection is dropped once it runs out. 0 means no deadline.
+     *
+     * @param timeout defaults to {@link HttpTimeoutDefaults#getDeadlineMillis()}
+     * @param unit
+     * @since 1.1.0
+     */
+    PavlovHttpClient withDeadline(long timeout, TimeUnit unit);
+
+    /**
+     * Sends this request again when it fails in a way the policy says is worth
+     * retrying. Without a policy a request is only sent once. Retries are covered
+     * by the same deadline as the first attempt.
+     *
+     * @param policy for example {@link RetryPolicy#defaults()}
+     * @since 1.1.0
+     */
+    PavlovHttpClient withRetryPolicy(RetryPolicy policy);
+
+    /**
+     * Sends this request through the circuit breaker for its origin. While the
+     * breaker is open the request fails right away with a {@link CircuitOpenException},
+     * {@link #execute(Consumer)} returns empty and {@link #executeAsync()} fails.
+     * Clients from a {@link PavlovHttpClientFactory} have this set when the
+     * {@link CircuitBreakers} service is around.
+     *
+     * @param breakers the breakers to share
+     * @since 1.1.0
+     */
+    PavlovHttpClient withCircuitBreakers(CircuitBreakers breakers);
+
+    /**
+     * Answers GET requests out of an {@link HttpCache} when it can. Fresh responses
+     * are served without asking the server, stale ones are revalidated and only
+     * downloaded again if they changed. Clients from a {@link PavlovHttpClientFactory}
+     * have this set when the {@link HttpCache} service is around.
+     *
+     * @param cache the cache to share
+     * @since 1.1.0
+     */
+    PavlovHttpClient withCache(HttpCache cache);
+
     /**
      * Sets up a debugger consumer to add messages to
      * 
@@ -175,9 +343,9 @@ public interface PavlovHttpClient {
     Optional<HttpResponse> execute(Consumer<Exception> onError);
 
     /**
-     * Executes this request asynchronously. Any exceptions will be
-     * fed through the {@link CompletableFuture#exceptionally(java.util.function.Function)}
-     * method.
+     * Executes this request asynchronously on the {@link HttpIoExecutor#shared()} pool.
+     * Any exceptions will be fed through the
+     * {@link CompletableFuture#exceptionally(java.util.function.Function)} method.
      */
     CompletableFuture<HttpResponse> executeAsync();
 
@@ -188,5 +356,80 @@ public interface PavlovHttpClient {
      * @param pool
      */
     CompletableFuture<HttpResponse> executeAsync(ExecutorService pool);
-    
+
+    /**
+     * Executes this request and writes the response body straight into a file. If
+     * the body breaks off part way the rest is asked for with a Range request, as
+     * long as the server sent an ETag or Last-Modified to make sure it is still the
+     * same file, otherwise it is downloaded again from the start. How many times it
+     * tries and how long it waits in between comes from {@link #withRetryPolicy(RetryPolicy)},
+     * or {@link RetryPolicy#defaults()} if it isn't set.
+     *
+     * @param file where to write the body, replaced if it exists and left with
+     *     whatever was written if the download fails
+     * @param progress told how much has been written after each block
+     * @param onError gets the error if the download fails
+     * @return the length of the file, or empty if the download failed
+     * @since 1.1.0
+     */
+    Optional<Long> downloadTo(Path file, DownloadProgress progress, Consumer<Exception> onError);
+
+    /**
+     * Runs {@link #downloadTo(Path, DownloadProgress, Consumer)} on the
+     * {@link HttpIoExecutor#shared()} pool
+     *
+     * @param file
+     * @param progress
+     * @return the length of the file
+     * @since 1.1.0
+     */
+    CompletableFuture<Long> downloadToAsync(Path file, DownloadProgress progress);
+
+    /**
+     * Runs {@link #downloadTo(Path, DownloadProgress, Consumer)} using the specified pool
+     *
+     * @param file
+     * @param progress
+     * @param pool
+     * @return the length of the file
+     * @since 1.1.0
+     */
+    CompletableFuture<Long> downloadToAsync(Path file, DownloadProgress progress, ExecutorService pool);
+
+    /**
+     * Downloads this GET request into a file over several connections at once. A
+     * HEAD request checks the length and that the server takes byte ranges, then
+     * the file is split into segments that are fetched at the same time on the pool
+     * and written into their spot in the file. A segment that breaks off is picked
+     * up again with a Range request on its own, using the attempts and waits from
+     * {@link #withRetryPolicy(RetryPolicy)}, or {@link RetryPolicy#defaults()} if it
+     * isn't set. If the server can't do ranges, doesn't send an ETag or
+     * Last-Modified, or the file is small, it is downloaded like
+     * {@link #downloadTo(Path, DownloadProgress, Consumer)}.
+     *
+     * @param file where to write the body, replaced if it exists
+     * @param segments the most connections to use, segments are never smaller than a megabyte
+     * @param pool runs the segments, each one holds a thread while it downloads
+     * @param progress told how much has been written after each block, from whichever
+     *     thread wrote it
+     * @param onError gets the error if the download fails
+     * @return the length of the file, or empty if the download failed
+     * @since 1.1.0
+     */
+    Optional<Long> downloadInSegments(Path file, int segments, ExecutorService pool, DownloadProgress progress,
+            Consumer<Exception> onError);
+
+    /**
+     * Runs {@link #downloadInSegments(Path, int, ExecutorService, DownloadProgress, Consumer)}
+     * without waiting for it
+     *
+     * @param file
+     * @param segments
+     * @param pool
+     * @param progress
+     * @return the length of the file
+     * @since 1.1.0
+     */
+    CompletableFuture<Long> downloadInSegmentsAsync(Path file, int segments, ExecutorService pool,
+            DownloadProgress progress);
 }
@@ -0,0 +1,21 @@
+package com.pavlovmedia.oss.osgi.http;
+
+/**
+ * Hands out clients that share one set of connection limits. Inside OSGi this is
+ * a service, so every bundle talking to the same upstream draws from the same
+ * limits instead of each opening as many connections as it likes.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public interface PavlovHttpClientFactory {
+    /**
+     * Creates a new client that is held to this factory's limits
+     */
+    PavlovHttpClient create();
+
+    /**
+     * The limits shared by every client this factory creates
+     */
+    ConnectionLimiter getConnectionLimiter();
+}
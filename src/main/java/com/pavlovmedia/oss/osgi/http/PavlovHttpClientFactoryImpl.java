@@ -0,0 +1,167 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.felix.scr.annotations.References;
+import org.apache.felix.scr.annotations.Service;
+
+/**
+ * The {@link PavlovHttpClientFactory} service, configured through Config Admin.
+ * Outside of OSGi it can be created directly.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@Component(metatype = true,
+    label = "Pavlov HTTP Client Factory",
+    description = "Creates Pavlov HTTP clients that share connection limits")
+@Service(PavlovHttpClientFactory.class)
+@References({
+    @Reference(name = "circuitBreakers",
+        referenceInterface = CircuitBreakers.class,
+        cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+        policy = ReferencePolicy.DYNAMIC,
+        bind = "bindCircuitBreakers",
+        unbind = "unbindCircuitBreakers"),
+    @Reference(name = "cache",
+        referenceInterface = HttpCache.class,
+        cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+        policy = ReferencePolicy.DYNAMIC,
+        bind = "bindCache",
+        unbind = "unbindCache")
+})
+@Properties({
+    @Property(name = PavlovHttpClientFactoryImpl.MAX_CONNECTIONS,
+        intValue = PavlovHttpClientFactoryImpl.DEFAULT_MAX_CONNECTIONS,
+        label = "Max connections", description = "The most connections open at once across every host"),
+    @Property(name = PavlovHttpClientFactoryImpl.MAX_CONNECTIONS_PER_HOST,
+        intValue = PavlovHttpClientFactoryImpl.DEFAULT_MAX_CONNECTIONS_PER_HOST,
+        label = "Max connections per host", description = "The most connections open at once to one origin"),
+    @Property(name = PavlovHttpClientFactoryImpl.MAX_WAITING_PER_HOST,
+        intValue = PavlovHttpClientFactoryImpl.DEFAULT_MAX_WAITING_PER_HOST,
+        label = "Max waiting per host", description = "The most requests waiting in line for one origin"),
+    @Property(name = PavlovHttpClientFactoryImpl.ACQUIRE_TIMEOUT_MILLIS,
+        longValue = PavlovHttpClientFactoryImpl.DEFAULT_ACQUIRE_TIMEOUT_MILLIS,
+        label = "Wait timeout",
+        description = "How long a request waits for a connection in milliseconds, 0 waits forever"),
+    @Property(name = PavlovHttpClientFactoryImpl.TRANSPORT, value = "",
+        label = "Transport", description = "The name of the transport clients use, blank for the default")
+})
+public class PavlovHttpClientFactoryImpl implements PavlovHttpClientFactory {
+    public static final String MAX_CONNECTIONS = "connections.max";
+    public static final String MAX_CONNECTIONS_PER_HOST = "connections.max.per.host";
+    public static final String MAX_WAITING_PER_HOST = "connections.waiting.per.host";
+    public static final String ACQUIRE_TIMEOUT_MILLIS = "connections.wait.timeout.millis";
+    public static final String TRANSPORT = "transport";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    public static final int DEFAULT_MAX_WAITING_PER_HOST = 500;
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30000;
+
+    private volatile ConnectionLimiter limiter;
+    private volatile Optional<String> transportName = Optional.empty();
+    private volatile Optional<CircuitBreakers> circuitBreakers = Optional.empty();
+    private volatile Optional<HttpCache> cache = Optional.empty();
+
+    /**
+     * Creates a factory with the default limits
+     */
+    public PavlovHttpClientFactoryImpl() {
+        this(new ConnectionLimiter(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_HOST,
+                DEFAULT_MAX_WAITING_PER_HOST, DEFAULT_ACQUIRE_TIMEOUT_MILLIS));
+    }
+
+    /**
+     * Creates a factory around an existing limiter
+     *
+     * @param limiter
+     */
+    public PavlovHttpClientFactoryImpl(final ConnectionLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Creates a factory around an existing limiter whose clients also go through
+     * a set of circuit breakers
+     *
+     * @param limiter
+     * @param breakers
+     */
+    public PavlovHttpClientFactoryImpl(final ConnectionLimiter limiter, final CircuitBreakers breakers) {
+        this.limiter = limiter;
+        this.circuitBreakers = Optional.of(breakers);
+    }
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        modified(properties);
+    }
+
+    @Modified
+    protected void modified(final Map<String, Object> properties) {
+        // Permits already handed out go back to the limiter they came from
+        this.limiter = new ConnectionLimiter(
+                intProperty(properties, MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS),
+                intProperty(properties, MAX_CONNECTIONS_PER_HOST, DEFAULT_MAX_CONNECTIONS_PER_HOST),
+                intProperty(properties, MAX_WAITING_PER_HOST, DEFAULT_MAX_WAITING_PER_HOST),
+                longProperty(properties, ACQUIRE_TIMEOUT_MILLIS, DEFAULT_ACQUIRE_TIMEOUT_MILLIS));
+        this.transportName = Optional.ofNullable(properties.get(TRANSPORT))
+                .map(Object::toString)
+                .map(String::trim)
+                .filter(name -> !name.isEmpty());
+    }
+
+    @Override
+    public PavlovHttpClient create() {
+        final PavlovHttpClientImpl client = new PavlovHttpClientImpl().withConnectionLimiter(this.limiter);
+        this.transportName.ifPresent(client::withTransport);
+        this.circuitBreakers.ifPresent(client::withCircuitBreakers);
+        this.cache.ifPresent(client::withCache);
+        return client;
+    }
+
+    protected void bindCircuitBreakers(final CircuitBreakers breakers) {
+        this.circuitBreakers = Optional.of(breakers);
+    }
+
+    protected void unbindCircuitBreakers(final CircuitBreakers breakers) {
+        if (this.circuitBreakers.filter(b -> b == breakers).isPresent()) {
+            this.circuitBreakers = Optional.empty();
+        }
+    }
+
+    protected void bindCache(final HttpCache cache) {
+        this.cache = Optional.of(cache);
+    }
+
+    protected void unbindCache(final HttpCache cache) {
+        if (this.cache.filter(c -> c == cache).isPresent()) {
+            this.cache = Optional.empty();
+        }
+    }
+
+    @Override
+    public ConnectionLimiter getConnectionLimiter() {
+        return this.limiter;
+    }
+
+    private static int intProperty(final Map<String, Object> properties, final String name, final int fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Integer.parseInt(value.toString().trim());
+    }
+
+    private static long longProperty(final Map<String, Object> properties, final String name, final long fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Long.parseLong(value.toString().trim());
+    }
+}
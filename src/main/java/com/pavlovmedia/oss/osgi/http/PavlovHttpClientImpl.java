@@ -1,26 +1,21 @@
 package com.pavlovmedia.oss.osgi.http;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.ProtocolException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.security.GeneralSecurityException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,18 +23,16 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLSocketFactory;
-import javax.net.ssl.TrustManager;
+import java.util.function.Function;
+import java.util.zip.Deflater;
 
 import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
 
@@ -52,9 +45,7 @@ import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
 public class PavlovHttpClientImpl implements PavlovHttpClient {
     public static final String ACCEPT_TYPE_HEADER = "Accept";
     public static final String CONTENT_TYPE_HEADER = "Content-type";
-    private static final int TIMEOUT = 5000; // XXX: Should this be settable?
-    private static final Pattern SSE_ENTRY = Pattern.compile("(?<field>\\w+):(?<data>.+)");
-    private static final String LINE_FEED = "\r\n";
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
     
     private String boundary = UUID.randomUUID().toString();
     private Optional<URL> httpUrl = Optional.empty();
@@ -70,12 +61,26 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
     private Optional<Consumer<SseMessageEvent>> sseConsumer = Optional.empty();
     private Optional<Consumer<InputStream>> streamConsumer = Optional.empty();
     private Optional<Consumer<OutputStream>> handleStream = Optional.empty();
+    private Optional<RequestBody> requestBody = Optional.empty();
     private Optional<Consumer<String>> debugger = Optional.empty();
     private Optional<String> data = Optional.empty();
-    private HashMap<String, File> fileFormData = new HashMap<>();
+    private ArrayList<MultipartBody.Part> formParts = new ArrayList<>();
     private boolean ignoreSelfSignedCertEnabled;
+    private long drainLimit = HttpResponse.DEFAULT_DRAIN_LIMIT;
+    private Optional<HttpTransport> transport = Optional.empty();
+    private Optional<String> transportName = Optional.empty();
+    private Optional<ConnectionLimiter> connectionLimiter = Optional.empty();
+    private Optional<Long> connectTimeout = Optional.empty();
+    private Optional<Long> readTimeout = Optional.empty();
+    private Optional<Long> deadline = Optional.empty();
+    private Optional<RetryPolicy> retryPolicy = Optional.empty();
+    private Optional<CircuitBreakers> circuitBreakers = Optional.empty();
+    private Optional<HttpCache> cache = Optional.empty();
+    private Optional<Long> gzipThreshold = Optional.empty();
+    private int gzipLevel = Deflater.DEFAULT_COMPRESSION;
 
     private URL validatedUrl;
+    private HttpTransport validatedTransport;
     
     @Override
     public PavlovHttpClient clone() {
@@ -95,26 +100,25 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
         this.streamConsumer.ifPresent(ret::asStreaming);
         this.handleStream.ifPresent(ret::withData);
         this.data.ifPresent(ret::withData);
-        ret.fileFormData = new HashMap<>(this.fileFormData);
+        this.requestBody.ifPresent(ret::withData);
+        ret.formParts = new ArrayList<>(this.formParts);
         ret.ignoreSelfSignedCertEnabled = this.ignoreSelfSignedCertEnabled;
+        ret.drainLimit = this.drainLimit;
+        ret.transport = this.transport;
+        ret.transportName = this.transportName;
+        ret.connectionLimiter = this.connectionLimiter;
+        ret.connectTimeout = this.connectTimeout;
+        ret.readTimeout = this.readTimeout;
+        ret.deadline = this.deadline;
+        ret.retryPolicy = this.retryPolicy;
+        ret.circuitBreakers = this.circuitBreakers;
+        ret.cache = this.cache;
+        ret.gzipThreshold = this.gzipThreshold;
+        ret.gzipLevel = this.gzipLevel;
+        ret.debugger = this.debugger;
         return ret;
     }
 
-    private static SSLSocketFactory SELF_SIGNED_SOCKET_FACTORY;
-    static {
-        try {
-            final SSLContext sc = SSLContext.getInstance("SSL");
-            sc.init(null, new TrustManager[] { new SelfSignedTrustManager() }, new java.security.SecureRandom());
-            SELF_SIGNED_SOCKET_FACTORY = sc.getSocketFactory();
-        } catch (final GeneralSecurityException e) {
-            // This happens before we are running in osgi
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    private static AnyHostVerifier HOSTNAME_VERIFIER = new AnyHostVerifier();
-    
     @Override
     public PavlovHttpClientImpl againstUrl(final URL url) {
         this.httpUrl = Optional.of(url);
@@ -133,6 +137,78 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
         return this;
     }
 
+    @Override
+    public PavlovHttpClientImpl withTransport(final HttpTransport transport) {
+        this.transport = Optional.of(transport);
+        this.transportName = Optional.empty();
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withTransport(final String transportName) {
+        this.transportName = Optional.of(transportName);
+        this.transport = Optional.empty();
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withDrainLimit(final long drainLimit) {
+        if (drainLimit < 0) {
+            throw new IllegalArgumentException("Drain limit cannot be negative");
+        }
+        this.drainLimit = drainLimit;
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withConnectionLimiter(final ConnectionLimiter limiter) {
+        this.connectionLimiter = Optional.of(limiter);
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withConnectTimeout(final long timeout, final TimeUnit unit) {
+        this.connectTimeout = Optional.of(toMillis(timeout, unit));
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withReadTimeout(final long timeout, final TimeUnit unit) {
+        this.readTimeout = Optional.of(toMillis(timeout, unit));
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withDeadline(final long timeout, final TimeUnit unit) {
+        this.deadline = Optional.of(toMillis(timeout, unit));
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withRetryPolicy(final RetryPolicy policy) {
+        this.retryPolicy = Optional.of(policy);
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withCircuitBreakers(final CircuitBreakers breakers) {
+        this.circuitBreakers = Optional.of(breakers);
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl withCache(final HttpCache cache) {
+        this.cache = Optional.of(cache);
+        return this;
+    }
+
+    private static long toMillis(final long timeout, final TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative");
+        }
+        return unit.toMillis(timeout);
+    }
+
     @Override
     public PavlovHttpClientImpl withUrlPath(final String path) {
         this.httpPath = Optional.of(path);
@@ -234,10 +310,28 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
         this.data = Optional.of(data);
         return this;
     }
+
+    @Override
+    public PavlovHttpClientImpl withData(final RequestBody body) {
+        this.requestBody = Optional.of(body);
+        return this;
+    }
     
     @Override
     public PavlovHttpClientImpl addFileFormData(final String fieldName, final File file) {
-        this.fileFormData.put(fieldName, file);
+        this.formParts.add(MultipartBody.Part.file(fieldName, file.toPath(), Optional.empty()));
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl addFileFormData(final String fieldName, final File file, final String contentType) {
+        this.formParts.add(MultipartBody.Part.file(fieldName, file.toPath(), Optional.of(contentType)));
+        return this;
+    }
+
+    @Override
+    public PavlovHttpClientImpl addFormField(final String fieldName, final String value) {
+        this.formParts.add(MultipartBody.Part.field(fieldName, value));
         return this;
     }
 
@@ -259,6 +353,18 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
         return this;
     }
 
+    @Override
+    public PavlovHttpClientImpl compressingRequests() {
+        return compressingRequests(RequestBodies.DEFAULT_GZIP_THRESHOLD, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    @Override
+    public PavlovHttpClientImpl compressingRequests(final long minimumBytes, final int level) {
+        this.gzipThreshold = Optional.of(minimumBytes);
+        this.gzipLevel = RequestBodies.checkLevel(level);
+        return this;
+    }
+
     @Override
     public Optional<HttpResponse> execute(final Consumer<Exception> onError) {
         Objects.requireNonNull(onError, "Error handler is required");
@@ -269,116 +375,221 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
         }
 
         this.debugger.ifPresent(c -> c.accept("Final url is: "+this.validatedUrl.toExternalForm()));
+        this.retryPolicy.ifPresent(p -> p.getBudget().deposit(UrlHelpers.originOf(this.validatedUrl)));
 
-        try {
-            final HttpURLConnection connection = (HttpURLConnection) this.validatedUrl.openConnection();
-            connection.setConnectTimeout(TIMEOUT);
-
-            if (this.ignoreSelfSignedCertEnabled && connection instanceof HttpsURLConnection) {
-                this.debugger.ifPresent(c -> c.accept("Ignorning self signed certificate"));
-                ((HttpsURLConnection) connection).setSSLSocketFactory(SELF_SIGNED_SOCKET_FACTORY);
-                ((HttpsURLConnection) connection).setHostnameVerifier(HOSTNAME_VERIFIER);
-            }
-
-            this.handleHeaders(connection);
-            this.setVerb(connection);
-
-            this.beforeConnect.ifPresent(c -> c.accept(connection));
-
-            if (additionalHeaders.containsKey(CONTENT_TYPE_HEADER) 
-                && additionalHeaders.get(CONTENT_TYPE_HEADER).contains("multipart/form-data;boundary=" + boundary)) {
-                    connection.setDoOutput(true);
-                    try (OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream())) {
-                        AtomicBoolean hasErrors = new AtomicBoolean(false);
-                        fileFormData.keySet().forEach(key -> {
-                            try {
-                                writer.write("--" + boundary + LINE_FEED);
-                                writer.write(String.format("Content-Disposition: form-data; name=\"%s\"; filename=\"%s\"%s%s", 
-                                        key, fileFormData.get(key).getName(), LINE_FEED, LINE_FEED));
-                                writer.write(new String(Files.readAllBytes(Paths.get(fileFormData.get(key).getAbsolutePath())), StandardCharsets.UTF_8));
-                                writer.write(LINE_FEED);
-                            } catch (IOException e) {
-                                onError.accept(new IOException("Error when writing " + fileFormData.get(key).getName()
-                                        + " to the request. Error message: " + e.getMessage()));
-                                hasErrors.set(true);
-                            }
-                        });
-                        if (hasErrors.get()) {
-                            return Optional.empty();
-                        } else {
-                            writer.write("--" + boundary + "--" + LINE_FEED);
-                            writer.flush();
-                        }
-                    }
-            } else if (this.data.isPresent()) {
-                connection.setDoOutput(true);
-                try (OutputStreamWriter writer = new OutputStreamWriter(connection.getOutputStream())) {
-                    writer.write(this.data.get());
-                }
-            } else if (this.handleStream.isPresent()) {
-                connection.setDoOutput(true);
-                this.handleStream.get().accept(connection.getOutputStream());
-            } else {
-                connection.connect();
-            }
-
-            this.beforeFinish.ifPresent(f -> f.accept(connection));
-            int responseCode = -1;
+        final Optional<Deadline> deadline = startDeadline();
+        long delay = 0;
+        for (int attempt = 1; ; attempt++) {
+            final HttpTransportRequest request = buildTransportRequest(deadline);
+            final HttpTransportResponse transportResponse;
             try {
-                responseCode = connection.getResponseCode();
-            } catch (final FileNotFoundException e) {
-                responseCode = 404;
-            }
-
-            final int debugCode = responseCode; // Need this for the logging lambda
-            this.debugger.ifPresent(d -> d.accept("Response code is "+debugCode));
-
-            if (responseCode >= 200 && responseCode < 300) {
-                Optional<ConvertibleAsset<InputStream>> inputStream = Optional.empty();
-                if (this.sseConsumer.isPresent()) {
-                    handleSse(connection);
-                } else if (this.streamConsumer.isPresent()) {
-                    this.streamConsumer.get().accept(connection.getInputStream());
-                } else {
-                    inputStream = Optional.of(new ConvertibleAsset<>(connection.getInputStream()));
+                transportResponse = this.validatedTransport.execute(request);
+            } catch (final IOException e) {
+                this.debugger.ifPresent(d -> d.accept("Got exception "+e));
+                delay = retryDelay(request, attempt, delay, Optional.of(e), Optional.empty());
+                if (delay < 0 || !sleep(delay)) {
+                    onError.accept(e);
+                    return Optional.empty();
                 }
-                return Optional.of(new HttpResponse(this.validatedUrl, responseCode, Optional.empty(), inputStream,
-                        connection.getHeaderFields()));
+                continue;
             }
 
-            Optional<ConvertibleAsset<InputStream>> response = Optional.empty();
             try {
-                    response = connection.getInputStream() != null
-                        ? Optional.of(new ConvertibleAsset<>(connection.getInputStream()))
-                        : Optional.empty();
-            } catch (final FileNotFoundException f) {
-                // Ignore this error
+                delay = retryDelay(request, attempt, delay, Optional.empty(), Optional.of(transportResponse));
+                if (delay < 0) {
+                    return handleResponse(transportResponse, onError);
+                }
+                discard(transportResponse);
+                if (!sleep(delay)) {
+                    onError.accept(new InterruptedIOException("Interrupted waiting to retry"));
+                    return Optional.empty();
+                }
             } catch (final IOException e) {
+                this.debugger.ifPresent(d -> d.accept("Got exception "+e));
                 onError.accept(e);
+                return Optional.empty();
             }
+        }
+    }
+
+    /**
+     * Works out if a failed attempt should be sent again
+     *
+     * @param request the attempt that failed
+     * @param attempt which attempt it was, starting at 1
+     * @param previousDelay the wait before it, 0 for the first attempt
+     * @param error what it failed with, if it didn't get a response
+     * @param response the response it got, if it did
+     * @return how long to wait before trying again, or -1 to stop here
+     */
+    private long retryDelay(final HttpTransportRequest request, final int attempt, final long previousDelay,
+            final Optional<Throwable> error, final Optional<HttpTransportResponse> response) {
+        if (!this.retryPolicy.isPresent()) {
+            return -1;
+        }
+        final RetryPolicy policy = this.retryPolicy.get();
+        final boolean failed = error.map(policy::isRetryableError).orElse(false)
+                || response.map(r -> policy.isRetryableStatus(r.getResponseCode())).orElse(false);
+        if (!failed
+                || attempt >= policy.getMaxAttempts()
+                || !policy.allows(request.getVerb())
+                || !request.getBody().map(RequestBody::isReplayable).orElse(true)
+                || this.interrupt.map(AtomicBoolean::get).orElse(false)) {
+            return -1;
+        }
+
+        final Optional<String> retryAfter = response.flatMap(r -> HttpHeaders.first(r.getHeaders(), "Retry-After"));
+        final Optional<Long> delay = policy.nextDelay(previousDelay, retryAfter);
+        if (!delay.isPresent() || request.getDeadline().map(d -> d.remainingMillis() <= delay.get()).orElse(false)) {
+            request.debug("Not retrying, the wait would run past the deadline or max delay");
+            return -1;
+        }
+        final String origin = UrlHelpers.originOf(this.validatedUrl);
+        if (!policy.getBudget().tryWithdraw(origin)) {
+            request.debug("Not retrying, the retry budget for " + origin + " is spent");
+            return -1;
+        }
+        request.debug(String.format("Retrying attempt %d in %dms", attempt, delay.get()));
+        return delay.get();
+    }
+
+    /**
+     * Throws away a response we are going to retry, keeping the connection if the body is small
+     */
+    private void discard(final HttpTransportResponse transportResponse) throws IOException {
+        handleResponse(transportResponse, e -> { }).ifPresent(HttpResponse::close);
+    }
 
-            final Optional<ConvertibleAsset<InputStream>> error =
-                    connection.getErrorStream() != null
-                    ? Optional.of(new ConvertibleAsset<>(connection.getErrorStream()))
-                    : Optional.empty();
+    private static boolean sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
-            return Optional.of(new HttpResponse(
-                    this.validatedUrl,
-                    responseCode,
-                    error,
-                    response,
-                    connection.getHeaderFields()));
+    /**
+     * Starts the clock on the deadline, one deadline covers every attempt of a request
+     */
+    private Optional<Deadline> startDeadline() {
+        final long deadlineMillis = this.deadline.orElse(HttpTimeoutDefaults.getDeadlineMillis());
+        return deadlineMillis == 0
+                ? Optional.empty()
+                : Optional.of(Deadline.in(deadlineMillis, TimeUnit.MILLISECONDS));
+    }
 
+    /**
+     * Validates this request and lays it out the way {@link #execute(Consumer)} hands it
+     * to a transport. This is for code that drives a transport itself, like
+     * {@link com.pavlovmedia.oss.osgi.http.nio.SseSubscriptions}, so none of the
+     * connection limits, circuit breakers, cache or retries are applied.
+     *
+     * @throws IllegalStateException if the request isn't valid
+     * @since 1.1.0
+     */
+    public HttpTransportRequest buildTransportRequest() {
+        final List<Exception> validationErrors = validate();
+        if (!validationErrors.isEmpty()) {
+            throw stackExceptions(validationErrors);
+        }
+        return buildTransportRequest(startDeadline());
+    }
+
+    private HttpTransportRequest buildTransportRequest(final Optional<Deadline> deadline) {
+        final Map<String, List<String>> headers = buildHeaders();
+        Optional<RequestBody> body = Optional.empty();
+        if (additionalHeaders.containsKey(CONTENT_TYPE_HEADER)
+            && additionalHeaders.get(CONTENT_TYPE_HEADER).contains("multipart/form-data;boundary=" + boundary)) {
+            body = Optional.of(new MultipartBody(this.boundary, this.formParts));
+        } else {
+            if (this.requestBody.isPresent()) {
+                body = this.requestBody;
+            } else if (this.data.isPresent()) {
+                body = Optional.of(RequestBodies.ofString(this.data.get()));
+            } else if (this.handleStream.isPresent()) {
+                body = Optional.of(RequestBodies.ofWriter(this.handleStream.get()));
+            }
+            body = body.map(b -> compress(b, headers));
+        }
+
+        return new HttpTransportRequest(this.validatedUrl, this.verb.get(), headers, body,
+                asTimeout(this.connectTimeout.orElse(HttpTimeoutDefaults.getConnectTimeoutMillis())),
+                asTimeout(this.readTimeout.orElse(HttpTimeoutDefaults.getReadTimeoutMillis())),
+                deadline, this.ignoreSelfSignedCertEnabled, this.beforeConnect, this.beforeFinish, this.debugger);
+    }
+
+    /**
+     * Wraps a body in gzip if request compression is on and it is worth it, adding
+     * the Content-Encoding to the headers
+     */
+    private RequestBody compress(final RequestBody body, final Map<String, List<String>> headers) {
+        if (!this.gzipThreshold.isPresent()
+                || headers.keySet().stream().anyMatch(ContentDecoding.CONTENT_ENCODING_HEADER::equalsIgnoreCase)) {
+            return body;
+        }
+        final long length = body.getContentLength();
+        if (length >= 0 && length < this.gzipThreshold.get()) {
+            return body;
+        }
+        this.debugger.ifPresent(d -> d.accept("Compressing request body with gzip"));
+        headers.put(ContentDecoding.CONTENT_ENCODING_HEADER,
+                new ArrayList<>(Collections.singletonList(ContentDecoding.GZIP)));
+        return RequestBodies.gzip(body, this.gzipLevel);
+    }
+
+    private static int asTimeout(final long millis) {
+        return (int) Math.min(Integer.MAX_VALUE, millis);
+    }
+
+    private Optional<HttpResponse> handleResponse(final HttpTransportResponse transportResponse,
+            final Consumer<Exception> onError) throws IOException {
+        final int responseCode = transportResponse.getResponseCode();
+        this.debugger.ifPresent(d -> d.accept("Response code is "+responseCode));
+
+        if (responseCode >= 200 && responseCode < 300) {
+            Optional<ConvertibleAsset<InputStream>> inputStream = Optional.empty();
+            if (this.sseConsumer.isPresent()) {
+                final SseParser parser = new SseParser(this.sseConsumer.get());
+                final Optional<InputStream> stream = transportResponse.getResponseStream();
+                readSse(parser, stream, transportResponse);
+                reconnectSse(parser);
+            } else if (this.streamConsumer.isPresent()) {
+                final Optional<InputStream> stream = transportResponse.getResponseStream();
+                if (stream.isPresent()) {
+                    this.streamConsumer.get().accept(ContentDecoding.decode(stream.get(), transportResponse.getHeaders()));
+                }
+            } else {
+                inputStream = transportResponse.getResponseStream().map(ConvertibleAsset::new);
+            }
+            return Optional.of(new HttpResponse(this.validatedUrl, responseCode, Optional.empty(), inputStream,
+                    transportResponse.getHeaders(), this.drainLimit, transportResponse::release));
+        }
+
+        Optional<ConvertibleAsset<InputStream>> response = Optional.empty();
+        try {
+            response = transportResponse.getResponseStream().map(ConvertibleAsset::new);
         } catch (final IOException e) {
-            this.debugger.ifPresent(d -> d.accept("Got exception "+e));
             onError.accept(e);
-            return Optional.empty();
         }
+
+        final Optional<ConvertibleAsset<InputStream>> error =
+                transportResponse.getErrorStream().map(ConvertibleAsset::new);
+
+        return Optional.of(new HttpResponse(
+                this.validatedUrl,
+                responseCode,
+                error,
+                response,
+                transportResponse.getHeaders(),
+                this.drainLimit,
+                transportResponse::release));
     }
 
     @Override
     public CompletableFuture<HttpResponse> executeAsync() {
-        return executeAsync(ForkJoinPool.commonPool());
+        return executeAsync(HttpIoExecutor.shared().getExecutorService());
     }
 
     @Override
@@ -392,19 +603,173 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
             return future;
         }
 
-        final CompletableFuture<HttpResponse> ret = new CompletableFuture<>();
-        pool.submit(() -> {
-            final AtomicReference<Exception> error = new AtomicReference<>();
-            final Optional<HttpResponse> response = this.execute(error::set);
-            if (Objects.isNull(error)) {
-                ret.completeExceptionally(error.get());
-            } else if (response.isPresent()) {
-                ret.complete(response.get());
-            } else {
-                ret.completeExceptionally(new IllegalStateException("Http execution failed"));
+        this.debugger.ifPresent(c -> c.accept("Final url is: "+this.validatedUrl.toExternalForm()));
+        this.retryPolicy.ifPresent(p -> p.getBudget().deposit(UrlHelpers.originOf(this.validatedUrl)));
+
+        // Once the request has been sent we can't drop the response, so if the pool is full it is finished here
+        final Executor finisher = task -> {
+            try {
+                pool.execute(task);
+            } catch (final RejectedExecutionException e) {
+                task.run();
             }
-        });
-        return ret;
+        };
+        return attemptAsync(pool, finisher, startDeadline(), 1, 0);
+    }
+
+    @Override
+    public Optional<Long> downloadTo(final Path file, final DownloadProgress progress,
+            final Consumer<Exception> onError) {
+        Objects.requireNonNull(onError, "Error handler is required");
+        try {
+            return Optional.of(downloader(file, progress).download());
+        } catch (final IOException e) {
+            this.debugger.ifPresent(d -> d.accept("Got exception "+e));
+            onError.accept(e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> downloadToAsync(final Path file, final DownloadProgress progress) {
+        return downloadToAsync(file, progress, HttpIoExecutor.shared().getExecutorService());
+    }
+
+    @Override
+    public CompletableFuture<Long> downloadToAsync(final Path file, final DownloadProgress progress,
+            final ExecutorService pool) {
+        final FileDownloader downloader = downloader(file, progress);
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return downloader.download();
+                } catch (final IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, pool);
+        } catch (final RejectedExecutionException e) {
+            final CompletableFuture<Long> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    @Override
+    public Optional<Long> downloadInSegments(final Path file, final int segments, final ExecutorService pool,
+            final DownloadProgress progress, final Consumer<Exception> onError) {
+        Objects.requireNonNull(onError, "Error handler is required");
+        try {
+            return Optional.of(downloadInSegmentsAsync(file, segments, pool, progress).join());
+        } catch (final CompletionException e) {
+            final Throwable cause = null == e.getCause() ? e : e.getCause();
+            this.debugger.ifPresent(d -> d.accept("Got exception "+cause));
+            onError.accept(cause instanceof Exception ? (Exception) cause : e);
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Long> downloadInSegmentsAsync(final Path file, final int segments,
+            final ExecutorService pool, final DownloadProgress progress) {
+        Objects.requireNonNull(pool);
+        if (segments < 1) {
+            throw new IllegalArgumentException("A download needs at least one segment");
+        }
+        // Only a GET can be split into ranges
+        if (HttpVerbs.GET != this.verb.orElse(HttpVerbs.GET) || segments == 1) {
+            return downloadToAsync(file, progress, pool);
+        }
+        final PavlovHttpClient template = downloadTemplate();
+        final RetryPolicy policy = this.retryPolicy.orElseGet(RetryPolicy::defaults);
+        final FileDownloader fallback = new FileDownloader(template, Objects.requireNonNull(file),
+                Objects.requireNonNull(progress), policy, this.interrupt, this.debugger);
+        try {
+            return new SegmentedDownloader(template, file, segments, pool, progress, policy, this.interrupt,
+                    this.debugger, fallback).start();
+        } catch (final RejectedExecutionException e) {
+            final CompletableFuture<Long> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    /**
+     * Sets up a download of this request to a single file
+     */
+    private FileDownloader downloader(final Path file, final DownloadProgress progress) {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(progress);
+        return new FileDownloader(downloadTemplate(), file, progress,
+                this.retryPolicy.orElseGet(RetryPolicy::defaults), this.interrupt, this.debugger);
+    }
+
+    /**
+     * Copies this request for a download. The downloaders make their own attempts,
+     * so the copy doesn't retry, and it asks for the body as it is stored since
+     * ranges are counted in those bytes.
+     */
+    private PavlovHttpClientImpl downloadTemplate() {
+        final PavlovHttpClientImpl template = (PavlovHttpClientImpl) clone();
+        template.sseConsumer = Optional.empty();
+        template.streamConsumer = Optional.empty();
+        template.retryPolicy = Optional.empty();
+        template.additionalHeaders.keySet().removeIf(name -> "Range".equalsIgnoreCase(name)
+                || "If-Range".equalsIgnoreCase(name) || "Accept-Encoding".equalsIgnoreCase(name));
+        template.addHeader("Accept-Encoding", ContentDecoding.IDENTITY);
+        return template;
+    }
+
+    private CompletableFuture<HttpResponse> attemptAsync(final ExecutorService pool, final Executor finisher,
+            final Optional<Deadline> deadline, final int attempt, final long previousDelay) {
+        final HttpTransportRequest request = buildTransportRequest(deadline);
+
+        // Non-blocking transports only use the pool to finish up, the rest run the whole request on it
+        final CompletableFuture<HttpTransportResponse> sent;
+        try {
+            sent = this.validatedTransport.executeAsync(request, pool);
+        } catch (final RejectedExecutionException e) {
+            final CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        return sent.handleAsync((transportResponse, thrown) -> {
+            final Throwable error = thrown instanceof CompletionException && null != thrown.getCause()
+                    ? thrown.getCause() : thrown;
+            final long delay = retryDelay(request, attempt, previousDelay,
+                    Optional.ofNullable(error), Optional.ofNullable(transportResponse));
+            if (delay < 0) {
+                if (null != error) {
+                    throw new CompletionException(error);
+                }
+                return CompletableFuture.completedFuture(finishAsync(transportResponse));
+            }
+            if (null != transportResponse) {
+                try {
+                    discard(transportResponse);
+                } catch (final IOException e) {
+                    transportResponse.release(false);
+                }
+            }
+            return HttpTimer.after(delay)
+                    .thenComposeAsync(v -> attemptAsync(pool, finisher, deadline, attempt + 1, delay), finisher);
+        }, finisher).thenCompose(Function.identity());
+    }
+
+    private HttpResponse finishAsync(final HttpTransportResponse transportResponse) {
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final Optional<HttpResponse> response;
+        try {
+            response = handleResponse(transportResponse, error::set);
+        } catch (final IOException e) {
+            transportResponse.release(false);
+            throw new CompletionException(e);
+        }
+        if (response.isPresent()) {
+            return response.get();
+        }
+        throw new CompletionException(Optional.ofNullable(error.get())
+                .orElseGet(() -> new IllegalStateException("Http execution failed")));
     }
 
     private List<Exception> validate() {
@@ -420,6 +785,11 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
 
         this.data.ifPresent(d -> this.handleStream.ifPresent(s ->
             errors.add(new IllegalStateException("Cannot have data and a data handler at the same time"))));
+        this.requestBody.ifPresent(b -> {
+            if (this.data.isPresent() || this.handleStream.isPresent()) {
+                errors.add(new IllegalStateException("Cannot have a request body and other data at the same time"));
+            }
+        });
 
         final AtomicReference<URL> url = new AtomicReference<>(this.httpUrl.get());
 
@@ -442,6 +812,28 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
         // We built up the final URL here as well
         this.validatedUrl = url.get();
 
+        // Named transports are looked up late so that services can come and go
+        if (this.transportName.isPresent()) {
+            final Optional<HttpTransport> named = HttpTransports.lookup(this.transportName.get());
+            ifNotPresent(named, () -> errors.add(new IllegalStateException(
+                    String.format("No transport named %s, known transports are %s",
+                            this.transportName.get(), HttpTransports.getNames()))));
+            this.validatedTransport = named.orElse(null);
+        } else {
+            this.validatedTransport = this.transport.orElseGet(HttpTransports::getDefault);
+        }
+        // The breaker goes inside the limiter so time spent waiting in line isn't counted against the origin
+        if (null != this.validatedTransport && this.circuitBreakers.isPresent()) {
+            this.validatedTransport = new BreakerTransport(this.validatedTransport, this.circuitBreakers.get());
+        }
+        if (null != this.validatedTransport && this.connectionLimiter.isPresent()) {
+            this.validatedTransport = new LimitedTransport(this.validatedTransport, this.connectionLimiter.get());
+        }
+        // Cache hits never touch the network, so they don't wait for a connection
+        if (null != this.validatedTransport && this.cache.isPresent()) {
+            this.validatedTransport = new CachingTransport(this.validatedTransport, this.cache.get());
+        }
+
         if (!errors.isEmpty() && this.debugger.isPresent()) {
             errors.forEach(e -> this.debugger.ifPresent(d -> d.accept(e.toString())));
         }
@@ -485,9 +877,13 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
         return new URL(finalUrl);
     }
 
-    protected void handleHeaders(final HttpURLConnection connection) {
+    /**
+     * Builds the final set of request headers, running any header modifiers
+     */
+    private Map<String, List<String>> buildHeaders() {
         // We are going to be using a map, based off of what has already been set
-        final HashMap<String,List<String>> headers = new HashMap<>(this.additionalHeaders);
+        final HashMap<String,List<String>> headers = new HashMap<>();
+        this.additionalHeaders.forEach((key, values) -> headers.put(key, new ArrayList<>(values)));
         // Now pass along to any modification routines
         this.setHeaders.ifPresent(sh -> sh.accept(headers));
         // Next we do simple headers, which is a touch more complex
@@ -501,68 +897,113 @@ public class PavlovHttpClientImpl implements PavlovHttpClient {
                 headers.get(key).add(value);
             });
         });
+        return headers;
+    }
 
-        // Now do the setting
-        headers.forEach((key, valueList) -> {
+    /**
+     * @deprecated headers are now applied by the {@link HttpTransport}
+     * @param connection
+     */
+    @Deprecated
+    protected void handleHeaders(final HttpURLConnection connection) {
+        buildHeaders().forEach((key, valueList) -> {
             valueList.forEach(value -> connection.setRequestProperty(key, value));
         });
     }
 
+    /**
+     * @deprecated the verb is now applied by the {@link HttpTransport}
+     * @param connection
+     * @throws ProtocolException
+     */
+    @Deprecated
     protected void setVerb(final HttpURLConnection connection) throws ProtocolException {
-        switch (this.verb.get()) {
-            case PATCH:
-                connection.setRequestProperty("X-HTTP-Method-Override", "PATCH");
-                connection.setRequestMethod("POST");
-                break;
-            default:
-                connection.setRequestMethod(this.verb.get().toString());
-        }
-    }
-
-    private void handleSse(final HttpURLConnection connection) {
-        final AtomicBoolean isFalse = new AtomicBoolean();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-            while (!this.interrupt.orElse(isFalse).get()) {
-                Optional<String> id = Optional.empty();
-                Optional<ConvertibleAsset<String>> event = Optional.empty();
-                Optional<ConvertibleAsset<String>> data = Optional.empty();
-                while (!this.interrupt.orElse(isFalse).get()) {
-                    // Empty line is the end of an event
-                    final String line = reader.readLine();
-                    if (line.trim().isEmpty()) {
-                        // If we have at least data, emit an sse event
-                        if (data.isPresent()) {
-                            final SseMessageEvent currentEvent = new SseMessageEvent(id, event, data);
-                            this.sseConsumer.get().accept(currentEvent);
-                        }
-                        break; // Next message
-                    }
-
-                    // This ignores comment lines
-                    if (!line.trim().startsWith(":")) {
-                        final Matcher lineMatcher = SSE_ENTRY.matcher(line.trim());
-                        if (lineMatcher.matches()) {
-                            switch (lineMatcher.group("field")) {
-                                case "id":
-                                    id = Optional.of(lineMatcher.group("data"));
-                                    break;
-                                case "event":
-                                    event = Optional.of(new ConvertibleAsset<>(lineMatcher.group("data")));
-                                    break;
-                                case "data":
-                                    data = Optional.of(new ConvertibleAsset<>(lineMatcher.group("data")));
-                                    break;
-                                default:
-                                    // Do nothing
-                            }
-                        }
-                    }
-                }
+        UrlConnectionTransport.setVerb(connection, this.verb.get());
+    }
+
+    /**
+     * Reads an event stream until it ends, breaks or we are interrupted
+     */
+    private void readSse(final SseParser parser, final Optional<InputStream> stream,
+            final HttpTransportResponse transportResponse) {
+        try {
+            if (stream.isPresent()) {
+                parser.read(ContentDecoding.decode(stream.get(), transportResponse.getHeaders()), this.interrupt);
             }
         } catch (final IOException e) {
-            // TODO: Is there any point in logging this somehow?
-            e.printStackTrace();
+            this.debugger.ifPresent(d -> d.accept("SSE stream broke with "+e));
+        } finally {
+            // We may have stopped reading part way through, so the connection can't be reused
+            transportResponse.release(false);
+        }
+    }
+
+    /**
+     * Keeps an event stream going after it ends, sending the last event id so the
+     * server can pick up where it left off. This stops once we are interrupted or
+     * the server answers with anything but a 2xx, a 204 being how it says it is done.
+     */
+    private void reconnectSse(final SseParser parser) {
+        while (!isInterrupted()) {
+            final long wait = parser.getRetryMillis();
+            this.debugger.ifPresent(d -> d.accept("SSE stream ended, reconnecting in "+wait+"ms"));
+            if (!pause(wait)) {
+                return;
+            }
+
+            HttpTransportRequest request = buildTransportRequest(startDeadline());
+            if (parser.getLastEventId().isPresent()) {
+                final Map<String, List<String>> headers = new HashMap<>(request.getHeaders());
+                headers.keySet().removeIf(LAST_EVENT_ID_HEADER::equalsIgnoreCase);
+                headers.put(LAST_EVENT_ID_HEADER, Collections.singletonList(parser.getLastEventId().get()));
+                request = request.withHeaders(headers);
+            }
+
+            final HttpTransportResponse transportResponse;
+            final Optional<InputStream> stream;
+            try {
+                transportResponse = this.validatedTransport.execute(request);
+            } catch (final IOException e) {
+                this.debugger.ifPresent(d -> d.accept("Got exception "+e));
+                continue;
+            }
+            final int responseCode = transportResponse.getResponseCode();
+            if (responseCode < 200 || responseCode >= 300 || responseCode == 204) {
+                this.debugger.ifPresent(d -> d.accept("Not reconnecting, SSE server answered "+responseCode));
+                transportResponse.release(false);
+                return;
+            }
+            try {
+                stream = transportResponse.getResponseStream();
+            } catch (final IOException e) {
+                this.debugger.ifPresent(d -> d.accept("Got exception "+e));
+                transportResponse.release(false);
+                continue;
+            }
+            parser.reset();
+            readSse(parser, stream, transportResponse);
+        }
+    }
+
+    private boolean isInterrupted() {
+        return this.interrupt.map(AtomicBoolean::get).orElse(false);
+    }
+
+    /**
+     * Waits a while, checking the interrupt as it goes
+     *
+     * @return false if we were interrupted
+     */
+    private boolean pause(final long millis) {
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long left = millis;
+        while (left > 0) {
+            if (isInterrupted() || !sleep(Math.min(left, 100))) {
+                return false;
+            }
+            left = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
         }
+        return !isInterrupted();
     }
 
     private static IllegalStateException stackExceptions(final List<Exception> exceptions) {
@@ -0,0 +1,312 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Factories for the kinds of {@link RequestBody} this bundle knows how to send
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class RequestBodies {
+    /** Bodies smaller than this are not worth compressing by default */
+    public static final long DEFAULT_GZIP_THRESHOLD = 1024;
+
+    private static final int GZIP_BUFFER_SIZE = 8 * 1024;
+
+    private RequestBodies() { }
+
+    /**
+     * A body made of a string encoded as UTF-8
+     *
+     * @param data
+     */
+    public static RequestBody ofString(final String data) {
+        return ofString(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A body made of a string
+     *
+     * @param data the text to send
+     * @param charset how to encode it
+     */
+    public static RequestBody ofString(final String data, final Charset charset) {
+        Objects.requireNonNull(data);
+        Objects.requireNonNull(charset);
+
+        return ofBytes(data.getBytes(charset));
+    }
+
+    /**
+     * A body made of a byte array. The array is not copied, so it shouldn't be
+     * changed while the request is running.
+     *
+     * @param data
+     */
+    public static RequestBody ofBytes(final byte[] data) {
+        Objects.requireNonNull(data);
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return data.length;
+            }
+
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                out.write(data);
+            }
+
+            @Override
+            public Optional<ByteBuffer> getBuffer() {
+                return Optional.of(ByteBuffer.wrap(data).asReadOnlyBuffer());
+            }
+        };
+    }
+
+    /**
+     * A body made of the bytes of a buffer from its position to its limit. The
+     * buffer is not copied or moved, so it shouldn't be changed while the request
+     * is running.
+     *
+     * @param data
+     */
+    public static RequestBody ofByteBuffer(final ByteBuffer data) {
+        Objects.requireNonNull(data);
+        final ByteBuffer body = data.slice().asReadOnlyBuffer();
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return body.remaining();
+            }
+
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                final ByteBuffer source = body.duplicate();
+                if (source.hasArray()) {
+                    out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+                    return;
+                }
+                final WritableByteChannel channel = Channels.newChannel(out);
+                while (source.hasRemaining()) {
+                    channel.write(source);
+                }
+            }
+
+            @Override
+            public Optional<ByteBuffer> getBuffer() {
+                return Optional.of(body.duplicate());
+            }
+        };
+    }
+
+    /**
+     * A body read from a file when the request is sent. The file is streamed a
+     * buffer at a time, or handed straight to the socket by transports that can.
+     *
+     * @param file
+     */
+    public static RequestBody ofPath(final Path file) {
+        Objects.requireNonNull(file);
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                try {
+                    return Files.size(file);
+                } catch (final IOException e) {
+                    return -1;
+                }
+            }
+
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                writeFile(file, getContentLength(), out);
+            }
+
+            @Override
+            public Optional<Path> getFile() {
+                return Optional.of(file);
+            }
+        };
+    }
+
+    /**
+     * A body read from a stream of unknown length, it is sent chunked. The stream
+     * can only be read once, so a request with this body is never retried. The
+     * stream is not closed.
+     *
+     * @param in
+     */
+    public static RequestBody ofInputStream(final InputStream in) {
+        return ofInputStream(in, -1);
+    }
+
+    /**
+     * A body read from a stream. The stream can only be read once, so a request
+     * with this body is never retried. The stream is not closed.
+     *
+     * @param in
+     * @param length exactly how many bytes to send, or -1 to send everything
+     *     until the end of the stream
+     */
+    public static RequestBody ofInputStream(final InputStream in, final long length) {
+        Objects.requireNonNull(in);
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                copy(in, length, out, "The stream");
+            }
+
+            @Override
+            public boolean isReplayable() {
+                return false;
+            }
+        };
+    }
+
+    /**
+     * A body that is written by a consumer. The length isn't known up front, and
+     * the consumer is called again if the body has to be sent again.
+     *
+     * @param handleStream
+     */
+    public static RequestBody ofWriter(final Consumer<OutputStream> handleStream) {
+        Objects.requireNonNull(handleStream);
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                handleStream.accept(out);
+            }
+        };
+    }
+
+    /**
+     * A body that is another body compressed with gzip as it is written, to be sent
+     * with a Content-Encoding of gzip. The compressed length isn't known up front,
+     * so it is sent chunked, a block at a time as it is compressed.
+     *
+     * @param body the body to compress
+     * @param level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION},
+     *     or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public static RequestBody gzip(final RequestBody body, final int level) {
+        Objects.requireNonNull(body);
+        checkLevel(level);
+
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                // Closing the gzip stream frees its deflater, but the transport owns the stream under it
+                final OutputStream shield = new FilterOutputStream(out) {
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        this.out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                };
+                try (GZIPOutputStream gzip = new GZIPOutputStream(shield, GZIP_BUFFER_SIZE) {
+                    {
+                        this.def.setLevel(level);
+                    }
+                }) {
+                    body.writeTo(gzip);
+                }
+            }
+
+            @Override
+            public boolean isReplayable() {
+                return body.isReplayable();
+            }
+        };
+    }
+
+    /**
+     * Checks that a compression level is one a {@link Deflater} takes
+     *
+     * @return the level
+     * @throws IllegalArgumentException if it isn't
+     */
+    static int checkLevel(final int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION
+                && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        return level;
+    }
+
+    /**
+     * Copies a file to a stream a pooled buffer at a time
+     *
+     * @param file
+     * @param length how many bytes to copy from the start of the file, or -1 for all of it
+     * @param out
+     * @throws IOException if the file can't be read or is shorter than the length
+     */
+    static void writeFile(final Path file, final long length, final OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            copy(in, length, out, file.toString());
+        }
+    }
+
+    private static void copy(final InputStream in, final long length, final OutputStream out, final String name)
+            throws IOException {
+        final BufferPool pool = BufferPool.shared();
+        final byte[] buffer = pool.acquire();
+        try {
+            long remaining = length < 0 ? Long.MAX_VALUE : length;
+            while (remaining > 0) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    if (length >= 0) {
+                        throw new EOFException(name + " ended " + remaining + " bytes short of its length");
+                    }
+                    break;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+}
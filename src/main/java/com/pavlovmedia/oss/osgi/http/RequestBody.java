@@ -0,0 +1,54 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * The body of a request, as handed to an {@link HttpTransport}. See
+ * {@link RequestBodies} for the built in kinds of bodies.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public interface RequestBody {
+    /**
+     * The exact length of this body in bytes, or -1 if it isn't known ahead of time
+     */
+    long getContentLength();
+
+    /**
+     * Writes this body out. The stream is not closed.
+     *
+     * @param out where to write the body
+     * @throws IOException
+     */
+    void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * Checks if {@link #writeTo(OutputStream)} can be called more than once and
+     * write the same body each time
+     */
+    default boolean isReplayable() {
+        return true;
+    }
+
+    /**
+     * The file this body is read from, if it is a whole file. Transports that
+     * talk to sockets directly can use this to send it with
+     * {@link java.nio.channels.FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+     */
+    default Optional<Path> getFile() {
+        return Optional.empty();
+    }
+
+    /**
+     * The bytes of this body, if they are already in memory, so a transport can
+     * send them without copying. Each call returns a new buffer over the same bytes.
+     */
+    default Optional<ByteBuffer> getBuffer() {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,257 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reads response bodies with bulk reads into pooled buffers. Text is decoded
+ * as it streams in, so the only full size copies are the decoded characters
+ * and the final {@link String}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class ResponseBodyReader {
+    /** Used when the server doesn't tell us how big the body is */
+    private static final int DEFAULT_INITIAL_SIZE = 1024;
+
+    /** Some VMs reserve header words in arrays, so stay a touch under the max */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private ResponseBodyReader() { }
+
+    /**
+     * Gives a converter that reads a whole stream as text using the shared buffer pool
+     *
+     * @param expectedLength the Content-Length of the body, or -1 if it isn't known
+     * @param charset the charset to decode with
+     * @param onError called if there is an error reading the stream
+     * @return the text, or an empty string if there is an error
+     */
+    public static Function<InputStream, String> textConverter(final long expectedLength, final Charset charset,
+            final Consumer<Exception> onError) {
+        Objects.requireNonNull(charset);
+        Objects.requireNonNull(onError);
+
+        return in -> {
+            try {
+                return readText(in, expectedLength, charset);
+            } catch (final IOException e) {
+                onError.accept(e);
+                return "";
+            }
+        };
+    }
+
+    /**
+     * Reads and closes a stream, decoding it to a string with the shared buffer pool
+     *
+     * @param in the stream to read
+     * @param expectedLength the Content-Length of the body, or -1 if it isn't known
+     * @param charset the charset to decode with
+     * @throws IOException
+     */
+    public static String readText(final InputStream in, final long expectedLength, final Charset charset)
+            throws IOException {
+        return readText(in, expectedLength, charset, BufferPool.shared());
+    }
+
+    /**
+     * Reads and closes a stream, decoding it to a string. Malformed input is replaced
+     * rather than treated as an error, which matches what {@link String#String(byte[], Charset)} does.
+     *
+     * @param in the stream to read
+     * @param expectedLength the Content-Length of the body, or -1 if it isn't known
+     * @param charset the charset to decode with
+     * @param pool where to borrow the read buffer from
+     * @throws IOException
+     */
+    public static String readText(final InputStream in, final long expectedLength, final Charset charset,
+            final BufferPool pool) throws IOException {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(charset);
+        Objects.requireNonNull(pool);
+
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final byte[] buffer = pool.acquire();
+        try (InputStream stream = in) {
+            final ByteBuffer bytes = ByteBuffer.wrap(buffer);
+            CharBuffer chars = CharBuffer.allocate(initialCharCapacity(expectedLength, decoder));
+            boolean eof = false;
+            while (!eof) {
+                // Anything left in the buffer is a partial multi-byte sequence from the last read
+                final int read = stream.read(buffer, bytes.position(), bytes.remaining());
+                if (read < 0) {
+                    eof = true;
+                } else {
+                    bytes.position(bytes.position() + read);
+                }
+                bytes.flip();
+                CoderResult result = decoder.decode(bytes, chars, eof);
+                while (result.isOverflow()) {
+                    chars = grow(chars, bytes.remaining());
+                    result = decoder.decode(bytes, chars, eof);
+                }
+                bytes.compact();
+            }
+            while (decoder.flush(chars).isOverflow()) {
+                chars = grow(chars, 1);
+            }
+            chars.flip();
+            return chars.toString();
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads and closes a stream into a byte array using the shared buffer pool
+     *
+     * @param in the stream to read
+     * @param expectedLength the Content-Length of the body, or -1 if it isn't known
+     * @throws IOException
+     */
+    public static byte[] readBytes(final InputStream in, final long expectedLength) throws IOException {
+        return readBytes(in, expectedLength, BufferPool.shared());
+    }
+
+    /**
+     * Reads and closes a stream into a byte array. When the length is known the
+     * body is read straight into an array of the right size.
+     *
+     * @param in the stream to read
+     * @param expectedLength the Content-Length of the body, or -1 if it isn't known
+     * @param pool where to borrow the read buffer from
+     * @throws IOException
+     */
+    public static byte[] readBytes(final InputStream in, final long expectedLength, final BufferPool pool)
+            throws IOException {
+        Objects.requireNonNull(in);
+        Objects.requireNonNull(pool);
+
+        try (InputStream stream = in) {
+            if (expectedLength >= 0 && expectedLength <= MAX_ARRAY_SIZE) {
+                byte[] result = new byte[(int) expectedLength];
+                int length = 0;
+                while (true) {
+                    if (length == result.length) {
+                        // Either we're done or the server lied about the length
+                        final int next = stream.read();
+                        if (next < 0) {
+                            return result;
+                        }
+                        result = Arrays.copyOf(result, newCapacity(result.length, 1));
+                        result[length++] = (byte) next;
+                    }
+                    final int read = stream.read(result, length, result.length - length);
+                    if (read < 0) {
+                        return length == result.length ? result : Arrays.copyOf(result, length);
+                    }
+                    length += read;
+                }
+            }
+
+            final byte[] buffer = pool.acquire();
+            try {
+                byte[] result = new byte[DEFAULT_INITIAL_SIZE];
+                int length = 0;
+                int read;
+                while ((read = stream.read(buffer)) >= 0) {
+                    if (length + read > result.length) {
+                        result = Arrays.copyOf(result, newCapacity(result.length, length + read - result.length));
+                    }
+                    System.arraycopy(buffer, 0, result, length, read);
+                    length += read;
+                }
+                return length == result.length ? result : Arrays.copyOf(result, length);
+            } finally {
+                pool.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Pulls the charset out of a Content-Type header value, like
+     * {@code text/html; charset=ISO-8859-1}
+     *
+     * @param contentType the header value if there is one
+     * @param fallback what to use if there is no charset, or it isn't supported
+     */
+    public static Charset charsetFromContentType(final Optional<String> contentType, final Charset fallback) {
+        Objects.requireNonNull(contentType);
+        Objects.requireNonNull(fallback);
+
+        return contentType.flatMap(ResponseBodyReader::charsetParameter)
+                .flatMap(ResponseBodyReader::lookupCharset)
+                .orElse(fallback);
+    }
+
+    /**
+     * Same as {@link #charsetFromContentType(Optional, Charset)} falling back to UTF-8
+     *
+     * @param contentType the header value if there is one
+     */
+    public static Charset charsetFromContentType(final Optional<String> contentType) {
+        return charsetFromContentType(contentType, StandardCharsets.UTF_8);
+    }
+
+    private static Optional<String> charsetParameter(final String contentType) {
+        for (final String parameter : contentType.split(";")) {
+            final String trimmed = parameter.trim();
+            if (trimmed.regionMatches(true, 0, "charset=", 0, 8)) {
+                final String name = trimmed.substring(8).trim();
+                return Optional.of(name.startsWith("\"") && name.endsWith("\"") && name.length() > 1
+                        ? name.substring(1, name.length() - 1)
+                        : name);
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Optional<Charset> lookupCharset(final String name) {
+        try {
+            return Optional.of(Charset.forName(name));
+        } catch (final IllegalCharsetNameException | UnsupportedCharsetException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static int initialCharCapacity(final long expectedLength, final CharsetDecoder decoder) {
+        if (expectedLength <= 0) {
+            return DEFAULT_INITIAL_SIZE;
+        }
+        // Plus one so a body that is exactly as long as advertised never has to grow for the flush
+        return (int) Math.min(MAX_ARRAY_SIZE, (long) (expectedLength * decoder.averageCharsPerByte()) + 1);
+    }
+
+    private static CharBuffer grow(final CharBuffer chars, final int needed) throws IOException {
+        final CharBuffer grown = CharBuffer.allocate(newCapacity(chars.capacity(), Math.max(needed, 1)));
+        chars.flip();
+        grown.put(chars);
+        return grown;
+    }
+
+    private static int newCapacity(final int current, final int needed) throws IOException {
+        final long wanted = Math.max((long) current * 2, (long) current + needed);
+        if ((long) current + needed > MAX_ARRAY_SIZE) {
+            throw new IOException("Response body is too large to hold in memory");
+        }
+        return (int) Math.min(wanted, MAX_ARRAY_SIZE);
+    }
+}
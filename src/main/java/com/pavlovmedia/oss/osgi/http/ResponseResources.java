@@ -0,0 +1,248 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * The connection side of an {@link HttpResponse}. This tracks the raw body streams
+ * so that closing a response can drain what is left and hand the connection back
+ * for keep-alive. It is kept apart from the response so that a response that is
+ * never closed can still be cleaned up once it is garbage collected.
+ * <p>
+ * The connection is handed back as soon as we know it is done: when every body
+ * has been read to the end, right away if there is no body, or on close.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class ResponseResources {
+    private static final ReferenceQueue<HttpResponse> LEAK_QUEUE = new ReferenceQueue<>();
+
+    /** Keeps the phantom references themselves reachable until they are enqueued */
+    private static final Set<LeakReference> TRACKED = ConcurrentHashMap.newKeySet();
+
+    private final long drainLimit;
+    private final Consumer<Boolean> onRelease;
+    private final ConnectionMetrics metrics;
+    private final List<TrackedInputStream> streams = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile LeakReference reference;
+
+    /**
+     * @param drainLimit the most leftover bytes to read from each stream when closing
+     * @param onRelease called once when the connection is done, with false if it could
+     *     not be drained and has to be dropped
+     * @param metrics where to count what happened
+     */
+    ResponseResources(final long drainLimit, final Consumer<Boolean> onRelease, final ConnectionMetrics metrics) {
+        this.drainLimit = drainLimit;
+        this.onRelease = onRelease;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Wraps a raw body stream so we know if it has been read to the end
+     */
+    InputStream track(final InputStream raw) {
+        final TrackedInputStream tracked = new TrackedInputStream(raw, this::streamFinished);
+        this.streams.add(tracked);
+        return tracked;
+    }
+
+    /**
+     * Starts watching the owning response for being collected without a close
+     */
+    void register(final HttpResponse owner) {
+        expungeLeaks();
+        if (this.streams.isEmpty()) {
+            // No body, so the connection is already done and there is nothing to leak or count
+            release(false);
+            return;
+        }
+        this.metrics.responseOpened();
+        this.reference = new LeakReference(owner, this);
+        TRACKED.add(this.reference);
+    }
+
+    boolean isClosed() {
+        return this.closed.get();
+    }
+
+    /**
+     * Drains and closes the streams, then releases the connection if that hasn't
+     * happened yet. Only the first call does anything.
+     */
+    void close() {
+        if (this.closed.compareAndSet(false, true)) {
+            forget();
+            release(true);
+            this.streams.forEach(TrackedInputStream::closeQuietly);
+        }
+    }
+
+    /**
+     * Once every body has been read to the end the connection can go back
+     * without waiting for a close
+     */
+    private void streamFinished() {
+        if (this.streams.stream().allMatch(s -> s.eof)) {
+            forget();
+            release(false);
+        }
+    }
+
+    /**
+     * Stops watching for a leak, once released there is nothing left to leak
+     */
+    private void forget() {
+        final LeakReference ref = this.reference;
+        if (null != ref) {
+            TRACKED.remove(ref);
+            ref.clear();
+        }
+    }
+
+    /**
+     * Drains the streams and hands back the connection, only the first call does anything
+     *
+     * @param closeStreams true to close the streams before handing back the connection
+     */
+    private void release(final boolean closeStreams) {
+        if (!this.released.compareAndSet(false, true)) {
+            return;
+        }
+        boolean reusable = true;
+        boolean abandon = false;
+        long drained = 0;
+        for (final TrackedInputStream stream : this.streams) {
+            try {
+                drained += stream.drain(this.drainLimit);
+                if (!stream.eof) {
+                    // Either there was too much left, or the caller closed it part way through
+                    reusable = false;
+                    abandon |= !stream.closed;
+                }
+            } catch (final IOException e) {
+                reusable = false;
+                abandon = true;
+            }
+        }
+        if (closeStreams) {
+            this.streams.forEach(TrackedInputStream::closeQuietly);
+        }
+        try {
+            this.onRelease.accept(!abandon);
+        } finally {
+            if (null != this.reference) {
+                this.metrics.responseClosed(reusable, drained);
+            }
+        }
+    }
+
+    /**
+     * Cleans up after any responses that were collected without being closed
+     */
+    static void expungeLeaks() {
+        Reference<? extends HttpResponse> ref;
+        while (null != (ref = LEAK_QUEUE.poll())) {
+            final ResponseResources resources = ((LeakReference) ref).resources;
+            TRACKED.remove(ref);
+            if (resources.closed.compareAndSet(false, true) && !resources.released.get()) {
+                resources.metrics.responseLeaked();
+                resources.release(true);
+            }
+        }
+    }
+
+    private static final class LeakReference extends PhantomReference<HttpResponse> {
+        private final ResponseResources resources;
+
+        LeakReference(final HttpResponse referent, final ResponseResources resources) {
+            super(referent, LEAK_QUEUE);
+            this.resources = resources;
+        }
+    }
+
+    /**
+     * Remembers if the stream has been read to the end or closed
+     */
+    private static final class TrackedInputStream extends FilterInputStream {
+        private final Runnable onEof;
+        private volatile boolean eof;
+        private volatile boolean closed;
+
+        TrackedInputStream(final InputStream in, final Runnable onEof) {
+            super(in);
+            this.onEof = onEof;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return seen(super.read());
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return seen(super.read(b, off, len));
+        }
+
+        private int seen(final int read) {
+            if (read < 0 && !this.eof) {
+                this.eof = true;
+                this.onEof.run();
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.closed = true;
+            super.close();
+        }
+
+        /**
+         * Reads and throws away up to limit bytes looking for the end of the stream
+         *
+         * @return how many bytes were thrown away
+         */
+        long drain(final long limit) throws IOException {
+            if (this.eof || this.closed) {
+                return 0;
+            }
+            final BufferPool pool = BufferPool.shared();
+            final byte[] buffer = pool.acquire();
+            try {
+                long drained = 0;
+                while (drained <= limit) {
+                    final int read = read(buffer, 0, (int) Math.min(buffer.length, limit - drained + 1));
+                    if (read < 0) {
+                        break;
+                    }
+                    drained += read;
+                }
+                return drained;
+            } finally {
+                pool.release(buffer);
+            }
+        }
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (final IOException e) {
+                // We were only giving it back
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps retries from piling onto an origin that is already in trouble. Each
+ * origin has a bucket of tokens, every request adds a fraction of a token and
+ * every retry takes a whole one. While an origin is healthy the bucket stays
+ * full, once most requests need retries it runs dry and further retries are
+ * refused until enough requests go through again.
+ * <p>
+ * Only origins that have spent tokens are tracked, full buckets are dropped.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class RetryBudget {
+    public static final int DEFAULT_CAPACITY = 10;
+    public static final double DEFAULT_DEPOSIT = 0.1;
+
+    private final double capacity;
+    private final double deposit;
+    private final ConcurrentHashMap<String, Double> spent = new ConcurrentHashMap<>();
+    private final LongAdder deniedCount = new LongAdder();
+
+    /**
+     * Creates a budget with room for 10 retries in a row, earning one back every
+     * 10 requests
+     */
+    public RetryBudget() {
+        this(DEFAULT_CAPACITY, DEFAULT_DEPOSIT);
+    }
+
+    /**
+     * @param capacity the most retries an origin can make in a row
+     * @param deposit how much of a retry each request earns back, 0.1 allows one retry in ten requests
+     */
+    public RetryBudget(final int capacity, final double deposit) {
+        if (capacity < 0 || deposit < 0) {
+            throw new IllegalArgumentException("A retry budget cannot be negative");
+        }
+        this.capacity = capacity;
+        this.deposit = deposit;
+    }
+
+    /**
+     * Records a request being made to an origin
+     *
+     * @param origin see {@link UrlHelpers#originOf(java.net.URL)}
+     */
+    public void deposit(final String origin) {
+        Objects.requireNonNull(origin);
+        // Returning null takes the origin out of the map once it is paid back
+        this.spent.computeIfPresent(origin, (o, used) -> used - this.deposit <= 0 ? null : used - this.deposit);
+    }
+
+    /**
+     * Takes a token for a retry if the origin has one
+     *
+     * @param origin see {@link UrlHelpers#originOf(java.net.URL)}
+     * @return false if the retry should not be made
+     */
+    public boolean tryWithdraw(final String origin) {
+        Objects.requireNonNull(origin);
+        final boolean[] granted = new boolean[1];
+        this.spent.compute(origin, (o, used) -> {
+            final double current = null == used ? 0 : used;
+            granted[0] = current + 1 <= this.capacity;
+            return granted[0] ? current + 1 : used;
+        });
+        if (!granted[0]) {
+            this.deniedCount.increment();
+        }
+        return granted[0];
+    }
+
+    /**
+     * The tokens an origin has left
+     *
+     * @param origin see {@link UrlHelpers#originOf(java.net.URL)}
+     */
+    public double getTokens(final String origin) {
+        return this.capacity - this.spent.getOrDefault(origin, 0.0);
+    }
+
+    /**
+     * How many retries have been refused because an origin was out of tokens
+     */
+    public long getDeniedCount() {
+        return this.deniedCount.sum();
+    }
+}
@@ -0,0 +1,226 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When and how often {@link PavlovHttpClient} sends a request again. A request
+ * is retried when it fails with an {@link IOException} or comes back with
+ * one of the retryable statuses, as long as:
+ * <ul>
+ * <li>it hasn't used up its attempts</li>
+ * <li>its verb is idempotent, unless non-idempotent retries were turned on</li>
+ * <li>its body can be sent again</li>
+ * <li>the wait fits in its deadline, and any Retry-After fits in the max delay</li>
+ * <li>the {@link RetryBudget} for its origin has a token left</li>
+ * </ul>
+ * Waits between attempts use decorrelated jitter, each one a random time between
+ * the base delay and three times the last wait, capped at the max delay.
+ * <p>
+ * Policies are immutable, the with methods return a copy. Copies share the
+ * budget, so clients built from one policy hold each origin to one budget.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class RetryPolicy {
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 10000;
+    public static final Set<Integer> DEFAULT_RETRYABLE_STATUSES =
+            Collections.unmodifiableSet(new HashSet<>(Arrays.asList(408, 429, 502, 503, 504)));
+
+    private static final Set<HttpVerbs> IDEMPOTENT =
+            EnumSet.of(HttpVerbs.GET, HttpVerbs.HEAD, HttpVerbs.PUT, HttpVerbs.DELETE, HttpVerbs.OPTIONS);
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Set<Integer> retryableStatuses;
+    private final boolean retryingNonIdempotent;
+    private final boolean honoringRetryAfter;
+    private final RetryBudget budget;
+
+    private RetryPolicy(final int maxAttempts, final long baseDelayMillis, final long maxDelayMillis,
+            final Set<Integer> retryableStatuses, final boolean retryingNonIdempotent,
+            final boolean honoringRetryAfter, final RetryBudget budget) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retryableStatuses = retryableStatuses;
+        this.retryingNonIdempotent = retryingNonIdempotent;
+        this.honoringRetryAfter = honoringRetryAfter;
+        this.budget = budget;
+    }
+
+    /**
+     * Three attempts, waits from 100ms up to 10s, retries 408, 429, 502, 503 and 504,
+     * honors Retry-After and has a new {@link RetryBudget} with the default limits
+     */
+    public static RetryPolicy defaults() {
+        return new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                DEFAULT_RETRYABLE_STATUSES, false, true, new RetryBudget());
+    }
+
+    /**
+     * Sets how many times a request can be sent in total, including the first time
+     *
+     * @param maxAttempts 1 turns retries off
+     */
+    public RetryPolicy withMaxAttempts(final int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("A request needs at least one attempt");
+        }
+        return new RetryPolicy(maxAttempts, this.baseDelayMillis, this.maxDelayMillis, this.retryableStatuses,
+                this.retryingNonIdempotent, this.honoringRetryAfter, this.budget);
+    }
+
+    /**
+     * Sets the range the waits between attempts fall in
+     *
+     * @param baseDelay the shortest wait
+     * @param maxDelay the longest wait, also the longest Retry-After that will be honored
+     * @param unit
+     */
+    public RetryPolicy withBackoff(final long baseDelay, final long maxDelay, final TimeUnit unit) {
+        if (baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("The base delay must be between 0 and the max delay");
+        }
+        return new RetryPolicy(this.maxAttempts, unit.toMillis(baseDelay), unit.toMillis(maxDelay),
+                this.retryableStatuses, this.retryingNonIdempotent, this.honoringRetryAfter, this.budget);
+    }
+
+    /**
+     * Sets which response codes are retried, replacing the defaults
+     *
+     * @param statuses error codes, 400 and up
+     */
+    public RetryPolicy withRetryableStatuses(final Integer... statuses) {
+        final Set<Integer> copy = new HashSet<>(Arrays.asList(statuses));
+        if (copy.stream().anyMatch(status -> null == status || status < 400)) {
+            throw new IllegalArgumentException("Only error statuses can be retried");
+        }
+        return new RetryPolicy(this.maxAttempts, this.baseDelayMillis, this.maxDelayMillis,
+                Collections.unmodifiableSet(copy), this.retryingNonIdempotent, this.honoringRetryAfter, this.budget);
+    }
+
+    /**
+     * Allows POST and PATCH to be retried. Only turn this on when the server can
+     * tell a repeated request apart, for example with an idempotency key.
+     *
+     * @param retryingNonIdempotent
+     */
+    public RetryPolicy retryingNonIdempotent(final boolean retryingNonIdempotent) {
+        return new RetryPolicy(this.maxAttempts, this.baseDelayMillis, this.maxDelayMillis, this.retryableStatuses,
+                retryingNonIdempotent, this.honoringRetryAfter, this.budget);
+    }
+
+    /**
+     * Sets if a Retry-After header replaces the computed wait
+     *
+     * @param honoringRetryAfter
+     */
+    public RetryPolicy honoringRetryAfter(final boolean honoringRetryAfter) {
+        return new RetryPolicy(this.maxAttempts, this.baseDelayMillis, this.maxDelayMillis, this.retryableStatuses,
+                this.retryingNonIdempotent, honoringRetryAfter, this.budget);
+    }
+
+    /**
+     * Sets the budget retries are taken from, for example to share one across policies
+     *
+     * @param budget
+     */
+    public RetryPolicy withBudget(final RetryBudget budget) {
+        Objects.requireNonNull(budget);
+        return new RetryPolicy(this.maxAttempts, this.baseDelayMillis, this.maxDelayMillis, this.retryableStatuses,
+                this.retryingNonIdempotent, this.honoringRetryAfter, budget);
+    }
+
+    public int getMaxAttempts() {
+        return this.maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return this.baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return this.maxDelayMillis;
+    }
+
+    public Set<Integer> getRetryableStatuses() {
+        return this.retryableStatuses;
+    }
+
+    public RetryBudget getBudget() {
+        return this.budget;
+    }
+
+    /**
+     * Checks if requests with this verb may be sent twice
+     *
+     * @param verb
+     */
+    public boolean allows(final HttpVerbs verb) {
+        return this.retryingNonIdempotent || IDEMPOTENT.contains(verb);
+    }
+
+    public boolean isRetryableStatus(final int responseCode) {
+        return this.retryableStatuses.contains(responseCode);
+    }
+
+    /**
+     * Checks if a failure is worth another try. Being turned away by a
+     * {@link ConnectionLimiter} or an open {@link CircuitBreaker} isn't, trying
+     * again only adds to the load we are trying to shed.
+     *
+     * @param error
+     */
+    public boolean isRetryableError(final Throwable error) {
+        return error instanceof IOException
+                && !(error instanceof ConnectionLimitException)
+                && !(error instanceof CircuitOpenException);
+    }
+
+    /**
+     * Works out how long to wait before the next attempt
+     *
+     * @param previousDelayMillis the last wait, 0 before the first retry
+     * @param retryAfter the Retry-After header of the last response, if there was one
+     * @return the wait in milliseconds, or empty if the server asked for a longer wait than the max delay
+     */
+    public Optional<Long> nextDelay(final long previousDelayMillis, final Optional<String> retryAfter) {
+        if (this.honoringRetryAfter && retryAfter.isPresent()) {
+            final Optional<Long> asked = parseRetryAfter(retryAfter.get());
+            if (asked.isPresent()) {
+                return asked.get() > this.maxDelayMillis ? Optional.empty() : asked;
+            }
+        }
+        final long upper = Math.min(this.maxDelayMillis, Math.max(this.baseDelayMillis, previousDelayMillis * 3));
+        return Optional.of(upper <= this.baseDelayMillis
+                ? this.baseDelayMillis
+                : ThreadLocalRandom.current().nextLong(this.baseDelayMillis, upper + 1));
+    }
+
+    /**
+     * Reads a Retry-After value, either a number of seconds or an HTTP date
+     *
+     * @param value
+     * @return the wait in milliseconds, 0 for dates in the past, empty if it can't be read
+     */
+    static Optional<Long> parseRetryAfter(final String value) {
+        final Optional<Long> seconds = HttpHeaders.number(value);
+        if (seconds.isPresent()) {
+            return Optional.of(TimeUnit.SECONDS.toMillis(seconds.get()));
+        }
+        return HttpHeaders.date(value).map(when -> Math.max(0, when - System.currentTimeMillis()));
+    }
+}
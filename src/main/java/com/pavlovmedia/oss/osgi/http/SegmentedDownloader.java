@@ -0,0 +1,330 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
+
+/**
+ * Downloads a response body into a file over several connections at once. A
+ * HEAD request finds out how big the file is and if the server takes byte
+ * ranges, then the file is set to its full length and split into segments that
+ * are each fetched with their own Range request on the pool and written into
+ * their spot in the file. A segment that breaks off picks up where it stopped
+ * without holding up the others.
+ * <p>
+ * Every segment sends If-Range with the validator from the HEAD request, so if
+ * the file changes on the server part way through the download fails instead of
+ * stitching two versions together. Servers that don't take ranges, don't send a
+ * length or a validator, or files too small to be worth splitting are downloaded
+ * in one piece with a {@link FileDownloader}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class SegmentedDownloader {
+    /** Files aren't split into segments smaller than this */
+    static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    private final PavlovHttpClient template;
+    private final Path file;
+    private final int segments;
+    private final ExecutorService pool;
+    private final DownloadProgress progress;
+    private final RetryPolicy policy;
+    private final Optional<AtomicBoolean> interrupt;
+    private final Optional<Consumer<String>> debugger;
+    private final FileDownloader fallback;
+
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final AtomicLong written = new AtomicLong();
+
+    /**
+     * @param template the GET request, cloned for each request, which shouldn't retry on its own
+     * @param file where to write the body, replaced if it exists
+     * @param segments the most segments to fetch at once
+     * @param pool runs the HEAD request and every segment
+     * @param progress told after each block is written, from whichever thread wrote it
+     * @param policy how many attempts each segment gets and how long to wait between them
+     * @param interrupt stops the download when set
+     * @param debugger
+     * @param fallback used when the file can't be split up
+     */
+    SegmentedDownloader(final PavlovHttpClient template, final Path file, final int segments,
+            final ExecutorService pool, final DownloadProgress progress, final RetryPolicy policy,
+            final Optional<AtomicBoolean> interrupt, final Optional<Consumer<String>> debugger,
+            final FileDownloader fallback) {
+        this.template = template;
+        this.file = file;
+        this.segments = segments;
+        this.pool = pool;
+        this.progress = progress;
+        this.policy = policy;
+        this.interrupt = interrupt;
+        this.debugger = debugger;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Starts the download on the pool
+     *
+     * @return the length of the file, or fails with the first segment that couldn't be finished
+     */
+    CompletableFuture<Long> start() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return probe();
+            } catch (final IOException e) {
+                throw new CompletionException(e);
+            }
+        }, this.pool).thenCompose(probe -> probe.isPresent()
+                ? fetchSegments(probe.get())
+                : CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return this.fallback.download();
+                    } catch (final IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, this.pool));
+    }
+
+    /**
+     * Asks the server about the file with a HEAD request
+     *
+     * @return what it found, or empty if it has to be downloaded in one piece
+     */
+    private Optional<Probe> probe() throws IOException {
+        final PavlovHttpClient head = this.template.clone().withVerb(HttpVerbs.HEAD);
+        try (HttpResponse response = FileDownloader.send(head)) {
+            if (!response.isValidResponse()) {
+                debug("HEAD failed with " + response.responseCode + ", downloading in one piece");
+                return Optional.empty();
+            }
+            final boolean ranges = response.getHeader("Accept-Ranges")
+                    .map(value -> value.toLowerCase(Locale.ROOT).contains("bytes"))
+                    .orElse(false);
+            final long length = response.getContentLength();
+            final Optional<String> validator = FileDownloader.validatorOf(response);
+            if (!ranges || !validator.isPresent() || ContentDecoding.isEncoded(response.responseHeaders)) {
+                debug("Server can't resume this file, downloading in one piece");
+                return Optional.empty();
+            }
+            if (length < 2 * MIN_SEGMENT_SIZE || this.segments < 2) {
+                debug("Not worth splitting " + length + " bytes, downloading in one piece");
+                return Optional.empty();
+            }
+            return Optional.of(new Probe(length, validator.get()));
+        }
+    }
+
+    /**
+     * Sets the file to its full length and fetches every segment on the pool
+     */
+    private CompletableFuture<Long> fetchSegments(final Probe probe) {
+        final long length = probe.length;
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(this.file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            channel.write(ByteBuffer.allocate(1), length - 1);
+        } catch (final IOException e) {
+            throw new CompletionException(e);
+        }
+
+        final int count = (int) Math.min(this.segments, length / MIN_SEGMENT_SIZE);
+        final long size = (length + count - 1) / count;
+        debug(String.format("Downloading %d bytes in %d segments", length, count));
+        this.progress.update(0, length);
+
+        final List<CompletableFuture<Void>> running = new ArrayList<>(count);
+        for (long first = 0; first < length; first += size) {
+            final Segment segment = new Segment(first, Math.min(length, first + size) - 1);
+            try {
+                running.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        segment.fetch(channel, probe.validator, length);
+                    } catch (final IOException e) {
+                        // One segment failing fails the download, so the others stop at their next block
+                        this.failure.compareAndSet(null, e);
+                        throw new CompletionException(e);
+                    }
+                }, this.pool));
+            } catch (final RejectedExecutionException e) {
+                this.failure.compareAndSet(null, e);
+                final CompletableFuture<Void> rejected = new CompletableFuture<>();
+                rejected.completeExceptionally(e);
+                running.add(rejected);
+                break;
+            }
+        }
+
+        return CompletableFuture.allOf(running.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((done, error) -> {
+                    try {
+                        channel.close();
+                    } catch (final IOException e) {
+                        debug("Could not close " + this.file + ": " + e);
+                    }
+                })
+                .handle((done, error) -> {
+                    // Report the segment that failed first, not one that was stopped because of it
+                    if (null != error) {
+                        throw new CompletionException(Optional.<Throwable>ofNullable(this.failure.get())
+                                .orElse(error));
+                    }
+                    return length;
+                });
+    }
+
+    private void debug(final String message) {
+        this.debugger.ifPresent(d -> d.accept(message));
+    }
+
+    /**
+     * What the HEAD request found out about the file
+     */
+    private static final class Probe {
+        final long length;
+        final String validator;
+
+        Probe(final long length, final String validator) {
+            this.length = length;
+            this.validator = validator;
+        }
+    }
+
+    /**
+     * One byte range of the file and how much of it has been written
+     */
+    private final class Segment {
+        private final long first;
+        private final long last;
+        private long next;
+
+        Segment(final long first, final long last) {
+            this.first = first;
+            this.last = last;
+            this.next = first;
+        }
+
+        /**
+         * Fetches this segment, picking up where it stopped as long as the retry policy allows
+         */
+        void fetch(final FileChannel channel, final String validator, final long length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(FileDownloader.BUFFER_SIZE);
+            long delay = 0;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    fetchOnce(channel, buffer, validator, length);
+                    return;
+                } catch (final IOException e) {
+                    final Optional<String> retryAfter = e instanceof FileDownloader.StatusException
+                            ? ((FileDownloader.StatusException) e).retryAfter : Optional.empty();
+                    final Optional<Long> wait = null == SegmentedDownloader.this.failure.get()
+                            && attempt < SegmentedDownloader.this.policy.getMaxAttempts()
+                            && FileDownloader.isResumable(e, SegmentedDownloader.this.policy,
+                                    SegmentedDownloader.this.interrupt)
+                            ? SegmentedDownloader.this.policy.nextDelay(delay, retryAfter) : Optional.empty();
+                    if (!wait.isPresent()) {
+                        throw e;
+                    }
+                    delay = wait.get();
+                    debug(String.format("Segment %d-%d failed at %d with %s, trying again in %dms",
+                            this.first, this.last, this.next, e, delay));
+                    FileDownloader.sleep(delay);
+                }
+            }
+        }
+
+        private void fetchOnce(final FileChannel channel, final ByteBuffer buffer, final String validator,
+                final long length) throws IOException {
+            final PavlovHttpClient request = SegmentedDownloader.this.template.clone()
+                    .addHeader("Range", "bytes=" + this.next + "-" + this.last)
+                    .addHeader("If-Range", validator);
+
+            try (HttpResponse response = FileDownloader.send(request)) {
+                if (response.responseCode == 200) {
+                    throw new IOException("The file changed on the server during the download");
+                }
+                if (response.responseCode != 206) {
+                    throw new FileDownloader.StatusException(response.responseCode,
+                            response.getHeader("Retry-After"));
+                }
+                final Optional<long[]> range = response.getHeader("Content-Range")
+                        .flatMap(HttpHeaders::contentRange);
+                if (!range.isPresent() || range.get()[0] != this.next || range.get()[1] > this.last
+                        || (range.get()[2] >= 0 && range.get()[2] != length)) {
+                    throw new IOException("Asked for bytes " + this.next + "-" + this.last + " but got "
+                            + response.getHeader("Content-Range").orElse("no Content-Range"));
+                }
+
+                final Optional<InputStream> body = response.responseStream.map(ConvertibleAsset::get);
+                if (body.isPresent()) {
+                    copy(Channels.newChannel(body.get()), channel, buffer, length);
+                }
+                if (this.next <= this.last) {
+                    throw new EOFException("Segment " + this.first + "-" + this.last + " ended at " + this.next);
+                }
+            }
+        }
+
+        /**
+         * Fills the buffer from the body and writes it into this segment's spot in the
+         * file each time it is full. Whatever was read is written even if the body breaks off.
+         */
+        private void copy(final ReadableByteChannel source, final FileChannel channel, final ByteBuffer buffer,
+                final long length) throws IOException {
+            buffer.clear();
+            try {
+                while (this.next + buffer.position() <= this.last) {
+                    if (null != SegmentedDownloader.this.failure.get()
+                            || SegmentedDownloader.this.interrupt.map(AtomicBoolean::get).orElse(false)) {
+                        throw new FileDownloader.Interrupted();
+                    }
+                    // Never read past the end of the segment, even if the server sends more
+                    buffer.limit((int) Math.min(buffer.capacity(), this.last + 1 - this.next));
+                    if (source.read(buffer) < 0) {
+                        break;
+                    }
+                    if (!buffer.hasRemaining()) {
+                        flush(channel, buffer, length);
+                    }
+                }
+            } finally {
+                flush(channel, buffer, length);
+            }
+        }
+
+        private void flush(final FileChannel channel, final ByteBuffer buffer, final long length)
+                throws IOException {
+            buffer.flip();
+            final int count = buffer.remaining();
+            while (buffer.hasRemaining()) {
+                this.next += channel.write(buffer, this.next);
+            }
+            buffer.clear();
+            if (count > 0) {
+                SegmentedDownloader.this.progress.update(SegmentedDownloader.this.written.addAndGet(count), length);
+            }
+        }
+    }
+}
@@ -1,19 +1,31 @@
 package com.pavlovmedia.oss.osgi.http;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
-import java.util.regex.Matcher;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
 /**
@@ -29,10 +41,26 @@ public class Spider {
     /** This is a function that can look at an HTTP Response and turn it into a set of unique URLs */
     private BiFunction<HttpResponse, Consumer<Exception>, Set<URL>> urlParser = this::parseForUrls;
     
+    /** @since 1.1.0 */
+    public static final int DEFAULT_WORKERS = 8;
+    /** @since 1.1.0 */
+    public static final int DEFAULT_HOST_CONCURRENCY = 2;
+    
+    private int workers = DEFAULT_WORKERS;
+    private int hostConcurrency = DEFAULT_HOST_CONCURRENCY;
+    private long hostDelayMillis = 0;
+    private int maxDepth = Integer.MAX_VALUE;
+    private long maxPages = Long.MAX_VALUE;
+    private Supplier<VisitedSet> visitedSets = FingerprintVisitedSet::new;
+    private Optional<Path> checkpointFile = Optional.empty();
+    private long checkpointMillis;
+    
     /**
      * This is a pattern to find URLs in an HTML page
      * @since 1.0.6
+     * @deprecated The built-in parser reads pages with {@link HtmlLinkExtractor} instead
      */
+    @Deprecated
     public static final Pattern ANCHOR_SEARCH = Pattern.compile("(?i)<a.+href=\"(?<url>.+?)\"");
     
     /**
@@ -75,66 +103,232 @@ public class Spider {
         return this;
     }
     
+    /**
+     * Sets how many pages can be fetched at once across all hosts, 8 by default
+     * 
+     * @since 1.1.0
+     * @param workers
+     */
+    public Spider setWorkers(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("A spider needs at least one worker");
+        }
+        
+        this.workers = workers;
+        return this;
+    }
+    
+    /**
+     * Sets how hard any one host is hit. By default a host gets 2 requests at
+     * once with no delay between them.
+     * 
+     * @since 1.1.0
+     * @param concurrency how many requests a host can have at once
+     * @param delay the least time between starting two requests to a host
+     * @param unit
+     */
+    public Spider setHostLimits(final int concurrency, final long delay, final TimeUnit unit) {
+        Objects.requireNonNull(unit);
+        if (concurrency < 1 || delay < 0) {
+            throw new IllegalArgumentException("Hosts need a concurrency of at least 1 and a delay of 0 or more");
+        }
+        
+        this.hostConcurrency = concurrency;
+        this.hostDelayMillis = unit.toMillis(delay);
+        return this;
+    }
+    
+    /**
+     * Sets how many links away from the start url the spider goes, unlimited by default
+     * 
+     * @since 1.1.0
+     * @param maxDepth 0 only fetches the start url
+     */
+    public Spider setMaxDepth(final int maxDepth) {
+        if (maxDepth < 0) {
+            throw new IllegalArgumentException("Depth can't be negative");
+        }
+        
+        this.maxDepth = maxDepth;
+        return this;
+    }
+    
+    /**
+     * Sets how many pages a crawl fetches before stopping, unlimited by default
+     * 
+     * @since 1.1.0
+     * @param maxPages
+     */
+    public Spider setMaxPages(final long maxPages) {
+        if (maxPages < 1) {
+            throw new IllegalArgumentException("A crawl needs to fetch at least one page");
+        }
+        
+        this.maxPages = maxPages;
+        return this;
+    }
+    
+    /**
+     * Sets where each crawl remembers the urls it has seen. By default it is a
+     * {@link FingerprintVisitedSet} on the heap, a {@link BloomVisitedSet} takes
+     * less room for very large crawls at the cost of skipping a few pages.
+     * 
+     * @since 1.1.0
+     * @param visitedSets makes a new, empty set for each crawl
+     */
+    public Spider setVisitedSet(final Supplier<VisitedSet> visitedSets) {
+        Objects.requireNonNull(visitedSets);
+        
+        this.visitedSets = visitedSets;
+        return this;
+    }
+    
+    /**
+     * Keeps each crawl's frontier and the urls it has seen in an append only log,
+     * so a crawl that is stopped by a restart, an interrupt or the page limit can
+     * be picked up again. A crawl started with a log that is already there resumes
+     * from its last checkpoint instead of starting over, the start url is only
+     * fetched if the log hasn't seen it. The log is deleted once a crawl runs out
+     * of links. Only one crawl can use a log at a time.
+     * <p>
+     * Writes are forced to disk at most once per interval, so a crash costs the
+     * links fetched since then.
+     * 
+     * @since 1.1.0
+     * @param file where the log goes
+     * @param interval the least time between checkpoints
+     * @param unit
+     */
+    public Spider setCheckpoint(final Path file, final long interval, final TimeUnit unit) {
+        Objects.requireNonNull(file);
+        Objects.requireNonNull(unit);
+        if (interval < 0) {
+            throw new IllegalArgumentException("The checkpoint interval can't be negative");
+        }
+        
+        this.checkpointFile = Optional.of(file);
+        this.checkpointMillis = unit.toMillis(interval);
+        return this;
+    }
+    
     /**
      * Executes a spider operation with a URL to start from, and Predicate to know when to follow a link,
      * a predicate for when to save a response and an accumulator to keep the URL to Response mapping.
+     * <p>
+     * Pages are fetched by a pool of worker threads in breadth first order, within the
+     * host limits, and this returns once the crawl is done. Urls already in the accumulator
+     * are skipped, saved pages are put in it as they arrive while holding its lock, and
+     * pages that are only followed are closed once their links are read.
+     * <p>
+     * Links are compared by their {@link UrlHelpers.UrlKey}, so spellings of the same url
+     * are fetched once, and pages are saved under the canonical url. Putting a {@link URL}
+     * in a map looks its host up in DNS, which
+     * {@link #doSpider(URL, Predicate, Predicate, BiConsumer, Consumer)} avoids.
      * 
      * @since 1.0.0
      * @param startUrl The URL to start from
      * @param follow Should a link parsed from the page be followed
      * @param save Should this page be saved
      * @param accumulator A place to save pages
-     * @param onError
+     * @param onError called from the worker threads, so it needs to be thread safe
      */
     public void doSpider(final URL startUrl, final Predicate<URL> follow, final Predicate<URL> save, 
             final Map<URL,HttpResponse> accumulator, 
             final Consumer<Exception> onError) {
-        if (accumulator.containsKey(startUrl)) {
-            return;
-        }
+        Objects.requireNonNull(startUrl);
+        Objects.requireNonNull(follow);
+        Objects.requireNonNull(save);
+        Objects.requireNonNull(accumulator);
+        Objects.requireNonNull(onError);
         
-        if (save.test(startUrl)) {
-            Optional<HttpResponse> response = baseClient.clone()
-                    .againstUrl(startUrl)
-                    .withVerb(HttpVerbs.GET)
-                    .execute(onError);
-            response.ifPresent(r -> accumulator.put(startUrl, r));
-        } else if (follow.test(startUrl)) {
-            Optional<HttpResponse> response = baseClient.clone()
-                .againstUrl(startUrl)
-                .withVerb(HttpVerbs.GET)
-                .execute(onError);
-            if (response.isPresent()) {
-                urlParser.apply(response.get(), onError)
-                    .forEach(u -> doSpider(u, follow, save, accumulator, onError));
-            }
+        final List<UrlHelpers.UrlKey> saved;
+        synchronized (accumulator) {
+            saved = accumulator.keySet().stream().map(UrlHelpers::keyOf).collect(Collectors.toList());
         }
+        new SpiderCrawl(baseClient, urlParser, follow, save, saved, (k, r) -> {
+                synchronized (accumulator) {
+                    accumulator.put(k.toUrl(), r);
+                }
+            }, onError, visitedSets.get(), workers, hostConcurrency, hostDelayMillis, maxDepth, maxPages,
+                checkpointFile, checkpointMillis)
+            .run(startUrl);
+    }
+    
+    /**
+     * Executes a spider operation the same way as {@link #doSpider(URL, Predicate, Predicate, Map, Consumer)},
+     * handing saved pages over as they arrive instead of putting them in a map keyed by {@link URL}.
+     * 
+     * @since 1.1.0
+     * @param startUrl The URL to start from
+     * @param follow Should a link parsed from the page be followed
+     * @param save Should this page be saved
+     * @param onSaved gets each saved page and its canonical url, called from the worker threads
+     * @param onError called from the worker threads, so it needs to be thread safe
+     */
+    public void doSpider(final URL startUrl, final Predicate<URL> follow, final Predicate<URL> save, 
+            final BiConsumer<UrlHelpers.UrlKey, HttpResponse> onSaved, 
+            final Consumer<Exception> onError) {
+        Objects.requireNonNull(startUrl);
+        Objects.requireNonNull(follow);
+        Objects.requireNonNull(save);
+        Objects.requireNonNull(onSaved);
+        Objects.requireNonNull(onError);
+        
+        new SpiderCrawl(baseClient, urlParser, follow, save, Collections.emptyList(), onSaved, onError,
+                visitedSets.get(), workers, hostConcurrency, hostDelayMillis, maxDepth, maxPages,
+                checkpointFile, checkpointMillis)
+            .run(startUrl);
     }
     
     /**
      * A built-in version of a url parser. This one covers our common cases when scanning
-     * general http sites.
+     * general http sites. The page is streamed through an {@link HtmlLinkExtractor}, and
+     * links that start with a . are skipped so directory listings aren't walked back up.
      * 
      * @param response
      */
     private Set<URL> parseForUrls(final HttpResponse response, final Consumer<Exception> onError) {
-        if (response.isValidResponse() && response.responseHeaders.getOrDefault("Content-Type", 
+        if (response.isValidResponse() && response.responseStream.isPresent()
+                && response.responseHeaders.getOrDefault("Content-Type", 
                 Arrays.asList("text/html")).stream()
                     .anyMatch(s -> s.contains("text/html"))) {
-            // We scan for href links
-            ArrayList<String> links = new ArrayList<>();
-            Matcher matcher = ANCHOR_SEARCH.matcher(response.getResponseText());
-            while (matcher.find()) {
-                links.add(matcher.group("url"));
+            final List<URL> links = new ArrayList<>();
+            final Charset charset = ResponseBodyReader.charsetFromContentType(response.getHeader("Content-Type"));
+            try (Reader page = new InputStreamReader(response.responseStream.get().get(), charset)) {
+                HtmlLinkExtractor.extract(page, response.srcUrl, (ref, url) -> {
+                    if (!ref.startsWith(".")) {
+                        links.add(url);
+                    }
+                });
+            } catch (final IOException e) {
+                onError.accept(e);
             }
-            
-            return links.stream()
-                   .filter(s -> !s.startsWith("."))
-                   .map(s -> UrlHelpers.fullUrlFromReference(s, response.srcUrl, e -> { })) // XXX: Don't use onError here?
-                   .filter(Optional::isPresent)
-                   .map(Optional::get)
-                   .collect(Collectors.toSet());
+            return links.stream().collect(Spider.distinctUrls());
         }
         return Collections.emptySet();
     }
+    
+    /**
+     * Collects urls into a set that drops repeats by their {@link UrlHelpers.UrlKey}
+     * rather than by hashing the {@link URL}, which would look up each host in DNS
+     */
+    private static Collector<URL, ?, Set<URL>> distinctUrls() {
+        return Collector.<URL, LinkedHashMap<UrlHelpers.UrlKey, URL>, Set<URL>>of(LinkedHashMap::new,
+            (m, u) -> m.putIfAbsent(UrlHelpers.keyOf(u), u),
+            (a, b) -> {
+                b.forEach(a::putIfAbsent);
+                return a;
+            },
+            m -> new AbstractSet<URL>() {
+                @Override
+                public Iterator<URL> iterator() {
+                    return Collections.unmodifiableCollection(m.values()).iterator();
+                }
+                
+                @Override
+                public int size() {
+                    return m.size();
+                }
+            });
+    }
 }
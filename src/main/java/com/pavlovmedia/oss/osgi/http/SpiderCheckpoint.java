@@ -0,0 +1,331 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * The on disk log a {@link SpiderCrawl} keeps so a crawl that was stopped can
+ * pick up where it left off.
+ * <ul>
+ * <li>Every link put on the frontier is appended with its depth, and its place
+ * in the log is its sequence number.</li>
+ * <li>Once a link is fetched and its links are logged, its sequence number is
+ * appended as done.</li>
+ * <li>Writes are buffered and handed to the file at most once per interval,
+ * which is the checkpoint, then forced to disk. A crash loses at most the work
+ * since the last one.</li>
+ * </ul>
+ * Replaying the log gives back every url the crawl has seen and the ones it
+ * still has to fetch. A record that was only half written is cut off.
+ * <p>
+ * This isn't thread safe, the crawl only uses it while holding its lock, apart
+ * from {@link #forceIfPending()}. That is called after the lock is let go, so
+ * workers don't wait on the disk. Writes that fail are reported once and the
+ * log goes quiet, the crawl itself carries on.
+ * <p>
+ * The file is used through a {@link RandomAccessFile} rather than a
+ * {@link java.nio.channels.FileChannel}, which closes itself when a thread that
+ * was interrupted uses it. Workers are interrupted when a crawl is stopped.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class SpiderCheckpoint {
+    private static final int FILE_MAGIC = 0x50485343;
+    private static final int HEADER_BYTES = 4;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    /** Only a sanity check on replay, a longer length means the record is damaged */
+    private static final int MAX_URL_BYTES = 1024 * 1024;
+    private static final byte OP_QUEUED = 1;
+    private static final byte OP_DONE = 2;
+
+    private final Path file;
+    private final long intervalNanos;
+    private final Consumer<Exception> onError;
+    private final RandomAccessFile store;
+    private DataOutputStream log;
+    private long queuedCount;
+    private long lastCheckpoint = System.nanoTime();
+    private volatile boolean closed;
+    private volatile boolean forcePending;
+    private final AtomicBoolean forcing = new AtomicBoolean();
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    /**
+     * Hands over each link found while replaying a log
+     */
+    @FunctionalInterface
+    interface LinkVisitor {
+        /**
+         * @param key the canonical url
+         * @param depth how many links from the start url it was found
+         * @param sequence its place in the log
+         * @param done true if it was already fetched
+         */
+        void accept(UrlHelpers.UrlKey key, int depth, long sequence, boolean done);
+    }
+
+    private SpiderCheckpoint(final Path file, final long intervalMillis, final Consumer<Exception> onError,
+            final RandomAccessFile store) {
+        this.file = file;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.onError = onError;
+        this.store = store;
+    }
+
+    /**
+     * Opens a log, replaying whatever an earlier crawl left in it
+     *
+     * @param file the log, it is created if needed
+     * @param intervalMillis the least time between forcing writes to disk
+     * @param onError gets the first write that fails
+     * @param onLink gets each link in the log, in the order they were found
+     * @throws IOException if the file can't be used or isn't a crawl log
+     */
+    static SpiderCheckpoint open(final Path file, final long intervalMillis, final Consumer<Exception> onError,
+            final LinkVisitor onLink) throws IOException {
+        if (null != file.toAbsolutePath().getParent()) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        final RandomAccessFile store = new RandomAccessFile(file.toFile(), "rw");
+        try {
+            final SpiderCheckpoint checkpoint = new SpiderCheckpoint(file, intervalMillis, onError, store);
+            checkpoint.replay(onLink);
+            return checkpoint;
+        } catch (final IOException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    /**
+     * How many links are in the log, which is the sequence number the next one gets
+     */
+    long getQueuedCount() {
+        return this.queuedCount;
+    }
+
+    /**
+     * Logs a link put on the frontier, it gets the next sequence number
+     */
+    void queued(final UrlHelpers.UrlKey key, final int depth) {
+        if (this.closed) {
+            return;
+        }
+        final byte[] url = key.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            this.log.writeByte(OP_QUEUED);
+            this.log.writeInt(depth);
+            this.log.writeInt(url.length);
+            this.log.write(url);
+            this.queuedCount++;
+            checkpointIfDue();
+        } catch (final IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Logs that a link was fetched and everything it links to was logged
+     */
+    void done(final long sequence) {
+        if (this.closed || sequence >= this.queuedCount) {
+            return;
+        }
+        try {
+            this.log.writeByte(OP_DONE);
+            this.log.writeLong(sequence);
+            checkpointIfDue();
+        } catch (final IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Forces the last checkpoint to disk if one is waiting. This is the only call
+     * made without the crawl's lock, and only one thread forces at a time.
+     */
+    void forceIfPending() {
+        if (!this.forcePending || !this.forcing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.forcePending = false;
+            this.store.getFD().sync();
+        } catch (final IOException e) {
+            if (!this.closed) {
+                report(e);
+            }
+            // Otherwise it was closed once the crawl ended, close() forced it then
+        } finally {
+            this.forcing.set(false);
+        }
+    }
+
+    /**
+     * Takes a last checkpoint and closes the file, so the next crawl can resume from it
+     */
+    void close() {
+        if (this.closed) {
+            return;
+        }
+        try {
+            this.log.flush();
+            this.store.getFD().sync();
+            this.closed = true;
+            this.store.close();
+        } catch (final IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Closes and deletes the log once there is nothing left to resume
+     */
+    void delete() {
+        try {
+            this.closed = true;
+            this.store.close();
+            Files.deleteIfExists(this.file);
+        } catch (final IOException e) {
+            report(e);
+        }
+    }
+
+    /**
+     * Hands the buffered records to the file once an interval has passed, the
+     * force to disk is left for {@link #forceIfPending()}
+     */
+    private void checkpointIfDue() throws IOException {
+        if (System.nanoTime() - this.lastCheckpoint >= this.intervalNanos) {
+            this.log.flush();
+            this.lastCheckpoint = System.nanoTime();
+            this.forcePending = true;
+        }
+    }
+
+    private void report(final IOException e) {
+        if (this.reported.compareAndSet(false, true)) {
+            this.onError.accept(e);
+        }
+    }
+
+    private void failed(final IOException e) {
+        this.closed = true;
+        report(e);
+        try {
+            this.store.close();
+        } catch (final IOException ignored) {
+            // Already reported the write that failed
+        }
+    }
+
+    /**
+     * Reads the log twice, first to find which links are done and where the good
+     * records end, then to hand over the links. Only the done marks are held on
+     * to in between, one bit per link.
+     */
+    private void replay(final LinkVisitor onLink) throws IOException {
+        final long size = this.store.length();
+        long end = HEADER_BYTES;
+        if (size < HEADER_BYTES) {
+            this.store.setLength(0);
+            this.store.writeInt(FILE_MAGIC);
+        } else {
+            this.store.seek(0);
+            if (this.store.readInt() != FILE_MAGIC) {
+                throw new IOException(this.file + " is not a spider checkpoint");
+            }
+            final BitSet done = new BitSet();
+            end = scan(size, done, null);
+            scan(end, done, onLink);
+            if (end < size) {
+                this.store.setLength(end);
+            }
+        }
+        this.store.seek(end);
+        this.log = new DataOutputStream(new BufferedOutputStream(new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                SpiderCheckpoint.this.store.write(b);
+            }
+
+            @Override
+            public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+                SpiderCheckpoint.this.store.write(bytes, offset, length);
+            }
+        }, BUFFER_BYTES));
+    }
+
+    /**
+     * Reads records up to a limit, stopping early at one that is cut off or damaged
+     *
+     * @param onLink gets the links, or null to only mark which are done
+     * @return where the last good record ends
+     */
+    private long scan(final long limit, final BitSet done, final LinkVisitor onLink) throws IOException {
+        this.store.seek(HEADER_BYTES);
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                return SpiderCheckpoint.this.store.read();
+            }
+
+            @Override
+            public int read(final byte[] bytes, final int offset, final int length) throws IOException {
+                return SpiderCheckpoint.this.store.read(bytes, offset, length);
+            }
+        }, BUFFER_BYTES));
+        long position = HEADER_BYTES;
+        long queued = 0;
+        try {
+            while (position < limit) {
+                final byte op = in.readByte();
+                if (op == OP_QUEUED) {
+                    final int depth = in.readInt();
+                    final int length = in.readInt();
+                    if (depth < 0 || length < 0 || length > MAX_URL_BYTES || queued == Integer.MAX_VALUE) {
+                        break;
+                    }
+                    final byte[] url = new byte[length];
+                    in.readFully(url);
+                    if (null != onLink) {
+                        final long sequence = queued;
+                        UrlHelpers.keyOf(new String(url, StandardCharsets.UTF_8), e -> { })
+                            .ifPresent(k -> onLink.accept(k, depth, sequence, done.get((int) sequence)));
+                    }
+                    queued++;
+                    position += 9 + length;
+                } else if (op == OP_DONE) {
+                    final long sequence = in.readLong();
+                    // A link is always logged before it is done
+                    if (sequence < 0 || sequence >= queued) {
+                        break;
+                    }
+                    done.set((int) sequence);
+                    position += 9;
+                } else {
+                    break;
+                }
+            }
+        } catch (final EOFException e) {
+            // The rest was cut off when the process stopped
+        }
+        this.queuedCount = queued;
+        return position;
+    }
+}
@@ -0,0 +1,368 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * One run of a {@link Spider}. Links wait in a frontier split up by origin,
+ * and a pool of workers takes the shallowest link from any origin that is
+ * under its concurrency limit and past its delay, fetches it, and puts what it
+ * links to back on the frontier. Nothing recurses, so the depth of a site only
+ * costs frontier entries.
+ * <p>
+ * With a checkpoint file the frontier and the urls seen are also kept in a
+ * {@link SpiderCheckpoint}, and a crawl started on the same file resumes from
+ * it. The file is deleted once the crawl runs out of links.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class SpiderCrawl {
+    private static final AtomicInteger CRAWL_COUNT = new AtomicInteger();
+    private static final Comparator<Link> SHALLOWEST_FIRST =
+            Comparator.comparingInt((Link l) -> l.depth).thenComparingLong(l -> l.sequence);
+
+    private final PavlovHttpClient baseClient;
+    private final BiFunction<HttpResponse, Consumer<Exception>, Set<URL>> urlParser;
+    private final Predicate<URL> follow;
+    private final Predicate<URL> save;
+    private final BiConsumer<UrlHelpers.UrlKey, HttpResponse> onSaved;
+    private final Consumer<Exception> onError;
+    private final int workers;
+    private final int hostConcurrency;
+    private final long hostDelayNanos;
+    private final int maxDepth;
+    private final long maxPages;
+    private final Optional<Path> checkpointFile;
+    private final long checkpointMillis;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = this.lock.newCondition();
+    private final Map<String, Host> hosts = new HashMap<>();
+    private final Set<Host> queued = new LinkedHashSet<>();
+    private final VisitedSet visited;
+    private long sequence;
+    private long fetched;
+    private int inFlight;
+    private boolean stopped;
+    private boolean finished;
+    private Optional<SpiderCheckpoint> checkpoint = Optional.empty();
+
+    SpiderCrawl(final PavlovHttpClient baseClient,
+            final BiFunction<HttpResponse, Consumer<Exception>, Set<URL>> urlParser,
+            final Predicate<URL> follow, final Predicate<URL> save,
+            final Collection<UrlHelpers.UrlKey> alreadySaved,
+            final BiConsumer<UrlHelpers.UrlKey, HttpResponse> onSaved, final Consumer<Exception> onError,
+            final VisitedSet visited,
+            final int workers, final int hostConcurrency, final long hostDelayMillis,
+            final int maxDepth, final long maxPages,
+            final Optional<Path> checkpointFile, final long checkpointMillis) {
+        this.baseClient = baseClient;
+        this.urlParser = urlParser;
+        this.follow = follow;
+        this.save = save;
+        this.onSaved = onSaved;
+        this.visited = visited;
+        alreadySaved.forEach(visited::add);
+        this.onError = onError;
+        this.workers = workers;
+        this.hostConcurrency = hostConcurrency;
+        this.hostDelayNanos = TimeUnit.MILLISECONDS.toNanos(hostDelayMillis);
+        this.maxDepth = maxDepth;
+        this.maxPages = maxPages;
+        this.checkpointFile = checkpointFile;
+        this.checkpointMillis = checkpointMillis;
+    }
+
+    /**
+     * Crawls out from a url and returns once there is nothing left to fetch.
+     * If the calling thread is interrupted the crawl stops early.
+     */
+    void run(final URL startUrl) {
+        this.checkpointFile.ifPresent(this::resume);
+        offer(startUrl, 0);
+
+        final int crawl = CRAWL_COUNT.incrementAndGet();
+        final AtomicInteger threads = new AtomicInteger();
+        final ExecutorService pool = Executors.newFixedThreadPool(this.workers, r -> {
+            final Thread thread = new Thread(r,
+                    String.format("pavlov-http-spider-%d-%d", crawl, threads.incrementAndGet()));
+            thread.setDaemon(true);
+            return thread;
+        });
+        boolean interrupted = false;
+        try {
+            for (int i = 0; i < this.workers; i++) {
+                pool.execute(this::work);
+            }
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (final InterruptedException e) {
+            interrupted = true;
+            stop();
+            pool.shutdownNow();
+        } finally {
+            // The checkpoint is closed once no worker can write to it, and with
+            // the interrupt cleared so it isn't cut short
+            interrupted |= awaitWorkers(pool);
+            endCheckpoint();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Waits for the workers to finish what they were fetching, carrying on through interrupts
+     *
+     * @return true if the thread was interrupted while waiting
+     */
+    private static boolean awaitWorkers(final ExecutorService pool) {
+        pool.shutdown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    return interrupted;
+                }
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    /**
+     * Opens the checkpoint, putting back every url it has seen and the links it
+     * still had to fetch
+     */
+    private void resume(final Path file) {
+        this.lock.lock();
+        try {
+            final SpiderCheckpoint log = SpiderCheckpoint.open(file, this.checkpointMillis, this.onError,
+                (key, depth, sequence, done) -> {
+                    this.visited.add(key);
+                    if (!done) {
+                        enqueue(key, key.toUrl(), depth, sequence);
+                    }
+                });
+            // Links keep their sequence from the log, so new ones carry on after them
+            this.sequence = log.getQueuedCount();
+            this.checkpoint = Optional.of(log);
+        } catch (final IOException | RuntimeException e) {
+            // The crawl still runs, it just can't be resumed
+            this.onError.accept(e);
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps the checkpoint for the next crawl if this one stopped early
+     */
+    private void endCheckpoint() {
+        this.lock.lock();
+        try {
+            if (this.finished) {
+                this.checkpoint.ifPresent(SpiderCheckpoint::delete);
+            } else {
+                this.checkpoint.ifPresent(SpiderCheckpoint::close);
+            }
+            this.checkpoint = Optional.empty();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void stop() {
+        this.lock.lock();
+        try {
+            this.stopped = true;
+            this.changed.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void work() {
+        Optional<Link> next;
+        while ((next = take()).isPresent()) {
+            final Link link = next.get();
+            try {
+                fetch(link);
+            } catch (final RuntimeException e) {
+                this.onError.accept(e);
+            } finally {
+                final Optional<SpiderCheckpoint> log;
+                this.lock.lock();
+                try {
+                    link.host.active--;
+                    this.inFlight--;
+                    if (!this.stopped) {
+                        // A crawl that was stopped may not have finished with the link
+                        this.checkpoint.ifPresent(c -> c.done(link.sequence));
+                    }
+                    log = this.checkpoint;
+                    this.changed.signalAll();
+                } finally {
+                    this.lock.unlock();
+                }
+                log.ifPresent(SpiderCheckpoint::forceIfPending);
+            }
+        }
+    }
+
+    /**
+     * Waits for a link this worker is allowed to fetch
+     *
+     * @return empty once the crawl is over
+     */
+    private Optional<Link> take() {
+        this.lock.lock();
+        try {
+            while (!this.stopped && this.fetched < this.maxPages) {
+                final long now = System.nanoTime();
+                Host best = null;
+                long wait = Long.MAX_VALUE;
+                for (final Host host : this.queued) {
+                    if (host.active >= this.hostConcurrency) {
+                        continue;
+                    }
+                    if (host.nextStart - now > 0) {
+                        wait = Math.min(wait, host.nextStart - now);
+                    } else if (null == best || SHALLOWEST_FIRST.compare(host.links.peek(), best.links.peek()) < 0) {
+                        best = host;
+                    }
+                }
+                if (null != best) {
+                    final Link link = best.links.poll();
+                    if (best.links.isEmpty()) {
+                        this.queued.remove(best);
+                    }
+                    best.active++;
+                    best.nextStart = now + this.hostDelayNanos;
+                    this.inFlight++;
+                    this.fetched++;
+                    return Optional.of(link);
+                }
+                if (this.queued.isEmpty() && this.inFlight == 0) {
+                    // Nothing waiting and nothing running that could add more
+                    this.finished = true;
+                    this.changed.signalAll();
+                    return Optional.empty();
+                }
+                if (wait == Long.MAX_VALUE) {
+                    this.changed.await();
+                } else {
+                    this.changed.awaitNanos(wait);
+                }
+            }
+            return Optional.empty();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void fetch(final Link link) {
+        final boolean saving = this.save.test(link.url);
+        final Optional<HttpResponse> response = this.baseClient.clone()
+                .againstUrl(link.url)
+                .withVerb(HttpVerbs.GET)
+                .execute(this.onError);
+        if (!response.isPresent()) {
+            return;
+        }
+        if (saving) {
+            this.onSaved.accept(link.key, response.get());
+            return;
+        }
+        try (HttpResponse page = response.get()) {
+            if (link.depth < this.maxDepth) {
+                this.urlParser.apply(page, this.onError).forEach(u -> offer(u, link.depth + 1));
+            }
+        }
+    }
+
+    /**
+     * Puts a link on the frontier unless it was seen before or would neither be
+     * saved nor followed. Links are fetched, tested and saved by their canonical url.
+     */
+    private void offer(final URL found, final int depth) {
+        final UrlHelpers.UrlKey key = UrlHelpers.keyOf(found);
+        final URL url = key.toUrl();
+        if (!this.save.test(url) && !this.follow.test(url)) {
+            return;
+        }
+        final Optional<SpiderCheckpoint> log;
+        this.lock.lock();
+        try {
+            if (this.stopped || !this.visited.add(key)) {
+                return;
+            }
+            this.checkpoint.ifPresent(c -> c.queued(key, depth));
+            enqueue(key, url, depth, this.sequence++);
+            log = this.checkpoint;
+        } finally {
+            this.lock.unlock();
+        }
+        // Forced outside the lock so the other workers don't wait on the disk
+        log.ifPresent(SpiderCheckpoint::forceIfPending);
+    }
+
+    /**
+     * Adds a link to its host's queue, called holding the lock
+     */
+    private void enqueue(final UrlHelpers.UrlKey key, final URL url, final int depth, final long sequence) {
+        final Host host = this.hosts.computeIfAbsent(key.getOrigin(), o -> new Host());
+        host.links.add(new Link(key, url, depth, sequence, host));
+        this.queued.add(host);
+        this.changed.signal();
+    }
+
+    /**
+     * The links waiting on one origin and how hard it is being hit
+     */
+    private static final class Host {
+        private final Queue<Link> links = new PriorityQueue<>(SHALLOWEST_FIRST);
+        private int active;
+        private long nextStart = System.nanoTime();
+    }
+
+    private static final class Link {
+        private final UrlHelpers.UrlKey key;
+        private final URL url;
+        private final int depth;
+        private final long sequence;
+        private final Host host;
+
+        Link(final UrlHelpers.UrlKey key, final URL url, final int depth, final long sequence, final Host host) {
+            this.key = key;
+            this.url = url;
+            this.depth = depth;
+            this.sequence = sequence;
+            this.host = host;
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
+
+/**
+ * Sits between an event stream and a slow consumer. Events are put on a
+ * bounded queue by the thread reading the stream and handed to the consumer in
+ * batches on an executor, so the reader goes straight back to the socket.
+ * A batch goes out once it is full or once its first event has waited for the
+ * batch window, whichever comes first, and only one batch is delivered at a time.
+ * <p>
+ * Pass it anywhere an event consumer is taken:
+ * <pre>
+ * client.asSse(new SseDelivery(events -&gt; store.insertAll(events))
+ *         .withCapacity(10000)
+ *         .withOverflow(SseDelivery.OverflowPolicy.COALESCE)
+ *         .withBatch(500, 250, TimeUnit.MILLISECONDS))
+ * </pre>
+ * Settings should be made before the first event arrives. Closing it delivers
+ * what is still queued and drops anything that shows up later.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class SseDelivery implements Consumer<SseMessageEvent>, AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final long DEFAULT_BATCH_WINDOW_MILLIS = 100;
+
+    /** The name the spec gives events that don't have one */
+    private static final String DEFAULT_EVENT_NAME = "message";
+
+    /**
+     * What happens to an event that shows up when the queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for room, which stops reading the stream until the consumer
+         * catches up. Don't use this on an event loop shared with other streams.
+         */
+        BLOCK,
+        /** Drop the oldest queued event to make room */
+        DROP_OLDEST,
+        /**
+         * Replace the queued event with the same event name, so only the latest
+         * of each kind is kept. When there isn't one the oldest is dropped.
+         */
+        COALESCE
+    }
+
+    private final Consumer<List<SseMessageEvent>> consumer;
+    private Executor executor = HttpIoExecutor.shared();
+    private OverflowPolicy overflow = OverflowPolicy.BLOCK;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private long batchWindowMillis = DEFAULT_BATCH_WINDOW_MILLIS;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = this.lock.newCondition();
+    private final Condition drained = this.lock.newCondition();
+    private SseMessageEvent[] ring = new SseMessageEvent[DEFAULT_CAPACITY];
+    // Sequence numbers of the first queued event and the next one to be queued
+    private long head;
+    private long tail;
+    private final Map<String, Long> latestByName = new HashMap<>();
+    private ScheduledFuture<?> window;
+    private boolean due;
+    private boolean draining;
+    private boolean closed;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * @param consumer gets each batch on the executor, never more than one at a time
+     */
+    public SseDelivery(final Consumer<List<SseMessageEvent>> consumer) {
+        this.consumer = Objects.requireNonNull(consumer);
+    }
+
+    /**
+     * Sets how many events can wait for the consumer, 1024 by default
+     *
+     * @param capacity
+     */
+    public SseDelivery withCapacity(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        this.lock.lock();
+        try {
+            if (this.tail != this.head) {
+                throw new IllegalStateException("Capacity can't change once events are queued");
+            }
+            this.ring = new SseMessageEvent[capacity];
+        } finally {
+            this.lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * Sets what to do when the queue is full, {@link OverflowPolicy#BLOCK} by default
+     *
+     * @param overflow
+     */
+    public SseDelivery withOverflow(final OverflowPolicy overflow) {
+        this.overflow = Objects.requireNonNull(overflow);
+        return this;
+    }
+
+    /**
+     * Sets how batches are cut, 64 events or 100ms by default
+     *
+     * @param size the most events in one batch, a full batch goes out right away
+     * @param window how long the first event of a short batch waits for more
+     * @param unit
+     */
+    public SseDelivery withBatch(final int size, final long window, final TimeUnit unit) {
+        if (size < 1 || window < 0) {
+            throw new IllegalArgumentException("Batches need at least one event and a window of 0 or more");
+        }
+        this.batchSize = size;
+        this.batchWindowMillis = unit.toMillis(window);
+        return this;
+    }
+
+    /**
+     * Sets where the consumer is called, the {@link HttpIoExecutor#shared()} pool by default
+     *
+     * @param executor
+     */
+    public SseDelivery on(final Executor executor) {
+        this.executor = Objects.requireNonNull(executor);
+        return this;
+    }
+
+    /**
+     * Queues an event for delivery, called by the thread reading the stream
+     */
+    @Override
+    public void accept(final SseMessageEvent event) {
+        this.lock.lock();
+        try {
+            if (this.closed || !makeRoom()) {
+                this.dropped.increment();
+                return;
+            }
+            if (size() == this.ring.length && this.overflow == OverflowPolicy.COALESCE && coalesce(event)) {
+                return;
+            }
+            if (size() == this.ring.length) {
+                dropOldest();
+            }
+            final long sequence = this.tail++;
+            this.ring[slot(sequence)] = event;
+            if (this.overflow == OverflowPolicy.COALESCE) {
+                this.latestByName.put(nameOf(event), sequence);
+            }
+            if (!ready()) {
+                armWindow();
+                return;
+            }
+        } finally {
+            this.lock.unlock();
+        }
+        startDrain();
+    }
+
+    /**
+     * Delivers what is still queued and drops any events that come later
+     */
+    @Override
+    public void close() {
+        this.lock.lock();
+        try {
+            this.closed = true;
+            this.notFull.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        startDrain();
+    }
+
+    /**
+     * Waits until every queued event has been handed to the consumer and the
+     * last batch has returned
+     *
+     * @param timeout
+     * @param unit
+     * @return false if there were still events waiting when the time ran out
+     * @throws InterruptedException
+     */
+    public boolean awaitDrained(final long timeout, final TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        this.lock.lock();
+        try {
+            while (this.tail != this.head || this.draining) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = this.drained.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * How many events are queued and haven't reached the consumer yet
+     */
+    public int getLag() {
+        this.lock.lock();
+        try {
+            return size();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * How many events have been handed to the consumer
+     */
+    public long getDelivered() {
+        return this.delivered.sum();
+    }
+
+    /**
+     * How many events were thrown away because the queue was full or this was closed
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * How many queued events were replaced by a newer event with the same name
+     */
+    public long getCoalesced() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * How many batches have been handed to the consumer
+     */
+    public long getBatches() {
+        return this.batches.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SseDelivery [lag=%d, delivered=%d, dropped=%d, coalesced=%d, batches=%d]",
+                getLag(), getDelivered(), getDropped(), getCoalesced(), getBatches());
+    }
+
+    /**
+     * Waits for room under the block policy, the others always make their own room
+     *
+     * @return false if the wait ended without room, because this was closed or interrupted
+     */
+    private boolean makeRoom() {
+        if (this.overflow != OverflowPolicy.BLOCK) {
+            return true;
+        }
+        while (size() == this.ring.length && !this.closed) {
+            // The consumer has to be running for room to show up
+            this.due = true;
+            this.lock.unlock();
+            try {
+                startDrain();
+            } finally {
+                this.lock.lock();
+            }
+            if (size() < this.ring.length || this.closed) {
+                break;
+            }
+            try {
+                this.notFull.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return !this.closed;
+    }
+
+    private boolean coalesce(final SseMessageEvent event) {
+        final Long sequence = this.latestByName.get(nameOf(event));
+        if (null == sequence || sequence < this.head) {
+            return false;
+        }
+        this.ring[slot(sequence)] = event;
+        this.coalesced.increment();
+        return true;
+    }
+
+    private void dropOldest() {
+        forget(this.head);
+        this.ring[slot(this.head)] = null;
+        this.head++;
+        this.dropped.increment();
+    }
+
+    private void forget(final long sequence) {
+        if (this.overflow == OverflowPolicy.COALESCE) {
+            this.latestByName.remove(nameOf(this.ring[slot(sequence)]), sequence);
+        }
+    }
+
+    private void armWindow() {
+        if (null != this.window || this.due) {
+            return;
+        }
+        this.window = HttpTimer.schedule(() -> {
+            this.lock.lock();
+            try {
+                this.window = null;
+                this.due = true;
+            } finally {
+                this.lock.unlock();
+            }
+            startDrain();
+        }, this.batchWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void startDrain() {
+        this.lock.lock();
+        try {
+            if (this.draining || !ready()) {
+                return;
+            }
+            this.draining = true;
+        } finally {
+            this.lock.unlock();
+        }
+        try {
+            this.executor.execute(this::drain);
+        } catch (final RejectedExecutionException e) {
+            // Nowhere else to run it, the reader slows down rather than losing events
+            drain();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final List<SseMessageEvent> batch;
+            this.lock.lock();
+            try {
+                if (!ready()) {
+                    this.draining = false;
+                    if (this.tail != this.head && !this.closed) {
+                        armWindow();
+                    }
+                    this.drained.signalAll();
+                    return;
+                }
+                final int count = Math.min(size(), this.batchSize);
+                batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    forget(this.head);
+                    batch.add(this.ring[slot(this.head)]);
+                    this.ring[slot(this.head)] = null;
+                    this.head++;
+                }
+                if (this.tail == this.head) {
+                    this.due = false;
+                    if (null != this.window) {
+                        this.window.cancel(false);
+                        this.window = null;
+                    }
+                }
+                this.notFull.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+            try {
+                this.consumer.accept(batch);
+            } catch (final RuntimeException e) {
+                // One bad batch shouldn't stop the ones behind it
+            }
+            this.delivered.add(batch.size());
+            this.batches.increment();
+        }
+    }
+
+    /**
+     * Checks if a batch should go out now, must hold the lock
+     */
+    private boolean ready() {
+        final long size = size();
+        return size > 0 && (size >= this.batchSize || this.due || this.closed || this.batchWindowMillis == 0);
+    }
+
+    private int size() {
+        return (int) (this.tail - this.head);
+    }
+
+    private int slot(final long sequence) {
+        return (int) (sequence % this.ring.length);
+    }
+
+    private static String nameOf(final SseMessageEvent event) {
+        return event.event.map(ConvertibleAsset::get).orElse(DEFAULT_EVENT_NAME);
+    }
+}
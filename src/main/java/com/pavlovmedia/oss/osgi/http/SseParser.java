@@ -0,0 +1,344 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
+
+/**
+ * Parses a server-sent event stream as laid out in the HTML spec. Bytes are
+ * pushed in as they arrive and lines are split on CR, LF or CRLF without ever
+ * decoding a line to a {@link String}. Field names are matched byte by byte,
+ * data lines are joined with a newline, comments are skipped, and the id and
+ * retry fields are kept so a dropped stream can be picked up again.
+ * <p>
+ * Lines that fit in the pushed bytes are read in place and the buffers are
+ * reused, so the only garbage per event is its data string and the event
+ * itself. Event names and ids are cached and handed out again while they
+ * don't change.
+ * <p>
+ * A parser is meant for one stream at a time and isn't thread safe.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class SseParser {
+    /** How long to wait before reconnecting when the server hasn't said */
+    public static final long DEFAULT_RETRY_MILLIS = 3000;
+
+    private static final byte[] DATA = { 'd', 'a', 't', 'a' };
+    private static final byte[] EVENT = { 'e', 'v', 'e', 'n', 't' };
+    private static final byte[] ID = { 'i', 'd' };
+    private static final byte[] RETRY = { 'r', 'e', 't', 'r', 'y' };
+    private static final byte[] BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+    private static final int MAX_CACHED_EVENT_NAMES = 16;
+
+    private final Consumer<SseMessageEvent> consumer;
+
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private byte[] data = new byte[256];
+    private int dataLength;
+    private byte[] event = new byte[32];
+    private int eventLength;
+    private boolean afterCr;
+    private int bomRead;
+
+    private byte[] idBytes = new byte[0];
+    private Optional<String> lastEventId = Optional.empty();
+    private long retryMillis;
+
+    private final byte[][] eventNames = new byte[MAX_CACHED_EVENT_NAMES][];
+    private final List<Optional<ConvertibleAsset<String>>> eventValues = new ArrayList<>(MAX_CACHED_EVENT_NAMES);
+    private int eventNameCount;
+
+    /**
+     * @param consumer gets each event as soon as its blank line is read
+     */
+    public SseParser(final Consumer<SseMessageEvent> consumer) {
+        this(consumer, DEFAULT_RETRY_MILLIS);
+    }
+
+    /**
+     * @param consumer gets each event as soon as its blank line is read
+     * @param retryMillis the reconnect time to use until the server sends one
+     */
+    public SseParser(final Consumer<SseMessageEvent> consumer, final long retryMillis) {
+        this.consumer = Objects.requireNonNull(consumer);
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * Reads a stream until it ends or the interrupt is set. The stream is not closed.
+     *
+     * @param in the event stream, already decoded of any Content-Encoding
+     * @param interrupt stops reading when set, checked between reads
+     * @return true if the stream ended, false if the interrupt stopped it
+     * @throws IOException if the stream can't be read, events read before it are already delivered
+     */
+    public boolean read(final InputStream in, final Optional<AtomicBoolean> interrupt) throws IOException {
+        final BufferPool pool = BufferPool.shared();
+        final byte[] buffer = pool.acquire();
+        try {
+            while (!interrupt.map(AtomicBoolean::get).orElse(false)) {
+                final int read = in.read(buffer);
+                if (read < 0) {
+                    return true;
+                }
+                feed(buffer, 0, read);
+            }
+            return false;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Parses the next bytes of the stream, delivering every event they finish
+     *
+     * @param buffer read from its position to its limit, which it is left at
+     */
+    public void feed(final ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            feed(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        final BufferPool pool = BufferPool.shared();
+        final byte[] chunk = pool.acquire();
+        try {
+            while (buffer.hasRemaining()) {
+                final int count = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, count);
+                feed(chunk, 0, count);
+            }
+        } finally {
+            pool.release(chunk);
+        }
+    }
+
+    /**
+     * Parses the next bytes of the stream, delivering every event they finish
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     */
+    public void feed(final byte[] bytes, final int offset, final int length) {
+        int position = offset;
+        final int end = offset + length;
+
+        // A UTF-8 byte order mark is only allowed at the very start of the stream
+        while (this.bomRead >= 0 && this.bomRead < BOM.length && position < end) {
+            if (bytes[position] != BOM[this.bomRead]) {
+                // Not a mark after all, put back anything we skipped
+                append(BOM, 0, this.bomRead);
+                this.bomRead = -1;
+                break;
+            }
+            position++;
+            this.bomRead++;
+        }
+        if (this.bomRead == BOM.length) {
+            this.bomRead = -1;
+        }
+        if (this.bomRead >= 0 && position == end) {
+            return;
+        }
+
+        // A CRLF split across two reads is one line ending
+        if (this.afterCr && position < end && bytes[position] == '\n') {
+            position++;
+        }
+        this.afterCr = false;
+
+        int start = position;
+        while (position < end) {
+            final byte b = bytes[position];
+            if (b == '\n' || b == '\r') {
+                if (this.lineLength == 0) {
+                    processLine(bytes, start, position - start);
+                } else {
+                    append(bytes, start, position - start);
+                    processLine(this.line, 0, this.lineLength);
+                    this.lineLength = 0;
+                }
+                position++;
+                if (b == '\r') {
+                    if (position == end) {
+                        this.afterCr = true;
+                    } else if (bytes[position] == '\n') {
+                        position++;
+                    }
+                }
+                start = position;
+            } else {
+                position++;
+            }
+        }
+        append(bytes, start, end - start);
+    }
+
+    /**
+     * Gets ready for a new connection. Anything not yet finished by a blank line
+     * is thrown away, the last event id and the retry time are kept.
+     */
+    public void reset() {
+        this.lineLength = 0;
+        this.dataLength = 0;
+        this.eventLength = 0;
+        this.afterCr = false;
+        this.bomRead = 0;
+    }
+
+    /**
+     * The id of the last event that had one, to send as Last-Event-ID when reconnecting
+     */
+    public Optional<String> getLastEventId() {
+        return this.lastEventId;
+    }
+
+    /**
+     * How long to wait before reconnecting, as last set by the server
+     */
+    public long getRetryMillis() {
+        return this.retryMillis;
+    }
+
+    private void append(final byte[] bytes, final int offset, final int length) {
+        if (length == 0) {
+            return;
+        }
+        this.line = ensure(this.line, this.lineLength + length);
+        System.arraycopy(bytes, offset, this.line, this.lineLength, length);
+        this.lineLength += length;
+    }
+
+    private void processLine(final byte[] bytes, final int offset, final int length) {
+        if (length == 0) {
+            dispatch();
+            return;
+        }
+        if (bytes[offset] == ':') {
+            // Comments are only there to keep the connection alive
+            return;
+        }
+
+        final int end = offset + length;
+        int colon = offset;
+        while (colon < end && bytes[colon] != ':') {
+            colon++;
+        }
+        final int nameLength = colon - offset;
+        int valueStart = Math.min(end, colon + 1);
+        if (valueStart < end && bytes[valueStart] == ' ') {
+            valueStart++;
+        }
+        final int valueLength = end - valueStart;
+
+        if (matches(bytes, offset, nameLength, DATA)) {
+            this.data = ensure(this.data, this.dataLength + valueLength + 1);
+            System.arraycopy(bytes, valueStart, this.data, this.dataLength, valueLength);
+            this.dataLength += valueLength;
+            this.data[this.dataLength++] = '\n';
+        } else if (matches(bytes, offset, nameLength, EVENT)) {
+            this.event = ensure(this.event, valueLength);
+            System.arraycopy(bytes, valueStart, this.event, 0, valueLength);
+            this.eventLength = valueLength;
+        } else if (matches(bytes, offset, nameLength, ID)) {
+            setId(bytes, valueStart, valueLength);
+        } else if (matches(bytes, offset, nameLength, RETRY)) {
+            setRetry(bytes, valueStart, valueLength);
+        }
+        // Anything else is ignored
+    }
+
+    private void setId(final byte[] bytes, final int offset, final int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] == 0) {
+                return;
+            }
+        }
+        if (matches(bytes, offset, length, this.idBytes)) {
+            return;
+        }
+        this.idBytes = Arrays.copyOfRange(bytes, offset, offset + length);
+        this.lastEventId = length == 0
+                ? Optional.empty()
+                : Optional.of(new String(this.idBytes, StandardCharsets.UTF_8));
+    }
+
+    private void setRetry(final byte[] bytes, final int offset, final int length) {
+        if (length == 0 || length > 18) {
+            return;
+        }
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < '0' || bytes[i] > '9') {
+                return;
+            }
+            value = value * 10 + (bytes[i] - '0');
+        }
+        this.retryMillis = value;
+    }
+
+    private void dispatch() {
+        if (this.dataLength == 0) {
+            this.eventLength = 0;
+            return;
+        }
+        // Drop the newline after the last data line
+        final String text = new String(this.data, 0, this.dataLength - 1, StandardCharsets.UTF_8);
+        final Optional<ConvertibleAsset<String>> type = eventType();
+        this.dataLength = 0;
+        this.eventLength = 0;
+        this.consumer.accept(new SseMessageEvent(this.lastEventId, type, Optional.of(new ConvertibleAsset<>(text))));
+    }
+
+    /**
+     * Looks up the name of the current event, most streams only use a handful
+     */
+    private Optional<ConvertibleAsset<String>> eventType() {
+        if (this.eventLength == 0) {
+            return Optional.empty();
+        }
+        for (int i = 0; i < this.eventNameCount; i++) {
+            if (matches(this.event, 0, this.eventLength, this.eventNames[i])) {
+                return this.eventValues.get(i);
+            }
+        }
+        final Optional<ConvertibleAsset<String>> type =
+                Optional.of(new ConvertibleAsset<>(new String(this.event, 0, this.eventLength, StandardCharsets.UTF_8)));
+        if (this.eventNameCount < MAX_CACHED_EVENT_NAMES) {
+            this.eventNames[this.eventNameCount] = Arrays.copyOf(this.event, this.eventLength);
+            this.eventNameCount++;
+            this.eventValues.add(type);
+        }
+        return type;
+    }
+
+    private static boolean matches(final byte[] bytes, final int offset, final int length, final byte[] expected) {
+        if (length != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] ensure(final byte[] buffer, final int size) {
+        return size <= buffer.length ? buffer : Arrays.copyOf(buffer, Math.max(size, buffer.length * 2));
+    }
+}
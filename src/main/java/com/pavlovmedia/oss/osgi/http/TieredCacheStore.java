@@ -0,0 +1,108 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Puts a small, fast {@link CacheStore} in front of a bigger, slower one, like a
+ * {@link MemoryCacheStore} in front of a {@link DiskCacheStore}. Responses are
+ * written to both, and a response only found in the second is copied into the
+ * first when it is read. Bodies bigger than the first store's entry limit are
+ * only kept in the second.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class TieredCacheStore implements CacheStore, Closeable {
+    private final CacheStore first;
+    private final CacheStore second;
+    private final long maxFirstBytes;
+
+    /**
+     * @param first checked first
+     * @param second checked when the first doesn't have a response
+     */
+    public TieredCacheStore(final CacheStore first, final CacheStore second) {
+        this(first, second, Long.MAX_VALUE);
+    }
+
+    /**
+     * @param first checked first
+     * @param second checked when the first doesn't have a response
+     * @param maxFirstBytes bodies bigger than this are only kept in the second
+     */
+    public TieredCacheStore(final CacheStore first, final CacheStore second, final long maxFirstBytes) {
+        this.first = Objects.requireNonNull(first);
+        this.second = Objects.requireNonNull(second);
+        this.maxFirstBytes = maxFirstBytes;
+    }
+
+    @Override
+    public Optional<CachedResponse> get(final String key) {
+        final Optional<CachedResponse> near = this.first.get(key);
+        if (near.isPresent()) {
+            return near;
+        }
+        final Optional<CachedResponse> far = this.second.get(key);
+        far.filter(this::fitsFirst).ifPresent(response -> this.first.put(key, response));
+        return far;
+    }
+
+    @Override
+    public void put(final String key, final CachedResponse response) {
+        if (fitsFirst(response)) {
+            this.first.put(key, response);
+        } else {
+            this.first.remove(key);
+        }
+        this.second.put(key, response);
+    }
+
+    @Override
+    public void remove(final String key) {
+        this.first.remove(key);
+        this.second.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        this.first.clear();
+        this.second.clear();
+    }
+
+    public CacheStore getFirst() {
+        return this.first;
+    }
+
+    public CacheStore getSecond() {
+        return this.second;
+    }
+
+    public long getMaxFirstBytes() {
+        return this.maxFirstBytes;
+    }
+
+    /**
+     * Closes whichever stores hold files open
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            closeStore(this.first);
+        } finally {
+            closeStore(this.second);
+        }
+    }
+
+    private boolean fitsFirst(final CachedResponse response) {
+        return response.getBodyLength() <= this.maxFirstBytes;
+    }
+
+    static void closeStore(final CacheStore store) throws IOException {
+        if (store instanceof Closeable) {
+            ((Closeable) store).close();
+        }
+    }
+}
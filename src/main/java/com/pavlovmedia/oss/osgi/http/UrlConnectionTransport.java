@@ -0,0 +1,180 @@
+package com.pavlovmedia.oss.osgi.http;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Future;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The default {@link HttpTransport}, built on {@link HttpURLConnection}
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public class UrlConnectionTransport implements HttpTransport {
+    public static final String NAME = "urlconnection";
+
+    private static SSLSocketFactory SELF_SIGNED_SOCKET_FACTORY;
+    static {
+        try {
+            final SSLContext sc = SSLContext.getInstance("SSL");
+            sc.init(null, new TrustManager[] { new SelfSignedTrustManager() }, new java.security.SecureRandom());
+            SELF_SIGNED_SOCKET_FACTORY = sc.getSocketFactory();
+        } catch (final GeneralSecurityException e) {
+            // This happens before we are running in osgi
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static AnyHostVerifier HOSTNAME_VERIFIER = new AnyHostVerifier();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public HttpTransportResponse execute(final HttpTransportRequest request) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) request.getUrl().openConnection();
+        // Timeouts only cover one blocking call, the deadline covers all of them by dropping the socket
+        final Optional<Future<?>> abort = request.getDeadline().map(d -> d.onExpiry(connection::disconnect));
+        try {
+            connection.setConnectTimeout(bound(request, request.getConnectTimeout()));
+            connection.setReadTimeout(bound(request, request.getReadTimeout()));
+
+            if (request.isIgnoreSelfSignedCert() && connection instanceof HttpsURLConnection) {
+                request.debug("Ignorning self signed certificate");
+                ((HttpsURLConnection) connection).setSSLSocketFactory(SELF_SIGNED_SOCKET_FACTORY);
+                ((HttpsURLConnection) connection).setHostnameVerifier(HOSTNAME_VERIFIER);
+            }
+
+            request.getHeaders().forEach((key, valueList) ->
+                valueList.forEach(value -> connection.setRequestProperty(key, value)));
+            setVerb(connection, request.getVerb());
+
+            request.getBeforeConnect().ifPresent(c -> c.accept(connection));
+
+            if (request.getBody().isPresent()) {
+                final RequestBody body = request.getBody().get();
+                connection.setDoOutput(true);
+                // Without a streaming mode the connection holds the whole body in memory to size it
+                if (body.getContentLength() >= 0) {
+                    connection.setFixedLengthStreamingMode(body.getContentLength());
+                } else {
+                    connection.setChunkedStreamingMode(BufferPool.DEFAULT_BUFFER_SIZE);
+                }
+                try (OutputStream out = connection.getOutputStream()) {
+                    body.writeTo(out);
+                }
+            } else {
+                connection.connect();
+            }
+
+            request.getBeforeFinish().ifPresent(f -> f.accept(connection));
+            int responseCode = -1;
+            try {
+                responseCode = connection.getResponseCode();
+            } catch (final FileNotFoundException e) {
+                responseCode = 404;
+            }
+            return new UrlConnectionResponse(connection, responseCode, abort);
+        } catch (final IOException | RuntimeException e) {
+            abort.ifPresent(a -> a.cancel(false));
+            connection.disconnect();
+            final Optional<Deadline> deadline = request.getDeadline().filter(Deadline::isExpired);
+            if (deadline.isPresent()) {
+                final SocketTimeoutException timeout = deadline.get().timeoutException();
+                timeout.initCause(e);
+                throw timeout;
+            }
+            throw e;
+        }
+    }
+
+    private static int bound(final HttpTransportRequest request, final int timeoutMillis) {
+        return request.getDeadline().map(d -> d.bound(timeoutMillis)).orElse(timeoutMillis);
+    }
+
+    /**
+     * Sets the request method, working around {@link HttpURLConnection} not
+     * knowing about PATCH
+     *
+     * @param connection
+     * @param verb
+     * @throws ProtocolException
+     */
+    public static void setVerb(final HttpURLConnection connection, final HttpVerbs verb) throws ProtocolException {
+        switch (verb) {
+            case PATCH:
+                connection.setRequestProperty("X-HTTP-Method-Override", "PATCH");
+                connection.setRequestMethod("POST");
+                break;
+            default:
+                connection.setRequestMethod(verb.toString());
+        }
+    }
+
+    private static final class UrlConnectionResponse implements HttpTransportResponse {
+        private final HttpURLConnection connection;
+        private final int responseCode;
+        private final Optional<Future<?>> abort;
+
+        UrlConnectionResponse(final HttpURLConnection connection, final int responseCode,
+                final Optional<Future<?>> abort) {
+            this.connection = connection;
+            this.responseCode = responseCode;
+            this.abort = abort;
+        }
+
+        @Override
+        public int getResponseCode() {
+            return this.responseCode;
+        }
+
+        @Override
+        public Map<String, List<String>> getHeaders() {
+            return this.connection.getHeaderFields();
+        }
+
+        @Override
+        public Optional<InputStream> getResponseStream() throws IOException {
+            try {
+                return Optional.ofNullable(this.connection.getInputStream());
+            } catch (final FileNotFoundException f) {
+                return Optional.empty();
+            }
+        }
+
+        @Override
+        public Optional<InputStream> getErrorStream() {
+            return Optional.ofNullable(this.connection.getErrorStream());
+        }
+
+        /**
+         * Once a response is drained the JDK puts the socket back in its keep-alive
+         * cache on its own, we only need to step in when it couldn't be drained.
+         * Disconnecting a drained connection would throw it out of the cache.
+         */
+        @Override
+        public void release(final boolean reusable) {
+            this.abort.ifPresent(a -> a.cancel(false));
+            if (!reusable) {
+                this.connection.disconnect();
+            }
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.pavlovmedia.oss.osgi.http;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
@@ -148,4 +151,268 @@ public final class UrlHelpers {
                 ? ref
                 : combinePath(srcUrl, ref);
     }
+
+    /**
+     * Gets the origin of a url, the scheme, host and port with the default port
+     * filled in. This is what connections are shared and limited by.
+     *
+     * @since 1.1.0
+     * @param url
+     * @return the origin like {@code https://example.com:443}
+     */
+    public static String originOf(final URL url) {
+        Objects.requireNonNull(url);
+
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return url.getProtocol().toLowerCase(Locale.ROOT) + "://" + url.getHost().toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    /**
+     * Gets the canonical key for a url, see {@link UrlKey}
+     *
+     * @since 1.1.0
+     * @param url
+     */
+    public static UrlKey keyOf(final URL url) {
+        Objects.requireNonNull(url);
+
+        return new UrlKey(url);
+    }
+
+    /**
+     * Gets the canonical key for the string form of a url, see {@link UrlKey}
+     *
+     * @since 1.1.0
+     * @param url The string to convert
+     * @param onError a consumer that gets the {@link MalformedURLException} if it isn't a url
+     * @return Optional of the key if successful and {@link Optional#empty()} otherwise
+     */
+    public static Optional<UrlKey> keyOf(final String url, final Consumer<Exception> onError) {
+        return urlFromString(url, onError).map(UrlKey::new);
+    }
+
+    /**
+     * A url reduced to one spelling so it can be used as a key. Unlike
+     * {@link URL}, whose equals and hashCode look up the host in DNS, comparing
+     * keys only compares strings and the hash is worked out once.
+     * <p>
+     * The scheme and host are lower cased, a trailing dot on the host and the
+     * scheme's default port are dropped, an empty path becomes /, . and ..
+     * segments are worked out, the fragment is dropped, and percent encoding is
+     * made uniform: escapes of unreserved characters are decoded, other escapes
+     * get upper case hex, and characters that aren't allowed are escaped as UTF-8.
+     * The query is otherwise left alone, parameter order can matter to a server.
+     *
+     * @since 1.1.0
+     */
+    public static final class UrlKey implements Comparable<UrlKey> {
+        private static final String PATH_CHARACTERS = "!$&'()*+,;=:@/";
+        private static final String QUERY_CHARACTERS = PATH_CHARACTERS + "?";
+        private static final String USER_CHARACTERS = "!$&'()*+,;=:";
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+        private final String scheme;
+        private final String host;
+        private final int port;
+        private final String canonical;
+        private final int hash;
+
+        private UrlKey(final URL url) {
+            this.scheme = url.getProtocol().toLowerCase(Locale.ROOT);
+            String lowerHost = url.getHost().toLowerCase(Locale.ROOT);
+            if (lowerHost.length() > 1 && lowerHost.endsWith(".")) {
+                lowerHost = lowerHost.substring(0, lowerHost.length() - 1);
+            }
+            this.host = lowerHost;
+            this.port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+
+            final StringBuilder key = new StringBuilder(this.scheme).append(':');
+            final String authority = url.getAuthority();
+            String path = normalizeEncoding(url.getPath(), PATH_CHARACTERS);
+            if (null != authority) {
+                key.append("//");
+                if (null != url.getUserInfo()) {
+                    key.append(normalizeEncoding(url.getUserInfo(), USER_CHARACTERS)).append('@');
+                }
+                key.append(this.host);
+                if (this.port != -1 && this.port != url.getDefaultPort()) {
+                    key.append(':').append(this.port);
+                }
+                if (path.isEmpty()) {
+                    path = "/";
+                }
+            }
+            key.append(removeDotSegments(path));
+            if (null != url.getQuery() && !url.getQuery().isEmpty()) {
+                key.append('?').append(normalizeEncoding(url.getQuery(), QUERY_CHARACTERS));
+            }
+            this.canonical = key.toString();
+            this.hash = this.canonical.hashCode();
+        }
+
+        /**
+         * The lower cased scheme, like http
+         */
+        public String getScheme() {
+            return this.scheme;
+        }
+
+        /**
+         * The lower cased host, empty if the url doesn't have one
+         */
+        public String getHost() {
+            return this.host;
+        }
+
+        /**
+         * The port, with the scheme's default filled in, -1 if there is neither
+         */
+        public int getPort() {
+            return this.port;
+        }
+
+        /**
+         * The origin in the same form as {@link UrlHelpers#originOf(URL)}
+         */
+        public String getOrigin() {
+            return this.scheme + "://" + this.host + ":" + this.port;
+        }
+
+        /**
+         * Makes a {@link URL} of the canonical form
+         *
+         * @throws IllegalStateException if the protocol handler has gone away since
+         *     this key was made
+         */
+        public URL toUrl() {
+            try {
+                return new URL(this.canonical);
+            } catch (final MalformedURLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * A 64 bit hash of the canonical form, for sets that keep hashes instead of keys
+         */
+        public long fingerprint() {
+            // FNV-1a over the characters, then mixed so every bit depends on every character
+            long h = 0xCBF29CE484222325L;
+            for (int i = 0; i < this.canonical.length(); i++) {
+                h ^= this.canonical.charAt(i);
+                h *= 0x100000001B3L;
+            }
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return h;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof UrlKey)) {
+                return false;
+            }
+            final UrlKey other = (UrlKey) obj;
+            return this.hash == other.hash && this.canonical.equals(other.canonical);
+        }
+
+        @Override
+        public int compareTo(final UrlKey other) {
+            return this.canonical.compareTo(other.canonical);
+        }
+
+        /**
+         * The canonical form of the url
+         */
+        @Override
+        public String toString() {
+            return this.canonical;
+        }
+
+        private static String normalizeEncoding(final String part, final String allowed) {
+            StringBuilder out = null;
+            for (int i = 0; i < part.length(); i++) {
+                final char c = part.charAt(i);
+                if (c != '%' && c < 0x80 && (isUnreserved(c) || allowed.indexOf(c) >= 0)) {
+                    if (null != out) {
+                        out.append(c);
+                    }
+                    continue;
+                }
+                if (null == out) {
+                    out = new StringBuilder(part.length() + 16).append(part, 0, i);
+                }
+                if (c == '%' && i + 2 < part.length() && isHex(part.charAt(i + 1)) && isHex(part.charAt(i + 2))) {
+                    final int value = Character.digit(part.charAt(i + 1), 16) * 16 + Character.digit(part.charAt(i + 2), 16);
+                    if (isUnreserved((char) value)) {
+                        out.append((char) value);
+                    } else {
+                        escape(out, value);
+                    }
+                    i += 2;
+                } else if (c < 0x80) {
+                    escape(out, c);
+                } else {
+                    final int codePoint = part.codePointAt(i);
+                    for (final byte b : new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8)) {
+                        escape(out, b & 0xFF);
+                    }
+                    i += Character.charCount(codePoint) - 1;
+                }
+            }
+            return null == out ? part : out.toString();
+        }
+
+        /**
+         * Works out . and .. segments the way RFC 3986 section 5.2.4 does
+         */
+        private static String removeDotSegments(final String path) {
+            if (!path.startsWith(".") && !path.contains("/.")) {
+                return path;
+            }
+            final boolean absolute = path.startsWith("/");
+            final String[] segments = (absolute ? path.substring(1) : path).split("/", -1);
+            final ArrayList<String> kept = new ArrayList<>(segments.length);
+            for (int i = 0; i < segments.length; i++) {
+                final String segment = segments[i];
+                final boolean last = i == segments.length - 1;
+                if (".".equals(segment) || "..".equals(segment)) {
+                    if ("..".equals(segment) && !kept.isEmpty()) {
+                        kept.remove(kept.size() - 1);
+                    }
+                    if (last) {
+                        // A path ending in a dot segment still names a directory
+                        kept.add("");
+                    }
+                } else {
+                    kept.add(segment);
+                }
+            }
+            return (absolute ? "/" : "") + String.join("/", kept);
+        }
+
+        private static void escape(final StringBuilder out, final int value) {
+            out.append('%').append(HEX[value >> 4]).append(HEX[value & 0xF]);
+        }
+
+        private static boolean isUnreserved(final char c) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.' || c == '_' || c == '~';
+        }
+
+        private static boolean isHex(final char c) {
+            return Character.digit(c, 16) >= 0 && c < 0x80;
+        }
+    }
 }
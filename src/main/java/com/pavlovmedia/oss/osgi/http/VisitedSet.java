@@ -0,0 +1,32 @@
+package com.pavlovmedia.oss.osgi.http;
+
+/**
+ * Where a {@link Spider} remembers the urls it has already queued. Sets decide
+ * for themselves how exactly they remember, a set that keeps less than the
+ * whole url can mistake a new url for one it has seen, which makes the crawl
+ * skip it. They are used from many threads at once.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public interface VisitedSet {
+    /**
+     * Remembers a url
+     *
+     * @param key
+     * @return true if the url wasn't seen before
+     */
+    boolean add(UrlHelpers.UrlKey key);
+
+    /**
+     * Checks if a url was seen before
+     *
+     * @param key
+     */
+    boolean contains(UrlHelpers.UrlKey key);
+
+    /**
+     * How many urls have been added
+     */
+    long size();
+}
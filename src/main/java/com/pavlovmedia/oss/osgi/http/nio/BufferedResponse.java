@@ -0,0 +1,103 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import com.pavlovmedia.oss.osgi.http.HttpTransportResponse;
+
+/**
+ * Collects a whole response in memory, then hands it out as an
+ * {@link HttpTransportResponse}. Bodies with a status of 400 or more show up
+ * as the error stream, like they do with {@link java.net.HttpURLConnection}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class BufferedResponse implements NioResponseListener, HttpTransportResponse {
+    private static final int MAX_PRESIZE = 1024 * 1024;
+
+    private final Consumer<BufferedResponse> onComplete;
+    private final Consumer<Throwable> onError;
+    private int responseCode;
+    private Map<String, List<String>> headers = Collections.emptyMap();
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private byte[] bytes = new byte[0];
+
+    BufferedResponse(final Consumer<BufferedResponse> onComplete, final Consumer<Throwable> onError) {
+        this.onComplete = onComplete;
+        this.onError = onError;
+    }
+
+    @Override
+    public void onHeaders(final int code, final Map<String, List<String>> responseHeaders) {
+        this.responseCode = code;
+        this.headers = responseHeaders;
+        responseHeaders.entrySet().stream()
+            .filter(e -> "Content-Length".equalsIgnoreCase(e.getKey()))
+            .flatMap(e -> e.getValue().stream())
+            .findFirst()
+            .ifPresent(length -> {
+                try {
+                    this.body = new ByteArrayOutputStream((int) Math.min(Long.parseLong(length), MAX_PRESIZE));
+                } catch (final NumberFormatException e) {
+                    // The parser would have failed already
+                }
+            });
+    }
+
+    @Override
+    public void onData(final ByteBuffer data) {
+        if (data.hasArray()) {
+            this.body.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else {
+            final byte[] copy = new byte[data.remaining()];
+            data.get(copy);
+            this.body.write(copy, 0, copy.length);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        this.bytes = this.body.toByteArray();
+        this.body = null;
+        this.onComplete.accept(this);
+    }
+
+    @Override
+    public void onError(final Throwable error) {
+        this.body = null;
+        this.onError.accept(error);
+    }
+
+    @Override
+    public int getResponseCode() {
+        return this.responseCode;
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaders() {
+        return this.headers;
+    }
+
+    @Override
+    public Optional<InputStream> getResponseStream() {
+        return this.responseCode < 400 ? Optional.of(new ByteArrayInputStream(this.bytes)) : Optional.empty();
+    }
+
+    @Override
+    public Optional<InputStream> getErrorStream() {
+        return this.responseCode >= 400 ? Optional.of(new ByteArrayInputStream(this.bytes)) : Optional.empty();
+    }
+
+    @Override
+    public void release(final boolean reusable) {
+        // The connection went back to the pool as soon as the body was read
+    }
+}
@@ -0,0 +1,290 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An incremental HTTP/1.1 response parser. Bytes are fed in as they arrive and
+ * the parser keeps its place between calls, so nothing ever waits on the socket.
+ * Bodies framed by Content-Length, chunked transfer encoding or the connection
+ * closing are all handled.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class HttpResponseParser {
+    static final int MAX_LINE_LENGTH = 64 * 1024;
+    static final int MAX_HEADER_BYTES = 256 * 1024;
+
+    private enum State {
+        STATUS_LINE, HEADERS, FIXED_BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE
+    }
+
+    private final NioResponseListener listener;
+    private final boolean expectBody;
+
+    private State state = State.STATUS_LINE;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private int headerBytes;
+    private boolean started;
+
+    private String statusLine;
+    private int responseCode;
+    private boolean http10;
+    private LinkedHashMap<String, List<String>> headers;
+    private long remaining;
+    private boolean keepAlive;
+
+    /**
+     * @param listener gets the headers and body
+     * @param expectBody false for HEAD requests, where the headers describe a body
+     *     that is never sent
+     */
+    HttpResponseParser(final NioResponseListener listener, final boolean expectBody) {
+        this.listener = listener;
+        this.expectBody = expectBody;
+    }
+
+    /**
+     * Checks if any part of a response has been seen
+     */
+    boolean hasStarted() {
+        return this.started;
+    }
+
+    /**
+     * Checks if the whole response has been read
+     */
+    boolean isDone() {
+        return this.state == State.DONE;
+    }
+
+    /**
+     * Checks if the connection can carry another request once this response is done
+     */
+    boolean isKeepAlive() {
+        return this.keepAlive;
+    }
+
+    /**
+     * Parses as much of the buffer as belongs to this response. Anything left in
+     * the buffer once the response is done doesn't belong to us.
+     *
+     * @param buffer
+     * @throws IOException if the response is malformed
+     */
+    void feed(final ByteBuffer buffer) throws IOException {
+        if (buffer.hasRemaining()) {
+            this.started = true;
+        }
+        while (buffer.hasRemaining() && this.state != State.DONE) {
+            switch (this.state) {
+                case STATUS_LINE:
+                    if (readLine(buffer)) {
+                        statusLine(takeLine());
+                    }
+                    break;
+                case HEADERS:
+                    if (readLine(buffer)) {
+                        header(takeLine());
+                    }
+                    break;
+                case FIXED_BODY:
+                    this.remaining -= deliver(buffer, this.remaining);
+                    if (this.remaining == 0) {
+                        this.state = State.DONE;
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    if (readLine(buffer)) {
+                        chunkSize(takeLine());
+                    }
+                    break;
+                case CHUNK_DATA:
+                    this.remaining -= deliver(buffer, this.remaining);
+                    if (this.remaining == 0) {
+                        this.state = State.CHUNK_END;
+                    }
+                    break;
+                case CHUNK_END:
+                    if (readLine(buffer)) {
+                        if (!takeLine().isEmpty()) {
+                            throw new ProtocolException("Missing CRLF after chunk");
+                        }
+                        this.state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    if (readLine(buffer) && takeLine().isEmpty()) {
+                        this.state = State.DONE;
+                    }
+                    break;
+                case UNTIL_CLOSE:
+                    deliver(buffer, Long.MAX_VALUE);
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Tells the parser the connection has closed
+     *
+     * @throws EOFException if the response wasn't finished
+     */
+    void endOfStream() throws EOFException {
+        if (this.state == State.UNTIL_CLOSE) {
+            this.state = State.DONE;
+        } else if (this.state != State.DONE) {
+            throw new EOFException("Connection closed before the response was complete");
+        }
+    }
+
+    private void statusLine(final String text) throws ProtocolException {
+        if (text.isEmpty() && null == this.statusLine) {
+            // Tolerate a stray CRLF before the status line
+            return;
+        }
+        final String[] parts = text.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new ProtocolException("Bad status line: " + text);
+        }
+        try {
+            this.responseCode = Integer.parseInt(parts[1]);
+        } catch (final NumberFormatException e) {
+            throw new ProtocolException("Bad status code: " + text);
+        }
+        this.statusLine = text;
+        this.http10 = "HTTP/1.0".equals(parts[0]);
+        this.headers = new LinkedHashMap<>();
+        this.state = State.HEADERS;
+    }
+
+    private void header(final String text) throws IOException {
+        if (!text.isEmpty()) {
+            final int colon = text.indexOf(':');
+            if (colon <= 0) {
+                throw new ProtocolException("Bad header: " + text);
+            }
+            final String name = text.substring(0, colon).trim();
+            final String value = text.substring(colon + 1).trim();
+            this.headers.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+            return;
+        }
+
+        if (this.responseCode >= 100 && this.responseCode < 200 && this.responseCode != 101) {
+            // Interim response like 100 Continue, the real one follows
+            this.statusLine = null;
+            this.headerBytes = 0;
+            this.state = State.STATUS_LINE;
+            return;
+        }
+
+        final String connection = headerValues("Connection").toLowerCase();
+        this.keepAlive = this.http10 ? connection.contains("keep-alive") : !connection.contains("close");
+
+        final Map<String, List<String>> published = new LinkedHashMap<>();
+        published.put(null, Collections.singletonList(this.statusLine));
+        this.headers.forEach((k, v) -> published.put(k, Collections.unmodifiableList(v)));
+        this.listener.onHeaders(this.responseCode, Collections.unmodifiableMap(published));
+
+        if (!this.expectBody || this.responseCode == 204 || this.responseCode == 304 || this.responseCode == 101) {
+            this.keepAlive &= this.responseCode != 101;
+            this.state = State.DONE;
+        } else if (headerValues("Transfer-Encoding").toLowerCase().contains("chunked")) {
+            this.state = State.CHUNK_SIZE;
+        } else if (!headerValues("Content-Length").isEmpty()) {
+            try {
+                this.remaining = Long.parseLong(headerValues("Content-Length").split(",")[0].trim());
+            } catch (final NumberFormatException e) {
+                throw new ProtocolException("Bad Content-Length: " + headerValues("Content-Length"));
+            }
+            this.state = this.remaining == 0 ? State.DONE : State.FIXED_BODY;
+        } else {
+            this.keepAlive = false;
+            this.state = State.UNTIL_CLOSE;
+        }
+    }
+
+    private void chunkSize(final String text) throws ProtocolException {
+        final int extension = text.indexOf(';');
+        final String size = (extension < 0 ? text : text.substring(0, extension)).trim();
+        try {
+            this.remaining = Long.parseLong(size, 16);
+        } catch (final NumberFormatException e) {
+            throw new ProtocolException("Bad chunk size: " + text);
+        }
+        this.state = this.remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+    }
+
+    private String headerValues(final String name) {
+        final StringBuilder values = new StringBuilder();
+        this.headers.forEach((k, v) -> {
+            if (name.equalsIgnoreCase(k)) {
+                v.forEach(value -> values.append(values.length() == 0 ? "" : ",").append(value));
+            }
+        });
+        return values.toString();
+    }
+
+    /**
+     * Hands the listener up to max bytes from the buffer
+     *
+     * @return how many bytes were handed over
+     */
+    private int deliver(final ByteBuffer buffer, final long max) {
+        final int count = (int) Math.min(buffer.remaining(), max);
+        final ByteBuffer slice = buffer.slice();
+        slice.limit(count);
+        buffer.position(buffer.position() + count);
+        this.listener.onData(slice);
+        return count;
+    }
+
+    /**
+     * Collects bytes until the end of a line
+     *
+     * @return true once a whole line is waiting in {@link #takeLine()}
+     */
+    private boolean readLine(final ByteBuffer buffer) throws ProtocolException {
+        final boolean inHeaders = this.state == State.STATUS_LINE || this.state == State.HEADERS
+                || this.state == State.TRAILERS;
+        while (buffer.hasRemaining()) {
+            final byte b = buffer.get();
+            if (inHeaders && ++this.headerBytes > MAX_HEADER_BYTES) {
+                throw new ProtocolException("Response headers are larger than " + MAX_HEADER_BYTES + " bytes");
+            }
+            if (b == '\n') {
+                return true;
+            }
+            if (this.lineLength == MAX_LINE_LENGTH) {
+                throw new ProtocolException("Response line is longer than " + MAX_LINE_LENGTH + " bytes");
+            }
+            if (this.lineLength == this.line.length) {
+                this.line = Arrays.copyOf(this.line, Math.min(this.line.length * 2, MAX_LINE_LENGTH));
+            }
+            this.line[this.lineLength++] = b;
+        }
+        return false;
+    }
+
+    private String takeLine() {
+        int length = this.lineLength;
+        if (length > 0 && this.line[length - 1] == '\r') {
+            length--;
+        }
+        this.lineLength = 0;
+        return new String(this.line, 0, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,68 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking byte channel that may or may not be encrypted. All methods are
+ * only ever called from the owning event loop.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+interface NioChannel {
+    /**
+     * The socket underneath this channel
+     */
+    SocketChannel socket();
+
+    /**
+     * Moves the handshake along as far as it can without blocking
+     *
+     * @return true once the channel is ready for application data
+     * @throws IOException
+     */
+    boolean handshake() throws IOException;
+
+    /**
+     * Reads application data
+     *
+     * @return the bytes read, 0 if nothing is available yet, or -1 at the end of the stream
+     * @throws IOException
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * Writes application data
+     *
+     * @return how many bytes of src were consumed
+     * @throws IOException
+     */
+    int write(ByteBuffer src) throws IOException;
+
+    /**
+     * Pushes out anything buffered
+     *
+     * @return true if nothing is left to send
+     * @throws IOException
+     */
+    boolean flush() throws IOException;
+
+    /**
+     * Checks if there is data waiting to be sent, which means we should wait
+     * for the socket to be writable
+     */
+    boolean hasPendingOutput();
+
+    /**
+     * Checks if there is already decoded data that can be read without
+     * waiting on the socket
+     */
+    boolean hasBufferedInput();
+
+    /**
+     * Closes the channel and the socket
+     */
+    void close();
+}
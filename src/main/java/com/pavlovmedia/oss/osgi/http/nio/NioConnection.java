@@ -0,0 +1,39 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * An open connection to one origin, owned by a single event loop. Between
+ * requests it sits in the loop's idle pool.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class NioConnection {
+    final String poolKey;
+    final NioChannel channel;
+    SelectionKey key;
+    long idleSince;
+
+    NioConnection(final String poolKey, final NioChannel channel) {
+        this.poolKey = poolKey;
+        this.channel = channel;
+    }
+
+    boolean isOpen() {
+        return this.channel.socket().isOpen() && (null == this.key || this.key.isValid());
+    }
+
+    void interest(final int ops) {
+        if (null != this.key && this.key.isValid()) {
+            this.key.interestOps(ops);
+        }
+    }
+
+    void close() {
+        if (null != this.key) {
+            this.key.cancel();
+        }
+        this.channel.close();
+    }
+}
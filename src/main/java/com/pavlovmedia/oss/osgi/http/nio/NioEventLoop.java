@@ -0,0 +1,236 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * One selector thread. Every socket registered here, and everything attached
+ * to those sockets, is only touched from this thread. Other threads hand work
+ * in with {@link #execute(Runnable)}.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class NioEventLoop implements Runnable {
+    static final long TICK_MILLIS = 100;
+    static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Whatever is attached to a selection key
+     */
+    interface Handler {
+        /**
+         * The socket is ready for whatever this handler asked for
+         */
+        void onReady(SelectionKey key);
+
+        /**
+         * Called about every {@link NioEventLoop#TICK_MILLIS}, used for timeouts
+         *
+         * @param now the current {@link System#nanoTime()}
+         */
+        void onTick(long now);
+
+        /**
+         * The loop is shutting down
+         */
+        void onShutdown();
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final HashMap<String, ArrayDeque<NioConnection>> idle = new HashMap<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final long keepAliveNanos;
+    private final int maxIdlePerHost;
+    private volatile boolean running = true;
+
+    NioEventLoop(final String name, final long keepAliveMillis, final int maxIdlePerHost) throws IOException {
+        this.selector = Selector.open();
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+        this.maxIdlePerHost = maxIdlePerHost;
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Runs a task on the loop thread
+     *
+     * @param task
+     * @throws RejectedExecutionException if the loop has been shut down
+     */
+    void execute(final Runnable task) {
+        this.tasks.add(task);
+        if (!this.running && this.tasks.remove(task)) {
+            throw new RejectedExecutionException("The event loop has been shut down");
+        }
+        this.selector.wakeup();
+    }
+
+    Selector selector() {
+        return this.selector;
+    }
+
+    /**
+     * A buffer for reading off of sockets, shared by everything on this loop
+     */
+    ByteBuffer readBuffer() {
+        return this.readBuffer;
+    }
+
+    /**
+     * Takes an idle connection for an origin out of the pool
+     *
+     * @param poolKey
+     */
+    Optional<NioConnection> takeIdle(final String poolKey) {
+        final ArrayDeque<NioConnection> connections = this.idle.get(poolKey);
+        while (null != connections && !connections.isEmpty()) {
+            final NioConnection connection = connections.pollFirst();
+            if (connection.isOpen()) {
+                return Optional.of(connection);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Puts a connection in the idle pool, or closes it if the pool for its
+     * origin is full
+     *
+     * @param connection
+     */
+    void offerIdle(final NioConnection connection) {
+        final ArrayDeque<NioConnection> connections =
+                this.idle.computeIfAbsent(connection.poolKey, k -> new ArrayDeque<>());
+        if (connections.size() >= this.maxIdlePerHost || !this.running) {
+            connection.close();
+            return;
+        }
+        connection.idleSince = System.nanoTime();
+        connection.key.attach(new IdleHandler(connection));
+        // A read while idle means the server closed it or sent junk, either way it's done
+        connection.interest(SelectionKey.OP_READ);
+        connections.addFirst(connection);
+    }
+
+    /**
+     * Stops the loop, anything in flight fails
+     */
+    void shutdown() {
+        this.running = false;
+        this.selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastTick = System.nanoTime();
+        while (this.running) {
+            try {
+                this.selector.select(TICK_MILLIS);
+                runTasks();
+
+                final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid()) {
+                        ((Handler) key.attachment()).onReady(key);
+                    }
+                }
+
+                final long now = System.nanoTime();
+                if (now - lastTick >= TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS)) {
+                    lastTick = now;
+                    forEachHandler(h -> h.onTick(now));
+                }
+            } catch (final IOException | RuntimeException e) {
+                // One bad exchange shouldn't take the whole loop down
+            }
+        }
+
+        runTasks();
+        forEachHandler(Handler::onShutdown);
+        this.idle.clear();
+        try {
+            this.selector.close();
+        } catch (final IOException e) {
+            // Nothing more we can do with it
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while (null != (task = this.tasks.poll())) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                // Tasks handle their own failures
+            }
+        }
+    }
+
+    private void forEachHandler(final Consumer<Handler> action) {
+        for (final SelectionKey key : new ArrayList<>(this.selector.keys())) {
+            if (key.isValid() && key.attachment() instanceof Handler) {
+                try {
+                    action.accept((Handler) key.attachment());
+                } catch (final RuntimeException e) {
+                    key.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Watches a pooled connection while nobody is using it
+     */
+    private final class IdleHandler implements Handler {
+        private final NioConnection connection;
+
+        IdleHandler(final NioConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void onReady(final SelectionKey key) {
+            evict();
+        }
+
+        @Override
+        public void onTick(final long now) {
+            if (now - this.connection.idleSince > NioEventLoop.this.keepAliveNanos) {
+                evict();
+            }
+        }
+
+        @Override
+        public void onShutdown() {
+            this.connection.close();
+        }
+
+        private void evict() {
+            final ArrayDeque<NioConnection> connections = NioEventLoop.this.idle.get(this.connection.poolKey);
+            if (null != connections) {
+                connections.remove(this.connection);
+                if (connections.isEmpty()) {
+                    NioEventLoop.this.idle.remove(this.connection.poolKey);
+                }
+            }
+            this.connection.close();
+        }
+    }
+}
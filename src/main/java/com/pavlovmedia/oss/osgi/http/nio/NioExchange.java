@@ -0,0 +1,388 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLEngine;
+
+/**
+ * One request and its response, driven by the readiness events of a single
+ * event loop. Apart from {@link #cancel()} and the {@link NioReadControl} methods,
+ * everything here runs on the loop thread.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class NioExchange implements NioEventLoop.Handler, NioReadControl {
+    private enum State {
+        NEW, CONNECTING, HANDSHAKING, WRITING, READING, DONE
+    }
+
+    private final NioEventLoop loop;
+    private final NioResponseListener listener;
+    private final String poolKey;
+    private final boolean expectBody;
+    private final boolean idempotent;
+    private final long connectTimeoutNanos;
+    private final long readTimeoutNanos;
+
+    private InetSocketAddress address;
+    private Optional<Supplier<SSLEngine>> tls = Optional.empty();
+    private RequestWriter request;
+
+    private State state = State.NEW;
+    private NioConnection connection;
+    private HttpResponseParser parser;
+    private boolean reused;
+    private boolean retried;
+    private long connectDeadline;
+    private long lastProgress;
+    private volatile boolean readPaused;
+
+    /**
+     * @param loop the loop that owns this exchange
+     * @param listener gets the response
+     * @param poolKey connections with the same key can be shared
+     * @param expectBody false for HEAD requests
+     * @param idempotent if the request can be sent again when a pooled connection turns out to be dead
+     * @param connectTimeoutMillis how long to wait for a connection, 0 waits forever
+     * @param readTimeoutMillis how long the connection can sit without progress once open, 0 waits forever
+     */
+    NioExchange(final NioEventLoop loop, final NioResponseListener listener, final String poolKey,
+            final boolean expectBody, final boolean idempotent, final int connectTimeoutMillis,
+            final int readTimeoutMillis) {
+        this.loop = loop;
+        this.listener = listener;
+        this.poolKey = poolKey;
+        this.expectBody = expectBody;
+        this.idempotent = idempotent;
+        this.connectTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis);
+        this.readTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(readTimeoutMillis);
+        this.parser = new HttpResponseParser(listener, expectBody);
+    }
+
+    /**
+     * Sets what is needed to actually send the request. This is done off of the
+     * loop since resolving the host and writing the body can both block.
+     *
+     * @param address the resolved server address
+     * @param tls makes the engine for https, empty for http
+     * @param request the encoded request line, headers and body
+     */
+    void prepare(final InetSocketAddress address, final Optional<Supplier<SSLEngine>> tls,
+            final RequestWriter request) {
+        this.address = address;
+        this.tls = tls;
+        this.request = request;
+    }
+
+    /**
+     * Starts the exchange, must run on the loop
+     */
+    void start() {
+        if (this.state != State.NEW) {
+            return;
+        }
+        try {
+            final Optional<NioConnection> pooled = this.loop.takeIdle(this.poolKey);
+            if (pooled.isPresent()) {
+                this.connection = pooled.get();
+                this.connection.key.attach(this);
+                this.reused = true;
+                this.state = State.WRITING;
+                this.lastProgress = System.nanoTime();
+                write();
+            } else {
+                connect();
+            }
+        } catch (final IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Stops the exchange from any thread
+     */
+    void cancel() {
+        abort(new CancellationException("The request was cancelled"));
+    }
+
+    /**
+     * Fails the exchange from any thread. It is never sent again, a deadline
+     * only fires once so a retry would have nothing left to stop it.
+     *
+     * @param error handed to the listener
+     */
+    void abort(final Throwable error) {
+        try {
+            this.loop.execute(() -> fail(error, false));
+        } catch (final RejectedExecutionException e) {
+            // The loop is gone so nothing else can touch this exchange
+            fail(error, false);
+        }
+    }
+
+    @Override
+    public void pauseReading() {
+        // The read loop sees this and drops read interest until resumed
+        this.readPaused = true;
+    }
+
+    @Override
+    public void resumeReading() {
+        this.readPaused = false;
+        try {
+            this.loop.execute(this::resumed);
+        } catch (final RejectedExecutionException e) {
+            // The loop is gone and has already failed this exchange
+        }
+    }
+
+    private void resumed() {
+        if (this.state != State.READING || this.readPaused) {
+            return;
+        }
+        try {
+            this.lastProgress = System.nanoTime();
+            this.connection.interest(SelectionKey.OP_READ);
+            read();
+        } catch (final IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onReady(final SelectionKey key) {
+        try {
+            switch (this.state) {
+                case CONNECTING:
+                    if (key.isConnectable() && this.connection.channel.socket().finishConnect()) {
+                        connected();
+                    }
+                    break;
+                case HANDSHAKING:
+                    handshake();
+                    break;
+                case WRITING:
+                    write();
+                    break;
+                case READING:
+                    read();
+                    break;
+                default:
+                    break;
+            }
+        } catch (final IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onTick(final long now) {
+        if (this.connectDeadline != 0 && now - this.connectDeadline > 0) {
+            fail(new SocketTimeoutException("connect timed out"), false);
+        } else if (this.readTimeoutNanos > 0 && this.lastProgress != 0 && !this.readPaused
+                && now - this.lastProgress > this.readTimeoutNanos) {
+            fail(new SocketTimeoutException("Read timed out"), false);
+        }
+    }
+
+    @Override
+    public void onShutdown() {
+        fail(new IOException("The transport was shut down"), false);
+    }
+
+    private void connect() throws IOException {
+        final SocketChannel socket = SocketChannel.open();
+        try {
+            socket.configureBlocking(false);
+            socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            final NioChannel channel = this.tls.isPresent()
+                    ? new TlsChannel(socket, this.tls.get().get())
+                    : new PlainChannel(socket);
+            this.connection = new NioConnection(this.poolKey, channel);
+            this.connection.key = socket.register(this.loop.selector(), 0, this);
+        } catch (final IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+
+        this.state = State.CONNECTING;
+        this.lastProgress = 0;
+        if (this.connectTimeoutNanos > 0) {
+            this.connectDeadline = System.nanoTime() + this.connectTimeoutNanos;
+        }
+        if (this.connection.channel.socket().connect(this.address)) {
+            connected();
+        } else {
+            this.connection.interest(SelectionKey.OP_CONNECT);
+        }
+    }
+
+    private void connected() throws IOException {
+        this.connectDeadline = 0;
+        this.lastProgress = System.nanoTime();
+        this.state = State.HANDSHAKING;
+        handshake();
+    }
+
+    private void handshake() throws IOException {
+        if (this.connection.channel.handshake()) {
+            this.state = State.WRITING;
+            write();
+        } else {
+            this.connection.interest(this.connection.channel.hasPendingOutput()
+                    ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+    }
+
+    private void write() throws IOException {
+        final NioChannel channel = this.connection.channel;
+        while (!this.request.isDone()) {
+            if (this.request.write(channel) == 0 && !this.request.isDone()) {
+                // Waiting on either the socket or the thread writing the body
+                this.connection.interest(this.request.awaitBody(this::bodyReady) ? 0 : SelectionKey.OP_WRITE);
+                return;
+            }
+            this.lastProgress = System.nanoTime();
+        }
+        if (!channel.flush()) {
+            this.connection.interest(SelectionKey.OP_WRITE);
+            return;
+        }
+        this.state = State.READING;
+        this.connection.interest(SelectionKey.OP_READ);
+        if (channel.hasBufferedInput()) {
+            read();
+        }
+    }
+
+    /**
+     * Called by the thread writing the body once there is more to send
+     */
+    private void bodyReady() {
+        try {
+            this.loop.execute(() -> {
+                if (this.state != State.WRITING) {
+                    return;
+                }
+                try {
+                    this.lastProgress = System.nanoTime();
+                    write();
+                } catch (final IOException | RuntimeException e) {
+                    fail(e);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            // The loop is gone and has already failed this exchange
+        }
+    }
+
+    private void read() throws IOException {
+        final NioChannel channel = this.connection.channel;
+        final ByteBuffer buffer = this.loop.readBuffer();
+        while (this.state == State.READING) {
+            if (this.readPaused) {
+                this.connection.interest(0);
+                return;
+            }
+            buffer.clear();
+            final int count = channel.read(buffer);
+            if (count < 0) {
+                endOfStream();
+                return;
+            }
+            if (count == 0) {
+                return;
+            }
+            this.lastProgress = System.nanoTime();
+            buffer.flip();
+            this.parser.feed(buffer);
+            if (this.parser.isDone()) {
+                finish(this.parser.isKeepAlive() && !buffer.hasRemaining() && !channel.hasBufferedInput());
+                return;
+            }
+        }
+    }
+
+    private void endOfStream() throws IOException {
+        if (canRetry()) {
+            retry();
+            return;
+        }
+        this.parser.endOfStream();
+        finish(false);
+    }
+
+    /**
+     * A pooled connection can be closed by the server right as we pick it up.
+     * If nothing came back yet and the request is safe to send twice, we try
+     * once more on a fresh connection. A streamed body has to still be at hand.
+     */
+    private boolean canRetry() {
+        return this.reused && !this.retried && this.idempotent && !this.parser.hasStarted()
+                && this.request.canRewind();
+    }
+
+    private void retry() throws IOException {
+        this.retried = true;
+        this.reused = false;
+        this.connection.close();
+        this.parser = new HttpResponseParser(this.listener, this.expectBody);
+        this.request.rewind();
+        connect();
+    }
+
+    private void finish(final boolean keepAlive) {
+        this.state = State.DONE;
+        this.request.close();
+        if (keepAlive) {
+            this.loop.offerIdle(this.connection);
+        } else {
+            this.connection.close();
+        }
+        this.listener.onComplete();
+    }
+
+    private void fail(final Throwable error) {
+        fail(error, true);
+    }
+
+    /**
+     * @param retryable false for timeouts and aborts, only a connection that
+     *     broke on its own is worth sending the request again on
+     */
+    private void fail(final Throwable error, final boolean retryable) {
+        if (this.state == State.DONE) {
+            return;
+        }
+        final boolean sending = this.state == State.WRITING || this.state == State.READING;
+        if (retryable && error instanceof IOException && !(error instanceof SocketTimeoutException)
+                && sending && canRetry()) {
+            try {
+                retry();
+                return;
+            } catch (final IOException | RuntimeException e) {
+                error.addSuppressed(e);
+            }
+        }
+        this.state = State.DONE;
+        if (null != this.connection) {
+            this.connection.close();
+        }
+        if (null != this.request) {
+            this.request.close();
+        }
+        this.listener.onError(error);
+    }
+}
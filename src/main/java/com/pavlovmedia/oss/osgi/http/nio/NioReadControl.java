@@ -0,0 +1,21 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+/**
+ * Lets a listener that can't keep up stop an exchange from reading its body,
+ * which leaves the rest in the socket so TCP pushes back on the server.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+interface NioReadControl {
+    /**
+     * Stops reading once the data already read has been handed over. Safe to
+     * call from any thread, including from inside the listener.
+     */
+    void pauseReading();
+
+    /**
+     * Starts reading again, from any thread
+     */
+    void resumeReading();
+}
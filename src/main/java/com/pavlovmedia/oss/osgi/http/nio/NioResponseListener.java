@@ -0,0 +1,45 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Receives a response from the {@link NioTransport} as it comes off the wire.
+ * Every method is called on an event loop thread, so implementations must not
+ * block. Either {@link #onComplete()} or {@link #onError(Throwable)} is called
+ * exactly once, and nothing is called after it.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public interface NioResponseListener {
+    /**
+     * The status line and headers are in
+     *
+     * @param responseCode the HTTP status code
+     * @param headers the response headers, the status line is under the null key
+     *     the same way {@link java.net.HttpURLConnection} does it
+     */
+    void onHeaders(int responseCode, Map<String, List<String>> headers);
+
+    /**
+     * The next piece of the body, with any chunked transfer encoding already
+     * removed. The buffer is reused once this returns, so copy what you need.
+     *
+     * @param data
+     */
+    void onData(ByteBuffer data);
+
+    /**
+     * The whole response has been read
+     */
+    void onComplete();
+
+    /**
+     * The exchange failed or was cancelled
+     *
+     * @param error
+     */
+    void onError(Throwable error);
+}
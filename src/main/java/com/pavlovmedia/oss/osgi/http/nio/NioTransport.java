@@ -0,0 +1,436 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManager;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+
+import com.pavlovmedia.oss.osgi.http.HttpTransport;
+import com.pavlovmedia.oss.osgi.http.HttpTransportRequest;
+import com.pavlovmedia.oss.osgi.http.HttpTransportResponse;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.RequestBody;
+import com.pavlovmedia.oss.osgi.http.SelfSignedTrustManager;
+import com.pavlovmedia.oss.osgi.http.UrlHelpers;
+
+/**
+ * An {@link HttpTransport} built on non-blocking sockets. A small, fixed number of
+ * selector threads carry every request, so thousands of requests can be in flight
+ * without a thread each. https is done with an {@link SSLEngine}. Idle connections
+ * are kept per origin and reused.
+ * <p>
+ * Inside OSGi this registers itself as the {@value #NAME} transport. Outside of
+ * OSGi create one, register it with
+ * {@link com.pavlovmedia.oss.osgi.http.HttpTransports#register(HttpTransport)} and
+ * {@link #close()} it when done. Proxies and the raw {@link java.net.HttpURLConnection}
+ * hooks are not supported.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+@Component(metatype = true,
+    label = "Pavlov HTTP NIO Transport",
+    description = "A non-blocking transport for the Pavlov HTTP client")
+@Service(HttpTransport.class)
+@Properties({
+    @Property(name = HttpTransport.TRANSPORT_NAME, value = NioTransport.NAME, propertyPrivate = true),
+    @Property(name = NioTransport.EVENT_LOOPS, intValue = NioTransport.DEFAULT_EVENT_LOOPS,
+        label = "Event loops", description = "How many selector threads carry requests"),
+    @Property(name = NioTransport.KEEP_ALIVE_MILLIS, longValue = NioTransport.DEFAULT_KEEP_ALIVE_MILLIS,
+        label = "Keep alive", description = "How long an idle connection is kept, in milliseconds"),
+    @Property(name = NioTransport.MAX_IDLE_PER_HOST, intValue = NioTransport.DEFAULT_MAX_IDLE_PER_HOST,
+        label = "Idle connections per host", description = "How many idle connections are kept for each origin")
+})
+public class NioTransport implements HttpTransport, AutoCloseable {
+    public static final String NAME = "nio";
+
+    public static final String EVENT_LOOPS = "nio.event.loops";
+    public static final String KEEP_ALIVE_MILLIS = "nio.keepalive.millis";
+    public static final String MAX_IDLE_PER_HOST = "nio.idle.per.host";
+
+    public static final int DEFAULT_EVENT_LOOPS = 2;
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 30000;
+    public static final int DEFAULT_MAX_IDLE_PER_HOST = 8;
+
+    private static final EnumSet<HttpVerbs> IDEMPOTENT =
+            EnumSet.of(HttpVerbs.GET, HttpVerbs.HEAD, HttpVerbs.OPTIONS, HttpVerbs.PUT, HttpVerbs.DELETE);
+
+    private static SSLContext selfSignedContext;
+
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private int eventLoops;
+    private long keepAliveMillis;
+    private int maxIdlePerHost;
+    private NioEventLoop[] loops;
+
+    /**
+     * Creates a transport with the default settings
+     */
+    public NioTransport() {
+        this(DEFAULT_EVENT_LOOPS, DEFAULT_KEEP_ALIVE_MILLIS, DEFAULT_MAX_IDLE_PER_HOST);
+    }
+
+    /**
+     * Creates a transport. No threads are started until the first request.
+     *
+     * @param eventLoops how many selector threads to run
+     * @param keepAliveMillis how long idle connections are kept
+     * @param maxIdlePerHost how many idle connections are kept per origin on each loop
+     */
+    public NioTransport(final int eventLoops, final long keepAliveMillis, final int maxIdlePerHost) {
+        configure(eventLoops, keepAliveMillis, maxIdlePerHost);
+    }
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        configure(
+            intProperty(properties, EVENT_LOOPS, DEFAULT_EVENT_LOOPS),
+            longProperty(properties, KEEP_ALIVE_MILLIS, DEFAULT_KEEP_ALIVE_MILLIS),
+            intProperty(properties, MAX_IDLE_PER_HOST, DEFAULT_MAX_IDLE_PER_HOST));
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        close();
+    }
+
+    private synchronized void configure(final int eventLoops, final long keepAliveMillis,
+            final int maxIdlePerHost) {
+        if (eventLoops < 1) {
+            throw new IllegalArgumentException("At least one event loop is required");
+        }
+        close();
+        this.eventLoops = eventLoops;
+        this.keepAliveMillis = keepAliveMillis;
+        this.maxIdlePerHost = maxIdlePerHost;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    /**
+     * Sends a request and waits for the whole response
+     */
+    @Override
+    public HttpTransportResponse execute(final HttpTransportRequest request) throws IOException {
+        try {
+            return executeAsync(request, Runnable::run).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + request.getUrl());
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends a request without blocking. The body is read into memory before the
+     * future completes, use {@link #stream(HttpTransportRequest, NioResponseListener, Executor)}
+     * for large or endless responses. Cancelling the future drops the connection.
+     *
+     * @param request the request to send
+     * @param executor resolves the host, writes out the request body and completes the future
+     */
+    @Override
+    public CompletableFuture<HttpTransportResponse> executeAsync(final HttpTransportRequest request,
+            final Executor executor) {
+        final CompletableFuture<HttpTransportResponse> future = new CompletableFuture<>();
+        final BufferedResponse response = new BufferedResponse(
+                r -> completeOn(executor, () -> future.complete(r)),
+                e -> completeOn(executor, () -> future.completeExceptionally(e)));
+        final CompletableFuture<Void> exchange = stream(request, response, executor);
+        future.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                exchange.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Sends a request and hands the response to a listener as it arrives. The
+     * listener is called on an event loop thread.
+     *
+     * @param request the request to send
+     * @param listener gets the response
+     * @param executor resolves the host and writes out the request body
+     * @return completes when the exchange is over, cancelling it drops the connection
+     */
+    public CompletableFuture<Void> stream(final HttpTransportRequest request, final NioResponseListener listener,
+            final Executor executor) {
+        return stream(request, listener, executor, c -> { });
+    }
+
+    /**
+     * Sends a request the same way as {@link #stream(HttpTransportRequest, NioResponseListener, Executor)}
+     *
+     * @param onStart gets a handle for pausing the body, before the request is sent
+     */
+    CompletableFuture<Void> stream(final HttpTransportRequest request, final NioResponseListener listener,
+            final Executor executor, final Consumer<NioReadControl> onStart) {
+        Objects.requireNonNull(request);
+        Objects.requireNonNull(listener);
+        Objects.requireNonNull(executor);
+
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final URL url = request.getUrl();
+        final boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        final int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        final String poolKey = UrlHelpers.originOf(url) + (https && request.isIgnoreSelfSignedCert() ? "#insecure" : "");
+
+        final NioEventLoop loop;
+        try {
+            loop = nextLoop();
+        } catch (final IOException e) {
+            listener.onError(e);
+            done.completeExceptionally(e);
+            return done;
+        }
+
+        final int connectTimeout = request.getDeadline()
+                .map(d -> d.bound(request.getConnectTimeout()))
+                .orElse(request.getConnectTimeout());
+        final NioExchange exchange = new NioExchange(loop, new NioResponseListener() {
+            @Override
+            public void onHeaders(final int responseCode, final Map<String, List<String>> headers) {
+                listener.onHeaders(responseCode, headers);
+            }
+
+            @Override
+            public void onData(final ByteBuffer data) {
+                listener.onData(data);
+            }
+
+            @Override
+            public void onComplete() {
+                listener.onComplete();
+                done.complete(null);
+            }
+
+            @Override
+            public void onError(final Throwable error) {
+                listener.onError(error);
+                done.completeExceptionally(error);
+            }
+        }, poolKey, request.getVerb() != HttpVerbs.HEAD, IDEMPOTENT.contains(request.getVerb()),
+                connectTimeout, request.getReadTimeout());
+        onStart.accept(exchange);
+        final Optional<Future<?>> expiry = request.getDeadline()
+                .map(d -> d.onExpiry(() -> exchange.abort(d.timeoutException())));
+        done.whenComplete((v, e) -> {
+            expiry.ifPresent(f -> f.cancel(false));
+            if (e instanceof CancellationException) {
+                exchange.cancel();
+            }
+        });
+
+        try {
+            executor.execute(() -> {
+                try {
+                    final InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+                    if (address.isUnresolved()) {
+                        throw new UnknownHostException(url.getHost());
+                    }
+                    final Optional<Supplier<SSLEngine>> tls = https
+                            ? Optional.of(() -> sslEngine(url.getHost(), port, request.isIgnoreSelfSignedCert()))
+                            : Optional.empty();
+                    final RequestWriter writer = encode(request, port);
+                    exchange.prepare(address, tls, writer);
+                    request.debug("Sending " + request.getVerb() + " " + url + " over nio");
+                    loop.execute(exchange::start);
+                    // Streamed bodies are written here while the loop sends them
+                    request.getBody().ifPresent(writer::writeBody);
+                } catch (final IOException | RuntimeException e) {
+                    exchange.abort(e);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            exchange.abort(e);
+        }
+        return done;
+    }
+
+    /**
+     * Stops the event loops, anything in flight fails. The transport starts new
+     * loops if it is used again.
+     */
+    @Override
+    public synchronized void close() {
+        if (null != this.loops) {
+            for (final NioEventLoop loop : this.loops) {
+                loop.shutdown();
+            }
+            this.loops = null;
+        }
+    }
+
+    private synchronized NioEventLoop nextLoop() throws IOException {
+        if (null == this.loops) {
+            final NioEventLoop[] started = new NioEventLoop[this.eventLoops];
+            try {
+                for (int i = 0; i < started.length; i++) {
+                    started[i] = new NioEventLoop("pavlov-http-nio-" + i, this.keepAliveMillis, this.maxIdlePerHost);
+                }
+            } catch (final IOException e) {
+                for (final NioEventLoop loop : started) {
+                    if (null != loop) {
+                        loop.shutdown();
+                    }
+                }
+                throw e;
+            }
+            this.loops = started;
+        }
+        return this.loops[Math.floorMod(this.nextLoop.getAndIncrement(), this.loops.length)];
+    }
+
+    private static SSLEngine sslEngine(final String host, final int port, final boolean ignoreSelfSigned) {
+        final SSLContext context;
+        try {
+            context = ignoreSelfSigned ? selfSignedContext() : SSLContext.getDefault();
+        } catch (final GeneralSecurityException e) {
+            // Fails the request with the reason TLS couldn't be set up
+            throw new IllegalStateException("TLS is not available", e);
+        }
+        final SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        if (!ignoreSelfSigned) {
+            final SSLParameters parameters = engine.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            engine.setSSLParameters(parameters);
+        }
+        return engine;
+    }
+
+    /**
+     * Makes the context that trusts any certificate the first time a request
+     * asks for it, trying again next time if that fails
+     */
+    private static synchronized SSLContext selfSignedContext() throws GeneralSecurityException {
+        if (null == selfSignedContext) {
+            final SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, new TrustManager[] { new SelfSignedTrustManager() }, new SecureRandom());
+            selfSignedContext = context;
+        }
+        return selfSignedContext;
+    }
+
+    /**
+     * Lays out the request line, headers and body. Files and bodies already in
+     * memory are sent as they are. Other bodies are streamed through a
+     * {@link RequestBodyPipe} by {@link RequestWriter#writeBody(RequestBody)}, with
+     * a Content-Length if they know theirs and chunked if they don't.
+     */
+    static RequestWriter encode(final HttpTransportRequest request, final int port) throws IOException {
+        final URL url = request.getUrl();
+        final Optional<RequestBody> requestBody = request.getBody();
+        final Optional<Path> file = requestBody.flatMap(RequestBody::getFile);
+        final ByteBuffer body;
+        final long length;
+        Optional<RequestBodyPipe> pipe = Optional.empty();
+        if (file.isPresent()) {
+            body = ByteBuffer.allocate(0);
+            length = requestBody.get().getContentLength() < 0
+                    ? Files.size(file.get()) : requestBody.get().getContentLength();
+        } else if (requestBody.flatMap(RequestBody::getBuffer).isPresent()) {
+            body = requestBody.get().getBuffer().get();
+            length = body.remaining();
+        } else if (requestBody.isPresent()) {
+            body = ByteBuffer.allocate(0);
+            length = requestBody.get().getContentLength();
+            pipe = Optional.of(new RequestBodyPipe(length));
+        } else {
+            body = ByteBuffer.allocate(0);
+            length = 0;
+        }
+
+        final String path = url.getFile();
+        final StringBuilder head = new StringBuilder(256)
+                .append(request.getVerb()).append(' ')
+                .append(path.isEmpty() ? "/" : path)
+                .append(" HTTP/1.1\r\n");
+        if (!request.getHeader("Host").isPresent()) {
+            head.append("Host: ").append(url.getHost());
+            if (port != url.getDefaultPort()) {
+                head.append(':').append(port);
+            }
+            head.append("\r\n");
+        }
+        request.getHeaders().forEach((name, values) -> {
+            if (!"Content-Length".equalsIgnoreCase(name) && !"Transfer-Encoding".equalsIgnoreCase(name)) {
+                values.forEach(value -> head.append(name).append(": ").append(value).append("\r\n"));
+            }
+        });
+        if (length < 0) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else if (requestBody.isPresent() || EnumSet.of(HttpVerbs.POST, HttpVerbs.PUT, HttpVerbs.PATCH)
+                .contains(request.getVerb())) {
+            head.append("Content-Length: ").append(length).append("\r\n");
+        }
+        head.append("\r\n");
+
+        final ByteBuffer headBytes = ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+        if (file.isPresent()) {
+            return new RequestWriter(headBytes, file.get(), length);
+        }
+        return pipe.isPresent()
+                ? new RequestWriter(headBytes, pipe.get())
+                : new RequestWriter(headBytes, body);
+    }
+
+    private static void completeOn(final Executor executor, final Runnable completion) {
+        try {
+            executor.execute(completion);
+        } catch (final RejectedExecutionException e) {
+            completion.run();
+        }
+    }
+
+    private static int intProperty(final Map<String, Object> properties, final String name, final int fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Integer.parseInt(value.toString());
+    }
+
+    private static long longProperty(final Map<String, Object> properties, final String name, final long fallback) {
+        final Object value = properties.get(name);
+        return null == value ? fallback : Long.parseLong(value.toString());
+    }
+}
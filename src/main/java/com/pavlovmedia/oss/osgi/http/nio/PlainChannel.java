@@ -0,0 +1,63 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A channel for plain http, this just hands through to the socket
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class PlainChannel implements NioChannel {
+    private final SocketChannel socket;
+
+    PlainChannel(final SocketChannel socket) {
+        this.socket = socket;
+    }
+
+    @Override
+    public SocketChannel socket() {
+        return this.socket;
+    }
+
+    @Override
+    public boolean handshake() {
+        return true;
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        return this.socket.read(dst);
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        return this.socket.write(src);
+    }
+
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    @Override
+    public boolean hasPendingOutput() {
+        return false;
+    }
+
+    @Override
+    public boolean hasBufferedInput() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.socket.close();
+        } catch (final IOException e) {
+            // Nothing more we can do with it
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Carries a request body written on another thread over to the event loop a
+ * block at a time. The writer blocks once {@link #MAX_BLOCKS} are waiting, so
+ * only that much of the body is ever in memory. A body of unknown length is
+ * framed with chunked transfer encoding.
+ * <p>
+ * The blocks sent are kept until they add up to more than {@link #REPLAY_BYTES},
+ * so a small body can still be sent again on a fresh connection.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class RequestBodyPipe extends OutputStream {
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final int MAX_BLOCKS = 4;
+    static final int REPLAY_BYTES = 64 * 1024;
+
+    /** Room in front of each block for its chunk size, 5 hex digits and a CRLF */
+    private static final int FRAME_HEAD = 7;
+    private static final byte[] CRLF = { '\r', '\n' };
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private final long length;
+    private final Deque<ByteBuffer> ready = new ArrayDeque<>();
+    private final List<ByteBuffer> sent = new ArrayList<>();
+    private long sentBytes;
+    private boolean replayable = true;
+    private byte[] block;
+    private int blockUsed;
+    private long written;
+    private boolean finished;
+    private boolean stopped;
+    private IOException failure;
+    private Runnable onReady;
+
+    /**
+     * @param length the exact length of the body, or -1 to send it chunked
+     */
+    RequestBodyPipe(final long length) {
+        this.length = length;
+    }
+
+    /**
+     * Checks if the body goes out with chunked transfer encoding
+     */
+    boolean isChunked() {
+        return this.length < 0;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(final byte[] bytes, final int offset, final int count) throws IOException {
+        checkWritable();
+        if (!isChunked() && this.written + count > this.length) {
+            throw new IOException("The body is longer than its length of " + this.length);
+        }
+        int done = 0;
+        while (done < count) {
+            if (null == this.block) {
+                this.block = new byte[FRAME_HEAD + BLOCK_SIZE + CRLF.length];
+                this.blockUsed = 0;
+            }
+            final int take = Math.min(count - done, BLOCK_SIZE - this.blockUsed);
+            System.arraycopy(bytes, offset + done, this.block, FRAME_HEAD + this.blockUsed, take);
+            this.blockUsed += take;
+            this.written += take;
+            done += take;
+            if (this.blockUsed == BLOCK_SIZE) {
+                seal();
+            }
+        }
+    }
+
+    /**
+     * Hands over what has been written so far, without waiting for a full block
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        checkWritable();
+        if (this.blockUsed > 0) {
+            seal();
+        }
+    }
+
+    /**
+     * Ends the body
+     *
+     * @throws IOException if it was shorter than its length
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.finished || this.stopped || null != this.failure) {
+            return;
+        }
+        if (this.blockUsed > 0) {
+            seal();
+        }
+        if (!isChunked() && this.written != this.length) {
+            final EOFException shortBody = new EOFException(String.format(
+                    "The body ended %d bytes short of its length", this.length - this.written));
+            fail(shortBody);
+            throw shortBody;
+        }
+        if (isChunked()) {
+            this.ready.add(ByteBuffer.wrap(LAST_CHUNK));
+        }
+        this.finished = true;
+        wake();
+    }
+
+    /**
+     * Ends the body with an error, which the loop sends on to the exchange
+     */
+    synchronized void fail(final IOException error) {
+        if (this.finished || this.stopped || null != this.failure) {
+            return;
+        }
+        this.failure = error;
+        this.replayable = false;
+        wake();
+    }
+
+    /**
+     * Takes the next block to send, called on the loop
+     *
+     * @return null if the writer hasn't caught up yet
+     * @throws IOException if the body failed
+     */
+    synchronized ByteBuffer poll() throws IOException {
+        if (null != this.failure) {
+            throw this.failure;
+        }
+        final ByteBuffer next = this.ready.poll();
+        if (null == next) {
+            return null;
+        }
+        if (this.replayable && this.sentBytes + next.remaining() <= REPLAY_BYTES) {
+            this.sent.add(next.duplicate());
+            this.sentBytes += next.remaining();
+        } else {
+            this.replayable = false;
+            this.sent.clear();
+        }
+        notifyAll();
+        return next;
+    }
+
+    /**
+     * Checks if every block has been taken
+     */
+    synchronized boolean isDone() {
+        return this.finished && this.ready.isEmpty();
+    }
+
+    /**
+     * Waits for the writer, called on the loop when there was nothing to take
+     *
+     * @param wake run once there is something to send
+     * @return false if there already is, so there is no need to wait
+     */
+    synchronized boolean awaitData(final Runnable wake) {
+        if (!this.ready.isEmpty() || this.finished || null != this.failure) {
+            return false;
+        }
+        this.onReady = wake;
+        return true;
+    }
+
+    /**
+     * Checks if {@link #rewind()} can start the body over
+     */
+    synchronized boolean canRewind() {
+        return this.replayable;
+    }
+
+    /**
+     * Puts the blocks already sent back in front, for sending the body again
+     */
+    synchronized void rewind() {
+        for (int i = this.sent.size() - 1; i >= 0; i--) {
+            this.ready.addFirst(this.sent.get(i));
+        }
+        this.sent.clear();
+        this.sentBytes = 0;
+    }
+
+    /**
+     * Stops the writer, the exchange is over
+     */
+    synchronized void stop() {
+        this.stopped = true;
+        this.ready.clear();
+        this.sent.clear();
+        notifyAll();
+    }
+
+    private void checkWritable() throws IOException {
+        if (this.stopped) {
+            throw new IOException("The request is over");
+        }
+        if (this.finished || null != this.failure) {
+            throw new IOException("The body was already ended");
+        }
+    }
+
+    /**
+     * Frames the current block and queues it, waiting for room first. Called
+     * holding the lock.
+     */
+    private void seal() throws IOException {
+        while (this.ready.size() >= MAX_BLOCKS && !this.stopped) {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted writing the request body");
+            }
+        }
+        checkWritable();
+        final ByteBuffer framed;
+        if (isChunked()) {
+            final byte[] size = (Integer.toHexString(this.blockUsed) + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            final int start = FRAME_HEAD - size.length;
+            System.arraycopy(size, 0, this.block, start, size.length);
+            System.arraycopy(CRLF, 0, this.block, FRAME_HEAD + this.blockUsed, CRLF.length);
+            framed = ByteBuffer.wrap(this.block, start, size.length + this.blockUsed + CRLF.length);
+        } else {
+            framed = ByteBuffer.wrap(this.block, FRAME_HEAD, this.blockUsed);
+        }
+        this.ready.add(framed.slice());
+        this.block = null;
+        this.blockUsed = 0;
+        wake();
+    }
+
+    /**
+     * Lets the loop know there is something to send if it is waiting. This only
+     * queues a task on the loop, so it is safe while holding the lock.
+     */
+    private void wake() {
+        final Runnable wake = this.onReady;
+        this.onReady = null;
+        if (null != wake) {
+            wake.run();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+import com.pavlovmedia.oss.osgi.http.RequestBody;
+
+/**
+ * The request line, headers and body of one request, handed to a channel as fast
+ * as it will take them. Files are sent from disk with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * on plain connections and through one small buffer when they have to be
+ * encrypted, so they are never read into memory. Any other body is written on
+ * the caller's thread by {@link #writeBody(RequestBody)} and taken from a
+ * {@link RequestBodyPipe} as it arrives.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class RequestWriter {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final ByteBuffer head;
+    private final ByteBuffer body;
+    private final Optional<Path> file;
+    private final long fileLength;
+    private final Optional<RequestBodyPipe> pipe;
+    private FileChannel fileChannel;
+    private ByteBuffer piped;
+    private long fileRead;
+    private ByteBuffer chunk;
+
+    /**
+     * @param head the request line and headers
+     * @param body the body from its position to its limit, this is not copied
+     */
+    RequestWriter(final ByteBuffer head, final ByteBuffer body) {
+        this.head = head.slice();
+        this.body = body.slice();
+        this.file = Optional.empty();
+        this.fileLength = 0;
+        this.pipe = Optional.empty();
+    }
+
+    /**
+     * @param head the request line and headers
+     * @param file where the body is read from
+     * @param fileLength how much of the file to send, which was sent as the Content-Length
+     */
+    RequestWriter(final ByteBuffer head, final Path file, final long fileLength) {
+        this.head = head.slice();
+        this.body = EMPTY;
+        this.file = Optional.of(file);
+        this.fileLength = fileLength;
+        this.pipe = Optional.empty();
+    }
+
+    /**
+     * @param head the request line and headers
+     * @param pipe where the body arrives from {@link #writeBody(RequestBody)}
+     */
+    RequestWriter(final ByteBuffer head, final RequestBodyPipe pipe) {
+        this.head = head.slice();
+        this.body = EMPTY;
+        this.file = Optional.empty();
+        this.fileLength = 0;
+        this.pipe = Optional.of(pipe);
+    }
+
+    /**
+     * Writes out a body that is streamed through the pipe, blocking while the
+     * loop catches up. Any failure is handed to the loop to fail the exchange
+     * with. Does nothing for the other kinds of body.
+     *
+     * @param requestBody the body to write
+     */
+    void writeBody(final RequestBody requestBody) {
+        if (!this.pipe.isPresent()) {
+            return;
+        }
+        final RequestBodyPipe out = this.pipe.get();
+        try {
+            requestBody.writeTo(out);
+            out.close();
+        } catch (final IOException e) {
+            out.fail(e);
+        } catch (final RuntimeException e) {
+            out.fail(new IOException("The request body could not be written", e));
+        }
+    }
+
+    /**
+     * Writes as much as the channel will take right now
+     *
+     * @return how many bytes were handed over, 0 if the channel is full
+     * @throws IOException
+     */
+    long write(final NioChannel channel) throws IOException {
+        if (this.head.hasRemaining()) {
+            return channel.write(this.head);
+        }
+        if (this.body.hasRemaining()) {
+            return channel.write(this.body);
+        }
+        if (this.file.isPresent()) {
+            return writeFile(channel);
+        }
+        if (this.pipe.isPresent()) {
+            return writePiped(channel);
+        }
+        return 0;
+    }
+
+    /**
+     * Checks if the body is waiting on its writer and, if so, has the pipe
+     * call back once it has more
+     *
+     * @param wake run when there is more of the body to send
+     * @return true if there is nothing to send until then
+     */
+    boolean awaitBody(final Runnable wake) {
+        return this.pipe.isPresent() && (null == this.piped || !this.piped.hasRemaining())
+                && this.pipe.get().awaitData(wake);
+    }
+
+    /**
+     * Checks if everything has been handed to the channel
+     */
+    boolean isDone() {
+        return !this.head.hasRemaining() && !this.body.hasRemaining()
+                && this.fileRead == this.fileLength && (null == this.chunk || !this.chunk.hasRemaining())
+                && (null == this.piped || !this.piped.hasRemaining())
+                && this.pipe.map(RequestBodyPipe::isDone).orElse(true);
+    }
+
+    /**
+     * Checks if {@link #rewind()} can start over, which a streamed body can't
+     * once more of it was sent than the pipe keeps
+     */
+    boolean canRewind() {
+        return this.pipe.map(RequestBodyPipe::canRewind).orElse(true);
+    }
+
+    /**
+     * Starts over, for sending the request again on a new connection
+     */
+    void rewind() {
+        this.head.rewind();
+        this.body.rewind();
+        this.fileRead = 0;
+        this.chunk = null;
+        this.piped = null;
+        this.pipe.ifPresent(RequestBodyPipe::rewind);
+    }
+
+    /**
+     * Lets go of the file, if there is one, and stops the body's writer
+     */
+    void close() {
+        this.pipe.ifPresent(RequestBodyPipe::stop);
+        if (null != this.fileChannel) {
+            try {
+                this.fileChannel.close();
+            } catch (final IOException e) {
+                // Only read from, nothing is lost
+            }
+            this.fileChannel = null;
+        }
+    }
+
+    private long writeFile(final NioChannel channel) throws IOException {
+        if (null == this.fileChannel) {
+            this.fileChannel = FileChannel.open(this.file.get(), StandardOpenOption.READ);
+        }
+        if (channel instanceof PlainChannel) {
+            if (this.fileRead == this.fileLength) {
+                return 0;
+            }
+            final long sent = this.fileChannel.transferTo(this.fileRead, this.fileLength - this.fileRead,
+                    channel.socket());
+            if (sent == 0 && this.fileRead >= this.fileChannel.size()) {
+                throw shortFile();
+            }
+            this.fileRead += sent;
+            return sent;
+        }
+
+        if (null == this.chunk) {
+            this.chunk = ByteBuffer.allocate((int) Math.min(CHUNK_SIZE, Math.max(1, this.fileLength)));
+            this.chunk.limit(0);
+        }
+        if (!this.chunk.hasRemaining() && this.fileRead < this.fileLength) {
+            this.chunk.clear();
+            this.chunk.limit((int) Math.min(this.chunk.capacity(), this.fileLength - this.fileRead));
+            final int read = this.fileChannel.read(this.chunk, this.fileRead);
+            if (read < 0) {
+                throw shortFile();
+            }
+            this.fileRead += read;
+            this.chunk.flip();
+        }
+        return this.chunk.hasRemaining() ? channel.write(this.chunk) : 0;
+    }
+
+    private long writePiped(final NioChannel channel) throws IOException {
+        if (null == this.piped || !this.piped.hasRemaining()) {
+            this.piped = this.pipe.get().poll();
+            if (null == this.piped) {
+                return 0;
+            }
+        }
+        return channel.write(this.piped);
+    }
+
+    private EOFException shortFile() {
+        return new EOFException(this.file.get() + " got shorter while it was being sent");
+    }
+}
@@ -0,0 +1,333 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import com.pavlovmedia.oss.osgi.http.HttpTransportRequest;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.SseMessageEvent;
+import com.pavlovmedia.oss.osgi.http.SseParser;
+
+/**
+ * One event stream kept open by {@link SseSubscriptions}. The stream is parsed
+ * on an event loop thread as it arrives and its events are handed to the
+ * consumer on the consumer executor, one at a time and in order. When the
+ * stream ends or breaks it is opened again after the server's retry time with
+ * the last event id, until it is cancelled or the server answers with a 204 or
+ * an error.
+ * <p>
+ * Once {@link #MAX_PENDING_EVENTS} events are waiting on a slow consumer the
+ * connection stops reading, which leaves the rest of the stream in the socket
+ * so TCP pushes back on the server. Reading starts again when the consumer has
+ * worked the backlog down by half. Events already in the buffer being parsed
+ * are still queued, so the backlog can run over by one read's worth.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class SseSubscription {
+    /** How many events can wait on the consumer before the stream stops reading */
+    public static final int MAX_PENDING_EVENTS = 1024;
+
+    private final SseSubscriptions owner;
+    private final PavlovHttpClientImpl template;
+    private final Consumer<SseMessageEvent> consumer;
+    private final Executor consumerExecutor;
+    private final SseParser parser;
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private final AtomicBoolean closing = new AtomicBoolean();
+
+    private final Queue<SseMessageEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    /** Set when the consumer executor turned a delivery away, the subscription is closed once no lock is held */
+    private final AtomicReference<RejectedExecutionException> rejected = new AtomicReference<>();
+    /** Guards pausing and resuming, so a pause and a resume from different threads can't cross */
+    private final Object flow = new Object();
+    private volatile boolean readPaused;
+    private NioReadControl reads;
+    private volatile HttpTransportRequest current;
+
+    private CompletableFuture<Void> exchange;
+    private ScheduledFuture<?> reconnect;
+
+    SseSubscription(final SseSubscriptions owner, final PavlovHttpClientImpl template,
+            final Consumer<SseMessageEvent> consumer, final Executor consumerExecutor) {
+        this.owner = owner;
+        this.template = template;
+        this.consumer = consumer;
+        this.consumerExecutor = consumerExecutor;
+        this.parser = new SseParser(this::enqueue);
+    }
+
+    /**
+     * Stops the stream and drops its connection. Events already read are still
+     * delivered. Cancelling more than once does nothing.
+     */
+    public void cancel() {
+        close(Optional.empty());
+    }
+
+    /**
+     * Checks if this subscription has stopped for good
+     */
+    public boolean isClosed() {
+        return this.closing.get();
+    }
+
+    /**
+     * Completes once this subscription stops for good, normally when it was
+     * cancelled or the server answered with a 204, or with the error when the
+     * server turned it away
+     */
+    public CompletableFuture<Void> whenClosed() {
+        return this.closed;
+    }
+
+    /**
+     * The id of the last event read, which is sent as Last-Event-ID on reconnect
+     */
+    public Optional<String> getLastEventId() {
+        synchronized (this.parser) {
+            return this.parser.getLastEventId();
+        }
+    }
+
+    /**
+     * How many events have been read but not handed to the consumer yet
+     */
+    public int getPendingCount() {
+        return this.pendingCount.get();
+    }
+
+    /**
+     * Opens the stream, picking up after the last event id if there is one
+     */
+    synchronized void connect() {
+        this.reconnect = null;
+        if (isClosed()) {
+            return;
+        }
+        final HttpTransportRequest request;
+        try {
+            final PavlovHttpClientImpl attempt = (PavlovHttpClientImpl) this.template.clone();
+            getLastEventId().ifPresent(id -> attempt.addHeader(PavlovHttpClientImpl.LAST_EVENT_ID_HEADER, id));
+            request = attempt.buildTransportRequest();
+        } catch (final RuntimeException e) {
+            close(Optional.of(e));
+            return;
+        }
+        synchronized (this.parser) {
+            this.parser.reset();
+        }
+        this.current = request;
+        this.exchange = this.owner.getTransport().stream(request, new Listener(request),
+                this.owner.getConnectExecutor(), this::started);
+    }
+
+    /**
+     * Takes the read handle of a new connection, which starts out paused if
+     * the consumer is still behind
+     */
+    private void started(final NioReadControl control) {
+        synchronized (this.flow) {
+            this.reads = control;
+            if (this.readPaused) {
+                control.pauseReading();
+            }
+        }
+    }
+
+    /**
+     * Pauses reading when the backlog is full and resumes it once it is down by half
+     */
+    private void flowControl() {
+        synchronized (this.flow) {
+            final int count = this.pendingCount.get();
+            if (!this.readPaused && count >= MAX_PENDING_EVENTS) {
+                this.readPaused = true;
+                if (null != this.reads) {
+                    this.reads.pauseReading();
+                }
+            } else if (this.readPaused && count <= MAX_PENDING_EVENTS / 2) {
+                this.readPaused = false;
+                if (null != this.reads) {
+                    this.reads.resumeReading();
+                }
+            }
+        }
+    }
+
+    private synchronized void scheduleReconnect(final HttpTransportRequest request, final String why) {
+        if (isClosed()) {
+            return;
+        }
+        final long wait;
+        synchronized (this.parser) {
+            wait = this.parser.getRetryMillis();
+        }
+        request.debug(String.format("SSE stream %s, reconnecting in %dms", why, wait));
+        try {
+            this.reconnect = this.owner.schedule(this::connect, wait, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            close(Optional.of(e));
+        }
+    }
+
+    private void close(final Optional<Throwable> error) {
+        if (!this.closing.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (this) {
+            if (null != this.reconnect) {
+                this.reconnect.cancel(false);
+            }
+            if (null != this.exchange) {
+                this.exchange.cancel(true);
+            }
+        }
+        this.owner.remove(this);
+        if (error.isPresent()) {
+            this.closed.completeExceptionally(error.get());
+        } else {
+            this.closed.complete(null);
+        }
+    }
+
+    /**
+     * Queues an event and makes sure something is delivering the queue. Only
+     * one delivery runs at a time, so the consumer sees events in order. This
+     * is called holding the parser lock, so it never closes the subscription
+     * itself, see {@link #closeIfRejected()}.
+     */
+    private void enqueue(final SseMessageEvent event) {
+        this.pending.add(event);
+        if (this.pendingCount.incrementAndGet() >= MAX_PENDING_EVENTS) {
+            flowControl();
+        }
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        if (this.pending.isEmpty() || !this.draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.consumerExecutor.execute(this::drain);
+        } catch (final RejectedExecutionException e) {
+            // Nowhere to deliver, better to fall behind here than to drop events
+            this.draining.set(false);
+            this.rejected.compareAndSet(null, e);
+        }
+    }
+
+    /**
+     * Closes the subscription if a delivery was turned away. Called without the
+     * parser lock, since closing takes the subscription lock and
+     * {@link #connect()} takes them the other way around.
+     */
+    private void closeIfRejected() {
+        final RejectedExecutionException e = this.rejected.get();
+        if (null != e) {
+            close(Optional.of(e));
+        }
+    }
+
+    private void drain() {
+        try {
+            SseMessageEvent event;
+            while (null != (event = this.pending.poll())) {
+                if (this.pendingCount.decrementAndGet() <= MAX_PENDING_EVENTS / 2 && this.readPaused) {
+                    flowControl();
+                }
+                try {
+                    this.consumer.accept(event);
+                } catch (final RuntimeException e) {
+                    // One bad event shouldn't stop the ones behind it
+                    final HttpTransportRequest request = this.current;
+                    if (null != request) {
+                        request.debug("SSE consumer failed on an event: " + e);
+                    }
+                }
+            }
+        } finally {
+            this.draining.set(false);
+        }
+        // An event may have come in after the last poll but before the flag was cleared
+        scheduleDrain();
+        closeIfRejected();
+    }
+
+    /**
+     * Feeds one connection's body to the parser, called on an event loop thread
+     */
+    private final class Listener implements NioResponseListener {
+        private final HttpTransportRequest request;
+        private boolean accepted;
+
+        Listener(final HttpTransportRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void onHeaders(final int responseCode, final Map<String, List<String>> headers) {
+            if (responseCode == 204) {
+                // The server has no more events for us
+                close(Optional.empty());
+                return;
+            }
+            if (responseCode < 200 || responseCode >= 300) {
+                close(Optional.of(new IOException("SSE server answered " + responseCode)));
+                return;
+            }
+            final boolean encoded = headers.entrySet().stream()
+                    .filter(e -> "Content-Encoding".equalsIgnoreCase(e.getKey()) && null != e.getValue())
+                    .flatMap(e -> e.getValue().stream())
+                    .anyMatch(value -> !"identity".equalsIgnoreCase(value.trim()));
+            if (encoded) {
+                close(Optional.of(new IOException("Encoded event streams aren't supported here")));
+                return;
+            }
+            this.accepted = true;
+        }
+
+        @Override
+        public void onData(final ByteBuffer data) {
+            if (this.accepted && !isClosed()) {
+                synchronized (SseSubscription.this.parser) {
+                    SseSubscription.this.parser.feed(data);
+                }
+                closeIfRejected();
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (this.accepted) {
+                scheduleReconnect(this.request, "ended");
+            }
+        }
+
+        @Override
+        public void onError(final Throwable error) {
+            if (!(error instanceof CancellationException)) {
+                scheduleReconnect(this.request, "broke with " + error);
+            }
+        }
+    }
+}
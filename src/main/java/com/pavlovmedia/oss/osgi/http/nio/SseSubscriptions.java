@@ -0,0 +1,128 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.pavlovmedia.oss.osgi.http.HttpIoExecutor;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClient;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.SseMessageEvent;
+
+/**
+ * Keeps many server-sent event streams open without a thread each. Every
+ * stream is carried by the event loops of a {@link NioTransport} and parsed
+ * there as it arrives, events are delivered on a consumer executor, and
+ * reconnects wait on a single timer thread. Thousands of mostly idle
+ * subscriptions cost a socket and a few small buffers apiece.
+ * <p>
+ * Subscriptions are sent straight to the transport, so the connection limits,
+ * circuit breakers, cache and retry policy of the request are not used. The
+ * read timeout is, so it should be longer than the server's keep alive comments
+ * or 0 to wait forever.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+public final class SseSubscriptions implements AutoCloseable {
+    private final NioTransport transport;
+    private final Executor consumerExecutor;
+    private final Executor connectExecutor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final Set<SseSubscription> active = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * Creates a manager that delivers events on the {@link HttpIoExecutor#shared()} pool
+     *
+     * @param transport carries every stream, it isn't closed with this manager
+     */
+    public SseSubscriptions(final NioTransport transport) {
+        this(transport, HttpIoExecutor.shared().getExecutorService());
+    }
+
+    /**
+     * Creates a manager
+     *
+     * @param transport carries every stream, it isn't closed with this manager
+     * @param consumerExecutor where consumers are called, each subscription
+     *     only uses one of its threads at a time
+     */
+    public SseSubscriptions(final NioTransport transport, final Executor consumerExecutor) {
+        this.transport = Objects.requireNonNull(transport);
+        this.consumerExecutor = Objects.requireNonNull(consumerExecutor);
+        this.connectExecutor = HttpIoExecutor.shared().getExecutorService();
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            final Thread thread = new Thread(r, "pavlov-http-sse-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Opens an event stream and keeps it open until it is cancelled
+     *
+     * @param request a GET built with {@link PavlovHttpClientImpl}, any
+     *     {@link PavlovHttpClient#asSse(Consumer)} consumer on it is ignored
+     * @param consumer gets each event on the consumer executor, in order
+     * @return the subscription, which can be cancelled on its own
+     * @throws IllegalArgumentException if the request wasn't built with {@link PavlovHttpClientImpl}
+     * @throws IllegalStateException if this manager is closed or the request isn't valid
+     */
+    public SseSubscription subscribe(final PavlovHttpClient request, final Consumer<SseMessageEvent> consumer) {
+        Objects.requireNonNull(consumer);
+        if (!(request instanceof PavlovHttpClientImpl)) {
+            throw new IllegalArgumentException("Subscriptions need a request built with PavlovHttpClientImpl");
+        }
+        if (this.timer.isShutdown()) {
+            throw new IllegalStateException("This subscription manager is closed");
+        }
+        final PavlovHttpClientImpl template = (PavlovHttpClientImpl) request.clone();
+        // Fail bad requests here rather than on the first connect
+        template.buildTransportRequest();
+
+        final SseSubscription subscription = new SseSubscription(this, template, consumer, this.consumerExecutor);
+        this.active.add(subscription);
+        subscription.connect();
+        return subscription;
+    }
+
+    /**
+     * How many subscriptions are open or waiting to reconnect
+     */
+    public int getActiveCount() {
+        return this.active.size();
+    }
+
+    /**
+     * Cancels every subscription and stops the reconnect timer
+     */
+    @Override
+    public void close() {
+        this.timer.shutdownNow();
+        new ArrayList<>(this.active).forEach(SseSubscription::cancel);
+    }
+
+    NioTransport getTransport() {
+        return this.transport;
+    }
+
+    Executor getConnectExecutor() {
+        return this.connectExecutor;
+    }
+
+    ScheduledFuture<?> schedule(final Runnable task, final long delay, final TimeUnit unit) {
+        return this.timer.schedule(task, delay, unit);
+    }
+
+    void remove(final SseSubscription subscription) {
+        this.active.remove(subscription);
+    }
+}
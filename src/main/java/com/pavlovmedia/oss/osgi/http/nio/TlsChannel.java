@@ -0,0 +1,249 @@
+package com.pavlovmedia.oss.osgi.http.nio;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import javax.net.ssl.SSLException;
+
+/**
+ * A channel for https that runs an {@link SSLEngine} over a non-blocking socket.
+ * <p>
+ * Buffer modes are fixed so the bookkeeping stays simple: {@code netIn} and
+ * {@code appIn} are always left ready to be written to, {@code netOut} is
+ * always left ready to be read from.
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * @since 1.1.0
+ */
+final class TlsChannel implements NioChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel socket;
+    private final SSLEngine engine;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private boolean handshakeDone;
+    private boolean inboundDone;
+
+    TlsChannel(final SocketChannel socket, final SSLEngine engine) {
+        this.socket = socket;
+        this.engine = engine;
+        this.netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        this.netOut.flip();
+        this.appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    @Override
+    public SocketChannel socket() {
+        return this.socket;
+    }
+
+    @Override
+    public boolean handshake() throws IOException {
+        if (this.handshakeDone) {
+            return true;
+        }
+        if (this.engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) {
+            this.engine.beginHandshake();
+        }
+        while (true) {
+            if (!flush()) {
+                return false;
+            }
+            switch (this.engine.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runTasks();
+                    break;
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                case FINISHED:
+                case NOT_HANDSHAKING:
+                    this.handshakeDone = true;
+                    return true;
+                default:
+                    // NEED_UNWRAP, and NEED_UNWRAP_AGAIN on newer JDKs
+                    if (!unwrap()) {
+                        final int read = this.socket.read(this.netIn);
+                        if (read < 0) {
+                            throw new EOFException("Connection closed during the TLS handshake");
+                        }
+                        if (read == 0) {
+                            return false;
+                        }
+                    }
+            }
+        }
+    }
+
+    @Override
+    public int read(final ByteBuffer dst) throws IOException {
+        while (this.appIn.position() == 0) {
+            if (this.inboundDone) {
+                return -1;
+            }
+            if (!unwrap()) {
+                final int read = this.socket.read(this.netIn);
+                if (read < 0) {
+                    // Lots of servers skip close_notify, treat it like a plain close
+                    this.inboundDone = true;
+                    return -1;
+                }
+                if (read == 0) {
+                    return 0;
+                }
+            }
+            serviceHandshake();
+        }
+
+        this.appIn.flip();
+        final int count = Math.min(this.appIn.remaining(), dst.remaining());
+        final ByteBuffer slice = this.appIn.duplicate();
+        slice.limit(slice.position() + count);
+        dst.put(slice);
+        this.appIn.position(this.appIn.position() + count);
+        this.appIn.compact();
+        return count;
+    }
+
+    @Override
+    public int write(final ByteBuffer src) throws IOException {
+        if (!flush()) {
+            return 0;
+        }
+        final int consumed = wrap(src);
+        flush();
+        return consumed;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        while (this.netOut.hasRemaining()) {
+            if (this.socket.write(this.netOut) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasPendingOutput() {
+        return this.netOut.hasRemaining();
+    }
+
+    @Override
+    public boolean hasBufferedInput() {
+        return this.appIn.position() > 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.engine.closeOutbound();
+            if (flush()) {
+                wrap(EMPTY);
+                flush();
+            }
+        } catch (final IOException e) {
+            // We are going away anyway
+        }
+        try {
+            this.socket.close();
+        } catch (final IOException e) {
+            // Nothing more we can do with it
+        }
+    }
+
+    /**
+     * Handles handshake work that shows up after the initial handshake, like
+     * session tickets and key updates
+     */
+    private void serviceHandshake() throws IOException {
+        HandshakeStatus status = this.engine.getHandshakeStatus();
+        while (status == HandshakeStatus.NEED_TASK || status == HandshakeStatus.NEED_WRAP) {
+            if (status == HandshakeStatus.NEED_TASK) {
+                runTasks();
+            } else {
+                if (!flush()) {
+                    return;
+                }
+                wrap(EMPTY);
+            }
+            status = this.engine.getHandshakeStatus();
+        }
+        flush();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while (null != (task = this.engine.getDelegatedTask())) {
+            task.run();
+        }
+    }
+
+    /**
+     * Wraps application data into {@code netOut}, which must be empty
+     *
+     * @return how many bytes of src were consumed
+     */
+    private int wrap(final ByteBuffer src) throws SSLException {
+        this.netOut.clear();
+        while (true) {
+            final SSLEngineResult result = this.engine.wrap(src, this.netOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    this.netOut = ByteBuffer.allocate(this.netOut.capacity() * 2);
+                    break;
+                default:
+                    this.netOut.flip();
+                    return result.bytesConsumed();
+            }
+        }
+    }
+
+    /**
+     * Unwraps whatever is in {@code netIn} into {@code appIn}
+     *
+     * @return false if more data is needed from the network
+     */
+    private boolean unwrap() throws IOException {
+        this.netIn.flip();
+        try {
+            while (true) {
+                final SSLEngineResult result = this.engine.unwrap(this.netIn, this.appIn);
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        if (this.netIn.limit() == this.netIn.capacity()) {
+                            final ByteBuffer bigger = ByteBuffer.allocate(
+                                    Math.max(this.netIn.capacity() * 2, this.engine.getSession().getPacketBufferSize()));
+                            bigger.put(this.netIn);
+                            bigger.flip();
+                            this.netIn = bigger;
+                        }
+                        return false;
+                    case BUFFER_OVERFLOW:
+                        final ByteBuffer bigger = ByteBuffer.allocate(
+                                Math.max(this.appIn.capacity() * 2, this.engine.getSession().getApplicationBufferSize()));
+                        this.appIn.flip();
+                        bigger.put(this.appIn);
+                        this.appIn = bigger;
+                        break;
+                    case CLOSED:
+                        this.inboundDone = true;
+                        return true;
+                    default:
+                        return result.bytesProduced() > 0 || result.bytesConsumed() > 0;
+                }
+            }
+        } finally {
+            this.netIn.compact();
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ * A non-blocking transport where a few selector threads carry every request
+ */
+package com.pavlovmedia.oss.osgi.http.nio;
@@ -0,0 +1,75 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A throwaway HTTP server on the loopback interface for tests that need to
+ * talk to something real
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class LocalHttpServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService pool = Executors.newCachedThreadPool();
+
+    public LocalHttpServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(this.pool);
+        this.server.start();
+    }
+
+    /**
+     * Adds a handler for a path
+     */
+    public LocalHttpServer handle(final String path, final HttpHandler handler) {
+        this.server.createContext(path, handler);
+        return this;
+    }
+
+    /**
+     * Gets a url on this server
+     */
+    public URL url(final String path) throws MalformedURLException {
+        return new URL(String.format("http://127.0.0.1:%d%s", this.server.getAddress().getPort(), path));
+    }
+
+    /**
+     * Sends a complete fixed length response
+     */
+    public static void respond(final HttpExchange exchange, final int code, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            // An empty body has no stream to write to, writing to it fails the exchange and drops the connection
+            if (body.length > 0) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Stops the server and waits a moment for its handlers to finish
+     */
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.pool.shutdownNow();
+        try {
+            this.pool.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.CircuitBreaker;
+import com.pavlovmedia.oss.osgi.http.CircuitBreakers;
+import com.pavlovmedia.oss.osgi.http.CircuitOpenException;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.UrlHelpers;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestCircuitBreaker {
+    @Test
+    public void testOpensOnFailures() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/fail", e -> {
+                hits.incrementAndGet();
+                LocalHttpServer.respond(e, 500, new byte[0]);
+            });
+            final URL url = server.url("/fail");
+            final CircuitBreakers breakers = new CircuitBreakers(10, 4, 50, 0, 100, 60000, 1);
+
+            for (int i = 0; i < 4; i++) {
+                assertEquals(500, client(url, breakers).execute(e -> { }).get().responseCode);
+            }
+            final String origin = UrlHelpers.originOf(url);
+            assertEquals(CircuitBreaker.State.OPEN, breakers.getStates().get(origin));
+            assertEquals(100, breakers.getBreaker(origin).get().getFailureRate());
+
+            final List<Exception> errors = new ArrayList<>();
+            assertFalse(client(url, breakers).execute(errors::add).isPresent());
+            assertTrue(errors.get(0) instanceof CircuitOpenException);
+            assertEquals(4, hits.get());
+
+            try {
+                client(url, breakers).executeAsync().get(5, TimeUnit.SECONDS);
+                fail("The breaker should have been open");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof CircuitOpenException);
+            }
+            assertEquals(4, hits.get());
+            assertEquals(2, breakers.getBreaker(origin).get().getRejectedCount());
+        }
+    }
+
+    @Test
+    public void testHalfOpenProbeCloses() throws Exception {
+        final AtomicInteger status = new AtomicInteger(503);
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/flaky", e -> LocalHttpServer.respond(e, status.get(), new byte[0]));
+            final URL url = server.url("/flaky");
+            final CircuitBreakers breakers = new CircuitBreakers(10, 2, 50, 0, 100, 50, 1);
+
+            client(url, breakers).execute(e -> { });
+            client(url, breakers).execute(e -> { });
+            final CircuitBreaker breaker = breakers.getBreaker(UrlHelpers.originOf(url)).get();
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            // A failed probe opens it again
+            Thread.sleep(100);
+            client(url, breakers).execute(e -> { });
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            status.set(200);
+            Thread.sleep(100);
+            assertEquals(200, client(url, breakers).execute(e -> { }).get().responseCode);
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+            assertEquals(0, breaker.getCallCount());
+        }
+    }
+
+    @Test
+    public void testOpensOnSlowCalls() throws Exception {
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/slow", e -> {
+                try {
+                    Thread.sleep(60);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                LocalHttpServer.respond(e, 200, new byte[0]);
+            });
+            final URL url = server.url("/slow");
+            final CircuitBreakers breakers = new CircuitBreakers(10, 2, 50, 20, 100, 60000, 1);
+
+            client(url, breakers).execute(e -> { });
+            client(url, breakers).execute(e -> { });
+            final CircuitBreaker breaker = breakers.getBreaker(UrlHelpers.originOf(url)).get();
+            assertEquals(100, breaker.getSlowCallRate());
+            assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+            breakers.resetAll();
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        }
+    }
+
+    private static PavlovHttpClientImpl client(final URL url, final CircuitBreakers breakers) {
+        return new PavlovHttpClientImpl()
+                .againstUrl(url)
+                .withVerb(HttpVerbs.GET)
+                .withCircuitBreakers(breakers);
+    }
+}
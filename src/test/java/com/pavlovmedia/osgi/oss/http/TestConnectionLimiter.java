@@ -0,0 +1,141 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.ConnectionLimitException;
+import com.pavlovmedia.oss.osgi.http.ConnectionLimiter;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientFactory;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientFactoryImpl;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestConnectionLimiter {
+    private static final String HOST_A = "http://a:80";
+    private static final String HOST_B = "http://b:80";
+
+    @Test
+    public void testPerHostLimit() throws Exception {
+        final ConnectionLimiter limiter = new ConnectionLimiter(10, 2, 10, 0);
+        final ConnectionLimiter.Permit first = limiter.acquire(HOST_A).get();
+        limiter.acquire(HOST_A).get();
+        final CompletableFuture<ConnectionLimiter.Permit> third = limiter.acquire(HOST_A);
+
+        assertFalse(third.isDone());
+        assertEquals(1, limiter.getWaiting(HOST_A));
+        assertTrue(limiter.acquire(HOST_B).isDone());
+
+        first.close();
+        first.close();
+        assertTrue(third.isDone());
+        assertEquals(2, limiter.getActive(HOST_A));
+        assertEquals(3, limiter.getActive());
+    }
+
+    @Test
+    public void testGlobalLimit() throws Exception {
+        final ConnectionLimiter limiter = new ConnectionLimiter(2, 2, 10, 0);
+        final ConnectionLimiter.Permit a = limiter.acquire(HOST_A).get();
+        limiter.acquire(HOST_B).get();
+        final CompletableFuture<ConnectionLimiter.Permit> waiting = limiter.acquire(HOST_B);
+        assertFalse(waiting.isDone());
+
+        a.close();
+        assertEquals(HOST_B, waiting.get().getOrigin());
+        assertEquals(0, limiter.getActive(HOST_A));
+        assertEquals(2, limiter.getActive(HOST_B));
+    }
+
+    @Test
+    public void testFullLineIsRejected() throws Exception {
+        final ConnectionLimiter limiter = new ConnectionLimiter(1, 1, 1, 0);
+        limiter.acquire(HOST_A).get();
+        limiter.acquire(HOST_A);
+        try {
+            limiter.acquire(HOST_A).get();
+            fail("The line should have been full");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof ConnectionLimitException);
+        }
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void testWaitTimesOut() throws Exception {
+        final ConnectionLimiter limiter = new ConnectionLimiter(1, 1, 10, 50);
+        limiter.acquire(HOST_A).get();
+        try {
+            limiter.acquireAndWait(HOST_A);
+            fail("The wait should have timed out");
+        } catch (final ConnectionLimitException e) {
+            assertEquals(HOST_A, e.getOrigin());
+        }
+        assertEquals(1, limiter.getTimedOutCount());
+        assertEquals(0, limiter.getWaiting());
+    }
+
+    @Test
+    public void testCancelGivesUpPlace() throws Exception {
+        final ConnectionLimiter limiter = new ConnectionLimiter(1, 1, 10, 0);
+        final ConnectionLimiter.Permit held = limiter.acquire(HOST_A).get();
+        limiter.acquire(HOST_A).cancel(false);
+        assertEquals(0, limiter.getWaiting());
+        held.close();
+        assertEquals(0, limiter.getActive());
+    }
+
+    @Test
+    public void testFactoryClientsShareLimits() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger mostInFlight = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/slow", e -> {
+                mostInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                LocalHttpServer.respond(e, 200, "done".getBytes(StandardCharsets.UTF_8));
+            });
+
+            final PavlovHttpClientFactory factory =
+                    new PavlovHttpClientFactoryImpl(new ConnectionLimiter(10, 2, 100, 10000));
+            final List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(factory.create()
+                        .againstUrl(server.url("/slow"))
+                        .withVerb(HttpVerbs.GET)
+                        .executeAsync()
+                        .thenApply(r -> {
+                            // Reading to the end gives the connection back without a close
+                            r.getResponseText();
+                            return r;
+                        }));
+            }
+            for (final CompletableFuture<HttpResponse> future : futures) {
+                assertEquals("done", future.get(10, TimeUnit.SECONDS).getResponseText());
+            }
+            assertTrue(mostInFlight.get() <= 2);
+            assertEquals(0, factory.getConnectionLimiter().getActive());
+        }
+    }
+}
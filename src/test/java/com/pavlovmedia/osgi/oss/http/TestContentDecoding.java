@@ -0,0 +1,134 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.ContentDecoding;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.ResponseBodyReader;
+import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestContentDecoding {
+
+    @Test
+    public void testGzipBinary() throws Exception {
+        final byte[] body = randomBytes(100_000);
+        final InputStream decoded = ContentDecoding.decode(new ByteArrayInputStream(gzip(body)),
+                headers("Content-Encoding", "gzip"));
+        assertArrayEquals(body, ResponseBodyReader.readBytes(decoded, -1));
+    }
+
+    @Test
+    public void testDeflateZlibAndRaw() throws Exception {
+        final byte[] body = randomBytes(10_000);
+        assertArrayEquals(body, ResponseBodyReader.readBytes(
+                ContentDecoding.inflate(new ByteArrayInputStream(deflate(body, false))), -1));
+        assertArrayEquals(body, ResponseBodyReader.readBytes(
+                ContentDecoding.inflate(new ByteArrayInputStream(deflate(body, true))), -1));
+    }
+
+    @Test
+    public void testStackedEncodings() throws Exception {
+        final byte[] body = "stacked".getBytes(StandardCharsets.UTF_8);
+        final InputStream decoded = ContentDecoding.decode(new ByteArrayInputStream(gzip(deflate(body, false))),
+                headers("content-encoding", "deflate, gzip"));
+        assertArrayEquals(body, ResponseBodyReader.readBytes(decoded, -1));
+    }
+
+    @Test
+    public void testUnknownEncodingIsLeftAlone() throws Exception {
+        final byte[] body = "br encoded".getBytes(StandardCharsets.UTF_8);
+        final InputStream decoded = ContentDecoding.decode(new ByteArrayInputStream(body),
+                headers("Content-Encoding", "br"));
+        assertArrayEquals(body, ResponseBodyReader.readBytes(decoded, -1));
+    }
+
+    @Test
+    public void testEmptyEncodedBody() throws Exception {
+        final InputStream decoded = ContentDecoding.decode(new ByteArrayInputStream(new byte[0]),
+                headers("Content-Encoding", "gzip"));
+        assertEquals(-1, decoded.read());
+    }
+
+    @Test
+    public void testWrappingDoesNotRead() throws Exception {
+        final InputStream untouchable = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Should not have been read");
+            }
+        };
+        // Would throw if the gzip header was read eagerly
+        ContentDecoding.decode(untouchable, headers("Content-Encoding", "gzip"));
+        assertTrue(ContentDecoding.isEncoded(headers("Content-Encoding", "gzip")));
+    }
+
+    @Test
+    public void testResponseTextIsDecoded() throws Exception {
+        final String text = "Some text that came back gzipped";
+        final byte[] encoded = gzip(text.getBytes(StandardCharsets.UTF_8));
+        final Map<String, List<String>> headers = headers("Content-Encoding", "gzip");
+        headers.put("Content-Length", Collections.singletonList(Integer.toString(encoded.length)));
+
+        final HttpResponse response = new HttpResponse(new URL("http://localhost/"), 200, Optional.empty(),
+                Optional.of(new ConvertibleAsset<>(new ByteArrayInputStream(encoded))), headers) { };
+        assertTrue(response.isGziped());
+        assertEquals(text, response.getResponseText());
+    }
+
+    private static Map<String, List<String>> headers(final String name, final String value) {
+        final HashMap<String, List<String>> headers = new HashMap<>();
+        headers.put(name, Arrays.asList(value));
+        return headers;
+    }
+
+    private static byte[] randomBytes(final int size) {
+        final byte[] bytes = new byte[size];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] gzip(final byte[] body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] deflate(final byte[] body, final boolean raw) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, raw);
+        try (DeflaterOutputStream deflate = new DeflaterOutputStream(out, deflater)) {
+            deflate.write(body);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+}
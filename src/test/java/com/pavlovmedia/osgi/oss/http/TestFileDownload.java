@@ -0,0 +1,164 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.RetryPolicy;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestFileDownload {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicInteger drops = new AtomicInteger();
+    private final AtomicBoolean rangesSupported = new AtomicBoolean(true);
+    private final AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+    private LocalHttpServer server;
+    private byte[] payload;
+
+    @Before
+    public void start() throws Exception {
+        this.payload = new byte[1024 * 1024 + 123];
+        new Random(11).nextBytes(this.payload);
+        this.server = new LocalHttpServer()
+                .handle("/file", this::serve)
+                .handle("/missing", e -> LocalHttpServer.respond(e, 404, "nope".getBytes("UTF-8")));
+    }
+
+    @After
+    public void stop() throws Exception {
+        this.server.close();
+    }
+
+    @Test
+    public void testResumesWithRange() throws Exception {
+        this.drops.set(2);
+        final Path file = this.folder.getRoot().toPath().resolve("download.bin");
+        final AtomicLong lastWritten = new AtomicLong();
+        final AtomicLong lastTotal = new AtomicLong();
+
+        final Optional<Long> length = client("/file").downloadTo(file, (written, total) -> {
+            lastWritten.set(written);
+            lastTotal.set(total);
+        }, e -> { throw new AssertionError(e); });
+
+        assertEquals(Long.valueOf(this.payload.length), length.get());
+        assertArrayEquals(this.payload, Files.readAllBytes(file));
+        assertEquals(this.payload.length, lastWritten.get());
+        assertEquals(this.payload.length, lastTotal.get());
+
+        assertEquals(3, this.ranges.size());
+        assertNull(this.ranges.get(0));
+        assertTrue(this.ranges.get(1).startsWith("bytes="));
+        assertFalse("bytes=0-".equals(this.ranges.get(1)));
+    }
+
+    @Test
+    public void testStartsOverWithoutRanges() throws Exception {
+        this.drops.set(1);
+        this.rangesSupported.set(false);
+        final Path file = this.folder.newFile("download.bin").toPath();
+        Files.write(file, new byte[5 * 1024 * 1024]);
+
+        final long length = client("/file").downloadToAsync(file, (written, total) -> { })
+                .get(30, TimeUnit.SECONDS);
+        assertEquals(this.payload.length, length);
+        assertArrayEquals(this.payload, Files.readAllBytes(file));
+        assertEquals(2, this.ranges.size());
+    }
+
+    @Test
+    public void testChangedFileStartsOver() throws Exception {
+        this.drops.set(1);
+        final Path file = this.folder.getRoot().toPath().resolve("download.bin");
+
+        // The file changes on the server after the first attempt, so If-Range no longer matches
+        final Optional<Long> length = client("/file").downloadTo(file, (written, total) -> {
+            this.etag.set("\"v2\"");
+        }, e -> { throw new AssertionError(e); });
+
+        assertEquals(Long.valueOf(this.payload.length), length.get());
+        assertArrayEquals(this.payload, Files.readAllBytes(file));
+        assertEquals(2, this.ranges.size());
+        assertTrue(this.ranges.get(1).startsWith("bytes="));
+    }
+
+    @Test
+    public void testErrorStatusFails() throws Exception {
+        final Path file = this.folder.getRoot().toPath().resolve("missing.bin");
+        final AtomicReference<Exception> error = new AtomicReference<>();
+
+        assertFalse(client("/missing").downloadTo(file, (written, total) -> { }, error::set).isPresent());
+        assertTrue(error.get().getMessage().contains("404"));
+    }
+
+    private PavlovHttpClientImpl client(final String path) throws Exception {
+        return new PavlovHttpClientImpl()
+                .againstUrl(this.server.url(path))
+                .withVerb(HttpVerbs.GET)
+                .withRetryPolicy(RetryPolicy.defaults().withMaxAttempts(4).withBackoff(1, 10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Serves the payload, honoring Range and If-Range, and breaks off the first few
+     * responses part way through
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        this.ranges.add(range);
+
+        int start = 0;
+        int code = 200;
+        if (this.rangesSupported.get() && null != range && this.etag.get().equals(ifRange)) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            code = 206;
+            exchange.getResponseHeaders().add("Content-Range",
+                    String.format("bytes %d-%d/%d", start, this.payload.length - 1, this.payload.length));
+        }
+        exchange.getResponseHeaders().add("ETag", this.etag.get());
+        final int length = this.payload.length - start;
+        exchange.sendResponseHeaders(code, length);
+
+        final OutputStream out = exchange.getResponseBody();
+        if (this.drops.getAndDecrement() > 0) {
+            out.write(this.payload, start, length / 3);
+            out.flush();
+            // Failing the exchange makes the server drop the connection part way through the body
+            throw new IOException("Dropping the connection");
+        }
+        out.write(this.payload, start, length);
+        out.close();
+    }
+}
@@ -0,0 +1,144 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HtmlLinkExtractor;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.InMemoryTransport;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.Spider;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestHtmlLinkExtractor {
+    private static final String PAGE = "http://example.com/dir/page.html";
+
+    @Test
+    public void testQuotingVariants() throws Exception {
+        assertEquals(Arrays.asList(
+                "http://example.com/dir/double",
+                "http://example.com/single",
+                "http://example.com/dir/sub/unquoted",
+                "https://other.example.com/x?a=1&b=2",
+                "http://example.com/dir/spaced"),
+            links("<A HREF=\"double\">d</A><a class='x' href='/single'>s</a><a href=sub/unquoted>u</a>"
+                + "<a id=1 href = \"https://other.example.com/x?a=1&amp;b=2\" href=\"ignored\">o</a>"
+                + "<a\nhref=\"\n  spaced \">s</a>"));
+    }
+
+    @Test
+    public void testEntities() throws Exception {
+        assertEquals(Arrays.asList(
+                "http://example.com/dir/a&b",
+                "http://example.com/dir/%7Ehome",
+                "http://example.com/dir/~home",
+                "http://example.com/dir/?q=1&copy=2",
+                "http://example.com/dir/a\u00a0b"),
+            links("<a href=\"a&amp;b\"></a><a href='&#x25;7Ehome'></a><a href='&#126;home'></a>"
+                + "<a href='?q=1&copy=2'></a><a href='a&nbsp;b'></a>"));
+    }
+
+    @Test
+    public void testBaseLinkAndArea() throws Exception {
+        assertEquals(Arrays.asList(
+                "http://cdn.example.com/assets/style.css",
+                "http://cdn.example.com/assets/map",
+                "http://cdn.example.com/top"),
+            links("<head><base href=\"http://cdn.example.com/assets/\"><base href=\"/ignored/\">"
+                + "<link rel=stylesheet href=style.css></head><area href=map><a href=\"../top\">"));
+    }
+
+    @Test
+    public void testSkipsWhatIsNotALink() throws Exception {
+        assertEquals(Arrays.asList("http://example.com/dir/real"),
+            links("<!DOCTYPE html><!-- <a href=\"commented\"> --><script>var s = '<a href=\"scripted\">';"
+                + "</scriptx></script ><style>a[href=\"styled\"]{}</style>"
+                + "<a href=\"javascript:void(0)\"><a href=\"mailto:a@example.com\"><a name=anchor>"
+                + "<img src=\"image.png\"><p>1 < 2</p><a href=\"real\">"));
+    }
+
+    @Test
+    public void testReadsAcrossBuffers() throws Exception {
+        final String html = "<html><a href=\"one\">1</a><!-- x --><A HREF='two'>2</A></html>";
+        final List<String> found = new ArrayList<>();
+        // Hands over one character per read, so every token is split
+        final Reader trickle = new StringReader(html) {
+            @Override
+            public int read(final char[] buffer, final int offset, final int length) throws IOException {
+                return super.read(buffer, offset, Math.min(1, length));
+            }
+        };
+        HtmlLinkExtractor.extract(trickle, new URL(PAGE), (ref, url) -> found.add(ref));
+        assertEquals(Arrays.asList("one", "two"), found);
+    }
+
+    @Test
+    public void testMinifiedPageIsLinear() throws Exception {
+        // One long line full of anchors with no href, the case the old pattern backtracked on
+        final StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 200000; i++) {
+            html.append("<a class=\"c").append(i).append("\">x</a>");
+        }
+        html.append("<a href=\"last\">");
+        final long start = System.nanoTime();
+        assertEquals(Arrays.asList("http://example.com/dir/last"), links(html.toString()));
+        assertTrue((System.nanoTime() - start) / 1000000 < 5000);
+    }
+
+    @Test
+    public void testLongValuesAreDropped() throws Exception {
+        final StringBuilder huge = new StringBuilder();
+        for (int i = 0; i <= HtmlLinkExtractor.MAX_VALUE_LENGTH; i++) {
+            huge.append('x');
+        }
+        assertEquals(Arrays.asList("http://example.com/dir/after"),
+            links("<a href=\"" + huge + "\"><a href=after>"));
+    }
+
+    @Test
+    public void testSpiderFollowsRelativeLinks() throws Exception {
+        final InMemoryTransport site = new InMemoryTransport(request -> {
+            final String path = request.getUrl().getPath();
+            final String html = "/dir/".equals(path)
+                    ? "<a href='sub/'>sub</a><a href=\"../\">up</a><a href=\"#top\">top</a>"
+                    : "<a href=data.xml>data</a>";
+            return InMemoryTransport.respond(200, Collections.singletonMap("Content-Type", Arrays.asList("text/html")),
+                    html.getBytes(StandardCharsets.UTF_8));
+        });
+        final Map<URL, HttpResponse> accumulator = new ConcurrentHashMap<>();
+        new Spider(new PavlovHttpClientImpl().withTransport(site))
+            .doSpider(new URL("http://127.0.0.1:9/dir/"), u -> true, u -> u.getPath().endsWith(".xml"),
+                    accumulator, e -> { });
+
+        assertEquals(Collections.singleton(new URL("http://127.0.0.1:9/dir/sub/data.xml")), accumulator.keySet());
+        // The page, its sub directory and the data, but never back up to the parent
+        assertEquals(3, site.getRequestCount());
+    }
+
+    private static List<String> links(final String html) throws IOException {
+        final List<URL> found = new ArrayList<>();
+        HtmlLinkExtractor.extract(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8, new URL(PAGE), found::add);
+        return found.stream().map(URL::toExternalForm).collect(Collectors.toList());
+    }
+}
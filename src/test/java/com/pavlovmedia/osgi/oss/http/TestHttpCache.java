@@ -0,0 +1,392 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.pavlovmedia.oss.osgi.http.CachedResponse;
+import com.pavlovmedia.oss.osgi.http.DiskCacheStore;
+import com.pavlovmedia.oss.osgi.http.HttpCache;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.MemoryCacheStore;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.TieredCacheStore;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestHttpCache {
+    private static final byte[] BODY = "cached body".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFreshResponseIsServedFromCache() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/fresh", e -> {
+                hits.incrementAndGet();
+                e.getResponseHeaders().add("Cache-Control", "max-age=60");
+                LocalHttpServer.respond(e, 200, BODY);
+            });
+            final URL url = server.url("/fresh");
+            final HttpCache cache = new HttpCache();
+
+            assertEquals("cached body", text(client(url, cache)));
+            assertEquals("cached body", text(client(url, cache)));
+            assertEquals("cached body", client(url, cache).executeAsync().get(5, TimeUnit.SECONDS)
+                    .getResponseText());
+            assertEquals(1, hits.get());
+            assertEquals(2, cache.getHitCount());
+            assertEquals(1, cache.getStoredCount());
+
+            // The request can ask for something newer
+            client(url, cache).addHeader("Cache-Control", "no-cache").execute(e -> { }).get().close();
+            assertEquals(2, hits.get());
+        }
+    }
+
+    @Test
+    public void testStaleResponseIsRevalidated() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        final AtomicInteger notModified = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/etag", e -> {
+                hits.incrementAndGet();
+                e.getResponseHeaders().add("Cache-Control", "max-age=0");
+                e.getResponseHeaders().add("ETag", "\"v1\"");
+                if ("\"v1\"".equals(e.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModified.incrementAndGet();
+                    LocalHttpServer.respond(e, 304, new byte[0]);
+                } else {
+                    LocalHttpServer.respond(e, 200, BODY);
+                }
+            });
+            final URL url = server.url("/etag");
+            final HttpCache cache = new HttpCache();
+
+            assertEquals("cached body", text(client(url, cache)));
+            final HttpResponse revalidated = client(url, cache).execute(e -> { }).get();
+            assertEquals(200, revalidated.responseCode);
+            assertEquals("cached body", revalidated.getResponseText());
+            assertEquals(2, hits.get());
+            assertEquals(1, notModified.get());
+            assertEquals(1, cache.getRevalidatedCount());
+        }
+    }
+
+    @Test
+    public void testVaryMismatchIsAMiss() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/vary", e -> {
+                hits.incrementAndGet();
+                e.getResponseHeaders().add("Cache-Control", "max-age=60");
+                e.getResponseHeaders().add("Vary", "Accept-Language");
+                LocalHttpServer.respond(e, 200, BODY);
+            });
+            final URL url = server.url("/vary");
+            final HttpCache cache = new HttpCache();
+
+            text(client(url, cache).addHeader("Accept-Language", "en"));
+            text(client(url, cache).addHeader("Accept-Language", "en"));
+            assertEquals(1, hits.get());
+            text(client(url, cache).addHeader("Accept-Language", "fr"));
+            assertEquals(2, hits.get());
+        }
+    }
+
+    @Test
+    public void testNoStoreAndPostInvalidation() throws Exception {
+        final AtomicInteger hits = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/private", e -> {
+                hits.incrementAndGet();
+                e.getResponseHeaders().add("Cache-Control", "no-store, max-age=60");
+                LocalHttpServer.respond(e, 200, BODY);
+            });
+            server.handle("/item", e -> {
+                hits.incrementAndGet();
+                e.getResponseHeaders().add("Cache-Control", "max-age=60");
+                LocalHttpServer.respond(e, 200, BODY);
+            });
+            final HttpCache cache = new HttpCache();
+
+            text(client(server.url("/private"), cache));
+            text(client(server.url("/private"), cache));
+            assertEquals(2, hits.get());
+
+            final URL item = server.url("/item");
+            text(client(item, cache));
+            assertTrue(cache.getStore().get(item.toExternalForm()).isPresent());
+            client(item, cache).withVerb(HttpVerbs.POST).execute(e -> { }).get().close();
+            assertFalse(cache.getStore().get(item.toExternalForm()).isPresent());
+            text(client(item, cache));
+            assertEquals(5, hits.get());
+
+            // A post to another spelling of the same url still clears it
+            assertTrue(cache.getStore().get(item.toExternalForm()).isPresent());
+            final URL spelled = new URL(item.toExternalForm().replace("/item", "/%69tem#section"));
+            client(spelled, cache).withVerb(HttpVerbs.POST).execute(e -> { }).get().close();
+            assertFalse(cache.getStore().get(item.toExternalForm()).isPresent());
+            assertEquals(6, hits.get());
+
+            text(client(item, cache));
+            cache.invalidate(item.toExternalForm().replace("http://", "HTTP://") + "#section");
+            assertFalse(cache.getStore().get(item.toExternalForm()).isPresent());
+        }
+    }
+
+    @Test
+    public void testMemoryStoreEvictsLeastRecentlyUsed() {
+        final long size = entry("a").getSizeEstimate();
+        final MemoryCacheStore store = new MemoryCacheStore(size * 2);
+        store.put("a", entry("a"));
+        store.put("b", entry("b"));
+        store.get("a");
+        store.put("c", entry("c"));
+
+        assertTrue(store.get("a").isPresent());
+        assertFalse(store.get("b").isPresent());
+        assertTrue(store.get("c").isPresent());
+        assertEquals(1, store.getEvictionCount());
+        assertEquals(size * 2, store.getSizeBytes());
+    }
+
+    @Test
+    public void testDiskStoreSurvivesRestart() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        try (DiskCacheStore store = new DiskCacheStore(directory, 1024 * 1024)) {
+            store.put("http://a/", new CachedResponse("http://a/", 200,
+                    Collections.singletonMap("ETag", Arrays.asList("\"v1\"")), BODY,
+                    Collections.singletonMap("accept", "text/plain"), 10, 20));
+            store.put("http://b/", entry("http://b/"));
+            store.put("http://c/", entry("http://c/"));
+            store.remove("http://c/");
+            assertEquals("cached body", body(store.get("http://a/").get()));
+        }
+
+        try (DiskCacheStore store = new DiskCacheStore(directory, 1024 * 1024)) {
+            assertEquals(2, store.getEntryCount());
+            final CachedResponse a = store.get("http://a/").get();
+            assertEquals("cached body", body(a));
+            assertEquals("\"v1\"", a.getHeaders().get("ETag").get(0));
+            assertEquals("text/plain", a.getVary().get("accept"));
+            assertEquals(10, a.getRequestTime());
+            assertEquals(20, a.getResponseTime());
+            assertTrue(a.getBody().isDirect());
+            assertTrue(store.get("http://b/").isPresent());
+            assertFalse(store.get("http://c/").isPresent());
+        }
+    }
+
+    @Test
+    public void testDiskStoreEvictsOldestSegment() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        final byte[] big = new byte[400];
+        try (DiskCacheStore store = new DiskCacheStore(directory, 2048, 1024)) {
+            for (int i = 0; i < 8; i++) {
+                store.put("http://host/" + i, new CachedResponse("http://host/" + i, 200,
+                        Collections.emptyMap(), big, Collections.emptyMap(), 0, 0));
+            }
+            assertTrue(store.getSizeBytes() <= 2048);
+            assertTrue(store.getEvictionCount() > 0);
+            assertFalse(store.get("http://host/0").isPresent());
+            assertTrue(store.get("http://host/7").isPresent());
+        }
+    }
+
+    @Test
+    public void testDiskStoreDropsTornIndexRecord() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        try (DiskCacheStore store = new DiskCacheStore(directory, 1024 * 1024)) {
+            store.put("http://a/", entry("http://a/"));
+        }
+        // Half of a record, as if the process died while writing it
+        Files.write(directory.resolve("index.log"), new byte[] { 1, 0, 0 }, StandardOpenOption.APPEND);
+
+        try (DiskCacheStore store = new DiskCacheStore(directory, 1024 * 1024)) {
+            assertEquals("cached body", body(store.get("http://a/").get()));
+            store.put("http://b/", entry("http://b/"));
+        }
+        try (DiskCacheStore store = new DiskCacheStore(directory, 1024 * 1024)) {
+            assertEquals(2, store.getEntryCount());
+        }
+    }
+
+    @Test
+    public void testTieredStorePromotes() throws Exception {
+        final MemoryCacheStore memory = new MemoryCacheStore(1024 * 1024);
+        try (DiskCacheStore disk = new DiskCacheStore(this.folder.getRoot().toPath(), 1024 * 1024);
+                TieredCacheStore store = new TieredCacheStore(memory, disk)) {
+            disk.put("http://a/", entry("http://a/"));
+            assertEquals(0, memory.getEntryCount());
+            assertEquals("cached body", body(store.get("http://a/").get()));
+            assertEquals(1, memory.getEntryCount());
+
+            store.remove("http://a/");
+            assertFalse(disk.get("http://a/").isPresent());
+        }
+    }
+
+    @Test
+    public void testLargeResponseSpoolsToDisk() throws Exception {
+        final Path directory = this.folder.getRoot().toPath();
+        final byte[] big = new byte[300 * 1024];
+        new Random(3).nextBytes(big);
+        final AtomicInteger hits = new AtomicInteger();
+        final String key;
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            for (final String path : new String[] { "/big", "/huge" }) {
+                server.handle(path, e -> {
+                    hits.incrementAndGet();
+                    e.getResponseHeaders().add("Cache-Control", "max-age=60");
+                    // Chunked, so the size is only found out while reading
+                    e.sendResponseHeaders(200, 0);
+                    try (OutputStream out = e.getResponseBody()) {
+                        for (int i = 0; i < ("/big".equals(path) ? 1 : 8); i++) {
+                            out.write(big);
+                        }
+                    }
+                });
+            }
+            final MemoryCacheStore memory = new MemoryCacheStore(16 * 1024 * 1024);
+            try (DiskCacheStore disk = new DiskCacheStore(directory, 16 * 1024 * 1024);
+                    TieredCacheStore store = new TieredCacheStore(memory, disk, 64 * 1024)) {
+                final HttpCache cache = new HttpCache(store, 64 * 1024, 1024 * 1024);
+
+                final URL url = server.url("/big");
+                key = url.toExternalForm();
+                assertArrayEquals(big, bytes(client(url, cache)));
+                assertArrayEquals(big, bytes(client(url, cache)));
+                assertEquals(1, hits.get());
+                assertEquals(1, cache.getHitCount());
+                assertEquals(0, memory.getEntryCount());
+                assertEquals(1, disk.getEntryCount());
+                assertTrue(disk.get(url.toExternalForm()).get().getBody().isDirect());
+
+                // Past the disk limit the spool is thrown away
+                final long segments = segmentFiles(directory);
+                final URL huge = server.url("/huge");
+                assertEquals(8 * big.length, bytes(client(huge, cache)).length);
+                bytes(client(huge, cache));
+                assertEquals(3, hits.get());
+                assertEquals(1, cache.getStoredCount());
+                assertEquals(segments, segmentFiles(directory));
+            }
+        }
+
+        // Spooled responses are in the index like any other
+        try (DiskCacheStore disk = new DiskCacheStore(directory, 16 * 1024 * 1024)) {
+            assertEquals(1, disk.getEntryCount());
+            assertArrayEquals(big, toArray(disk.get(key).get()));
+        }
+    }
+
+    @Test
+    public void testBadDirectoryKeepsTheOldStore() throws Exception {
+        final Path file = this.folder.newFile("not-a-directory").toPath();
+        final HttpCache cache = new HttpCache() {
+            {
+                final Map<String, Object> properties = new HashMap<>();
+                properties.put(HttpCache.DISK_DIRECTORY, file.resolve("cache").toString());
+                try {
+                    modified(properties);
+                    fail("A file can't hold a cache directory");
+                } catch (final IOException e) {
+                    // Expected
+                }
+            }
+        };
+        cache.getStore().put("http://a/", entry("http://a/"));
+        assertEquals("cached body", body(cache.getStore().get("http://a/").get()));
+    }
+
+    private static String body(final CachedResponse response) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = response.openBody()) {
+            final byte[] buffer = new byte[4];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toArray(final CachedResponse response) {
+        final ByteBuffer body = response.getBody();
+        final byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+        return bytes;
+    }
+
+    private static long segmentFiles(final Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(f -> f.getFileName().toString().startsWith("segment-")).count();
+        }
+    }
+
+    private static CachedResponse entry(final String url) {
+        return new CachedResponse(url, 200, Collections.emptyMap(), BODY, Collections.emptyMap(), 0, 0);
+    }
+
+    private static String text(final PavlovHttpClientImpl client) {
+        final Optional<HttpResponse> response = client.execute(e -> { });
+        try {
+            return response.get().getResponseText();
+        } finally {
+            response.get().close();
+        }
+    }
+
+    private static byte[] bytes(final PavlovHttpClientImpl client) throws IOException {
+        try (HttpResponse response = client.execute(e -> { }).get();
+                InputStream in = response.responseStream.get().get()) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static PavlovHttpClientImpl client(final URL url, final HttpCache cache) {
+        return new PavlovHttpClientImpl()
+                .againstUrl(url)
+                .withVerb(HttpVerbs.GET)
+                .withCache(cache);
+    }
+}
@@ -0,0 +1,188 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpIoExecutor;
+import com.pavlovmedia.oss.osgi.http.HttpIoExecutor.RejectionPolicy;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.InMemoryTransport;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.RetryPolicy;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestHttpIoExecutor {
+
+    @Test
+    public void testGaugesAndAbort() throws Exception {
+        final HttpIoExecutor executor = new HttpIoExecutor(1, 1, 1, 1000, RejectionPolicy.ABORT, 0);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                running.countDown();
+                await(release);
+            });
+            executor.execute(() -> await(release));
+            running.await(5, TimeUnit.SECONDS);
+
+            assertEquals(1, executor.getActiveCount());
+            assertEquals(1, executor.getQueueDepth());
+            assertEquals(1.0, executor.getSaturation(), 0.001);
+
+            final CompletableFuture<HttpResponse> future = client().executeAsync(executor.getExecutorService());
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("The request should have been rejected");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(1, executor.getRejectedCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception {
+        final HttpIoExecutor executor = new HttpIoExecutor(1, 1, 1, 1000, RejectionPolicy.CALLER_RUNS, 0);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> {
+                running.countDown();
+                await(release);
+            });
+            executor.execute(() -> await(release));
+            running.await(5, TimeUnit.SECONDS);
+
+            final AtomicReference<Thread> ranOn = new AtomicReference<>();
+            executor.execute(() -> ranOn.set(Thread.currentThread()));
+            assertEquals(Thread.currentThread(), ranOn.get());
+            assertEquals(1, executor.getCallerRunsCount());
+            assertEquals(0, executor.getRejectedCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testBlockWaitsForRoom() throws Exception {
+        final HttpIoExecutor executor = new HttpIoExecutor(1, 1, 1, 1000, RejectionPolicy.BLOCK, 5000);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            executor.execute(() -> await(release));
+            executor.execute(() -> { });
+            new Thread(() -> {
+                sleep(200);
+                release.countDown();
+            }).start();
+            final CountDownLatch third = new CountDownLatch(1);
+            executor.execute(third::countDown);
+            assertTrue(third.await(5, TimeUnit.SECONDS));
+            assertEquals(0, executor.getRejectedCount());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultExecuteAsyncUsesSharedPool() throws Exception {
+        final AtomicReference<String> thread = new AtomicReference<>();
+        final HttpResponse response = new PavlovHttpClientImpl()
+                .againstUrl(new URL("http://example.com/"))
+                .withVerb(HttpVerbs.GET)
+                .withTransport(new InMemoryTransport(r -> {
+                    thread.set(Thread.currentThread().getName());
+                    return InMemoryTransport.respond(200, "ok");
+                }))
+                .executeAsync()
+                .get(5, TimeUnit.SECONDS);
+        assertEquals("ok", response.getResponseText());
+        assertTrue(thread.get(), thread.get().startsWith("pavlov-http-io-"));
+    }
+
+    @Test
+    public void testRetryAfterReconfigure() throws Exception {
+        final ReconfigurableExecutor executor = new ReconfigurableExecutor();
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicReference<String> thread = new AtomicReference<>();
+        try {
+            // The first attempt swaps the pool before its retry is scheduled
+            final HttpResponse response = new PavlovHttpClientImpl()
+                    .againstUrl(new URL("http://example.com/"))
+                    .withVerb(HttpVerbs.GET)
+                    .withRetryPolicy(RetryPolicy.defaults().withBackoff(1, 10, TimeUnit.MILLISECONDS))
+                    .withTransport(new InMemoryTransport(r -> {
+                        thread.set(Thread.currentThread().getName());
+                        if (attempts.incrementAndGet() == 1) {
+                            executor.reconfigure(Collections.singletonMap(HttpIoExecutor.CORE_THREADS, "2"));
+                            return InMemoryTransport.respond(503, "busy");
+                        }
+                        return InMemoryTransport.respond(200, "ok");
+                    }))
+                    .executeAsync(executor.getExecutorService())
+                    .get(5, TimeUnit.SECONDS);
+            assertEquals("ok", response.getResponseText());
+            assertEquals(2, attempts.get());
+            assertEquals(0, executor.getRejectedCount());
+            assertTrue(thread.get(), thread.get().startsWith("pavlov-http-io-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static PavlovHttpClientImpl client() throws Exception {
+        return new PavlovHttpClientImpl()
+                .againstUrl(new URL("http://example.com/"))
+                .withVerb(HttpVerbs.GET)
+                .withTransport(new InMemoryTransport(r -> InMemoryTransport.respond(200, "ok")));
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Lets a test change the configuration the way Config Admin would
+     */
+    private static final class ReconfigurableExecutor extends HttpIoExecutor {
+        void reconfigure(final Map<String, Object> properties) {
+            modified(properties);
+        }
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
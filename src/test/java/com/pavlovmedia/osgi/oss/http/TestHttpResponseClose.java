@@ -0,0 +1,105 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.ConnectionMetrics;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestHttpResponseClose {
+    private LocalHttpServer server;
+
+    @Before
+    public void startServer() throws Exception {
+        this.server = new LocalHttpServer()
+                .handle("/small", e -> LocalHttpServer.respond(e, 200, "small".getBytes(StandardCharsets.UTF_8)))
+                .handle("/large", e -> LocalHttpServer.respond(e, 200, new byte[256 * 1024]))
+                .handle("/missing", e -> LocalHttpServer.respond(e, 404, "nope".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        this.server.close();
+    }
+
+    @Test
+    public void testUnreadSmallBodyIsDrained() throws Exception {
+        final ConnectionMetrics metrics = ConnectionMetrics.global();
+        final long reusable = metrics.getReusable();
+        try (HttpResponse response = get("/small").get()) {
+            assertEquals(200, response.responseCode);
+        }
+        assertEquals(reusable + 1, metrics.getReusable());
+    }
+
+    @Test
+    public void testReadBodyIsReusable() throws Exception {
+        final ConnectionMetrics metrics = ConnectionMetrics.global();
+        final long reusable = metrics.getReusable();
+        final HttpResponse response = get("/small").get();
+        assertEquals("small", response.getResponseText());
+        response.close();
+        response.close();
+        assertTrue(response.isClosed());
+        assertEquals(reusable + 1, metrics.getReusable());
+    }
+
+    @Test
+    public void testErrorBodyIsDrained() throws Exception {
+        final ConnectionMetrics metrics = ConnectionMetrics.global();
+        final long reusable = metrics.getReusable();
+        try (HttpResponse response = get("/missing").get()) {
+            assertEquals(404, response.responseCode);
+        }
+        assertEquals(reusable + 1, metrics.getReusable());
+    }
+
+    @Test
+    public void testLargeBodyIsDiscarded() throws Exception {
+        final ConnectionMetrics metrics = ConnectionMetrics.global();
+        final long discarded = metrics.getDiscarded();
+        try (HttpResponse response = new PavlovHttpClientImpl()
+                .againstUrl(this.server.url("/large"))
+                .withVerb(HttpVerbs.GET)
+                .withDrainLimit(1024)
+                .execute(System.err::println)
+                .get()) {
+            assertEquals(200, response.responseCode);
+        }
+        assertEquals(discarded + 1, metrics.getDiscarded());
+    }
+
+    @Test
+    public void testLeakIsDetected() throws Exception {
+        final ConnectionMetrics metrics = ConnectionMetrics.global();
+        final long leaked = metrics.getLeaked();
+        get("/small");
+
+        for (int i = 0; i < 50 && metrics.getLeaked() == leaked; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertTrue(metrics.getLeaked() > leaked);
+    }
+
+    private Optional<HttpResponse> get(final String path) throws Exception {
+        return new PavlovHttpClientImpl()
+                .againstUrl(this.server.url(path))
+                .withVerb(HttpVerbs.GET)
+                .execute(System.err::println);
+    }
+}
@@ -0,0 +1,103 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpTransportRequest;
+import com.pavlovmedia.oss.osgi.http.HttpTransports;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.InMemoryTransport;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestHttpTransports {
+
+    @Test
+    public void testRequestReachesTransport() throws Exception {
+        final AtomicReference<HttpTransportRequest> seen = new AtomicReference<>();
+        final AtomicReference<String> body = new AtomicReference<>();
+        final InMemoryTransport transport = new InMemoryTransport(r -> {
+            seen.set(r);
+            body.set(new String(InMemoryTransport.bodyOf(r), StandardCharsets.UTF_8));
+            return InMemoryTransport.respond(201, "created");
+        });
+
+        final Optional<HttpResponse> response = new PavlovHttpClientImpl()
+                .againstUrl(new URL("http://example.com/base"))
+                .withUrlPath("items")
+                .withVerb(HttpVerbs.PATCH)
+                .addHeader("X-Test", "yes")
+                .withSimpleHeaders(h -> h.put("X-Simple", "also"))
+                .withData("{\"a\":1}")
+                .withTransport(transport)
+                .execute(System.err::println);
+
+        assertTrue(response.isPresent());
+        assertEquals(201, response.get().responseCode);
+        assertEquals("created", response.get().getResponseText());
+        assertEquals("http://example.com/base/items", seen.get().getUrl().toExternalForm());
+        assertEquals(HttpVerbs.PATCH, seen.get().getVerb());
+        assertEquals(Optional.of("yes"), seen.get().getHeader("x-test"));
+        assertEquals(Optional.of("also"), seen.get().getHeader("X-Simple"));
+        assertEquals("{\"a\":1}", body.get());
+        assertEquals(1, transport.getRequestCount());
+    }
+
+    @Test
+    public void testErrorBody() throws Exception {
+        final Optional<HttpResponse> response = new PavlovHttpClientImpl()
+                .againstUrl(new URL("http://example.com/"))
+                .withVerb(HttpVerbs.GET)
+                .withTransport(new InMemoryTransport(r -> InMemoryTransport.respond(503, "busy")))
+                .execute(System.err::println);
+
+        assertEquals(503, response.get().responseCode);
+        assertFalse(response.get().isValidResponse());
+        assertEquals("busy", response.get().getErrorText());
+    }
+
+    @Test
+    public void testNamedTransport() throws Exception {
+        final InMemoryTransport transport = new InMemoryTransport("named-test",
+                r -> InMemoryTransport.respond(200, "by name"));
+        HttpTransports.register(transport);
+        try {
+            final Optional<HttpResponse> response = new PavlovHttpClientImpl()
+                    .againstUrl(new URL("http://example.com/"))
+                    .withVerb(HttpVerbs.GET)
+                    .withTransport("named-test")
+                    .execute(System.err::println);
+            assertEquals("by name", response.get().getResponseText());
+        } finally {
+            HttpTransports.unregister(transport);
+        }
+    }
+
+    @Test
+    public void testUnknownTransport() throws Exception {
+        final List<Exception> errors = new ArrayList<>();
+        final Optional<HttpResponse> response = new PavlovHttpClientImpl()
+                .againstUrl(new URL("http://example.com/"))
+                .withVerb(HttpVerbs.GET)
+                .withTransport("no-such-transport")
+                .execute(errors::add);
+
+        assertFalse(response.isPresent());
+        assertEquals(1, errors.size());
+    }
+}
@@ -0,0 +1,92 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestMultipartBody {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBinaryFileAndFields() throws Exception {
+        // Every byte value, which a round trip through a String would mangle
+        final byte[] binary = new byte[100 * 1024];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) i;
+        }
+        final File file = this.folder.newFile("data.bin");
+        Files.write(file.toPath(), binary);
+
+        final AtomicReference<byte[]> received = new AtomicReference<>();
+        final AtomicReference<String> length = new AtomicReference<>();
+        final AtomicReference<String> type = new AtomicReference<>();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/upload", e -> {
+                length.set(e.getRequestHeaders().getFirst("Content-Length"));
+                type.set(e.getRequestHeaders().getFirst("Content-Type"));
+                received.set(readAll(e.getRequestBody()));
+                LocalHttpServer.respond(e, 200, new byte[0]);
+            });
+
+            final int code = new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/upload"))
+                    .withVerb(HttpVerbs.POST)
+                    .withContentType("multipart/form-data")
+                    .addFormField("title", "caf\u00e9")
+                    .addFileFormData("upload", file, "application/x-test")
+                    .execute(e -> { })
+                    .get().responseCode;
+            assertEquals(200, code);
+        }
+
+        final String boundary = type.get().substring(type.get().indexOf("boundary=") + "boundary=".length());
+        final byte[] body = received.get();
+        assertEquals(Integer.toString(body.length), length.get());
+
+        final String text = new String(body, StandardCharsets.ISO_8859_1);
+        final String fieldHead = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"title\"\r\n\r\n";
+        assertTrue(text.startsWith(fieldHead));
+        assertTrue(text.contains("Content-Disposition: form-data; name=\"upload\"; filename=\"data.bin\"\r\n"
+                + "Content-Type: application/x-test\r\n\r\n"));
+        assertTrue(text.endsWith("\r\n--" + boundary + "--\r\n"));
+
+        final String title = new String(body, fieldHead.length(), 5, StandardCharsets.UTF_8);
+        assertEquals("caf\u00e9", title);
+
+        final int start = text.indexOf("application/x-test\r\n\r\n") + "application/x-test\r\n\r\n".length();
+        assertArrayEquals(binary, Arrays.copyOfRange(body, start, start + binary.length));
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
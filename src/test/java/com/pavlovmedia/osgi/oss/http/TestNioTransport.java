@@ -0,0 +1,205 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.nio.NioTransport;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestNioTransport {
+    private LocalHttpServer server;
+    private NioTransport transport;
+    private ExecutorService pool;
+    private final AtomicInteger hits = new AtomicInteger();
+
+    @Before
+    public void start() throws Exception {
+        this.transport = new NioTransport(1, 30000, 4);
+        this.pool = Executors.newFixedThreadPool(4);
+        this.server = new LocalHttpServer()
+                .handle("/text", e -> {
+                    this.hits.incrementAndGet();
+                    LocalHttpServer.respond(e, 200, "hello nio".getBytes(StandardCharsets.UTF_8));
+                })
+                .handle("/chunked", e -> {
+                    e.sendResponseHeaders(200, 0);
+                    try (OutputStream out = e.getResponseBody()) {
+                        for (int i = 0; i < 100; i++) {
+                            out.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+                            out.flush();
+                        }
+                    }
+                })
+                .handle("/echo", e -> {
+                    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[1024];
+                    int read;
+                    try (InputStream in = e.getRequestBody()) {
+                        while ((read = in.read(buffer)) != -1) {
+                            body.write(buffer, 0, read);
+                        }
+                    }
+                    final String reply = e.getRequestMethod() + " " + body.toString("UTF-8");
+                    LocalHttpServer.respond(e, 200, reply.getBytes(StandardCharsets.UTF_8));
+                })
+                .handle("/missing", e -> LocalHttpServer.respond(e, 404, "nope".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @After
+    public void stop() throws Exception {
+        this.transport.close();
+        this.pool.shutdownNow();
+        this.server.close();
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        try (HttpResponse response = client("/text").withVerb(HttpVerbs.GET).executeAsync(this.pool)
+                .get(10, TimeUnit.SECONDS)) {
+            assertEquals(200, response.responseCode);
+            assertEquals("hello nio", response.getResponseText());
+            assertEquals(9, response.getContentLength());
+        }
+    }
+
+    @Test
+    public void testChunkedBody() throws Exception {
+        final HttpResponse response = client("/chunked").withVerb(HttpVerbs.GET).executeAsync(this.pool)
+                .get(10, TimeUnit.SECONDS);
+        final String[] lines = response.getResponseText().split("\n");
+        assertEquals(100, lines.length);
+        assertEquals("line 99", lines[99]);
+    }
+
+    @Test
+    public void testPostBody() throws Exception {
+        final HttpResponse response = client("/echo").withVerb(HttpVerbs.POST).withData("payload")
+                .executeAsync(this.pool).get(10, TimeUnit.SECONDS);
+        assertEquals("POST payload", response.getResponseText());
+    }
+
+    @Test
+    public void testPatchIsSentAsPatch() throws Exception {
+        final HttpResponse response = client("/echo").withVerb(HttpVerbs.PATCH).withData("x")
+                .executeAsync(this.pool).get(10, TimeUnit.SECONDS);
+        assertEquals("PATCH x", response.getResponseText());
+    }
+
+    @Test
+    public void testErrorBody() throws Exception {
+        final HttpResponse response = client("/missing").withVerb(HttpVerbs.GET).executeAsync(this.pool)
+                .get(10, TimeUnit.SECONDS);
+        assertEquals(404, response.responseCode);
+        assertFalse(response.isValidResponse());
+        assertEquals("nope", response.getErrorText());
+    }
+
+    @Test
+    public void testBlockingExecute() throws Exception {
+        final List<Exception> errors = new ArrayList<>();
+        final HttpResponse response = client("/text").withVerb(HttpVerbs.GET).execute(errors::add).get();
+        assertTrue(errors.isEmpty());
+        assertEquals("hello nio", response.getResponseText());
+    }
+
+    @Test
+    public void testManyRequestsOnOneLoop() throws Exception {
+        final List<CompletableFuture<HttpResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(client("/text").withVerb(HttpVerbs.GET).executeAsync(this.pool));
+        }
+        for (final CompletableFuture<HttpResponse> future : futures) {
+            assertEquals("hello nio", future.get(30, TimeUnit.SECONDS).getResponseText());
+        }
+        assertEquals(200, this.hits.get());
+    }
+
+    @Test
+    public void testSlowServerIsParsedIncrementally() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            final CompletableFuture<HttpResponse> future = new PavlovHttpClientImpl()
+                    .againstUrl(new URL("http://127.0.0.1:" + socket.getLocalPort() + "/slow"))
+                    .withVerb(HttpVerbs.GET)
+                    .withTransport(this.transport)
+                    .executeAsync(this.pool);
+
+            try (Socket client = socket.accept()) {
+                final InputStream in = client.getInputStream();
+                int matched = 0;
+                while (matched < 4) {
+                    final int b = in.read();
+                    matched = (b == '\r' || b == '\n') ? matched + 1 : 0;
+                }
+                final byte[] reply = ("HTTP/1.1 100 Continue\r\n\r\n"
+                        + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nX-Test: one\r\n\r\n"
+                        + "5;ext=1\r\nhello\r\n6\r\n world\r\n0\r\nTrailer: t\r\n\r\n")
+                        .getBytes(StandardCharsets.US_ASCII);
+                final OutputStream out = client.getOutputStream();
+                for (final byte b : reply) {
+                    out.write(b);
+                    out.flush();
+                }
+                final HttpResponse response = future.get(10, TimeUnit.SECONDS);
+                assertEquals(200, response.responseCode);
+                assertEquals("one", response.getHeader("x-test").get());
+                assertEquals("hello world", response.getResponseText());
+            }
+        }
+    }
+
+    @Test
+    public void testConnectionRefused() throws Exception {
+        final int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+        try {
+            new PavlovHttpClientImpl()
+                .againstUrl(new URL("http://127.0.0.1:" + port + "/"))
+                .withVerb(HttpVerbs.GET)
+                .withTransport(this.transport)
+                .executeAsync(this.pool)
+                .get(10, TimeUnit.SECONDS);
+            fail("Connection should have been refused");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private PavlovHttpClientImpl client(final String path) throws Exception {
+        return new PavlovHttpClientImpl()
+                .againstUrl(this.server.url(path))
+                .withTransport(this.transport);
+    }
+}
@@ -0,0 +1,261 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpTransport;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.RequestBodies;
+import com.pavlovmedia.oss.osgi.http.RequestBody;
+import com.pavlovmedia.oss.osgi.http.nio.NioTransport;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestRequestBodies {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicReference<byte[]> received = new AtomicReference<>();
+    private final AtomicReference<String> length = new AtomicReference<>();
+    private final AtomicReference<String> encoding = new AtomicReference<>();
+    private final AtomicReference<String> contentEncoding = new AtomicReference<>();
+    private LocalHttpServer server;
+    private NioTransport nio;
+    private byte[] payload;
+
+    @Before
+    public void start() throws Exception {
+        this.payload = new byte[300 * 1024];
+        new Random(7).nextBytes(this.payload);
+        this.nio = new NioTransport(1, 30000, 4);
+        this.server = new LocalHttpServer().handle("/put", e -> {
+            this.length.set(e.getRequestHeaders().getFirst("Content-Length"));
+            this.encoding.set(e.getRequestHeaders().getFirst("Transfer-Encoding"));
+            this.contentEncoding.set(e.getRequestHeaders().getFirst("Content-Encoding"));
+            this.received.set(readAll(e.getRequestBody()));
+            LocalHttpServer.respond(e, 204, new byte[0]);
+        });
+    }
+
+    @After
+    public void stop() throws Exception {
+        this.nio.close();
+        this.server.close();
+    }
+
+    @Test
+    public void testPathBody() throws Exception {
+        final Path file = this.folder.newFile("payload.bin").toPath();
+        Files.write(file, this.payload);
+
+        send(RequestBodies.ofPath(file), null);
+        assertSent(true);
+        send(RequestBodies.ofPath(file), this.nio);
+        assertSent(true);
+    }
+
+    @Test
+    public void testByteBufferBody() throws Exception {
+        final ByteBuffer direct = ByteBuffer.allocateDirect(this.payload.length + 10);
+        direct.position(10);
+        direct.put(this.payload);
+        direct.position(10);
+
+        send(RequestBodies.ofByteBuffer(direct), null);
+        assertSent(true);
+        send(RequestBodies.ofByteBuffer(direct), this.nio);
+        assertSent(true);
+        assertEquals(10, direct.position());
+    }
+
+    @Test
+    public void testInputStreamBody() throws Exception {
+        send(RequestBodies.ofInputStream(new ByteArrayInputStream(this.payload), this.payload.length), null);
+        assertSent(true);
+        send(RequestBodies.ofInputStream(new ByteArrayInputStream(this.payload), this.payload.length), null);
+        assertSent(true);
+        send(RequestBodies.ofInputStream(new ByteArrayInputStream(this.payload)), null);
+        assertSent(false);
+        assertEquals("chunked", this.encoding.get());
+        send(RequestBodies.ofInputStream(new ByteArrayInputStream(this.payload)), this.nio);
+        assertSent(false);
+        assertEquals("chunked", this.encoding.get());
+        send(RequestBodies.ofInputStream(new ByteArrayInputStream(this.payload), this.payload.length), this.nio);
+        assertSent(true);
+
+        assertFalse(RequestBodies.ofInputStream(new ByteArrayInputStream(this.payload)).isReplayable());
+    }
+
+    @Test
+    public void testLargeUploadStreamsOverNio() throws Exception {
+        final long size = 128L * 1024 * 1024;
+        final AtomicLong readAhead = new AtomicLong();
+        final AtomicLong counted = new AtomicLong();
+        final AtomicLong checksum = new AtomicLong();
+        final AtomicLong generated = new AtomicLong();
+        this.server.handle("/slow", e -> {
+            try {
+                Thread.sleep(500);
+            } catch (final InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            // What the client took from the stream before the server read any of it
+            readAhead.set(generated.get());
+            this.encoding.set(e.getRequestHeaders().getFirst("Transfer-Encoding"));
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[64 * 1024];
+            long total = 0;
+            int read;
+            try (InputStream in = e.getRequestBody()) {
+                while ((read = in.read(buffer)) >= 0) {
+                    crc.update(buffer, 0, read);
+                    total += read;
+                }
+            }
+            counted.set(total);
+            checksum.set(crc.getValue());
+            LocalHttpServer.respond(e, 204, new byte[0]);
+        });
+
+        for (final long length : new long[] { size, -1 }) {
+            generated.set(0);
+            final CRC32 expected = new CRC32();
+            final InputStream source = new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    final byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(final byte[] b, final int off, final int len) throws IOException {
+                    final long at = generated.get();
+                    if (at == size) {
+                        return -1;
+                    }
+                    final int count = (int) Math.min(len, size - at);
+                    for (int i = 0; i < count; i++) {
+                        b[off + i] = (byte) ((at + i) * 31 >>> 3);
+                    }
+                    expected.update(b, off, count);
+                    generated.addAndGet(count);
+                    return count;
+                }
+            };
+            final PavlovHttpClientImpl client = new PavlovHttpClientImpl()
+                    .againstUrl(this.server.url("/slow"))
+                    .withVerb(HttpVerbs.PUT)
+                    .withData(RequestBodies.ofInputStream(source, length))
+                    .withTransport(this.nio);
+            try (HttpResponse response = client.executeAsync().get(60, TimeUnit.SECONDS)) {
+                assertEquals(204, response.responseCode);
+            }
+            assertEquals(size, counted.get());
+            assertEquals(expected.getValue(), checksum.get());
+            assertEquals(length < 0 ? "chunked" : null, this.encoding.get());
+            // Only the pipe and the socket buffers were filled while the server waited, the
+            // kernel can grow a loopback receive buffer to tens of megabytes on its own
+            assertTrue("Read " + readAhead.get() + " bytes ahead", readAhead.get() < size / 2);
+        }
+    }
+
+    @Test
+    public void testGzipBody() throws Exception {
+        final StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 5000; i++) {
+            json.append("{\"id\":").append(i).append(",\"name\":\"item\"},");
+        }
+        final byte[] text = json.append("{}]").toString().getBytes(StandardCharsets.UTF_8);
+
+        for (final HttpTransport transport : new HttpTransport[] { null, this.nio }) {
+            final PavlovHttpClientImpl client = new PavlovHttpClientImpl()
+                    .againstUrl(this.server.url("/put"))
+                    .withVerb(HttpVerbs.POST)
+                    .withData(new String(text, StandardCharsets.UTF_8))
+                    .compressingRequests(1024, Deflater.BEST_SPEED);
+            if (null != transport) {
+                client.withTransport(transport);
+            }
+            client.execute(e -> { }).get().close();
+            assertEquals("gzip", this.contentEncoding.get());
+            // Compressed as it is sent, so neither transport knows the length up front
+            assertEquals("chunked", this.encoding.get());
+            assertNull(this.length.get());
+            assertTrue(this.received.get().length < text.length / 5);
+            assertArrayEquals(text, readAll(new GZIPInputStream(new ByteArrayInputStream(this.received.get()))));
+        }
+
+        // Small bodies aren't worth it
+        new PavlovHttpClientImpl()
+                .againstUrl(this.server.url("/put"))
+                .withVerb(HttpVerbs.POST)
+                .withData("{}")
+                .compressingRequests()
+                .execute(e -> { }).get().close();
+        assertNull(this.contentEncoding.get());
+        assertArrayEquals("{}".getBytes(StandardCharsets.UTF_8), this.received.get());
+    }
+
+    private void send(final RequestBody body, final HttpTransport transport) throws Exception {
+        this.received.set(null);
+        final PavlovHttpClientImpl client = new PavlovHttpClientImpl()
+                .againstUrl(this.server.url("/put"))
+                .withVerb(HttpVerbs.PUT)
+                .withData(body);
+        if (null != transport) {
+            client.withTransport(transport);
+        }
+        try (HttpResponse response = client.executeAsync().get(10, TimeUnit.SECONDS)) {
+            assertEquals(204, response.responseCode);
+        }
+    }
+
+    private void assertSent(final boolean fixedLength) {
+        assertArrayEquals(this.payload, this.received.get());
+        if (fixedLength) {
+            assertEquals(Integer.toString(this.payload.length), this.length.get());
+        } else {
+            assertNull(this.length.get());
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,108 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.BufferPool;
+import com.pavlovmedia.oss.osgi.http.ResponseBodyReader;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestResponseBodyReader {
+    private static final String MIXED = "plain ascii, été, 日本語, 😀 done";
+
+    @Test
+    public void testReadTextKnownLength() throws Exception {
+        final byte[] body = MIXED.getBytes(StandardCharsets.UTF_8);
+        assertEquals(MIXED, ResponseBodyReader.readText(new ByteArrayInputStream(body), body.length,
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadTextUnknownLength() throws Exception {
+        final String large = repeat(MIXED, 2000);
+        final byte[] body = large.getBytes(StandardCharsets.UTF_8);
+        assertEquals(large, ResponseBodyReader.readText(new ByteArrayInputStream(body), -1,
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadTextSplitsMultiByteSequences() throws Exception {
+        // Tiny buffers and one byte reads make every multi-byte character straddle a read
+        final byte[] body = MIXED.getBytes(StandardCharsets.UTF_8);
+        assertEquals(MIXED, ResponseBodyReader.readText(new TrickleInputStream(body), 3,
+                StandardCharsets.UTF_8, new BufferPool(5, 1)));
+    }
+
+    @Test
+    public void testReadTextLongerThanAdvertised() throws Exception {
+        final byte[] body = MIXED.getBytes(StandardCharsets.UTF_8);
+        assertEquals(MIXED, ResponseBodyReader.readText(new ByteArrayInputStream(body), 4,
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReadBytes() throws Exception {
+        final byte[] body = repeat(MIXED, 500).getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(body, ResponseBodyReader.readBytes(new ByteArrayInputStream(body), body.length));
+        assertArrayEquals(body, ResponseBodyReader.readBytes(new ByteArrayInputStream(body), -1));
+        assertArrayEquals(body, ResponseBodyReader.readBytes(new ByteArrayInputStream(body), 10));
+        assertArrayEquals(body, ResponseBodyReader.readBytes(new ByteArrayInputStream(body), body.length * 2));
+    }
+
+    @Test
+    public void testBuffersAreReturned() throws Exception {
+        final BufferPool pool = new BufferPool(64, 2);
+        ResponseBodyReader.readText(new ByteArrayInputStream(new byte[1000]), -1, StandardCharsets.UTF_8, pool);
+        ResponseBodyReader.readBytes(new ByteArrayInputStream(new byte[1000]), -1, pool);
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    public void testCharsetFromContentType() {
+        assertEquals(StandardCharsets.ISO_8859_1,
+                ResponseBodyReader.charsetFromContentType(Optional.of("text/html; charset=ISO-8859-1")));
+        assertEquals(StandardCharsets.UTF_16,
+                ResponseBodyReader.charsetFromContentType(Optional.of("text/plain;Charset=\"UTF-16\"")));
+        assertEquals(StandardCharsets.UTF_8,
+                ResponseBodyReader.charsetFromContentType(Optional.of("application/json")));
+        assertEquals(StandardCharsets.UTF_8,
+                ResponseBodyReader.charsetFromContentType(Optional.of("text/html; charset=bogus-charset")));
+        assertEquals(Charset.forName("US-ASCII"),
+                ResponseBodyReader.charsetFromContentType(Optional.empty(), Charset.forName("US-ASCII")));
+    }
+
+    private static String repeat(final String value, final int times) {
+        final StringBuilder sb = new StringBuilder(value.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Hands back a single byte per read
+     */
+    private static class TrickleInputStream extends FilterInputStream {
+        TrickleInputStream(final byte[] body) {
+            super(new ByteArrayInputStream(body));
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.RetryBudget;
+import com.pavlovmedia.oss.osgi.http.RetryPolicy;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestRetryPolicy {
+    private static final RetryPolicy FAST = RetryPolicy.defaults().withBackoff(1, 10, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void testJitterStaysInRange() {
+        final RetryPolicy policy = RetryPolicy.defaults().withBackoff(100, 1000, TimeUnit.MILLISECONDS);
+        assertEquals(100L, (long) policy.nextDelay(0, Optional.empty()).get());
+        long delay = 0;
+        for (int i = 0; i < 100; i++) {
+            final long next = policy.nextDelay(delay, Optional.empty()).get();
+            assertTrue(next >= 100);
+            assertTrue(next <= Math.max(100, Math.min(1000, delay * 3)));
+            delay = next;
+        }
+    }
+
+    @Test
+    public void testRetryAfter() {
+        final RetryPolicy policy = RetryPolicy.defaults();
+        assertEquals(2000L, (long) policy.nextDelay(0, Optional.of("2")).get());
+        assertFalse(policy.nextDelay(0, Optional.of("60")).isPresent());
+
+        final String soon = DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(5));
+        final long wait = policy.nextDelay(0, Optional.of(soon)).get();
+        assertTrue(wait > 3000 && wait <= 5000);
+
+        assertEquals(100L, (long) policy.honoringRetryAfter(false).nextDelay(0, Optional.of("60")).get());
+    }
+
+    @Test
+    public void testBudget() {
+        final RetryBudget budget = new RetryBudget(2, 0.5);
+        assertTrue(budget.tryWithdraw("http://a:80"));
+        assertTrue(budget.tryWithdraw("http://a:80"));
+        assertFalse(budget.tryWithdraw("http://a:80"));
+        assertTrue(budget.tryWithdraw("http://b:80"));
+        assertEquals(1, budget.getDeniedCount());
+
+        budget.deposit("http://a:80");
+        budget.deposit("http://a:80");
+        assertEquals(1.0, budget.getTokens("http://a:80"), 0.001);
+        assertTrue(budget.tryWithdraw("http://a:80"));
+    }
+
+    @Test
+    public void testRetriesUnavailable() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/flaky", e -> LocalHttpServer.respond(e, attempts.incrementAndGet() < 3 ? 503 : 200,
+                    "ok".getBytes(StandardCharsets.UTF_8)));
+
+            final Optional<HttpResponse> response = new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/flaky"))
+                    .withVerb(HttpVerbs.GET)
+                    .withRetryPolicy(FAST)
+                    .execute(e -> { });
+            assertEquals(200, response.get().responseCode);
+            assertEquals("ok", response.get().getResponseText());
+            assertEquals(3, attempts.get());
+        }
+    }
+
+    @Test
+    public void testGivesUpAfterMaxAttempts() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/down", e -> {
+                attempts.incrementAndGet();
+                LocalHttpServer.respond(e, 502, new byte[0]);
+            });
+
+            final HttpResponse response = new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/down"))
+                    .withVerb(HttpVerbs.GET)
+                    .withRetryPolicy(FAST.withMaxAttempts(4))
+                    .executeAsync()
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(502, response.responseCode);
+            assertEquals(4, attempts.get());
+        }
+    }
+
+    @Test
+    public void testPostIsNotRetried() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/post", e -> {
+                attempts.incrementAndGet();
+                LocalHttpServer.respond(e, 503, new byte[0]);
+            });
+
+            final PavlovHttpClientImpl client = new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/post"))
+                    .withVerb(HttpVerbs.POST)
+                    .withData("body")
+                    .withRetryPolicy(FAST);
+            assertEquals(503, client.execute(e -> { }).get().responseCode);
+            assertEquals(1, attempts.get());
+
+            client.withRetryPolicy(FAST.retryingNonIdempotent(true)).execute(e -> { });
+            assertEquals(4, attempts.get());
+        }
+    }
+
+    @Test
+    public void testBudgetStopsRetries() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/down", e -> {
+                attempts.incrementAndGet();
+                LocalHttpServer.respond(e, 503, new byte[0]);
+            });
+
+            final RetryPolicy policy = FAST.withMaxAttempts(10).withBudget(new RetryBudget(2, 0));
+            new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/down"))
+                    .withVerb(HttpVerbs.GET)
+                    .withRetryPolicy(policy)
+                    .execute(e -> { });
+            assertEquals(3, attempts.get());
+            assertEquals(1, policy.getBudget().getDeniedCount());
+        }
+    }
+}
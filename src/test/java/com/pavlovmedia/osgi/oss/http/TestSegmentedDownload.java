@@ -0,0 +1,175 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.RetryPolicy;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestSegmentedDownload {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> ranges = new CopyOnWriteArrayList<>();
+    private final AtomicInteger heads = new AtomicInteger();
+    private final AtomicInteger drops = new AtomicInteger();
+    private final AtomicBoolean rangesSupported = new AtomicBoolean(true);
+    private final AtomicReference<String> etag = new AtomicReference<>("\"v1\"");
+    private final ExecutorService pool = Executors.newFixedThreadPool(4);
+    private LocalHttpServer server;
+    private byte[] payload;
+
+    @Before
+    public void start() throws Exception {
+        this.payload = new byte[4 * 1024 * 1024 + 321];
+        new Random(17).nextBytes(this.payload);
+        this.server = new LocalHttpServer().handle("/file", this::serve);
+    }
+
+    @After
+    public void stop() throws Exception {
+        this.server.close();
+        this.pool.shutdownNow();
+    }
+
+    @Test
+    public void testFetchesSegmentsInParallel() throws Exception {
+        final Path file = this.folder.getRoot().toPath().resolve("download.bin");
+        final AtomicLong lastWritten = new AtomicLong();
+
+        final Optional<Long> length = client().downloadInSegments(file, 4, this.pool,
+                (written, total) -> lastWritten.accumulateAndGet(written, Math::max),
+                e -> { throw new AssertionError(e); });
+
+        assertEquals(Long.valueOf(this.payload.length), length.get());
+        assertArrayEquals(this.payload, Files.readAllBytes(file));
+        assertEquals(this.payload.length, lastWritten.get());
+        assertEquals(1, this.heads.get());
+        assertEquals(4, this.ranges.size());
+        assertTrue(this.ranges.contains("bytes=0-1048656"));
+    }
+
+    @Test
+    public void testRetriesFailedSegmentOnly() throws Exception {
+        this.drops.set(1);
+        final Path file = this.folder.getRoot().toPath().resolve("download.bin");
+
+        final long length = client().downloadInSegmentsAsync(file, 4, this.pool, (written, total) -> { })
+                .get(30, TimeUnit.SECONDS);
+
+        assertEquals(this.payload.length, length);
+        assertArrayEquals(this.payload, Files.readAllBytes(file));
+        // Four segments and one pick up of the segment that broke off
+        assertEquals(5, this.ranges.size());
+    }
+
+    @Test
+    public void testFallsBackWithoutRanges() throws Exception {
+        this.rangesSupported.set(false);
+        final Path file = this.folder.getRoot().toPath().resolve("download.bin");
+
+        final Optional<Long> length = client().downloadInSegments(file, 4, this.pool, (written, total) -> { },
+                e -> { throw new AssertionError(e); });
+
+        assertEquals(Long.valueOf(this.payload.length), length.get());
+        assertArrayEquals(this.payload, Files.readAllBytes(file));
+        assertEquals(1, this.ranges.size());
+    }
+
+    @Test
+    public void testChangedFileFails() throws Exception {
+        final Path file = this.folder.getRoot().toPath().resolve("download.bin");
+        final AtomicReference<Exception> error = new AtomicReference<>();
+
+        // The file changes on the server once the segments start, so If-Range no longer matches
+        final Optional<Long> length = client().downloadInSegments(file, 4, this.pool,
+                (written, total) -> this.etag.set("\"v2\""), error::set);
+
+        assertFalse(length.isPresent());
+        assertTrue(error.get().getMessage().contains("changed"));
+    }
+
+    private PavlovHttpClientImpl client() throws Exception {
+        return new PavlovHttpClientImpl()
+                .againstUrl(this.server.url("/file"))
+                .withVerb(HttpVerbs.GET)
+                .withRetryPolicy(RetryPolicy.defaults().withMaxAttempts(3).withBackoff(1, 10, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Answers HEAD with the length, serves byte ranges guarded by If-Range and
+     * breaks off the first few range responses part way through
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        if (this.rangesSupported.get()) {
+            exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+        }
+        exchange.getResponseHeaders().add("ETag", this.etag.get());
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            this.heads.incrementAndGet();
+            exchange.getResponseHeaders().add("Content-Length", Integer.toString(this.payload.length));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        this.ranges.add(String.valueOf(range));
+
+        int start = 0;
+        int end = this.payload.length - 1;
+        int code = 200;
+        if (this.rangesSupported.get() && null != range && this.etag.get().equals(ifRange)) {
+            final String[] bounds = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(bounds[0]);
+            end = Integer.parseInt(bounds[1]);
+            code = 206;
+            exchange.getResponseHeaders().add("Content-Range",
+                    String.format("bytes %d-%d/%d", start, end, this.payload.length));
+        }
+        final int length = end - start + 1;
+        exchange.sendResponseHeaders(code, length);
+
+        final OutputStream out = exchange.getResponseBody();
+        if (code == 206 && this.drops.getAndDecrement() > 0) {
+            out.write(this.payload, start, length / 3);
+            out.flush();
+            // Failing the exchange makes the server drop the connection part way through the body
+            throw new IOException("Dropping the connection");
+        }
+        out.write(this.payload, start, length);
+        out.close();
+    }
+}
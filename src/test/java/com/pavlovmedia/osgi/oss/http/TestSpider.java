@@ -0,0 +1,191 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.InMemoryTransport;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.Spider;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestSpider {
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger mostActive = new AtomicInteger();
+    private final List<Long> started = new CopyOnWriteArrayList<>();
+    private final List<Exception> errors = new CopyOnWriteArrayList<>();
+    private LocalHttpServer server;
+
+    @Before
+    public void start() throws Exception {
+        this.server = new LocalHttpServer()
+                .handle("/tree/", this::tree)
+                .handle("/chain/", this::chain)
+                .handle("/data/", e -> LocalHttpServer.respond(e, 200, "<metadata/>".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @After
+    public void stop() throws Exception {
+        this.server.close();
+    }
+
+    @Test
+    public void testCrawlsConcurrentlyWithinHostLimits() throws Exception {
+        final Map<URL, HttpResponse> accumulator = new ConcurrentHashMap<>();
+        new Spider(new PavlovHttpClientImpl())
+            .setWorkers(8)
+            .setHostLimits(3, 0, TimeUnit.MILLISECONDS)
+            .doSpider(this.server.url("/tree/0"), u -> true, u -> u.getPath().startsWith("/data/"),
+                    accumulator, this.errors::add);
+
+        assertTrue(this.errors.isEmpty());
+        // A binary tree of 63 pages whose 32 leaves each link to one saved page
+        assertEquals(32, accumulator.size());
+        assertTrue(accumulator.containsKey(this.server.url("/data/62")));
+        assertTrue(this.mostActive.get() > 1);
+        assertTrue(this.mostActive.get() <= 3);
+    }
+
+    @Test
+    public void testDeepSiteDoesNotRecurse() throws Exception {
+        final int end = 10000;
+        final Map<URL, HttpResponse> accumulator = new ConcurrentHashMap<>();
+        final InMemoryTransport site = memoryChain(end);
+        new Spider(new PavlovHttpClientImpl().withTransport(site))
+            .doSpider(new URL("http://127.0.0.1:9/chain/0"), u -> true, u -> u.getPath().startsWith("/data/"),
+                    accumulator, this.errors::add);
+
+        assertTrue(this.errors.isEmpty());
+        assertEquals(1, accumulator.size());
+        assertEquals(end + 2, site.getRequestCount());
+    }
+
+    @Test
+    public void testDepthAndPageLimits() throws Exception {
+        new Spider(new PavlovHttpClientImpl())
+            .setMaxDepth(5)
+            .doSpider(this.server.url("/chain/0?end=100"), u -> true, u -> false,
+                    new ConcurrentHashMap<>(), this.errors::add);
+        assertEquals(6, this.started.size());
+
+        this.started.clear();
+        new Spider(new PavlovHttpClientImpl())
+            .setMaxPages(3)
+            .doSpider(this.server.url("/tree/0"), u -> true, u -> false,
+                    new ConcurrentHashMap<>(), this.errors::add);
+        assertEquals(3, this.started.size());
+        assertTrue(this.errors.isEmpty());
+    }
+
+    @Test
+    public void testHostDelay() throws Exception {
+        // Timed as the client sends, which a real server would see late by a varying amount
+        final PavlovHttpClientImpl client = new PavlovHttpClientImpl().withTransport(memoryChain(4));
+        // The first crawl loads classes, which would make its first request late and shorten the first gap
+        new Spider(client)
+            .doSpider(new URL("http://127.0.0.1:9/chain/4"), u -> true, u -> true,
+                    new ConcurrentHashMap<>(), this.errors::add);
+        this.started.clear();
+
+        new Spider(client)
+            .setHostLimits(1, 100, TimeUnit.MILLISECONDS)
+            .doSpider(new URL("http://127.0.0.1:9/chain/0"), u -> true, u -> false,
+                    new ConcurrentHashMap<>(), this.errors::add);
+
+        // Five chain pages and the data page at the end
+        assertEquals(6, this.started.size());
+        for (int i = 1; i < this.started.size(); i++) {
+            final long gap = this.started.get(i) - this.started.get(i - 1);
+            assertTrue("Requests were " + gap + "ms apart", gap >= 95);
+        }
+    }
+
+    /**
+     * A site that never leaves memory, where page n links to n+1 until the end,
+     * which links to a data page
+     */
+    private InMemoryTransport memoryChain(final int end) {
+        return new InMemoryTransport(request -> {
+            this.started.add(System.currentTimeMillis());
+            final String path = request.getUrl().getPath();
+            if (path.startsWith("/data/")) {
+                return InMemoryTransport.respond(200, "<metadata/>");
+            }
+            final int page = Integer.parseInt(path.substring("/chain/".length()));
+            final String next = page < end ? "/chain/" + (page + 1) : "/data/" + page;
+            return InMemoryTransport.respond(200, Collections.singletonMap("Content-Type", Arrays.asList("text/html")),
+                    ("<a href=\"http://127.0.0.1:9" + next + "\">next</a>").getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    /**
+     * Page n links to 2n+1 and 2n+2, the leaves link to a data page
+     */
+    private void tree(final HttpExchange exchange) throws IOException {
+        final int page = Integer.parseInt(exchange.getRequestURI().getPath().substring("/tree/".length()));
+        final List<String> links = new ArrayList<>();
+        if (page < 31) {
+            links.add("/tree/" + (2 * page + 1));
+            links.add("/tree/" + (2 * page + 2));
+        } else {
+            links.add("/data/" + page);
+        }
+        page(exchange, links, 20);
+    }
+
+    /**
+     * Page n links to n+1 until the end, which links to a data page
+     */
+    private void chain(final HttpExchange exchange) throws IOException {
+        final int page = Integer.parseInt(exchange.getRequestURI().getPath().substring("/chain/".length()));
+        final int end = Integer.parseInt(exchange.getRequestURI().getQuery().substring("end=".length()));
+        final List<String> links = new ArrayList<>();
+        links.add(page < end ? "/chain/" + (page + 1) + "?end=" + end : "/data/" + page);
+        page(exchange, links, 0);
+    }
+
+    private void page(final HttpExchange exchange, final List<String> links, final long pauseMillis)
+            throws IOException {
+        this.started.add(System.currentTimeMillis());
+        final int now = this.active.incrementAndGet();
+        this.mostActive.accumulateAndGet(now, Math::max);
+        try {
+            if (pauseMillis > 0) {
+                Thread.sleep(pauseMillis);
+            }
+            final StringBuilder html = new StringBuilder("<html><body>\n");
+            for (final String link : links) {
+                html.append("<a href=\"").append(this.server.url(link)).append("\">link</a>\n");
+            }
+            html.append("</body></html>");
+            exchange.getResponseHeaders().add("Content-Type", "text/html");
+            LocalHttpServer.respond(exchange, 200, html.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.active.decrementAndGet();
+        }
+    }
+}
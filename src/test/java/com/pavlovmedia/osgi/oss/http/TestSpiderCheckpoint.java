@@ -0,0 +1,189 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.InMemoryTransport;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.Spider;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestSpiderCheckpoint {
+    private static final String START = "http://127.0.0.1:9/tree/0";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Map<String, AtomicInteger> fetches = new ConcurrentHashMap<>();
+    private final List<Exception> errors = new CopyOnWriteArrayList<>();
+    private final AtomicLong seenMidCrawl = new AtomicLong();
+    private volatile Path watched;
+    private volatile int interruptAt;
+    private volatile Thread crawler;
+
+    @Test
+    public void testResumesWhereItStopped() throws Exception {
+        final Path log = this.folder.getRoot().toPath().resolve("crawl").resolve("tree.log");
+        final Map<URL, HttpResponse> first = new ConcurrentHashMap<>();
+        spider(log).setMaxPages(20).doSpider(new URL(START), u -> true, this::isData, first, this.errors::add);
+        assertEquals(20, fetchCount());
+        assertTrue(Files.size(log) > 0);
+
+        final Map<URL, HttpResponse> second = new ConcurrentHashMap<>();
+        spider(log).doSpider(new URL(START), u -> true, this::isData, second, this.errors::add);
+
+        assertTrue(this.errors.isEmpty());
+        // The 63 pages of the tree and the 32 data pages, each fetched once across both crawls
+        assertEquals(95, this.fetches.size());
+        assertEquals(95, fetchCount());
+        assertEquals(32, first.size() + second.size());
+        // Nothing is left to resume
+        assertFalse(Files.exists(log));
+    }
+
+    @Test
+    public void testCheckpointsWhileCrawling() throws Exception {
+        final Path log = this.folder.getRoot().toPath().resolve("live.log");
+        this.watched = log;
+        spider(log).doSpider(new URL(START), u -> true, this::isData, new ConcurrentHashMap<>(), this.errors::add);
+
+        assertTrue(this.errors.isEmpty());
+        // Fetching the last data page, the earlier checkpoints are already in the file
+        assertTrue("Log was " + this.seenMidCrawl.get() + " bytes", this.seenMidCrawl.get() > 1000);
+        assertFalse(Files.exists(log));
+    }
+
+    @Test
+    public void testResumesAfterAnInterrupt() throws Exception {
+        final Path log = this.folder.getRoot().toPath().resolve("interrupted.log");
+        // Long enough that nothing is checkpointed until the crawl closes the log
+        final Spider spider = spider(log, 60000);
+        final URL start = new URL(START);
+        final Thread crawl = new Thread(() -> spider.doSpider(start, u -> true, this::isData,
+                new ConcurrentHashMap<>(), this.errors::add));
+        this.interruptAt = 30;
+        this.crawler = crawl;
+        crawl.start();
+        crawl.join(10000);
+        assertFalse(crawl.isAlive());
+        final int before = fetchCount();
+        assertTrue(before < 95);
+        assertTrue(Files.size(log) > 4);
+
+        this.interruptAt = 0;
+        spider(log, 60000).doSpider(new URL(START), u -> true, this::isData, new ConcurrentHashMap<>(),
+                this.errors::add);
+
+        assertTrue(this.errors.toString(), this.errors.isEmpty());
+        // Only the pages in flight when it was stopped are fetched twice
+        assertEquals(95, this.fetches.size());
+        assertTrue("Fetched " + fetchCount(), fetchCount() <= 95 + 4);
+        assertFalse(Files.exists(log));
+    }
+
+    @Test
+    public void testCutOffRecordIsDropped() throws Exception {
+        final Path log = this.folder.getRoot().toPath().resolve("tree.log");
+        spider(log).setMaxPages(10).doSpider(new URL(START), u -> true, this::isData,
+                new ConcurrentHashMap<>(), this.errors::add);
+        final long size = Files.size(log);
+        // Half of a record, as if the process stopped while writing it
+        Files.write(log, new byte[] { 1, 0, 0, 0, 2, 0, 0 }, StandardOpenOption.APPEND);
+
+        spider(log).doSpider(new URL(START), u -> true, this::isData, new ConcurrentHashMap<>(), this.errors::add);
+
+        assertTrue(this.errors.isEmpty());
+        assertTrue(size > 4);
+        assertEquals(95, fetchCount());
+        assertFalse(Files.exists(log));
+    }
+
+    @Test
+    public void testCrawlsWithoutABadCheckpoint() throws Exception {
+        final Path log = this.folder.newFile("not-a-log.txt").toPath();
+        Files.write(log, "hello".getBytes(StandardCharsets.UTF_8));
+
+        spider(log).doSpider(new URL(START), u -> true, this::isData, new ConcurrentHashMap<>(), this.errors::add);
+
+        assertEquals(1, this.errors.size());
+        assertTrue(this.errors.get(0) instanceof IOException);
+        assertEquals(95, fetchCount());
+        // Left alone, it wasn't ours
+        assertEquals("hello", new String(Files.readAllBytes(log), StandardCharsets.UTF_8));
+    }
+
+    private Spider spider(final Path log) {
+        return spider(log, 0);
+    }
+
+    private Spider spider(final Path log, final long intervalMillis) {
+        return new Spider(new PavlovHttpClientImpl().withTransport(memoryTree()))
+            .setWorkers(4)
+            .setCheckpoint(log, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isData(final URL url) {
+        return url.getPath().startsWith("/data/");
+    }
+
+    private int fetchCount() {
+        return this.fetches.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    /**
+     * Page n links to 2n+1 and 2n+2, the leaves link to a data page
+     */
+    private InMemoryTransport memoryTree() {
+        return new InMemoryTransport(request -> {
+            final String path = request.getUrl().getPath();
+            this.fetches.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+            // Workers fetch at the same time, so the count can step past the mark
+            if (this.interruptAt > 0 && fetchCount() >= this.interruptAt) {
+                this.interruptAt = 0;
+                this.crawler.interrupt();
+            }
+            if (null != this.watched && "/data/62".equals(path)) {
+                try {
+                    this.seenMidCrawl.set(Files.size(this.watched));
+                } catch (final IOException e) {
+                    this.errors.add(e);
+                }
+            }
+            if (path.startsWith("/data/")) {
+                return InMemoryTransport.respond(200, "<metadata/>");
+            }
+            final int page = Integer.parseInt(path.substring("/tree/".length()));
+            final String html = page < 31
+                    ? "<a href=\"" + (2 * page + 1) + "\">l</a><a href=\"" + (2 * page + 2) + "\">r</a>"
+                    : "<a href=\"/data/" + page + "\">data</a>";
+            return InMemoryTransport.respond(200, Collections.singletonMap("Content-Type", Arrays.asList("text/html")),
+                    html.getBytes(StandardCharsets.UTF_8));
+        });
+    }
+}
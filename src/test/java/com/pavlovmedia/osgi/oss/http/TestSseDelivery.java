@@ -0,0 +1,215 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.SseDelivery;
+import com.pavlovmedia.oss.osgi.http.SseDelivery.OverflowPolicy;
+import com.pavlovmedia.oss.osgi.http.SseMessageEvent;
+import com.pavlovmedia.oss.osgi.utilities.convertible.ConvertibleAsset;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestSseDelivery {
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+    private final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void stop() {
+        this.release.countDown();
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void testBatchesBySize() throws Exception {
+        this.release.countDown();
+        final SseDelivery delivery = new SseDelivery(this::record)
+                .on(this.executor)
+                .withBatch(10, 1, TimeUnit.HOURS);
+        for (int i = 0; i < 25; i++) {
+            delivery.accept(event("tick", String.valueOf(i)));
+        }
+        // Two full batches go out right away, the rest waits for the window or close
+        assertTrue(awaitBatches(2));
+        assertEquals(5, delivery.getLag());
+
+        delivery.close();
+        assertTrue(delivery.awaitDrained(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(10, 10, 5), this.batches.stream().map(List::size).collect(Collectors.toList()));
+        assertEquals(25, delivery.getDelivered());
+        assertEquals(0, delivery.getDropped());
+
+        delivery.accept(event("tick", "late"));
+        assertEquals(1, delivery.getDropped());
+    }
+
+    @Test
+    public void testBatchesByWindow() throws Exception {
+        this.release.countDown();
+        final SseDelivery delivery = new SseDelivery(this::record)
+                .on(this.executor)
+                .withBatch(100, 50, TimeUnit.MILLISECONDS);
+        delivery.accept(event("tick", "a"));
+        delivery.accept(event("tick", "b"));
+        delivery.accept(event("tick", "c"));
+
+        assertTrue(awaitBatches(1));
+        assertEquals(Arrays.asList("tick:a", "tick:b", "tick:c"), this.batches.get(0));
+        assertEquals(0, delivery.getLag());
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        final SseDelivery delivery = stalled(OverflowPolicy.DROP_OLDEST);
+        for (int i = 1; i <= 7; i++) {
+            delivery.accept(event("tick", String.valueOf(i)));
+        }
+        assertEquals(4, delivery.getLag());
+        assertEquals(3, delivery.getDropped());
+
+        this.release.countDown();
+        assertTrue(delivery.awaitDrained(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("tick:0", "tick:4", "tick:5", "tick:6", "tick:7"), delivered());
+    }
+
+    @Test
+    public void testCoalesceByEventName() throws Exception {
+        final SseDelivery delivery = stalled(OverflowPolicy.COALESCE);
+        delivery.accept(event("price", "1"));
+        delivery.accept(event("status", "1"));
+        delivery.accept(event("price", "2"));
+        delivery.accept(event("volume", "1"));
+        delivery.accept(event("price", "3"));
+        delivery.accept(event("status", "2"));
+        delivery.accept(event("other", "1"));
+
+        assertEquals(2, delivery.getCoalesced());
+        // With no queued event of its name, the last one pushes out the oldest
+        assertEquals(1, delivery.getDropped());
+
+        this.release.countDown();
+        assertTrue(delivery.awaitDrained(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("tick:0", "status:2", "price:3", "volume:1", "other:1"), delivered());
+    }
+
+    @Test
+    public void testBlockHoldsTheReader() throws Exception {
+        final SseDelivery delivery = stalled(OverflowPolicy.BLOCK);
+        final CountDownLatch read = new CountDownLatch(1);
+        final Thread reader = new Thread(() -> {
+            for (int i = 1; i <= 6; i++) {
+                delivery.accept(event("tick", String.valueOf(i)));
+            }
+            read.countDown();
+        });
+        reader.start();
+
+        assertTrue(!read.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(4, delivery.getLag());
+
+        this.release.countDown();
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        assertTrue(delivery.awaitDrained(5, TimeUnit.SECONDS));
+        assertEquals(0, delivery.getDropped());
+        assertEquals(Arrays.asList("tick:0", "tick:1", "tick:2", "tick:3", "tick:4", "tick:5", "tick:6"), delivered());
+    }
+
+    @Test
+    public void testFromAnEventStream() throws Exception {
+        this.release.countDown();
+        final SseDelivery delivery = new SseDelivery(this::record)
+                .on(this.executor)
+                .withBatch(2, 1, TimeUnit.HOURS);
+        try (LocalHttpServer server = new LocalHttpServer().handle("/events", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write("event: a\ndata: 1\n\nevent: b\ndata: 2\n\nevent: c\ndata: 3\n\n".getBytes(StandardCharsets.UTF_8));
+            }
+        })) {
+            final AtomicBoolean interrupt = new AtomicBoolean();
+            final URL url = server.url("/events");
+            this.executor.execute(() -> new PavlovHttpClientImpl()
+                .againstUrl(url)
+                .withVerb(HttpVerbs.GET)
+                .withInterrupt(interrupt)
+                .asSse(delivery)
+                .execute(e -> { }));
+            // The last event waits for the window, closing sends it on
+            assertTrue(awaitBatches(1));
+            interrupt.set(true);
+            delivery.close();
+            assertTrue(delivery.awaitDrained(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Arrays.asList(Arrays.asList("a:1", "b:2"), Arrays.asList("c:3")), this.batches);
+    }
+
+    /**
+     * A four event queue delivering one at a time, whose consumer is stuck on
+     * the first event until released
+     */
+    private SseDelivery stalled(final OverflowPolicy policy) throws InterruptedException {
+        final SseDelivery delivery = new SseDelivery(this::record)
+                .on(this.executor)
+                .withCapacity(4)
+                .withOverflow(policy)
+                .withBatch(1, 0, TimeUnit.MILLISECONDS);
+        delivery.accept(event("tick", "0"));
+        assertTrue(this.entered.await(5, TimeUnit.SECONDS));
+        return delivery;
+    }
+
+    private void record(final List<SseMessageEvent> batch) {
+        this.batches.add(batch.stream()
+                .map(e -> e.event.get().get() + ":" + e.data.get().get())
+                .collect(Collectors.toList()));
+        this.entered.countDown();
+        try {
+            this.release.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<String> delivered() {
+        return this.batches.stream().flatMap(List::stream).collect(Collectors.toList());
+    }
+
+    private boolean awaitBatches(final int count) throws InterruptedException {
+        final long end = System.currentTimeMillis() + 5000;
+        while (this.batches.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        return this.batches.size() >= count;
+    }
+
+    private static SseMessageEvent event(final String name, final String data) {
+        return new SseMessageEvent(Optional.empty(),
+                Optional.of(new ConvertibleAsset<>(name)),
+                Optional.of(new ConvertibleAsset<>(data)));
+    }
+}
@@ -0,0 +1,156 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.SseMessageEvent;
+import com.pavlovmedia.oss.osgi.http.SseParser;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestSseParser {
+    private final List<SseMessageEvent> events = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testJoinsDataLines() {
+        final SseParser parser = new SseParser(this.events::add);
+        feed(parser, "event: update\ndata: first\ndata:second\ndata\n\n");
+
+        assertEquals(1, this.events.size());
+        assertEquals("first\nsecond\n", data(0));
+        assertEquals("update", this.events.get(0).event.get().get());
+        assertFalse(this.events.get(0).id.isPresent());
+    }
+
+    @Test
+    public void testLineEndingsSplitAcrossReads() {
+        final SseParser parser = new SseParser(this.events::add);
+        final byte[] bytes = "﻿data: one\r\n\r\ndata: twö\r\rdata: three\n\n".getBytes(StandardCharsets.UTF_8);
+        // One byte at a time splits every CRLF and the byte order mark
+        for (int i = 0; i < bytes.length; i++) {
+            parser.feed(bytes, i, 1);
+        }
+
+        assertEquals(3, this.events.size());
+        assertEquals("one", data(0));
+        assertEquals("twö", data(1));
+        assertEquals("three", data(2));
+    }
+
+    @Test
+    public void testCommentsIdAndRetry() {
+        final SseParser parser = new SseParser(this.events::add);
+        feed(parser, ": keep alive\nid: 7\nretry: 1500\ndata: a\n\nevent: update\n\ndata: b\n\nid: bad\u0000\nretry: soon\ndata: c\n\n");
+
+        assertEquals(3, this.events.size());
+        assertEquals("7", this.events.get(0).id.get());
+        // The id sticks to later events, and an event with no data is dropped along with its name
+        assertEquals("7", this.events.get(1).id.get());
+        assertFalse(this.events.get(1).event.isPresent());
+        assertEquals("7", this.events.get(2).id.get());
+        assertEquals(Optional.of("7"), parser.getLastEventId());
+        assertEquals(1500, parser.getRetryMillis());
+    }
+
+    @Test
+    public void testReusesEventNames() {
+        final SseParser parser = new SseParser(this.events::add);
+        parser.feed(ByteBuffer.wrap("event: tick\ndata: 1\n\nevent: tick\ndata: 2\n\n".getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(2, this.events.size());
+        assertSame(this.events.get(0).event, this.events.get(1).event);
+    }
+
+    @Test
+    public void testResetDropsUnfinishedEvent() {
+        final SseParser parser = new SseParser(this.events::add);
+        feed(parser, "id: 1\ndata: done\n\ndata: half");
+        parser.reset();
+        feed(parser, "data: next\n\n");
+
+        assertEquals(2, this.events.size());
+        assertEquals("next", data(1));
+        assertEquals("1", this.events.get(1).id.get());
+    }
+
+    @Test
+    public void testReconnectsWithLastEventId() throws Exception {
+        final List<String> lastIds = new CopyOnWriteArrayList<>();
+        final AtomicBoolean interrupt = new AtomicBoolean();
+        final CountDownLatch finished = new CountDownLatch(1);
+
+        try (LocalHttpServer server = new LocalHttpServer().handle("/events", exchange -> {
+            lastIds.add(String.valueOf(exchange.getRequestHeaders().getFirst("Last-Event-ID")));
+            if (lastIds.size() == 1) {
+                stream(exchange, "retry: 10\nid: 1\ndata: one\n\nid: 2\ndata: two\n\ndata: cut off");
+            } else {
+                stream(exchange, "id: 3\ndata: three\n\n");
+            }
+        })) {
+            new Thread(() -> {
+                try {
+                    new PavlovHttpClientImpl()
+                        .againstUrl(server.url("/events"))
+                        .withVerb(HttpVerbs.GET)
+                        .withInterrupt(interrupt)
+                        .asSse(event -> {
+                            this.events.add(event);
+                            if (this.events.size() == 3) {
+                                interrupt.set(true);
+                            }
+                        })
+                        .execute(e -> { });
+                } catch (final Exception e) {
+                    // Seen as the latch not counting down
+                    return;
+                }
+                finished.countDown();
+            }).start();
+
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+        }
+
+        assertEquals(3, this.events.size());
+        assertEquals("three", data(2));
+        assertEquals("null", lastIds.get(0));
+        assertEquals("2", lastIds.get(1));
+    }
+
+    private static void stream(final HttpExchange exchange, final String body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void feed(final SseParser parser, final String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        parser.feed(bytes, 0, bytes.length);
+    }
+
+    private String data(final int index) {
+        return this.events.get(index).data.get().get();
+    }
+}
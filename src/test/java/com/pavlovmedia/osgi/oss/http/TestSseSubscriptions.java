@@ -0,0 +1,248 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.nio.NioTransport;
+import com.pavlovmedia.oss.osgi.http.nio.SseSubscription;
+import com.pavlovmedia.oss.osgi.http.nio.SseSubscriptions;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestSseSubscriptions {
+    private static final int FLOOD_EVENTS = 30000;
+
+    private final Map<String, List<String>> lastIds = new ConcurrentHashMap<>();
+    private final AtomicInteger refused = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+    private LocalHttpServer server;
+    private NioTransport transport;
+    private ExecutorService consumers;
+    private SseSubscriptions subscriptions;
+
+    @Before
+    public void start() throws Exception {
+        this.transport = new NioTransport(1, 30000, 4);
+        this.consumers = Executors.newFixedThreadPool(2);
+        this.subscriptions = new SseSubscriptions(this.transport, this.consumers);
+        this.server = new LocalHttpServer()
+                .handle("/events", this::serve)
+                .handle("/flood", this::flood)
+                .handle("/gone", e -> {
+                    this.refused.incrementAndGet();
+                    e.sendResponseHeaders(204, -1);
+                    e.close();
+                });
+    }
+
+    @After
+    public void stop() throws Exception {
+        this.subscriptions.close();
+        this.server.close();
+        this.transport.close();
+        this.consumers.shutdownNow();
+    }
+
+    @Test
+    public void testManyStreamsOnOneLoop() throws Exception {
+        final int count = 50;
+        final CountDownLatch delivered = new CountDownLatch(count * 3);
+        final List<List<String>> received = new ArrayList<>();
+        final List<SseSubscription> opened = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final List<String> events = new CopyOnWriteArrayList<>();
+            received.add(events);
+            opened.add(this.subscriptions.subscribe(request("/events?stream=" + i), event -> {
+                events.add(event.id.get() + ":" + event.data.get().get());
+                delivered.countDown();
+            }));
+        }
+
+        assertTrue(delivered.await(20, TimeUnit.SECONDS));
+        for (final List<String> events : received) {
+            // Each stream is cut off after two events and picked up again with Last-Event-ID
+            assertEquals("1:one", events.get(0));
+            assertEquals("2:two", events.get(1));
+            assertEquals("3:three", events.get(2));
+        }
+        assertTrue(this.lastIds.values().stream().allMatch(ids -> "2".equals(ids.get(1))));
+
+        opened.forEach(SseSubscription::cancel);
+        assertEquals(0, this.subscriptions.getActiveCount());
+        assertTrue(opened.get(0).whenClosed().isDone());
+    }
+
+    @Test
+    public void testNoContentStopsReconnecting() throws Exception {
+        final SseSubscription subscription = this.subscriptions.subscribe(request("/gone"), event -> { });
+        // A 204 is the server saying it is done, not an error
+        assertNull(subscription.whenClosed().get(10, TimeUnit.SECONDS));
+        assertTrue(subscription.isClosed());
+        assertEquals(1, this.refused.get());
+        assertEquals(0, this.subscriptions.getActiveCount());
+    }
+
+    @Test
+    public void testRejectedDeliveryCloses() throws Exception {
+        final ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        final SseSubscriptions nowhere = new SseSubscriptions(this.transport, stopped);
+        try {
+            final SseSubscription subscription = nowhere.subscribe(request("/events?stream=rejected"), event -> { });
+            try {
+                subscription.whenClosed().get(10, TimeUnit.SECONDS);
+                fail("The events had nowhere to go");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(0, nowhere.getActiveCount());
+        } finally {
+            nowhere.close();
+        }
+    }
+
+    @Test
+    public void testSlowConsumerPushesBack() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch delivered = new CountDownLatch(FLOOD_EVENTS);
+        final List<Integer> received = new CopyOnWriteArrayList<>();
+        final SseSubscription subscription = this.subscriptions.subscribe(request("/flood"), event -> {
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(Integer.parseInt(event.id.get()));
+            delivered.countDown();
+        });
+
+        // Wait for the backlog to fill and the server to stall
+        final long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (subscription.getPendingCount() < SseSubscription.MAX_PENDING_EVENTS && System.nanoTime() < until) {
+            Thread.sleep(20);
+        }
+        Thread.sleep(500);
+        final int stalledAt = this.written.get();
+        Thread.sleep(500);
+
+        // One 16k read of 1k events can land after the pause
+        assertTrue("Backlog was " + subscription.getPendingCount(),
+                subscription.getPendingCount() <= SseSubscription.MAX_PENDING_EVENTS + 20);
+        assertTrue("Server wrote " + stalledAt, stalledAt < FLOOD_EVENTS);
+        assertEquals(stalledAt, this.written.get());
+
+        release.countDown();
+        assertTrue(delivered.await(30, TimeUnit.SECONDS));
+        for (int i = 0; i < FLOOD_EVENTS; i++) {
+            assertEquals(i, received.get(i).intValue());
+        }
+        subscription.cancel();
+    }
+
+    @Test
+    public void testConsumerFailuresAreReported() throws Exception {
+        final List<String> debug = new CopyOnWriteArrayList<>();
+        final CountDownLatch delivered = new CountDownLatch(2);
+        final List<String> received = new CopyOnWriteArrayList<>();
+        this.subscriptions.subscribe(request("/events?stream=failing").withDebugger(debug::add), event -> {
+            if ("1".equals(event.id.get())) {
+                throw new IllegalStateException("bad event");
+            }
+            received.add(event.id.get());
+            delivered.countDown();
+        });
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("2", "3"), received);
+        assertTrue(debug.toString(), debug.stream().anyMatch(d -> d.contains("bad event")));
+    }
+
+    private PavlovHttpClientImpl request(final String path) throws Exception {
+        return new PavlovHttpClientImpl()
+                .againstUrl(this.server.url(path))
+                .withVerb(HttpVerbs.GET)
+                .withReadTimeout(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends far more than the socket buffers hold, counting what got written
+     */
+    private void flood(final HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        final char[] padding = new char[1000];
+        Arrays.fill(padding, 'x');
+        final String data = new String(padding);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < FLOOD_EVENTS; i++) {
+                out.write(("id: " + i + "\ndata: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+                this.written.incrementAndGet();
+            }
+            out.flush();
+            while (true) {
+                Thread.sleep(200);
+                out.write(": ping\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The first connection of each stream sends two events and closes, later
+     * connections send the third event and stay open with keep alive comments
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        final String stream = exchange.getRequestURI().getQuery();
+        final List<String> ids = this.lastIds.computeIfAbsent(stream, s -> new CopyOnWriteArrayList<>());
+        ids.add(String.valueOf(exchange.getRequestHeaders().getFirst("Last-Event-ID")));
+
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (ids.size() == 1) {
+                out.write("retry: 10\nid: 1\ndata: one\n\nid: 2\ndata: two\n\n".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            out.write("id: 3\ndata: three\n\n".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            while (true) {
+                Thread.sleep(200);
+                out.write(": ping\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.Deadline;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.HttpTransport;
+import com.pavlovmedia.oss.osgi.http.HttpVerbs;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.nio.NioTransport;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestTimeouts {
+    @Test
+    public void testDeadlineBound() {
+        final Deadline deadline = Deadline.in(10, TimeUnit.SECONDS);
+        assertFalse(deadline.isExpired());
+        assertEquals(500, deadline.bound(500));
+        assertTrue(deadline.bound(0) <= 10000);
+        assertTrue(deadline.bound(60000) <= 10000);
+
+        final Deadline passed = Deadline.in(0, TimeUnit.MILLISECONDS);
+        assertTrue(passed.isExpired());
+        assertEquals(1, passed.bound(0));
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception {
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/stall", TestTimeouts::stall);
+            assertTimesOut(new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/stall"))
+                    .withVerb(HttpVerbs.GET)
+                    .withReadTimeout(200, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testDeadlineBeforeHeaders() throws Exception {
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/stall", TestTimeouts::stall);
+            final List<Exception> errors = assertTimesOut(new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/stall"))
+                    .withVerb(HttpVerbs.GET)
+                    .withDeadline(300, TimeUnit.MILLISECONDS));
+            assertTrue(errors.get(0).getMessage().contains("deadline"));
+        }
+    }
+
+    @Test
+    public void testDeadlineCoversBody() throws Exception {
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/trickle", e -> {
+                e.sendResponseHeaders(200, 0);
+                final OutputStream out = e.getResponseBody();
+                out.write("partial".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                stall(e);
+            });
+
+            final long start = System.nanoTime();
+            final Optional<HttpResponse> response = new PavlovHttpClientImpl()
+                    .againstUrl(server.url("/trickle"))
+                    .withVerb(HttpVerbs.GET)
+                    .withDeadline(500, TimeUnit.MILLISECONDS)
+                    .execute(e -> { });
+            assertTrue(response.isPresent());
+
+            final List<Exception> errors = new ArrayList<>();
+            response.get().getResponseText(errors::add);
+            assertFalse(errors.isEmpty());
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2500);
+        }
+    }
+
+    @Test
+    public void testNioReadTimeout() throws Exception {
+        final NioTransport transport = new NioTransport();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/stall", TestTimeouts::stall);
+            assertTimesOut(client(transport, server.url("/stall"))
+                    .withReadTimeout(200, TimeUnit.MILLISECONDS));
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testNioDeadline() throws Exception {
+        final NioTransport transport = new NioTransport();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/stall", TestTimeouts::stall);
+            final List<Exception> errors = assertTimesOut(client(transport, server.url("/stall"))
+                    .withDeadline(300, TimeUnit.MILLISECONDS));
+            assertTrue(errors.get(0).getMessage().contains("deadline"));
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void testNioDeadlineOnReusedConnection() throws Exception {
+        // One loop, so the second request picks up the connection the first left idle
+        final NioTransport transport = new NioTransport(1, 30000, 8);
+        final AtomicInteger stalled = new AtomicInteger();
+        try (LocalHttpServer server = new LocalHttpServer()) {
+            server.handle("/ok", e -> LocalHttpServer.respond(e, 200, "ok".getBytes(StandardCharsets.UTF_8)));
+            server.handle("/stall", e -> {
+                stalled.incrementAndGet();
+                stall(e);
+            });
+            final List<Exception> errors = new ArrayList<>();
+            client(transport, server.url("/ok")).execute(errors::add).ifPresent(HttpResponse::close);
+            assertTrue(errors.isEmpty());
+
+            final List<Exception> timeouts = assertTimesOut(client(transport, server.url("/stall"))
+                    .withDeadline(500, TimeUnit.MILLISECONDS));
+            assertTrue(timeouts.get(0).getMessage().contains("deadline"));
+            // Give a retry the time it would need to reach the server
+            Thread.sleep(300);
+            assertEquals(1, stalled.get());
+        } finally {
+            transport.close();
+        }
+    }
+
+    private static PavlovHttpClientImpl client(final HttpTransport transport, final URL url) {
+        return new PavlovHttpClientImpl()
+                .againstUrl(url)
+                .withVerb(HttpVerbs.GET)
+                .withTransport(transport);
+    }
+
+    private static List<Exception> assertTimesOut(final PavlovHttpClientImpl client) {
+        final List<Exception> errors = new ArrayList<>();
+        final long start = System.nanoTime();
+        assertFalse(client.execute(errors::add).isPresent());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2500);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0) instanceof SocketTimeoutException);
+        return errors;
+    }
+
+    private static void stall(final HttpExchange exchange) {
+        try {
+            Thread.sleep(5000);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        exchange.close();
+    }
+}
@@ -1,6 +1,8 @@
 package com.pavlovmedia.osgi.oss.http;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 
 import java.net.URL;
 
@@ -67,4 +69,35 @@ public class TestUrlHelpers {
         assertEquals(new URL("http://a/b/"), 
                 UrlHelpers.fullUrlFromReference("/b/", new URL("http://a"), System.out::println).get());
     }
+    
+    @Test
+    public void testOriginOf() throws Exception {
+        assertEquals("https://example.com:443", UrlHelpers.originOf(new URL("HTTPS://Example.COM/a?b")));
+        assertEquals("http://a:8080", UrlHelpers.originOf(new URL("http://a:8080/")));
+    }
+    
+    @Test
+    public void testKeyNormalizes() throws Exception {
+        assertEquals("http://example.com/a/c/?q=%7B1%7D", 
+                UrlHelpers.keyOf(new URL("HTTP://Example.COM.:80/a/b/../%63/./?q={1}#top")).toString());
+        assertEquals("https://example.com/", UrlHelpers.keyOf(new URL("https://example.com:443")).toString());
+        assertEquals("https://example.com:8443/x%2Fy/%C3%A9%20z", 
+                UrlHelpers.keyOf(new URL("https://example.com:8443/x%2fy/\u00e9 z")).toString());
+        assertEquals("http://a/b/~c%25", UrlHelpers.keyOf(new URL("http://a/b/%7ec%")).toString());
+    }
+    
+    @Test
+    public void testKeyEquality() throws Exception {
+        final UrlHelpers.UrlKey key = UrlHelpers.keyOf(new URL("http://a/x/../b"));
+        final UrlHelpers.UrlKey same = UrlHelpers.keyOf("http://A:80/b#frag", System.out::println).get();
+        
+        assertEquals(key, same);
+        assertEquals(key.hashCode(), same.hashCode());
+        // Paths are case sensitive
+        assertNotEquals(key, UrlHelpers.keyOf(new URL("http://a/B")));
+        assertNotEquals(key, UrlHelpers.keyOf(new URL("https://a/b")));
+        assertEquals("http://a:80", key.getOrigin());
+        assertEquals(new URL("http://a/b"), key.toUrl());
+        assertFalse(UrlHelpers.keyOf("not a url", e -> { }).isPresent());
+    }
 }
@@ -0,0 +1,118 @@
+package com.pavlovmedia.osgi.oss.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import com.pavlovmedia.oss.osgi.http.BloomVisitedSet;
+import com.pavlovmedia.oss.osgi.http.FingerprintVisitedSet;
+import com.pavlovmedia.oss.osgi.http.HttpResponse;
+import com.pavlovmedia.oss.osgi.http.InMemoryTransport;
+import com.pavlovmedia.oss.osgi.http.PavlovHttpClientImpl;
+import com.pavlovmedia.oss.osgi.http.Spider;
+import com.pavlovmedia.oss.osgi.http.UrlHelpers;
+import com.pavlovmedia.oss.osgi.http.UrlHelpers.UrlKey;
+
+/**
+ *
+ * @author Shawn Dempsay {@literal <sdempsay@pavlovmedia.com>}
+ *
+ */
+public class TestVisitedSet {
+    @Test
+    public void testFingerprintSetIsExact() {
+        exact(new FingerprintVisitedSet());
+    }
+
+    @Test
+    public void testFingerprintSetOffHeap() {
+        exact(new FingerprintVisitedSet(100, true));
+    }
+
+    @Test
+    public void testFingerprintSetSize() {
+        final FingerprintVisitedSet set = new FingerprintVisitedSet(1000000, false);
+        // Room for a million urls at 16 bytes each, rounded up to a power of two
+        assertEquals(16L * 1024 * 1024, set.getTableBytes());
+    }
+
+    @Test
+    public void testFingerprintSetLimits() {
+        // A direct buffer holds at most 2GB, so off the heap the table tops out at 2^27 slots
+        assertEquals((long) ((1 << 27) * 0.6), FingerprintVisitedSet.MAX_OFF_HEAP_URLS);
+        assertEquals((long) ((1 << 28) * 0.6), FingerprintVisitedSet.MAX_HEAP_URLS);
+        tooMany(FingerprintVisitedSet.MAX_OFF_HEAP_URLS + 1, true);
+        tooMany(FingerprintVisitedSet.MAX_HEAP_URLS + 1, false);
+        // Past the old overflow, but still refused up front instead of by the buffer
+        tooMany(100000000, true);
+    }
+
+    @Test
+    public void testBloomSetFalsePositiveRate() {
+        final BloomVisitedSet set = new BloomVisitedSet(100000, 0.01, true);
+        for (int i = 0; i < 100000; i++) {
+            set.add(key(i));
+        }
+        // Never misses a url it was given
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(set.contains(key(i)));
+        }
+        int mistaken = 0;
+        for (int i = 100000; i < 200000; i++) {
+            if (set.contains(key(i))) {
+                mistaken++;
+            }
+        }
+        assertTrue("Mistook " + mistaken + " new urls", mistaken < 1500);
+        assertEquals(7, set.getHashCount());
+        assertTrue(set.getTableBytes() < 10 * 100000 / 8 + 8);
+    }
+
+    @Test
+    public void testSpiderUsesTheSet() throws Exception {
+        final InMemoryTransport site = new InMemoryTransport(r -> InMemoryTransport.respond(200, "done"));
+        final FingerprintVisitedSet visited = new FingerprintVisitedSet();
+        final Map<URL, HttpResponse> accumulator = new ConcurrentHashMap<>();
+        new Spider(new PavlovHttpClientImpl().withTransport(site))
+            .setVisitedSet(() -> visited)
+            .doSpider(new URL("http://127.0.0.1:9/a"), u -> true, u -> true, accumulator, e -> { });
+
+        assertEquals(1, accumulator.size());
+        assertTrue(visited.contains(UrlHelpers.keyOf(new URL("http://127.0.0.1:9/a"))));
+    }
+
+    private static void exact(final FingerprintVisitedSet set) {
+        final int count = 200000;
+        for (int i = 0; i < count; i++) {
+            assertTrue(set.add(key(i)));
+        }
+        for (int i = 0; i < count; i++) {
+            assertFalse(set.add(key(i)));
+            assertTrue(set.contains(key(i)));
+        }
+        for (int i = count; i < count * 2; i++) {
+            assertFalse(set.contains(key(i)));
+        }
+        assertEquals(count, set.size());
+    }
+
+    private static void tooMany(final long expected, final boolean offHeap) {
+        try {
+            new FingerprintVisitedSet(expected, offHeap);
+            fail("Made room for " + expected + " urls");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("A fingerprint set can't hold"));
+        }
+    }
+
+    private static UrlKey key(final int i) {
+        return UrlHelpers.keyOf("http://example.com/repo/" + (i % 97) + "/page-" + i, e -> { }).get();
+    }
+}